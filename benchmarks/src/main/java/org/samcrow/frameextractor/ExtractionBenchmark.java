@@ -0,0 +1,145 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures end-to-end extraction throughput, in frames per second, for each
+ * extraction mode.
+ * <p/>
+ * A synthetic clip is generated with ffmpeg's test source before the
+ * benchmark runs, so no video files need to be supplied. ffmpeg is found
+ * the same way as in FrameExtractor; set the
+ * <code>frameextractor.ffmpeg</code> system property (for example with
+ * <code>-jvmArgs -Dframeextractor.ffmpeg=/usr/bin/ffmpeg</code>) to use
+ * another executable.
+ * <p/>
+ * @author Sam Crow
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ExtractionBenchmark.FRAMES)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractionBenchmark {
+
+    private static final int SECONDS = 40;
+
+    private static final int FRAME_RATE = 30;
+
+    static final int FRAMES = SECONDS * FRAME_RATE;
+
+    /**
+     * ffmpeg: ffmpeg encodes JPEG images. segments: 4 ffmpeg processes.
+     * encoders: Java encodes JPEG images. archive: Java encodes into one
+     * archive file.
+     */
+    @Param({ "ffmpeg", "segments", "encoders", "archive" })
+    public String mode;
+
+    @Param({ "640x360" })
+    public String size;
+
+    private File directory;
+
+    private File clip;
+
+    private File output;
+
+    private ExtractionSettings settings;
+
+    @Setup(Level.Trial)
+    public void createClip() throws Exception {
+        directory = Files.createTempDirectory("extraction-benchmark").toFile();
+        clip = generateClip(directory, "testsrc", SECONDS, size, FRAME_RATE, "setsar=1");
+        output = new File(directory, "frames");
+
+        settings = new ExtractionSettings();
+        settings.setResume(false);
+        //Keep probe results in memory only
+        settings.setProbeCache(new ProbeCache(null, 16));
+        switch (mode) {
+            case "ffmpeg":
+                break;
+            case "segments":
+                settings.setSegments(4);
+                break;
+            case "encoders":
+                settings.setEncoderThreads(Runtime.getRuntime().availableProcessors());
+                break;
+            case "archive":
+                settings.setArchive(true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+    }
+
+    /**
+     * Generates a synthetic clip named clip.mp4 with one of ffmpeg's test
+     * sources. ffmpeg's log is written to generate.log in the same
+     * directory.
+     * @param directory The directory to write the clip in
+     * @param source The name of the test source, such as testsrc
+     * @param seconds The length of the clip
+     * @param size The frame size, such as 640x360
+     * @param frameRate The frame rate
+     * @param filter The filters to apply to the test source
+     * @return The clip
+     * @throws Exception if ffmpeg could not be found or could not generate
+     * the clip
+     */
+    static File generateClip(File directory, String source, int seconds, String size, int frameRate, String filter)
+            throws Exception {
+        final File clip = new File(directory, "clip.mp4");
+        final ProcessBuilder builder = new ProcessBuilder(FFMpeg.getPath(), "-y", "-f", "lavfi",
+                "-i", source + "=duration=" + seconds + ":size=" + size + ":rate=" + frameRate,
+                "-vf", filter, "-pix_fmt", "yuv420p", clip.getAbsolutePath());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(directory, "generate.log"));
+        final int exitCode = builder.start().waitFor();
+        if (exitCode != 0) {
+            throw new IOException("ffmpeg could not generate the test clip; see " + directory + "/generate.log");
+        }
+        return clip;
+    }
+
+    @Setup(Level.Invocation)
+    public void clearOutput() throws IOException {
+        FileUtils.deleteDirectory(output);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteClip() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public long extract() throws Exception {
+        final ExtractionResult result = new ExtractionJob(clip.getAbsolutePath(), output.getAbsolutePath(), settings)
+                .run(ProgressListener.NONE);
+        if (result.getFrames() < FRAMES - 1) {
+            throw new IllegalStateException("Only " + result.getFrames() + " of " + FRAMES + " frames were extracted");
+        }
+        return result.getFrames();
+    }
+}
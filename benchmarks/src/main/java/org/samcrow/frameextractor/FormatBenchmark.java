@@ -0,0 +1,151 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures extraction throughput, in frames per second, for each output
+ * image profile, and prints the average size of the images that each
+ * profile writes.
+ * <p/>
+ * Profiles are a format name followed by optional comma-separated options:
+ * <code>quality=Q</code> and <code>gray</code>. The synthetic clip is
+ * generated by {@link ExtractionBenchmark#generateClip}, with noise added.
+ * Image sizes are measured after each iteration, outside the timed code.
+ * <p/>
+ * @author Sam Crow
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(FormatBenchmark.FRAMES)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatBenchmark {
+
+    private static final int SECONDS = 20;
+
+    private static final int FRAME_RATE = 30;
+
+    static final int FRAMES = SECONDS * FRAME_RATE;
+
+    @Param({ "jpg", "jpg,quality=2", "jpg,quality=10", "jpg,gray", "png", "png,quality=1", "png,gray", "ppm", "pgm" })
+    public String profile;
+
+    /**
+     * ffmpeg: ffmpeg encodes the images. encoders: Java encodes the images.
+     */
+    @Param({ "ffmpeg", "encoders" })
+    public String encoder;
+
+    @Param({ "1280x720" })
+    public String size;
+
+    private File directory;
+
+    private File clip;
+
+    private File output;
+
+    private ExtractionSettings settings;
+
+    /**
+     * The number of frames that the last invocation extracted
+     */
+    private long lastFrames;
+
+    private long frames;
+
+    private long bytes;
+
+    @Setup(Level.Trial)
+    public void createClip() throws Exception {
+        directory = Files.createTempDirectory("format-benchmark").toFile();
+        //A moving pattern with noise, so that compressed sizes are closer to camera footage
+        clip = ExtractionBenchmark.generateClip(directory, "testsrc2", SECONDS, size, FRAME_RATE, "noise=alls=12:allf=t,setsar=1");
+        output = new File(directory, "frames");
+
+        settings = new ExtractionSettings();
+        settings.setResume(false);
+        settings.setProbeCache(new ProbeCache(null, 16));
+        final String[] parts = profile.split(",");
+        settings.setImageFormat(ImageFormat.forName(parts[0]));
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].equals("gray")) {
+                settings.setGrayscale(true);
+            }
+            else if (parts[i].startsWith("quality=")) {
+                settings.setImageQuality(Integer.parseInt(parts[i].substring("quality=".length())));
+            }
+            else {
+                throw new IllegalArgumentException("Unknown profile option " + parts[i]);
+            }
+        }
+        switch (encoder) {
+            case "ffmpeg":
+                break;
+            case "encoders":
+                settings.setEncoderThreads(Runtime.getRuntime().availableProcessors());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown encoder " + encoder);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearOutput() throws IOException {
+        FileUtils.deleteDirectory(output);
+    }
+
+    /**
+     * Measures the images of the last invocation, which are still in the
+     * output directory
+     */
+    @TearDown(Level.Iteration)
+    public void measureOutput() {
+        final OutputLayout layout = settings.getLayout();
+        long total = 0;
+        for (long i = 1; i <= lastFrames; i++) {
+            total += layout.fileFor(output, clip.getName(), i).length();
+        }
+        frames = lastFrames;
+        bytes = total;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteClip() throws IOException {
+        if (frames > 0) {
+            System.out.println("Profile " + profile + " with " + encoder + ": " + bytes / frames + " bytes per frame");
+        }
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public long extract() throws Exception {
+        final ExtractionResult result = new ExtractionJob(clip.getAbsolutePath(), output.getAbsolutePath(), settings)
+                .run(ProgressListener.NONE);
+        if (result.getFrames() < FRAMES - 1) {
+            throw new IllegalStateException("Only " + result.getFrames() + " of " + FRAMES + " frames were extracted");
+        }
+        lastFrames = result.getFrames();
+        return result.getFrames();
+    }
+}
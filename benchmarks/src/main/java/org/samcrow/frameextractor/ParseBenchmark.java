@@ -0,0 +1,88 @@
+package org.samcrow.frameextractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of ffmpeg output, using sample output that is stored
+ * with the benchmarks, so that no ffmpeg process is run.
+ * <p/>
+ * The progress samples are one ffmpeg run of 400 progress updates, written
+ * in the <code>-progress</code> format and in the old statistics line format
+ * that is parsed as a fallback.
+ * <p/>
+ * @author Sam Crow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+    private byte[] progressOutput;
+
+    private byte[] statisticsOutput;
+
+    private String[] probeLines;
+
+    @Setup
+    public void setUp() throws IOException {
+        progressOutput = readSample("progress-output.txt");
+        statisticsOutput = readSample("stats-output.txt");
+        probeLines = new String(readSample("probe-output.txt"), StandardCharsets.UTF_8).split("\n");
+    }
+
+    private static byte[] readSample(String name) throws IOException {
+        try (InputStream in = ParseBenchmark.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing sample " + name);
+            }
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    @Benchmark
+    public long parseInterval() throws ParseException {
+        return FFMpegProcess.parseInterval("01:02:13.47");
+    }
+
+    @Benchmark
+    public long progressStream() throws IOException, ParseException {
+        final ProgressParser parser = new ProgressParser();
+        parser.read(new ByteArrayInputStream(progressOutput), ProgressListener.NONE);
+        return parser.getFrame();
+    }
+
+    @Benchmark
+    public long statisticsFallback() throws IOException, ParseException {
+        final ProgressParser parser = new ProgressParser();
+        parser.read(new ByteArrayInputStream(statisticsOutput), ProgressListener.NONE);
+        return parser.getFrame();
+    }
+
+    @Benchmark
+    public VideoInfo probeOutput() throws ParseException {
+        final VideoInfo info = new VideoInfo();
+        for (String line : probeLines) {
+            VideoProber.parseLine(line, info);
+        }
+        return info;
+    }
+}
@@ -0,0 +1,148 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Appends encoded frames to one archive file, in the format that
+ * {@link FrameArchive} reads.
+ * <p/>
+ * Frames are appended in the order they arrive, which may not be frame
+ * number order. The index is written when the sink is closed, so an archive
+ * that was never closed, for example because the JVM died, has no index and
+ * cannot be opened. An extraction that is cancelled or fails calls
+ * {@link #abort()} instead of closing the sink, which leaves its archive
+ * without an index in the same way.
+ * <p/>
+ * @author Sam Crow
+ */
+class ArchiveFrameSink implements FrameSink {
+
+    /**
+     * The number of index entries to write at once
+     */
+    private static final int INDEX_BATCH = 4096;
+
+    private final FileChannel channel;
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * The offset where the next frame will be written
+     */
+    private long position;
+
+    private boolean closed = false;
+
+    /**
+     * Creates an archive, replacing any existing file
+     * @param file The archive file
+     * @throws IOException if the file could not be created
+     */
+    public ArchiveFrameSink(File file) throws IOException {
+        //Replace the file instead of truncating it, because it may be a hard link to a file in an extraction cache
+        Files.deleteIfExists(file.toPath());
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writeFully(ByteBuffer.wrap(FrameArchive.HEADER));
+        position = FrameArchive.HEADER.length;
+    }
+
+    @Override
+    public synchronized void write(long frameNumber, double timestamp, byte[] data, int length) throws IOException {
+        writeFully(ByteBuffer.wrap(data, 0, length));
+        entries.add(new Entry(frameNumber, timestamp, position, length));
+        position += length;
+    }
+
+    /**
+     * Closes the file without writing the index, so that the incomplete
+     * archive cannot be opened
+     * @throws IOException if the file could not be closed
+     */
+    public synchronized void abort() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        channel.close();
+    }
+
+    /**
+     * Writes the index and closes the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            Collections.sort(entries, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry e1, Entry e2) {
+                    return Long.compare(e1.frameNumber, e2.frameNumber);
+                }
+            });
+            final long indexOffset = position;
+            final ByteBuffer buffer = ByteBuffer.allocate(INDEX_BATCH * FrameArchive.ENTRY_SIZE);
+            for (Entry entry : entries) {
+                if (buffer.remaining() < FrameArchive.ENTRY_SIZE) {
+                    buffer.flip();
+                    writeFully(buffer);
+                    buffer.clear();
+                }
+                buffer.putLong(entry.frameNumber);
+                buffer.putDouble(entry.timestamp);
+                buffer.putLong(entry.offset);
+                buffer.putInt(entry.length);
+            }
+            buffer.flip();
+            writeFully(buffer);
+
+            final ByteBuffer trailer = ByteBuffer.allocate(FrameArchive.TRAILER_SIZE);
+            trailer.putLong(entries.size());
+            trailer.putLong(indexOffset);
+            trailer.put(FrameArchive.FOOTER);
+            trailer.flip();
+            writeFully(trailer);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * The location of one frame
+     */
+    private static class Entry {
+
+        final long frameNumber;
+
+        final double timestamp;
+
+        final long offset;
+
+        final int length;
+
+        Entry(long frameNumber, double timestamp, long offset, int length) {
+            this.frameNumber = frameNumber;
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many {@link ExtractionJob}s on a fixed-size pool of worker threads.
+ * <p/>
+ * Each worker runs one job at a time, so the number of workers bounds the
+ * number of concurrent jobs. It does not bound the number of ffmpeg
+ * processes: a job that extracts segments or selected frames runs several
+ * processes at once, and a job that uses a {@link Coordinator} runs its
+ * processes on other machines.
+ * <p/>
+ * @author Sam Crow
+ */
+public class BatchExtractor {
+
+    private final int workers;
+
+    private final List<ExtractionJob> jobs = new ArrayList<>();
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Constructor
+     * @param workers The number of jobs to run at the same time
+     */
+    public BatchExtractor(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Creates a batch extractor with {@link #defaultWorkerCount()} workers
+     */
+    public BatchExtractor() {
+        this(defaultWorkerCount());
+    }
+
+    /**
+     * @return The default number of workers, which is the number of
+     * processors available to the JVM
+     */
+    public static int defaultWorkerCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void add(ExtractionJob job) {
+        jobs.add(job);
+    }
+
+    /**
+     * Cancels all jobs. Jobs that have not started will not be run.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (ExtractionJob job : jobs) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Runs all added jobs and waits for them to finish
+     * <p/>
+     * @param log A stream to print job start and completion messages to
+     * @return The outcomes of the jobs, in the order they were added
+     * @throws InterruptedException if this thread is interrupted while waiting
+     */
+    public Report run(final PrintStream log) throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, new WorkerThreadFactory());
+        final int total = jobs.size();
+        final AtomicInteger finished = new AtomicInteger();
+
+        final List<Future<ExtractionResult>> futures = new ArrayList<>(total);
+        try {
+            probeAll(executor, log);
+
+            for (final ExtractionJob job : jobs) {
+                futures.add(executor.submit(new Callable<ExtractionResult>() {
+                    @Override
+                    public ExtractionResult call() throws Exception {
+                        if (cancelled) {
+                            return new ExtractionResult(job.getVideoPath(), 0, 0, true);
+                        }
+                        log.println("Starting " + job.getVideoPath());
+                        try {
+                            ExtractionResult result = job.run(ProgressListener.NONE);
+                            log.println("[" + finished.incrementAndGet() + "/" + total + "] Finished "
+                                    + job.getVideoPath() + ": " + result.getFrames() + " frames in "
+                                    + formatSeconds(result.getElapsedMillis()));
+                            return result;
+                        }
+                        catch (Exception e) {
+                            log.println("[" + finished.incrementAndGet() + "/" + total + "] Failed "
+                                    + job.getVideoPath() + ": " + e.getLocalizedMessage());
+                            if (e instanceof FFMpegException) {
+                                for (String line : ((FFMpegException) e).getLogTail()) {
+                                    log.println("    " + line);
+                                }
+                            }
+                            throw e;
+                        }
+                    }
+                }));
+            }
+
+            final Report report = new Report();
+            for (int i = 0; i < total; i++) {
+                final ExtractionJob job = jobs.get(i);
+                try {
+                    report.outcomes.add(new Outcome(job, futures.get(i).get(), null));
+                }
+                catch (ExecutionException e) {
+                    report.outcomes.add(new Outcome(job, null, e.getCause()));
+                }
+            }
+            report.elapsedMillis = System.currentTimeMillis() - startTime;
+            return report;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Probes all videos in parallel, so that the probe results are cached
+     * before extraction starts. Videos that cannot be probed are left for
+     * their jobs to report.
+     */
+    private void probeAll(ExecutorService executor, PrintStream log) throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        final List<Future<VideoInfo>> probes = new ArrayList<>(jobs.size());
+        for (final ExtractionJob job : jobs) {
+            probes.add(executor.submit(new Callable<VideoInfo>() {
+                @Override
+                public VideoInfo call() throws Exception {
+                    return job.probe();
+                }
+            }));
+        }
+        for (Future<VideoInfo> probe : probes) {
+            try {
+                probe.get();
+            }
+            catch (ExecutionException e) {
+                //The job will fail with the same exception when it runs
+            }
+        }
+        log.println("Probed " + jobs.size() + " videos in " + formatSeconds(System.currentTimeMillis() - startTime));
+    }
+
+    private static String formatSeconds(long millis) {
+        return String.format("%.1f s", millis / 1000.0);
+    }
+
+    /**
+     * The outcome of one job: either a result or an exception
+     */
+    public static class Outcome {
+
+        public final ExtractionJob job;
+
+        /**
+         * The result, or null if the job failed
+         */
+        public final ExtractionResult result;
+
+        /**
+         * The exception that caused the job to fail, or null if it did not fail
+         */
+        public final Throwable failure;
+
+        public Outcome(ExtractionJob job, ExtractionResult result, Throwable failure) {
+            this.job = job;
+            this.result = result;
+            this.failure = failure;
+        }
+
+        public boolean succeeded() {
+            return failure == null && result != null && !result.isCancelled();
+        }
+    }
+
+    /**
+     * The outcomes of all jobs in a batch, with overall throughput
+     */
+    public static class Report {
+
+        public final List<Outcome> outcomes = new ArrayList<>();
+
+        /**
+         * The wall-clock time the whole batch took, in milliseconds
+         */
+        public long elapsedMillis;
+
+        public int getFailureCount() {
+            int failures = 0;
+            for (Outcome outcome : outcomes) {
+                if (!outcome.succeeded()) {
+                    failures++;
+                }
+            }
+            return failures;
+        }
+
+        public long getTotalFrames() {
+            long frames = 0;
+            for (Outcome outcome : outcomes) {
+                if (outcome.result != null) {
+                    frames += outcome.result.getFrames();
+                }
+            }
+            return frames;
+        }
+
+        /**
+         * Prints a table of per-job throughput followed by the overall
+         * throughput
+         * @param out The stream to print to
+         */
+        public void print(PrintStream out) {
+            out.println(String.format("%-40s %10s %10s %10s", "Video", "Frames", "Seconds", "Frames/s"));
+            for (Outcome outcome : outcomes) {
+                final String name = new File(outcome.job.getVideoPath()).getName();
+                if (outcome.failure != null) {
+                    out.println(String.format("%-40s FAILED: %s", name, outcome.failure.getLocalizedMessage()));
+                }
+                else if (outcome.result.isCancelled()) {
+                    out.println(String.format("%-40s CANCELLED", name));
+                }
+                else {
+                    final ExtractionResult result = outcome.result;
+                    out.println(String.format("%-40s %10d %10.1f %10.1f", name, result.getFrames(),
+                            result.getElapsedMillis() / 1000.0, result.getFramesPerSecond()));
+                }
+            }
+            final double seconds = elapsedMillis / 1000.0;
+            out.println(String.format("Total: %d videos (%d failed), %d frames in %.1f s, %.1f frames/s",
+                    outcomes.size(), getFailureCount(), getTotalFrames(), seconds,
+                    seconds == 0 ? 0 : getTotalFrames() / seconds));
+        }
+    }
+
+    /**
+     * Creates named daemon worker threads
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "extraction-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
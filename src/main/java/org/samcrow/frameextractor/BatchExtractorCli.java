@@ -0,0 +1,649 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command-line entry point that extracts frames from many videos without a
+ * display
+ * <p/>
+ * @author Sam Crow
+ */
+public class BatchExtractorCli {
+
+    private static final String USAGE
+            = "Usage: java -cp FrameExtractor.jar org.samcrow.frameextractor.BatchExtractorCli [options] input...\n"
+            + "Options:\n"
+            + "  -o, --output DIR       Directory to put frames in. Each video gets a subdirectory\n"
+            + "                         named after the video file. Required.\n"
+            + "  -r, --frame-rate FPS   Frame rate to extract frames at (default: the video's own)\n"
+            + "  -j, --jobs N           Number of videos to extract at the same time\n"
+            + "                         (default: number of processors)\n"
+            + "  -s, --segments N       Split each video into N time ranges that are extracted\n"
+            + "                         by separate ffmpeg processes at the same time\n"
+            + "  -e, --encoders N       Encode images on N threads in Java instead of in ffmpeg\n"
+            + "      --shard N          Put frames in numbered subdirectories of N frames each\n"
+            + "      --archive          Write each video's frames to one .frames archive file\n"
+            + "      --passthrough      Extract every decoded frame once, at its own time, instead\n"
+            + "                         of resampling to a constant frame rate (for variable\n"
+            + "                         frame rate video)\n"
+            + "      --keyframes        Extract only keyframes, without decoding other frames\n"
+            + "      --scenes T         Extract only frames that start a new scene, where T is the\n"
+            + "                         scene change threshold between 0 and 1 (0.4 works well)\n"
+            + "      --also SPEC        Also write each frame to another directory, decoding the\n"
+            + "                         video only once. SPEC is DIR[,size=WxH][,format=jpg|png]\n"
+            + "                         [,quality=Q]. DIR is relative to the video's directory,\n"
+            + "                         and -1 in the size keeps the aspect ratio. Repeatable.\n"
+            + "      --format F         Write images as jpg (the default), png, ppm, or pgm\n"
+            + "      --quality Q        JPEG quantizer from 2 (best) to 31 (smallest), or PNG\n"
+            + "                         compression level from 0 (fastest) to 9 (smallest)\n"
+            + "      --gray             Convert frames to 8-bit grayscale\n"
+            + "      --crop WxH+X+Y     Extract only a W by H region whose top left corner is at\n"
+            + "                         X,Y, in the video's stored pixels\n"
+            + "      --scaling POLICY   How non-square pixels are scaled: none, fast, bicubic\n"
+            + "                         (the default), or quality\n"
+            + "      --dedup D          Skip frames whose perceptual hash is within D bits (0-64)\n"
+            + "                         of the last written frame (4 skips noise-only changes)\n"
+            + "      --frames LIST      Extract only these frame numbers\n"
+            + "      --times LIST       Extract only the frames at these times, in seconds\n"
+            + "                         LIST is comma-separated, or @FILE to read one per line\n"
+            + "      --stall-timeout S  Stop ffmpeg and fail the video if it makes no progress\n"
+            + "                         for S seconds (default 120, 0 for no limit)\n"
+            + "      --time-limit S     Stop ffmpeg and fail the video if one ffmpeg process\n"
+            + "                         runs for more than S seconds (default no limit)\n"
+            + "      --cache DIR        Keep finished extractions in DIR, and restore them by\n"
+            + "                         hard links when the same video is extracted again\n"
+            + "                         with the same options\n"
+            + "      --cache-size GB    Maximum size of the --cache directory (default 20)\n"
+            + "      --watch            Treat the inputs as directories to watch, and extract\n"
+            + "                         each new video once, until stopped\n"
+            + "      --settle S         With --watch, wait until a file has not changed for\n"
+            + "                         S seconds before extracting it (default 10)\n"
+            + "      --live             Extract the one input while it is still being written:\n"
+            + "                         a growing file, a named pipe, or - for standard input\n"
+            + "      --live-idle S      With --live, treat a growing file as finished once it\n"
+            + "                         has not grown for S seconds (default 30)\n"
+            + "      --coordinator PORT Listen for workers on PORT, and give them the segments\n"
+            + "                         of each video to extract. Workers must see the videos\n"
+            + "                         and the output directory at the same paths.\n"
+            + "      --worker HOST:PORT Extract segments for the coordinator at HOST:PORT,\n"
+            + "                         N at a time with -j N, instead of extracting inputs\n"
+            + "      --metrics FILE     Append job events to FILE as JSON lines\n"
+            + "      --no-resume        Extract every video from the start, even if a previous\n"
+            + "                         run was interrupted or finished\n"
+            + "  -l, --list FILE        Read additional inputs from FILE, one per line\n"
+            + "  -h, --help             Show this message\n"
+            + "Inputs may be file paths or glob patterns, for example 'videos/**/*.mp4'.\n"
+            + "Quote glob patterns so that the shell does not expand them.";
+
+    /**
+     * The default maximum size of the extraction cache, in gigabytes
+     */
+    private static final double DEFAULT_CACHE_GIGABYTES = 20;
+
+    /**
+     * The time between progress lines in live mode, in milliseconds
+     */
+    private static final long LIVE_PRINT_INTERVAL = 5000;
+
+    public static void main(String[] args) {
+        String outputPath = null;
+        final ExtractionSettings settings = new ExtractionSettings();
+        int workers = BatchExtractor.defaultWorkerCount();
+        final List<String> inputs = new ArrayList<>();
+        //The quality is set after the format, because its range depends on the format
+        int quality = -1;
+        boolean watch = false;
+        File cacheDirectory = null;
+        double cacheGigabytes = DEFAULT_CACHE_GIGABYTES;
+        long settleMillis = FolderWatcher.DEFAULT_SETTLE_MILLIS;
+        boolean live = false;
+        long liveIdleMillis = LiveExtraction.DEFAULT_IDLE_TIMEOUT;
+        int coordinatorPort = -1;
+        String workerHost = null;
+        int workerPort = -1;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                final String arg = args[i];
+                switch (arg) {
+                    case "-o":
+                    case "--output":
+                        outputPath = requireValue(args, ++i, arg);
+                        break;
+                    case "-r":
+                    case "--frame-rate":
+                        settings.setFrameRate(Double.parseDouble(requireValue(args, ++i, arg)));
+                        break;
+                    case "-j":
+                    case "--jobs":
+                        workers = Integer.parseInt(requireValue(args, ++i, arg));
+                        break;
+                    case "-s":
+                    case "--segments":
+                        settings.setSegments(Integer.parseInt(requireValue(args, ++i, arg)));
+                        break;
+                    case "-e":
+                    case "--encoders":
+                        settings.setEncoderThreads(Integer.parseInt(requireValue(args, ++i, arg)));
+                        break;
+                    case "--shard":
+                        settings.setFramesPerDirectory(Integer.parseInt(requireValue(args, ++i, arg)));
+                        break;
+                    case "--archive":
+                        settings.setArchive(true);
+                        break;
+                    case "--passthrough":
+                        settings.setSampling(SamplingMode.PASSTHROUGH);
+                        break;
+                    case "--keyframes":
+                        settings.setSampling(SamplingMode.KEYFRAMES);
+                        break;
+                    case "--scenes":
+                        settings.setSceneThreshold(Double.parseDouble(requireValue(args, ++i, arg)));
+                        settings.setSampling(SamplingMode.SCENE_CHANGES);
+                        break;
+                    case "--also":
+                        settings.addOutput(OutputSpec.parse(requireValue(args, ++i, arg)));
+                        break;
+                    case "--format":
+                        settings.setImageFormat(ImageFormat.forName(requireValue(args, ++i, arg)));
+                        break;
+                    case "--quality":
+                        quality = Integer.parseInt(requireValue(args, ++i, arg));
+                        break;
+                    case "--gray":
+                        settings.setGrayscale(true);
+                        break;
+                    case "--crop":
+                        settings.setCrop(CropRegion.parse(requireValue(args, ++i, arg)));
+                        break;
+                    case "--scaling":
+                        settings.setScalingPolicy(ScalingPolicy.forName(requireValue(args, ++i, arg)));
+                        break;
+                    case "--dedup":
+                        settings.setDuplicateDistance(Integer.parseInt(requireValue(args, ++i, arg)));
+                        break;
+                    case "--frames": {
+                        final List<String> values = readValues(requireValue(args, ++i, arg));
+                        final long[] frames = new long[values.size()];
+                        for (int j = 0; j < frames.length; j++) {
+                            frames[j] = Long.parseLong(values.get(j));
+                        }
+                        settings.setFrameSelection(FrameSelection.ofFrameNumbers(frames));
+                        break;
+                    }
+                    case "--times": {
+                        final List<String> values = readValues(requireValue(args, ++i, arg));
+                        final double[] times = new double[values.size()];
+                        for (int j = 0; j < times.length; j++) {
+                            times[j] = Double.parseDouble(values.get(j));
+                        }
+                        settings.setFrameSelection(FrameSelection.ofTimestamps(times));
+                        break;
+                    }
+                    case "--stall-timeout":
+                        settings.setStallTimeout(Math.round(Double.parseDouble(requireValue(args, ++i, arg)) * 1000));
+                        break;
+                    case "--time-limit":
+                        settings.setProcessTimeLimit(Math.round(Double.parseDouble(requireValue(args, ++i, arg)) * 1000));
+                        break;
+                    case "--cache":
+                        cacheDirectory = new File(requireValue(args, ++i, arg));
+                        break;
+                    case "--cache-size":
+                        cacheGigabytes = Double.parseDouble(requireValue(args, ++i, arg));
+                        break;
+                    case "--watch":
+                        watch = true;
+                        break;
+                    case "--settle":
+                        settleMillis = Math.round(Double.parseDouble(requireValue(args, ++i, arg)) * 1000);
+                        break;
+                    case "--live":
+                        live = true;
+                        break;
+                    case "--live-idle":
+                        liveIdleMillis = Math.round(Double.parseDouble(requireValue(args, ++i, arg)) * 1000);
+                        if (liveIdleMillis <= 0) {
+                            throw new IllegalArgumentException("--live-idle must be positive");
+                        }
+                        break;
+                    case "--coordinator":
+                        coordinatorPort = Integer.parseInt(requireValue(args, ++i, arg));
+                        break;
+                    case "--worker": {
+                        final String address = requireValue(args, ++i, arg);
+                        final int colon = address.lastIndexOf(':');
+                        if (colon < 1) {
+                            throw new IllegalArgumentException("--worker requires HOST:PORT");
+                        }
+                        workerHost = address.substring(0, colon);
+                        workerPort = Integer.parseInt(address.substring(colon + 1));
+                        break;
+                    }
+                    case "--metrics":
+                        //Each line is flushed, so the log does not need to be closed
+                        settings.setMetricsLog(new MetricsLog(new File(requireValue(args, ++i, arg))));
+                        break;
+                    case "--no-resume":
+                        settings.setResume(false);
+                        break;
+                    case "-l":
+                    case "--list":
+                        inputs.addAll(readList(requireValue(args, ++i, arg)));
+                        break;
+                    case "-h":
+                    case "--help":
+                        System.out.println(USAGE);
+                        return;
+                    default:
+                        if (arg.startsWith("-") && !arg.equals(LiveExtraction.STDIN)) {
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        }
+                        inputs.add(arg);
+                        break;
+                }
+            }
+            settings.setImageQuality(quality);
+            if (cacheDirectory != null) {
+                settings.setExtractionCache(new ExtractionCache(cacheDirectory, Math.round(cacheGigabytes * 1e9)));
+            }
+            if (settings.isArchive() && (settings.getImageFormat() != ImageFormat.JPEG || settings.isGrayscale())) {
+                throw new IllegalArgumentException("--archive can only be used with color JPEG images");
+            }
+            if (workerHost != null && coordinatorPort != -1) {
+                throw new IllegalArgumentException("--worker cannot be used with --coordinator");
+            }
+            if (outputPath == null && workerHost == null) {
+                throw new IllegalArgumentException("No output directory specified");
+            }
+            if (inputs.isEmpty() && workerHost == null) {
+                throw new IllegalArgumentException("No input files specified");
+            }
+            if (settings.getSampling() != SamplingMode.ALL && !settings.useNativeFrameRate()) {
+                throw new IllegalArgumentException("-r cannot be used with --passthrough, --keyframes, or --scenes");
+            }
+            if (settings.isArchive() && settings.getSampling() != SamplingMode.ALL) {
+                throw new IllegalArgumentException("--archive cannot be used with --passthrough, --keyframes, or --scenes");
+            }
+            if (settings.getFrameSelection() != null && (settings.isArchive() || settings.getSampling() != SamplingMode.ALL)) {
+                throw new IllegalArgumentException("--frames and --times cannot be used with --archive, --passthrough, --keyframes, or --scenes");
+            }
+            if (!settings.getOutputs().isEmpty() && (settings.getFrameSelection() != null || settings.isArchive()
+                    || settings.getSegments() > 1 || settings.getEncoderThreads() > 0)) {
+                throw new IllegalArgumentException("--also cannot be used with -s, -e, --archive, --frames, or --times");
+            }
+            if (settings.isDeduplicating() && (settings.getSampling() != SamplingMode.ALL || settings.getFrameSelection() != null
+                    || !settings.getOutputs().isEmpty())) {
+                throw new IllegalArgumentException("--dedup cannot be used with --passthrough, --keyframes, --scenes, --frames, --times, or --also");
+            }
+            if (live) {
+                if (inputs.size() != 1 || watch || coordinatorPort != -1 || workerHost != null) {
+                    throw new IllegalArgumentException("--live requires exactly one input, and cannot be used with --watch, --coordinator,"
+                            + " or --worker");
+                }
+                LiveExtraction.checkSettings(settings);
+            }
+            else if (inputs.contains(LiveExtraction.STDIN)) {
+                throw new IllegalArgumentException("Standard input can only be read with --live");
+            }
+            if (coordinatorPort != -1) {
+                settings.setCoordinator(new Coordinator(coordinatorPort, Protocol.DEFAULT_TIMEOUT));
+            }
+        }
+        catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getLocalizedMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        if (workerHost != null) {
+            work(workerHost, workerPort, workers, settings.getStallTimeout());
+            return;
+        }
+        if (live) {
+            extractLive(inputs.get(0), new File(outputPath), settings, liveIdleMillis);
+            return;
+        }
+        if (settings.getCoordinator() != null) {
+            System.out.println("Waiting for workers on port " + settings.getCoordinator().getPort());
+        }
+        if (watch) {
+            watch(inputs, new File(outputPath), settings, workers, settleMillis);
+            return;
+        }
+
+        try {
+            final List<File> videos = new ArrayList<>();
+            for (String input : inputs) {
+                videos.addAll(expandInput(input));
+            }
+            if (videos.isEmpty()) {
+                System.err.println("No input files matched");
+                System.exit(2);
+                return;
+            }
+
+            final FFMpegInfo ffmpeg = FFMpeg.getInfo();
+            System.out.println("Using " + ffmpeg + " at " + FFMpeg.getPath());
+
+            final Map<File, File> outputDirectories = outputDirectories(videos, new File(outputPath));
+            final BatchExtractor batch = new BatchExtractor(workers);
+            for (Map.Entry<File, File> entry : outputDirectories.entrySet()) {
+                batch.add(new ExtractionJob(entry.getKey().getAbsolutePath(), entry.getValue().getAbsolutePath(), settings));
+            }
+
+            //Stop ffmpeg processes if the JVM is shut down, for example by Control-C
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    batch.cancel();
+                }
+            });
+
+            System.out.println("Extracting frames from " + outputDirectories.size() + " videos with " + workers + " workers");
+            final BatchExtractor.Report report = batch.run(System.out);
+            if (settings.getCoordinator() != null) {
+                //Tell the workers to exit
+                settings.getCoordinator().close();
+            }
+            report.print(System.out);
+            System.exit(report.getFailureCount() == 0 ? 0 : 1);
+        }
+        catch (IOException | InterruptedException e) {
+            System.err.println(ExceptionUtils.getStackTrace(e));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Watches directories and extracts new videos until the JVM is shut down
+     */
+    private static void watch(List<String> inputs, File outputRoot, ExtractionSettings settings, int workers, long settleMillis) {
+        final List<File> directories = new ArrayList<>();
+        for (String input : inputs) {
+            directories.add(new File(input));
+        }
+        final JobQueue queue = new JobQueue(workers);
+        final FolderWatcher watcher;
+        try {
+            watcher = new FolderWatcher(directories, outputRoot, settings, queue, settleMillis, System.out);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getLocalizedMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        //Stop ffmpeg processes if the JVM is shut down, for example by Control-C
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                watcher.stop();
+                queue.shutdown();
+            }
+        });
+        try {
+            System.out.println("Using " + FFMpeg.getInfo() + " at " + FFMpeg.getPath());
+            System.out.println("Extracting up to " + workers + " videos at a time");
+            watcher.run();
+        }
+        catch (IOException | InterruptedException e) {
+            System.err.println(ExceptionUtils.getStackTrace(e));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Extracts frames from an input that is still being written, until it
+     * ends or the JVM is shut down
+     */
+    private static void extractLive(String input, File outputRoot, ExtractionSettings settings, long idleMillis) {
+        final String name = input.equals(LiveExtraction.STDIN) ? "stdin" : new File(input).getName();
+        final LiveExtraction extraction = new LiveExtraction(input, new File(outputRoot, name).getAbsolutePath(), name, settings,
+                idleMillis);
+        final CountDownLatch finished = new CountDownLatch(1);
+        //Stop ffmpeg if the JVM is shut down, and let the frame index be written
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                extraction.cancel();
+                try {
+                    finished.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    //Exit anyway
+                }
+            }
+        });
+        try {
+            System.out.println("Using " + FFMpeg.getInfo() + " at " + FFMpeg.getPath());
+            final ExtractionResult result = extraction.run(new ProgressListener() {
+                private long lastPrinted = 0;
+
+                @Override
+                public void updateTitle(String title) {
+                }
+
+                @Override
+                public void updateMessage(String message) {
+                    final long now = System.currentTimeMillis();
+                    if (now - lastPrinted >= LIVE_PRINT_INTERVAL) {
+                        lastPrinted = now;
+                        System.out.println(message);
+                    }
+                }
+
+                @Override
+                public void updateProgress(long workDone, long max) {
+                }
+            });
+            System.out.println((result.isCancelled() ? "Stopped after " : "Extracted ") + result.getFrames() + " frames from "
+                    + extraction.getBytesRead() / 1000000.0 + " MB of input");
+            finished.countDown();
+            System.exit(0);
+        }
+        catch (Exception e) {
+            finished.countDown();
+            System.err.println(ExceptionUtils.getStackTrace(e));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs segments for a coordinator until it stops or is lost
+     */
+    private static void work(String host, int port, int slots, long stallTimeout) {
+        final Worker worker = new Worker(host, port, slots, stallTimeout);
+        //Stop ffmpeg processes if the JVM is shut down, for example by Control-C
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                worker.close();
+            }
+        });
+        try {
+            System.out.println("Using " + FFMpeg.getInfo() + " at " + FFMpeg.getPath());
+            System.out.println("Extracting up to " + slots + " segments at a time for the coordinator at " + host + ":" + port);
+            if (worker.run()) {
+                System.exit(0);
+            }
+            System.err.println("Lost the connection to the coordinator");
+            System.exit(1);
+        }
+        catch (IOException | InterruptedException e) {
+            System.err.println(ExceptionUtils.getStackTrace(e));
+            System.exit(1);
+        }
+    }
+
+    private static String requireValue(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Option " + option + " requires a value");
+        }
+        return args[index];
+    }
+
+    private static List<String> readList(String path) throws IOException {
+        final List<String> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), Charset.defaultCharset())) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                entries.add(line);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads a comma-separated list of values, or a file of values if the
+     * argument starts with '@'
+     */
+    private static List<String> readValues(String argument) throws IOException {
+        if (argument.startsWith("@")) {
+            return readList(argument.substring(1));
+        }
+        final List<String> values = new ArrayList<>();
+        for (String value : argument.split(",")) {
+            value = value.trim();
+            if (!value.isEmpty()) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Chooses the output directory for each video. Each video's frames go in
+     * a directory named after the video file. The start of a hash of the
+     * video's path is added to the name if another listed video has the same
+     * name, for example a video in a different directory, or if the
+     * directory has a checkpoint from a different video. A directory whose
+     * checkpoint is from the same video is used again. The names do not
+     * depend on the order of the videos, and a video never goes into a
+     * directory that an earlier run used for another video. A video that is
+     * listed more than once is extracted once.
+     * <p/>
+     * @param videos The videos, in the order that they were listed
+     * @param outputRoot The directory that contains the output directories
+     * @return The output directory of each video, in the same order
+     */
+    static Map<File, File> outputDirectories(List<File> videos, File outputRoot) {
+        final Set<File> unique = new LinkedHashSet<>();
+        final Map<String, Integer> nameCounts = new HashMap<>();
+        for (File video : videos) {
+            final File absolute = video.getAbsoluteFile();
+            if (!unique.add(absolute)) {
+                System.err.println("Ignoring " + video + ", which is listed more than once");
+                continue;
+            }
+            final Integer count = nameCounts.get(absolute.getName());
+            nameCounts.put(absolute.getName(), count == null ? 1 : count + 1);
+        }
+
+        final Map<File, File> directories = new LinkedHashMap<>();
+        for (File video : unique) {
+            final String name = video.getName();
+            final String hash = FFMpeg.toHex(FFMpeg.sha1().digest(video.getPath().getBytes(StandardCharsets.UTF_8)));
+            final File hashed = new File(outputRoot, name + "-" + hash.substring(0, 8));
+            final File plain = new File(outputRoot, name);
+            //Resume where an earlier run put the video
+            final String plainVideo = Checkpoint.readVideo(plain);
+            if (video.getPath().equals(plainVideo)) {
+                directories.put(video, plain);
+            }
+            else if (video.getPath().equals(Checkpoint.readVideo(hashed))) {
+                directories.put(video, hashed);
+            }
+            else if (nameCounts.get(name) > 1) {
+                System.out.println("Another video is named " + name + ", so the frames of " + video + " go in " + hashed.getName());
+                directories.put(video, hashed);
+            }
+            else if (plainVideo != null) {
+                System.out.println(plain + " has the frames of " + plainVideo + ", so the frames of " + video + " go in " + hashed.getName());
+                directories.put(video, hashed);
+            }
+            else {
+                directories.put(video, plain);
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Expands an input argument into the files that it refers to
+     * <p/>
+     * @param input A file path or a glob pattern
+     * @return The matching files, sorted by path
+     * @throws IOException if a directory could not be searched
+     */
+    static List<File> expandInput(String input) throws IOException {
+        if (!isGlob(input)) {
+            return Collections.singletonList(new File(input));
+        }
+
+        //Search from the deepest directory that does not contain a glob character
+        final String absolute = new File(input).getAbsolutePath();
+        final int firstGlob = firstGlobIndex(absolute);
+        final int baseEnd = absolute.lastIndexOf(File.separatorChar, firstGlob);
+        final Path base = Paths.get(baseEnd <= 0 ? File.separator : absolute.substring(0, baseEnd));
+
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + absolute);
+        final List<File> matches = new ArrayList<>();
+        if (!Files.isDirectory(base)) {
+            return matches;
+        }
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && matcher.matches(file.toAbsolutePath())) {
+                    matches.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(matches);
+        return matches;
+    }
+
+    private static boolean isGlob(String input) {
+        return firstGlobIndex(input) != -1;
+    }
+
+    private static int firstGlobIndex(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            switch (input.charAt(i)) {
+                case '*':
+                case '?':
+                case '[':
+                case '{':
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    private BatchExtractorCli() {}
+}
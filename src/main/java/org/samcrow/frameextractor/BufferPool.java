@@ -0,0 +1,77 @@
+package org.samcrow.frameextractor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed number of equally sized byte buffers that are reused
+ * <p/>
+ * When all buffers are in use, {@link #acquire()} blocks until one is
+ * released. This limits the memory used and slows a producer down to the
+ * speed of its consumer.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+class BufferPool {
+
+    private final int bufferSize;
+
+    private final int capacity;
+
+    private final BlockingQueue<ByteBuffer> available;
+
+    /**
+     * The number of buffers that have been allocated
+     */
+    private int allocated = 0;
+
+    /**
+     * Constructor
+     * @param bufferSize The size of each buffer in bytes
+     * @param capacity The maximum number of buffers
+     */
+    public BufferPool(int bufferSize, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A buffer pool must have at least one buffer");
+        }
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.available = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Gets a buffer, waiting for one to be released if all are in use. Buffers
+     * are allocated as they are first needed.
+     * @return A cleared buffer
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = available.poll();
+        if (buffer == null) {
+            synchronized (this) {
+                if (allocated < capacity) {
+                    allocated++;
+                    return ByteBuffer.allocate(bufferSize);
+                }
+            }
+            buffer = available.take();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool
+     * @param buffer A buffer that was returned by {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        available.offer(buffer);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
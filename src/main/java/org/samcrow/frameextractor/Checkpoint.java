@@ -0,0 +1,297 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * A manifest, stored in the output directory next to
+ * <code>frame_rate.txt</code>, that records the parameters of an extraction
+ * and the last frame that has been completely written.
+ * <p/>
+ * When an extraction is restarted with the same video and parameters, the
+ * frames up to the last recorded frame are checked, and extraction continues
+ * after the last good frame.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+class Checkpoint {
+
+    static final String FILE_NAME = "checkpoint.properties";
+
+    /**
+     * The version of the checkpoint format. Checkpoints with a different
+     * version are ignored.
+     */
+    private static final String FORMAT_VERSION = "1";
+
+    /**
+     * The minimum time between saves while frames are being written, in
+     * milliseconds
+     */
+    private static final long SAVE_INTERVAL = 2000;
+
+    private static final String PARAMETER_PREFIX = "parameter.";
+
+    private final File file;
+
+    /**
+     * The parameters that must match for a checkpoint to be resumed
+     */
+    private final Properties parameters = new Properties();
+
+    /**
+     * The last frame number such that it and every frame before it have been
+     * written
+     */
+    private long lastFrame = 0;
+
+    /**
+     * Frames after lastFrame that have been written out of order
+     */
+    private final TreeSet<Long> pending = new TreeSet<>();
+
+    private boolean complete = false;
+
+    /**
+     * The time of the last save
+     */
+    private long lastSave = 0;
+
+    /**
+     * Constructor
+     * @param outDir The output directory
+     * @param video The video file
+     * @param frameRate The frame rate that frames are extracted at
+     * @param resolution The resolution of the extracted frames
+     * @param mode A string that identifies how the frames are being extracted
+     * @param layout The layout of frame files in the output directory
+     */
+    public Checkpoint(File outDir, File video, double frameRate, VideoInfo.Resolution resolution, String mode, OutputLayout layout) {
+        this.file = new File(outDir, FILE_NAME);
+        parameters.setProperty("video", video.getAbsolutePath());
+        parameters.setProperty("videoSize", String.valueOf(video.length()));
+        parameters.setProperty("videoModified", String.valueOf(video.lastModified()));
+        parameters.setProperty("frameRate", String.valueOf(frameRate));
+        parameters.setProperty("resolution", resolution.toString());
+        parameters.setProperty("mode", mode);
+        parameters.setProperty("layout", layout.toString());
+    }
+
+    /**
+     * Reads the checkpoint stored in the output directory, if there is one
+     * with the same parameters as this checkpoint, and sets the last frame and
+     * completion state from it
+     * @return true if a matching checkpoint was found
+     */
+    public synchronized boolean load() {
+        if (!file.isFile()) {
+            return false;
+        }
+        final Properties stored = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            stored.load(in);
+        }
+        catch (IOException e) {
+            System.err.println("Could not read checkpoint " + file + ": " + e.getLocalizedMessage());
+            return false;
+        }
+        if (!FORMAT_VERSION.equals(stored.getProperty("version"))) {
+            return false;
+        }
+        for (String name : parameters.stringPropertyNames()) {
+            if (!parameters.getProperty(name).equals(stored.getProperty(PARAMETER_PREFIX + name))) {
+                return false;
+            }
+        }
+        try {
+            lastFrame = Long.parseLong(stored.getProperty("lastFrame"));
+            complete = Boolean.parseBoolean(stored.getProperty("complete"));
+            return true;
+        }
+        catch (NumberFormatException e) {
+            System.err.println("Ignoring malformed checkpoint " + file);
+            return false;
+        }
+    }
+
+    /**
+     * Reads which video the checkpoint in an output directory was made for
+     * @param outDir The output directory
+     * @return The absolute path of the video, or null if the directory has
+     * no readable checkpoint
+     */
+    static String readVideo(File outDir) {
+        final File file = new File(outDir, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties stored = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            stored.load(in);
+        }
+        catch (IOException e) {
+            return null;
+        }
+        return stored.getProperty(PARAMETER_PREFIX + "video");
+    }
+
+    public synchronized long getLastFrame() {
+        return lastFrame;
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Starts recording a new run
+     * @param firstFrame The number of frames that have already been written,
+     * which is 0 unless a previous run is being resumed
+     */
+    public synchronized void start(long firstFrame) {
+        lastFrame = firstFrame;
+        pending.clear();
+        complete = false;
+    }
+
+    /**
+     * Records that all frames up to and including a frame have been written
+     * @param frame The frame number
+     */
+    public synchronized void setLastFrame(long frame) {
+        lastFrame = Math.max(lastFrame, frame);
+    }
+
+    /**
+     * Records that one frame has been written. Frames may be reported in any
+     * order.
+     * @param frame The frame number
+     */
+    public synchronized void frameWritten(long frame) {
+        if (frame != lastFrame + 1) {
+            pending.add(frame);
+            return;
+        }
+        lastFrame = frame;
+        while (!pending.isEmpty() && pending.first() == lastFrame + 1) {
+            lastFrame = pending.pollFirst();
+        }
+    }
+
+    /**
+     * Marks the extraction as finished and saves the checkpoint
+     * @param frames The total number of frames
+     * @throws IOException if the checkpoint could not be saved
+     */
+    public synchronized void markComplete(long frames) throws IOException {
+        lastFrame = frames;
+        pending.clear();
+        complete = true;
+        save();
+    }
+
+    /**
+     * Saves the checkpoint if it has not been saved recently. Failures are
+     * logged and otherwise ignored, because the checkpoint is only a
+     * convenience while frames are being written.
+     */
+    public synchronized void saveIfDue() {
+        final long now = System.currentTimeMillis();
+        if (now - lastSave >= SAVE_INTERVAL) {
+            try {
+                save();
+            }
+            catch (IOException e) {
+                System.err.println("Could not save checkpoint " + file + ": " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Saves the checkpoint
+     * @throws IOException if the checkpoint could not be saved
+     */
+    public synchronized void save() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("version", FORMAT_VERSION);
+        for (String name : parameters.stringPropertyNames()) {
+            properties.setProperty(PARAMETER_PREFIX + name, parameters.getProperty(name));
+        }
+        properties.setProperty("lastFrame", String.valueOf(lastFrame));
+        properties.setProperty("complete", String.valueOf(complete));
+
+        //Write to a temporary file and then rename it, so that a crash never leaves a partial checkpoint
+        final File temp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            properties.store(out, "Frame Extractor checkpoint");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSave = System.currentTimeMillis();
+    }
+
+    /**
+     * Checks the frames that a checkpoint says have been written
+     * @param outDir The output directory
+     * @param videoName The name of the video file
+     * @param layout The layout of frame files in the output directory
+     * @param lastFrame The last frame that the checkpoint recorded
+     * @return The number of the last frame such that it and every frame
+     * before it exist and are complete
+     * @throws IOException if a frame could not be read
+     */
+    public static long verify(File outDir, String videoName, OutputLayout layout, long lastFrame) throws IOException {
+        for (long i = 1; i <= lastFrame; i++) {
+            final File frame = layout.fileFor(outDir, videoName, i);
+            if (frame.length() == 0) {
+                return i - 1;
+            }
+        }
+        //The last frame is the one most likely to have been cut off
+        if (lastFrame > 0 && !hasImageEnd(layout.fileFor(outDir, videoName, lastFrame), layout.getExtension())) {
+            return lastFrame - 1;
+        }
+        return lastFrame;
+    }
+
+    /**
+     * Checks whether an image file ends the way a complete file does
+     * @param file The file
+     * @param extension The file's extension
+     * @return true if a JPEG file ends with the end-of-image marker or a PNG
+     * file ends with the end chunk. Uncompressed files have no end marker,
+     * so false is returned for them and the frame is extracted again.
+     */
+    private static boolean hasImageEnd(File file, String extension) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (extension.equals(ImageFormat.JPEG.getExtension())) {
+                if (in.length() < 2) {
+                    return false;
+                }
+                in.seek(in.length() - 2);
+                return in.read() == 0xFF && in.read() == 0xD9;
+            }
+            else if (extension.equals(ImageFormat.PNG.getExtension())) {
+                //The end chunk's type is followed by its 4-byte CRC
+                if (in.length() < 8) {
+                    return false;
+                }
+                in.seek(in.length() - 8);
+                return in.read() == 'I' && in.read() == 'E' && in.read() == 'N' && in.read() == 'D';
+            }
+            else {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,670 @@
+package org.samcrow.frameextractor;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands units of work to {@link Worker}s that connect to it over TCP.
+ * <p/>
+ * A unit is one ffmpeg command that writes frames into one directory, such
+ * as one segment of a {@link SegmentedExtraction}. Workers must see the
+ * video and output paths at the same places as the coordinator, so they run
+ * on this host or share its file systems. The messages are described in
+ * {@link Protocol}.
+ * <p/>
+ * Units wait in a queue until a worker has a free slot. A worker that
+ * disconnects, or that sends nothing for longer than the heartbeat timeout,
+ * is dropped, and its units are put back at the front of the queue for
+ * another worker. Each attempt writes into its own directory, because the
+ * ffmpeg process of a dropped worker may keep writing for a while. A unit
+ * whose workers have been lost {@link #MAX_ATTEMPTS} times fails. A unit
+ * whose ffmpeg process fails is not retried, because it would fail the same
+ * way on another worker.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+public class Coordinator implements Closeable {
+
+    /**
+     * The number of workers that a unit may be given to
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Stands for the directory of an attempt in the arguments of a unit
+     */
+    static final String DIRECTORY = "{directory}";
+
+    private final ServerSocket serverSocket;
+
+    private final long heartbeatTimeout;
+
+    /**
+     * Sends pings and drops silent workers
+     */
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new CoordinatorThreadFactory());
+
+    /**
+     * Units that are waiting for a worker. Guarded by this.
+     */
+    private final Deque<Unit> pending = new ArrayDeque<>();
+
+    /**
+     * Connected workers. Guarded by this.
+     */
+    private final List<Connection> workers = new ArrayList<>();
+
+    /**
+     * Guarded by this
+     */
+    private long nextId = 1;
+
+    /**
+     * Guarded by this
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     * @param port The port to listen on, or 0 to choose a free port
+     * @param heartbeatTimeout The time after which a worker that has sent
+     * nothing is dropped, in milliseconds
+     * @throws IOException if the port could not be opened
+     */
+    public Coordinator(int port, long heartbeatTimeout) throws IOException {
+        if (heartbeatTimeout <= Protocol.HEARTBEAT_INTERVAL) {
+            throw new IllegalArgumentException("The heartbeat timeout must be longer than " + Protocol.HEARTBEAT_INTERVAL + " ms");
+        }
+        this.heartbeatTimeout = heartbeatTimeout;
+        serverSocket = new ServerSocket(port);
+        final Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptWorkers();
+            }
+        }, "coordinator-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkWorkers();
+            }
+        }, Protocol.HEARTBEAT_INTERVAL, Protocol.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The port that workers connect to
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The number of connected workers
+     */
+    public synchronized int getWorkerCount() {
+        return workers.size();
+    }
+
+    /**
+     * Queues a unit of work
+     * @param directory The path that the directories of the unit's attempts
+     * start with. Each attempt writes to this path followed by
+     * <code>.attempt-</code> and the attempt number, which a worker empties
+     * before running it.
+     * @param arguments The arguments to pass to ffmpeg, not including the
+     * executable path. {@link #DIRECTORY} in an argument is replaced with
+     * the directory of the attempt.
+     * @return The unit
+     */
+    Unit submit(String directory, List<String> arguments) {
+        final Unit unit;
+        synchronized (this) {
+            unit = new Unit(nextId++, directory, arguments);
+            if (closed) {
+                unit.fail("the coordinator has been closed");
+                return unit;
+            }
+            pending.add(unit);
+        }
+        dispatch();
+        return unit;
+    }
+
+    /**
+     * Tells the workers to exit, fails the units that are queued or running,
+     * and stops listening
+     */
+    @Override
+    public void close() {
+        final List<Connection> connections;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            connections = new ArrayList<>(workers);
+            workers.clear();
+            for (Unit unit : pending) {
+                unit.fail("the coordinator has been closed");
+            }
+            pending.clear();
+        }
+        for (Connection connection : connections) {
+            try {
+                connection.send(Protocol.encode(Protocol.STOP));
+            }
+            catch (IOException e) {
+                //The worker is gone anyway
+            }
+            connection.close();
+            for (Unit unit : connection.removeUnits()) {
+                unit.fail("the coordinator has been closed");
+            }
+        }
+        timer.shutdownNow();
+        try {
+            serverSocket.close();
+        }
+        catch (IOException e) {
+            //Nothing more will be accepted
+        }
+    }
+
+    private void acceptWorkers() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            }
+            catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("Could not accept a worker: " + e.getLocalizedMessage());
+                }
+                return;
+            }
+            try {
+                final Connection connection = new Connection(socket);
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.read();
+                    }
+                }, "coordinator-worker");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch (IOException e) {
+                System.err.println("Could not accept a worker: " + e.getLocalizedMessage());
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Gives queued units to workers that have free slots
+     * <p/>
+     * Units are assigned while holding the lock, but the messages are sent
+     * after releasing it so that a worker that is slow to read cannot stall
+     * the other workers.
+     */
+    private void dispatch() {
+        final List<Connection> connections = new ArrayList<>();
+        final List<String> messages = new ArrayList<>();
+        synchronized (this) {
+            for (Connection connection : workers) {
+                while (!pending.isEmpty() && connection.hasFreeSlot()) {
+                    final Unit unit = pending.poll();
+                    unit.attempts++;
+                    unit.workerName = connection.name;
+                    unit.attemptDirectory = unit.directory + ".attempt-" + unit.attempts;
+                    connection.units.put(unit.id, unit);
+                    final List<String> message = new ArrayList<>();
+                    message.add(Protocol.UNIT);
+                    message.add(String.valueOf(unit.id));
+                    message.add(unit.attemptDirectory);
+                    for (String argument : unit.arguments) {
+                        message.add(argument.replace(DIRECTORY, unit.attemptDirectory));
+                    }
+                    connections.add(connection);
+                    messages.add(Protocol.encode(message));
+                }
+            }
+        }
+        Connection failed = null;
+        for (int i = 0; i < connections.size(); i++) {
+            final Connection connection = connections.get(i);
+            if (connection == failed) {
+                continue;
+            }
+            try {
+                connection.send(messages.get(i));
+            }
+            catch (IOException e) {
+                //Its units, including the ones not sent yet, are queued again
+                failed = connection;
+                lose(connection, "could not be sent a unit");
+            }
+        }
+    }
+
+    /**
+     * Sends pings and drops workers that have not sent anything recently
+     */
+    private void checkWorkers() {
+        final long now = System.currentTimeMillis();
+        final List<Connection> connections;
+        synchronized (this) {
+            connections = new ArrayList<>(workers);
+        }
+        for (Connection connection : connections) {
+            if (now - connection.lastHeard > heartbeatTimeout) {
+                lose(connection, "sent nothing for " + heartbeatTimeout / 1000.0 + " seconds");
+                continue;
+            }
+            try {
+                connection.send(Protocol.encode(Protocol.PING));
+            }
+            catch (IOException e) {
+                lose(connection, "could not be pinged");
+            }
+        }
+    }
+
+    /**
+     * Drops a worker and queues its units again
+     * @param connection The worker's connection
+     * @param reason Why the worker was dropped
+     */
+    private void lose(Connection connection, String reason) {
+        synchronized (this) {
+            if (!workers.remove(connection)) {
+                //Already dropped, or never finished introducing itself
+                connection.close();
+                return;
+            }
+            System.err.println("Lost worker " + connection.name + " because it " + reason);
+            final List<Unit> units = connection.removeUnits();
+            //Keep the units in their original order at the front of the queue
+            Collections.reverse(units);
+            for (Unit unit : units) {
+                if (unit.attempts >= MAX_ATTEMPTS) {
+                    unit.fail("it was given to " + unit.attempts + " workers that were lost");
+                }
+                else {
+                    pending.addFirst(unit);
+                }
+            }
+        }
+        connection.close();
+        dispatch();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            //Nothing more can be done
+        }
+    }
+
+    /**
+     * The connection to one worker
+     */
+    private class Connection {
+
+        private final Socket socket;
+
+        private final BufferedReader reader;
+
+        private final Writer writer;
+
+        /**
+         * Set once the worker has introduced itself
+         */
+        private volatile String name;
+
+        private volatile int slots;
+
+        private volatile long lastHeard = System.currentTimeMillis();
+
+        /**
+         * Units that this worker is running, by ID. Guarded by Coordinator.this.
+         */
+        private final Map<Long, Unit> units = new HashMap<>();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            name = String.valueOf(socket.getRemoteSocketAddress());
+        }
+
+        /**
+         * Reads messages from the worker until it disconnects
+         */
+        void read() {
+            try {
+                final List<String> hello = readMessage();
+                if (hello == null || hello.size() != 3 || !hello.get(0).equals(Protocol.HELLO)) {
+                    System.err.println("Ignoring a connection from " + name + " that did not start with " + Protocol.HELLO);
+                    close();
+                    return;
+                }
+                name = hello.get(1) + " (" + socket.getInetAddress().getHostAddress() + ")";
+                slots = Integer.parseInt(hello.get(2));
+                if (slots < 1) {
+                    throw new NumberFormatException("A worker must have at least one slot");
+                }
+                final boolean stop;
+                synchronized (Coordinator.this) {
+                    stop = closed;
+                    if (!stop) {
+                        workers.add(this);
+                    }
+                }
+                if (stop) {
+                    send(Protocol.encode(Protocol.STOP));
+                    close();
+                    return;
+                }
+                System.out.println("Worker " + name + " connected with " + slots + " slots");
+                dispatch();
+
+                List<String> message;
+                while ((message = readMessage()) != null) {
+                    handle(message);
+                }
+                lose(this, "disconnected");
+            }
+            catch (SocketException e) {
+                lose(this, "disconnected");
+            }
+            catch (IOException | RuntimeException e) {
+                lose(this, "sent an invalid message: " + e.getLocalizedMessage());
+            }
+        }
+
+        private List<String> readMessage() throws IOException {
+            final String line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lastHeard = System.currentTimeMillis();
+            return Protocol.decode(line);
+        }
+
+        private void handle(List<String> message) throws IOException {
+            switch (message.get(0)) {
+                case Protocol.HEARTBEAT:
+                    break;
+                case Protocol.PROGRESS: {
+                    final Unit unit = getUnit(message.get(1), false);
+                    if (unit != null) {
+                        unit.frame = Long.parseLong(message.get(2));
+                        unit.time = Long.parseLong(message.get(3));
+                        unit.speed = Double.parseDouble(message.get(4));
+                    }
+                    break;
+                }
+                case Protocol.DONE: {
+                    final Unit unit = getUnit(message.get(1), true);
+                    if (unit != null) {
+                        unit.finish(Integer.parseInt(message.get(2)), message.subList(3, message.size()));
+                    }
+                    dispatch();
+                    break;
+                }
+                case Protocol.FAILED: {
+                    final Unit unit = getUnit(message.get(1), true);
+                    if (unit != null) {
+                        unit.fail(message.get(2) + " on worker " + name);
+                    }
+                    dispatch();
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown message " + message.get(0));
+            }
+        }
+
+        /**
+         * @param id The ID of a unit
+         * @param remove true to stop tracking the unit
+         * @return The unit, or null if this worker is not running it because
+         * it was cancelled
+         */
+        private Unit getUnit(String id, boolean remove) {
+            final Long key = Long.valueOf(id);
+            synchronized (Coordinator.this) {
+                return remove ? units.remove(key) : units.get(key);
+            }
+        }
+
+        /**
+         * Must be called while holding the lock on Coordinator.this
+         */
+        boolean hasFreeSlot() {
+            return units.size() < slots;
+        }
+
+        /**
+         * @return The units that this worker was running
+         */
+        List<Unit> removeUnits() {
+            synchronized (Coordinator.this) {
+                final List<Unit> removed = new ArrayList<>(units.values());
+                units.clear();
+                Collections.sort(removed);
+                return removed;
+            }
+        }
+
+        synchronized void send(String line) throws IOException {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * One ffmpeg command that a worker runs
+     */
+    public class Unit implements ProcessProgress, Comparable<Unit> {
+
+        private final long id;
+
+        private final String directory;
+
+        private final List<String> arguments;
+
+        /**
+         * The number of workers that this unit has been given to. Guarded
+         * by Coordinator.this.
+         */
+        private int attempts = 0;
+
+        private volatile String workerName;
+
+        /**
+         * The directory of the last attempt, or null
+         */
+        private volatile String attemptDirectory;
+
+        private volatile long frame;
+
+        private volatile long time;
+
+        private volatile double speed;
+
+        private volatile int exitCode;
+
+        private volatile List<String> logTail = Collections.emptyList();
+
+        /**
+         * Why the unit could not be run, or null
+         */
+        private volatile String failure;
+
+        private volatile boolean cancelled = false;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private Unit(long id, String directory, List<String> arguments) {
+            this.id = id;
+            this.directory = directory;
+            this.arguments = new ArrayList<>(arguments);
+        }
+
+        /**
+         * Waits for the unit to finish
+         * @param millis The maximum time to wait, in milliseconds
+         * @return true if the unit has finished, failed, or been cancelled
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public boolean await(long millis) throws InterruptedException {
+            return done.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Stops the unit. A worker that is running it is told to stop.
+         */
+        public void cancel() {
+            Connection running = null;
+            synchronized (Coordinator.this) {
+                if (done.getCount() == 0) {
+                    return;
+                }
+                cancelled = true;
+                if (!pending.remove(this)) {
+                    for (Connection connection : workers) {
+                        if (connection.units.remove(id) != null) {
+                            running = connection;
+                            break;
+                        }
+                    }
+                }
+            }
+            done.countDown();
+            if (running != null) {
+                try {
+                    running.send(Protocol.encode(Protocol.CANCEL, String.valueOf(id)));
+                }
+                catch (IOException e) {
+                    lose(running, "could not be sent a cancellation");
+                }
+                dispatch();
+            }
+        }
+
+        /**
+         * Checks that a finished unit succeeded
+         * @param action What the unit was doing, such as "extracting the
+         * segment starting at 10 seconds"
+         * @throws IOException if the unit could not be run
+         * @throws FFMpegException if ffmpeg exited with an error code
+         */
+        public void check(String action) throws IOException {
+            if (cancelled) {
+                return;
+            }
+            if (failure != null) {
+                throw new IOException("Could not finish " + action + " because " + failure);
+            }
+            if (exitCode != 0) {
+                throw new FFMpegException(action + " on worker " + workerName, exitCode, logTail, null);
+            }
+        }
+
+        @Override
+        public long getFrame() {
+            return frame;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+
+        @Override
+        public double getSpeed() {
+            return speed;
+        }
+
+        /**
+         * @return The worker that the unit was last given to, or null
+         */
+        public String getWorkerName() {
+            return workerName;
+        }
+
+        /**
+         * Returns the directory that the unit's output is in. Once the unit
+         * has finished, this is the directory of the attempt that reported
+         * the result.
+         * @return The directory of the last attempt, or null if the unit has
+         * not been given to a worker
+         */
+        public String getDirectory() {
+            return attemptDirectory;
+        }
+
+        private void finish(int exitCode, List<String> logTail) {
+            this.exitCode = exitCode;
+            this.logTail = new ArrayList<>(logTail);
+            done.countDown();
+        }
+
+        private void fail(String failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        @Override
+        public int compareTo(Unit other) {
+            return Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * Creates named daemon threads
+     */
+    private static class CoordinatorThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "coordinator-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
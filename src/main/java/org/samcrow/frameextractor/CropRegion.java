@@ -0,0 +1,95 @@
+package org.samcrow.frameextractor;
+
+/**
+ * A rectangle of a video's picture, in stored pixels, that frames are cut
+ * down to before they are scaled and encoded
+ * <p/>
+ * @author Sam Crow
+ */
+public class CropRegion {
+
+    private final int x;
+
+    private final int y;
+
+    private final int width;
+
+    private final int height;
+
+    /**
+     * Constructor
+     * @param x The distance from the left edge of the picture to the left
+     * edge of the region
+     * @param y The distance from the top edge of the picture to the top edge
+     * of the region
+     * @param width The width of the region
+     * @param height The height of the region
+     */
+    public CropRegion(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid crop region " + width + "x" + height + "+" + x + "+" + y);
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Parses a region in the form <code>WxH+X+Y</code>, for example
+     * <code>640x360+100+50</code>
+     * @param region The region
+     * @return The region
+     * @throws IllegalArgumentException if the region is not in that form
+     */
+    public static CropRegion parse(String region) {
+        final String[] sizeAndOffset = region.split("\\+");
+        final String[] size = sizeAndOffset[0].split("x");
+        if (sizeAndOffset.length != 3 || size.length != 2) {
+            throw new IllegalArgumentException("Crop region " + region + " is not in the form WxH+X+Y");
+        }
+        try {
+            return new CropRegion(Integer.parseInt(sizeAndOffset[1]), Integer.parseInt(sizeAndOffset[2]),
+                    Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Crop region " + region + " is not in the form WxH+X+Y", e);
+        }
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param resolution The stored resolution of a video
+     * @return true if this region is entirely inside the picture
+     */
+    public boolean fits(VideoInfo.Resolution resolution) {
+        return x + width <= resolution.horizontal && y + height <= resolution.vertical;
+    }
+
+    /**
+     * @return An ffmpeg crop filter for this region
+     */
+    String toFilter() {
+        return "crop=" + width + ":" + height + ":" + x + ":" + y;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "+" + x + "+" + y;
+    }
+}
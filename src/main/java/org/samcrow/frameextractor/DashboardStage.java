@@ -0,0 +1,358 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.cell.ProgressBarTableCell;
+import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
+import javafx.util.Duration;
+import jfxtras.labs.dialogs.MonologFX;
+
+/**
+ * A window that lists every job in a {@link JobQueue} with its status,
+ * progress, frame rate, and estimated time remaining.
+ * <p/>
+ * Jobs do not update the window when they report progress. Instead, the
+ * window reads every job's latest progress a few times per second, so the
+ * user interface thread does the same small amount of work however many
+ * jobs are queued and however often they report.
+ * <p/>
+ * @author Sam Crow
+ */
+public class DashboardStage extends Stage {
+
+    /**
+     * Time between refreshes of the table, in milliseconds
+     */
+    private static final long REFRESH_INTERVAL = 250;
+
+    private final JobQueue queue;
+
+    private final ObservableList<JobRow> rows = FXCollections.observableArrayList();
+
+    /**
+     * Rows by queue entry, for entries that are still shown
+     */
+    private final Map<JobQueue.Entry, JobRow> rowsByEntry = new HashMap<>();
+
+    private final TableView<JobRow> table = new TableView<>(rows);
+
+    private final Label summaryLabel = new Label();
+
+    private final Timeline refreshTimeline;
+
+    /**
+     * Constructor
+     * @param queue The queue whose jobs are shown
+     */
+    public DashboardStage(final JobQueue queue) {
+        this.queue = queue;
+
+        //Begin layout
+        {
+            final Insets MARGIN = new Insets(10);
+
+            final TableColumn<JobRow, String> nameColumn = new TableColumn<>("Video");
+            nameColumn.setCellValueFactory(new PropertyValueFactory<JobRow, String>("name"));
+            nameColumn.setPrefWidth(220);
+            final TableColumn<JobRow, String> statusColumn = new TableColumn<>("Status");
+            statusColumn.setCellValueFactory(new PropertyValueFactory<JobRow, String>("status"));
+            statusColumn.setPrefWidth(90);
+            final TableColumn<JobRow, Double> progressColumn = new TableColumn<>("Progress");
+            progressColumn.setCellValueFactory(new PropertyValueFactory<JobRow, Double>("progress"));
+            progressColumn.setCellFactory(ProgressBarTableCell.<JobRow>forTableColumn());
+            progressColumn.setPrefWidth(160);
+            final TableColumn<JobRow, String> rateColumn = new TableColumn<>("Frames/s");
+            rateColumn.setCellValueFactory(new PropertyValueFactory<JobRow, String>("rate"));
+            rateColumn.setPrefWidth(80);
+            final TableColumn<JobRow, String> remainingColumn = new TableColumn<>("Remaining");
+            remainingColumn.setCellValueFactory(new PropertyValueFactory<JobRow, String>("remaining"));
+            remainingColumn.setPrefWidth(80);
+            final TableColumn<JobRow, String> messageColumn = new TableColumn<>("Message");
+            messageColumn.setCellValueFactory(new PropertyValueFactory<JobRow, String>("message"));
+            messageColumn.setPrefWidth(300);
+            //Added one at a time, because the varargs addAll creates a generic array
+            table.getColumns().add(nameColumn);
+            table.getColumns().add(statusColumn);
+            table.getColumns().add(progressColumn);
+            table.getColumns().add(rateColumn);
+            table.getColumns().add(remainingColumn);
+            table.getColumns().add(messageColumn);
+            table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+            table.setPlaceholder(new Label("No jobs"));
+
+            final Label concurrencyLabel = new Label("Jobs at once:");
+            final ChoiceBox<Integer> concurrencyBox = new ChoiceBox<>();
+            final int processors = BatchExtractor.defaultWorkerCount();
+            for (int i = 1; i <= Math.max(processors * 2, queue.getConcurrency()); i++) {
+                concurrencyBox.getItems().add(i);
+            }
+            concurrencyBox.setValue(queue.getConcurrency());
+            concurrencyBox.valueProperty().addListener(new ChangeListener<Integer>() {
+                @Override
+                public void changed(ObservableValue<? extends Integer> value, Integer oldValue, Integer newValue) {
+                    if (newValue != null) {
+                        queue.setConcurrency(newValue);
+                    }
+                }
+            });
+
+            final Button cancelButton = new Button("Cancel selected");
+            cancelButton.setOnAction(new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent t) {
+                    for (JobRow row : table.getSelectionModel().getSelectedItems()) {
+                        row.entry.cancel();
+                    }
+                }
+            });
+            final Button cancelAllButton = new Button("Cancel all");
+            cancelAllButton.setOnAction(new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent t) {
+                    queue.cancelAll();
+                }
+            });
+            final Button errorButton = new Button("Show error");
+            errorButton.setOnAction(new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent t) {
+                    final JobRow row = table.getSelectionModel().getSelectedItem();
+                    if (row != null && row.entry.getFailure() != null) {
+                        showFailure(row.entry);
+                    }
+                }
+            });
+            final Button clearButton = new Button("Clear finished");
+            clearButton.setOnAction(new EventHandler<ActionEvent>() {
+                @Override
+                public void handle(ActionEvent t) {
+                    queue.removeCompleted();
+                    refresh();
+                }
+            });
+
+            final HBox buttonBox = new HBox(10);
+            buttonBox.setAlignment(Pos.CENTER_LEFT);
+            buttonBox.getChildren().addAll(concurrencyLabel, concurrencyBox, cancelButton, cancelAllButton, errorButton, clearButton,
+                    summaryLabel);
+            BorderPane.setMargin(buttonBox, MARGIN);
+
+            final BorderPane pane = new BorderPane();
+            pane.setCenter(table);
+            pane.setBottom(buttonBox);
+            setScene(new Scene(pane, 1000, 500));
+            setTitle("Extraction jobs");
+        }
+        //End layout
+
+        refreshTimeline = new Timeline(new KeyFrame(Duration.millis(REFRESH_INTERVAL), new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent t) {
+                refresh();
+            }
+        }));
+        refreshTimeline.setCycleCount(Animation.INDEFINITE);
+
+        //Only refresh while the window is open
+        setOnShown(new EventHandler<WindowEvent>() {
+            @Override
+            public void handle(WindowEvent t) {
+                refresh();
+                refreshTimeline.play();
+            }
+        });
+        setOnHidden(new EventHandler<WindowEvent>() {
+            @Override
+            public void handle(WindowEvent t) {
+                refreshTimeline.stop();
+            }
+        });
+    }
+
+    /**
+     * Adds a job to the queue and shows it in this window
+     * @param job The job
+     */
+    public void submit(ExtractionJob job) {
+        queue.submit(job);
+        refresh();
+    }
+
+    /**
+     * Updates every row from its queue entry, adding rows for new entries and
+     * removing rows for entries that have left the queue
+     */
+    private void refresh() {
+        final List<JobQueue.Entry> entries = queue.getEntries();
+        final Set<JobQueue.Entry> current = new HashSet<>(entries);
+        //Remove rows whose entries were cleared
+        final Iterator<Map.Entry<JobQueue.Entry, JobRow>> iterator = rowsByEntry.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<JobQueue.Entry, JobRow> shown = iterator.next();
+            if (!current.contains(shown.getKey())) {
+                rows.remove(shown.getValue());
+                iterator.remove();
+            }
+        }
+
+        int running = 0;
+        int queued = 0;
+        int failed = 0;
+        double framesPerSecond = 0;
+        for (JobQueue.Entry entry : entries) {
+            JobRow row = rowsByEntry.get(entry);
+            if (row == null) {
+                row = new JobRow(entry);
+                rowsByEntry.put(entry, row);
+                rows.add(row);
+            }
+            row.update();
+            switch (entry.getStatus()) {
+                case RUNNING:
+                    running++;
+                    framesPerSecond += entry.getFramesPerSecond();
+                    break;
+                case QUEUED:
+                    queued++;
+                    break;
+                case FAILED:
+                    failed++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        summaryLabel.setText(String.format("%d running, %d queued, %d failed, %.0f frames/s", running, queued, failed, framesPerSecond));
+    }
+
+    private void showFailure(JobQueue.Entry entry) {
+        final MonologFX dialog = new MonologFX(MonologFX.Type.ERROR);
+        final Throwable exception = entry.getFailure();
+        dialog.setTitle("Job failed");
+        final StringBuilder message = new StringBuilder(entry.getJob().getVideoPath() + " failed: " + exception.getLocalizedMessage() + "\n");
+        if (exception instanceof FFMpegException) {
+            message.append("\nffmpeg's last messages:\n");
+            for (String line : ((FFMpegException) exception).getLogTail()) {
+                message.append(line).append('\n');
+            }
+            message.append('\n');
+        }
+        message.append(ExceptionUtils.getStackTrace(exception));
+        dialog.setMessage(message.toString());
+        dialog.setModal(true);
+        dialog.initOwner(this);
+        dialog.showDialog();
+    }
+
+    /**
+     * Formats a duration as hours, minutes, and seconds
+     * @param millis The duration in milliseconds, or -1 if it is not known
+     * @return The formatted duration, or an empty string
+     */
+    static String formatRemaining(long millis) {
+        if (millis < 0) {
+            return "";
+        }
+        final long seconds = (millis + 999) / 1000;
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /**
+     * One row of the table. Its properties change only when the window
+     * refreshes, on the JavaFX application thread.
+     */
+    public static class JobRow {
+
+        private final JobQueue.Entry entry;
+
+        private final StringProperty name = new SimpleStringProperty();
+
+        private final StringProperty status = new SimpleStringProperty();
+
+        private final DoubleProperty progress = new SimpleDoubleProperty();
+
+        private final StringProperty rate = new SimpleStringProperty();
+
+        private final StringProperty remaining = new SimpleStringProperty();
+
+        private final StringProperty message = new SimpleStringProperty();
+
+        JobRow(JobQueue.Entry entry) {
+            this.entry = entry;
+            name.set(new File(entry.getJob().getVideoPath()).getName());
+        }
+
+        /**
+         * Copies the entry's latest progress into this row's properties.
+         * Properties whose values have not changed do not notify the table.
+         */
+        void update() {
+            final JobQueue.Status current = entry.getStatus();
+            status.set(current.toString().charAt(0) + current.toString().substring(1).toLowerCase());
+            progress.set(entry.getProgress());
+            final double framesPerSecond = entry.getFramesPerSecond();
+            rate.set(current == JobQueue.Status.QUEUED || framesPerSecond <= 0 ? "" : String.format("%.1f", framesPerSecond));
+            remaining.set(formatRemaining(entry.getRemainingMillis()));
+            message.set(entry.getMessage());
+        }
+
+        public ReadOnlyStringProperty nameProperty() {
+            return name;
+        }
+
+        public ReadOnlyStringProperty statusProperty() {
+            return status;
+        }
+
+        public DoubleProperty progressProperty() {
+            return progress;
+        }
+
+        public ReadOnlyStringProperty rateProperty() {
+            return rate;
+        }
+
+        public ReadOnlyStringProperty remainingProperty() {
+            return remaining;
+        }
+
+        public ReadOnlyStringProperty messageProperty() {
+            return message;
+        }
+    }
+}
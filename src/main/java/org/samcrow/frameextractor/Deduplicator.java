@@ -0,0 +1,161 @@
+package org.samcrow.frameextractor;
+
+/**
+ * Decides which frames to skip because they are nearly identical to the
+ * last frame that was kept.
+ * <p/>
+ * Frames are compared by a 64-bit difference hash (dHash): the frame is
+ * reduced to a 9 by 8 grid of brightness values, and each bit records
+ * whether a cell is brighter than the cell to its right. Frames whose hashes
+ * differ in at most a configured number of bits are duplicates. The hash
+ * changes very little with noise and compression artifacts, but changes a
+ * lot when anything in the picture moves.
+ * <p/>
+ * Hashes are computed by the encoder threads at the same time. Each frame is
+ * then compared, in frame number order, with the last frame that was kept.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+class Deduplicator {
+
+    private static final int GRID_WIDTH = 9;
+
+    private static final int GRID_HEIGHT = 8;
+
+    /**
+     * The number of pixels sampled along each side of a grid cell
+     */
+    private static final int SAMPLES = 8;
+
+    private final int maxDistance;
+
+    private final FrameDuplicates duplicates;
+
+    /**
+     * The number of the next frame to decide
+     */
+    private long nextFrame;
+
+    /**
+     * The hash and number of the last frame that was kept, or -1 if no frame
+     * has been kept
+     */
+    private long keptHash;
+
+    private long keptFrame = -1;
+
+    private boolean aborted = false;
+
+    /**
+     * Constructor
+     * @param maxDistance The largest number of bits that a frame's hash can
+     * differ from the last kept frame's hash by for the frame to be skipped
+     * @param firstFrame The number of the first frame that will be decided
+     * @param duplicates The duplicates to record skipped frames in
+     */
+    public Deduplicator(int maxDistance, long firstFrame, FrameDuplicates duplicates) {
+        if (maxDistance < 0 || maxDistance > 64) {
+            throw new IllegalArgumentException("The duplicate distance must be between 0 and 64");
+        }
+        this.maxDistance = maxDistance;
+        this.nextFrame = firstFrame;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Decides whether to keep a frame. Frames may be passed from several
+     * threads at once, but every frame from the first frame on must be
+     * passed, and a call for a frame waits until the frames before it have
+     * been decided.
+     * @param frame The frame
+     * @return true if the frame should be written, false if it duplicates
+     * the last kept frame or deciding was aborted
+     */
+    public boolean keep(Frame frame) {
+        final long hash = hash(frame);
+        synchronized (this) {
+            try {
+                while (nextFrame != frame.getFrameNumber() && !aborted) {
+                    wait();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                return false;
+            }
+            if (aborted) {
+                return false;
+            }
+            nextFrame++;
+            notifyAll();
+            if (keptFrame != -1 && Long.bitCount(hash ^ keptHash) <= maxDistance) {
+                duplicates.add(frame.getFrameNumber(), keptFrame);
+                return false;
+            }
+            keptHash = hash;
+            keptFrame = frame.getFrameNumber();
+            return true;
+        }
+    }
+
+    /**
+     * Stops deciding, so that threads waiting for frames that will never be
+     * decided return
+     */
+    public synchronized void abort() {
+        aborted = true;
+        notifyAll();
+    }
+
+    /**
+     * Computes the difference hash of a frame
+     * @param frame A frame in {@link PixelFormat#BGR24},
+     * {@link PixelFormat#RGB24}, {@link PixelFormat#RGBA}, or
+     * {@link PixelFormat#GRAY} format
+     * @return The hash
+     */
+    static long hash(Frame frame) {
+        final byte[] data = frame.getData().array();
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int pixelStride = frame.getPixelFormat().getBytesPerPixel();
+        final int rowStride = width * pixelStride;
+
+        //Average brightness of each grid cell, from a regular sample of its pixels
+        final int[] grid = new int[GRID_WIDTH * GRID_HEIGHT];
+        for (int cellY = 0; cellY < GRID_HEIGHT; cellY++) {
+            for (int cellX = 0; cellX < GRID_WIDTH; cellX++) {
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    final int y = (int) (((cellY * SAMPLES + sy) * 2L + 1) * height / (2L * GRID_HEIGHT * SAMPLES));
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        final int x = (int) (((cellX * SAMPLES + sx) * 2L + 1) * width / (2L * GRID_WIDTH * SAMPLES));
+                        final int offset = y * rowStride + x * pixelStride;
+                        if (pixelStride == 1) {
+                            sum += data[offset] & 0xFF;
+                        }
+                        else {
+                            //Green counts twice, roughly as the eye weights it
+                            sum += (data[offset] & 0xFF) + 2 * (data[offset + 1] & 0xFF) + (data[offset + 2] & 0xFF);
+                        }
+                    }
+                }
+                grid[cellY * GRID_WIDTH + cellX] = sum;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (grid[y * GRID_WIDTH + x] > grid[y * GRID_WIDTH + x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,122 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Writes each frame to its own file in a directory, named the same way as
+ * the files that ffmpeg writes: <code>videoName_%07d.jpg</code>
+ * <p/>
+ * Frames are placed according to an {@link OutputLayout}. Subdirectories are
+ * created when the first frame in them is written.
+ * <p/>
+ * An existing file is deleted before a frame is written in its place,
+ * instead of being overwritten, because it may be a hard link to a file in
+ * an {@link ExtractionCache}.
+ * <p/>
+ * @author Sam Crow
+ */
+class DirectoryFrameSink implements FrameSink {
+
+    private final File directory;
+
+    private final String videoName;
+
+    private final OutputLayout layout;
+
+    /**
+     * Constructor
+     * @param directory The directory to write frames to
+     * @param videoName The name of the video file, which is used as the prefix
+     * of each frame file name
+     */
+    public DirectoryFrameSink(File directory, String videoName) {
+        this(directory, videoName, OutputLayout.FLAT);
+    }
+
+    /**
+     * Constructor
+     * @param directory The output directory
+     * @param videoName The name of the video file, which is used as the prefix
+     * of each frame file name
+     * @param layout The layout of frame files in the output directory
+     */
+    public DirectoryFrameSink(File directory, String videoName, OutputLayout layout) {
+        this.directory = directory;
+        this.videoName = videoName;
+        this.layout = layout;
+    }
+
+    /**
+     * Returns the name of the file for a frame
+     * @param videoName The name of the video file
+     * @param frameNumber The frame number, starting at 1
+     * @return The file name
+     */
+    public static String fileName(String videoName, long frameNumber) {
+        return fileName(videoName, frameNumber, "jpg");
+    }
+
+    /**
+     * Returns the name of the file for a frame in another image format
+     * @param videoName The name of the video file
+     * @param frameNumber The frame number, starting at 1
+     * @param extension The file name extension, without a dot
+     * @return The file name
+     */
+    public static String fileName(String videoName, long frameNumber, String extension) {
+        return String.format("%s_%07d.%s", videoName, frameNumber, extension);
+    }
+
+    /**
+     * Returns the file name pattern that is passed to ffmpeg's image2 muxer
+     * so that it writes files with the same names as this sink
+     * @param videoName The name of the video file
+     * @return The pattern
+     */
+    public static String fileNamePattern(String videoName) {
+        return fileNamePattern(videoName, "jpg");
+    }
+
+    /**
+     * Returns the file name pattern for frames in another image format
+     * @param videoName The name of the video file
+     * @param extension The file name extension, without a dot
+     * @return The pattern
+     */
+    public static String fileNamePattern(String videoName, String extension) {
+        return videoName + "_%07d." + extension;
+    }
+
+    @Override
+    public void write(long frameNumber, double timestamp, byte[] data, int length) throws IOException {
+        final File file = layout.fileFor(directory, videoName, frameNumber);
+        if (layout.isSharded()) {
+            createParent(file);
+        }
+        Files.deleteIfExists(file.toPath());
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data, 0, length);
+        }
+    }
+
+    /**
+     * Creates the directory that a file is in, if it does not exist
+     * @param file The file
+     * @throws IOException if the directory could not be created
+     */
+    static void createParent(File file) throws IOException {
+        final File parent = file.getParentFile();
+        //Another thread may create the directory at the same time
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
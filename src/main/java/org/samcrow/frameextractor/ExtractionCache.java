@@ -0,0 +1,467 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Keeps the frames of finished extractions, so that extracting the same
+ * video with the same parameters again does not run ffmpeg.
+ * <p/>
+ * Entries are keyed by a hash of the video's contents, its file name (which
+ * is part of every frame's file name), and the extraction parameters, so
+ * the same video reached through a different path is found. An entry holds
+ * the frames that the extraction wrote and the other files directly in its
+ * output directory, such as the frame index. The files of an entry are hard
+ * links to the files of the extraction that stored it, and restoring an
+ * entry hard-links its files into the new output directory. Where hard links
+ * are not supported, such as between file systems, files are copied.
+ * Because the files are shared, files in an output directory must be
+ * replaced, never modified in place: everything that writes them deletes the
+ * old file first.
+ * <p/>
+ * The total size of the entries is kept under a limit by deleting the least
+ * recently used entries. An entry's use time is the modification time of
+ * its properties file, which is updated whenever the entry is restored.
+ * Deleting an entry only removes the cache's links, so output directories
+ * keep their frames.
+ * <p/>
+ * Several processes may use the same cache directory. An entry is built in
+ * a temporary directory and renamed into place, so readers never see a
+ * partial entry, and if two extractions store the same entry, the first one
+ * to finish is kept. An entry is renamed away before it is deleted. If that
+ * happens while a reader is restoring it, the restore fails part of the way
+ * through and the reader extracts the video instead. The files that were
+ * linked by then are left in the output directory, but they have the
+ * contents that the extraction writes, because the key covers the video and
+ * the parameters.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+public class ExtractionCache {
+
+    /**
+     * The name of the file in each entry that describes the entry
+     */
+    static final String ENTRY_FILE_NAME = ".entry.properties";
+
+    /**
+     * The prefix of temporary directory names
+     */
+    private static final String TEMP_PREFIX = ".tmp-";
+
+    /**
+     * The age, in milliseconds, after which a temporary directory is assumed
+     * to have been abandoned
+     */
+    private static final long STALE_TEMP_AGE = 24 * 60 * 60 * 1000L;
+
+    /**
+     * The number of content hashes to remember in memory
+     */
+    private static final int HASH_CAPACITY = 1024;
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    /**
+     * Content hashes by path, size, and modification time, least recently
+     * used first
+     */
+    private final Map<String, String> hashes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > HASH_CAPACITY;
+        }
+    };
+
+    /**
+     * Constructor
+     * @param directory The directory to keep entries in
+     * @param maxBytes The maximum total size of the entries, in bytes
+     */
+    public ExtractionCache(File directory, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The cache size must not be negative");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the key of an extraction
+     * @param video The video file
+     * @param parameters A description of every parameter that changes the
+     * extracted files
+     * @return The key
+     * @throws IOException if the video could not be read
+     */
+    public String key(File video, String parameters) throws IOException {
+        final String content = contentHash(video);
+        final String key = content + "\n" + video.getName() + "\n" + parameters;
+        return FFMpeg.toHex(FFMpeg.sha1().digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns the hash of a video's contents, hashing it only if its path,
+     * size, or modification time has changed since it was last hashed
+     */
+    private String contentHash(File video) throws IOException {
+        final String identity = video.getAbsolutePath() + "\n" + video.length() + "\n" + video.lastModified();
+        synchronized (hashes) {
+            final String cached = hashes.get(identity);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final String hash = hash(video);
+        synchronized (hashes) {
+            hashes.put(identity, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Restores an entry's files into an output directory, replacing any
+     * files with the same names
+     * @param key The key of the extraction
+     * @param outDir The output directory
+     * @return The entry, or null if the cache has no entry with the key or
+     * it could not be restored completely, for example because it was
+     * deleted while its files were being linked
+     */
+    public Entry restore(String key, File outDir) {
+        final File entryDirectory = new File(directory, key);
+        final File entryFile = new File(entryDirectory, ENTRY_FILE_NAME);
+        final Entry entry;
+        try {
+            entry = Entry.read(entryFile);
+        }
+        catch (IOException e) {
+            //Not cached, or being deleted
+            return null;
+        }
+        try {
+            link(entryDirectory, outDir);
+        }
+        catch (IOException e) {
+            System.err.println("Could not restore cached frames from " + entryDirectory + ": " + e.getLocalizedMessage());
+            return null;
+        }
+        //Mark the entry as recently used. It may have been deleted since it was linked.
+        entryFile.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Stores the files of a finished extraction, and then deletes the least
+     * recently used entries until the cache is under its size limit. If the
+     * cache already has an entry with the key, it is kept.
+     * @param key The key of the extraction
+     * @param outDir The output directory of the extraction
+     * @param videoName The name of the video file
+     * @param layout The layout of the frames. Frames 1 to frames that exist
+     * are stored, along with every other file directly in the output
+     * directory except the checkpoint. Other frames of the video, which may
+     * be left from different extractions, are not.
+     * @param frames The number of the last frame
+     * @param count The number of frames written
+     * @throws IOException if the entry could not be stored
+     */
+    public void store(String key, File outDir, String videoName, OutputLayout layout, long frames, long count) throws IOException {
+        final File entryDirectory = new File(directory, key);
+        if (entryDirectory.isDirectory()) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        final File temp = new File(directory, TEMP_PREFIX + UUID.randomUUID());
+        try {
+            final long bytes = linkExtraction(outDir, videoName, layout, frames, temp);
+            new Entry(frames, count, bytes).write(new File(temp, ENTRY_FILE_NAME));
+            try {
+                Files.move(temp.toPath(), entryDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (FileAlreadyExistsException e) {
+                //Another extraction stored the same entry first
+                return;
+            }
+            catch (IOException e) {
+                //Some systems report a rename onto a non-empty directory differently
+                if (entryDirectory.isDirectory()) {
+                    return;
+                }
+                throw e;
+            }
+        }
+        finally {
+            FileUtils.deleteQuietly(temp);
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the total size of the
+     * entries is no more than the limit
+     * @throws IOException if the cache directory could not be listed
+     */
+    void evict() throws IOException {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list " + directory);
+        }
+        final List<File> entryFiles = new ArrayList<>();
+        final Map<File, Long> sizes = new LinkedHashMap<>();
+        final Map<File, Long> useTimes = new LinkedHashMap<>();
+        long total = 0;
+        final long now = System.currentTimeMillis();
+        for (File child : children) {
+            final File entryFile = new File(child, ENTRY_FILE_NAME);
+            if (child.getName().startsWith(TEMP_PREFIX)) {
+                //Left by a process that stopped while storing or deleting an entry
+                if (now - child.lastModified() > STALE_TEMP_AGE) {
+                    FileUtils.deleteQuietly(child);
+                }
+                continue;
+            }
+            try {
+                final Entry entry = Entry.read(entryFile);
+                entryFiles.add(entryFile);
+                sizes.put(entryFile, entry.bytes);
+                //Read the time once, because other users of the cache may change it while sorting
+                useTimes.put(entryFile, entryFile.lastModified());
+                total += entry.bytes;
+            }
+            catch (IOException e) {
+                //Deleted by another user of the cache
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Collections.sort(entryFiles, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(useTimes.get(a), useTimes.get(b));
+            }
+        });
+        for (File entryFile : entryFiles) {
+            if (total <= maxBytes) {
+                break;
+            }
+            final File entryDirectory = entryFile.getParentFile();
+            //Rename first, so that no reader sees a partly deleted entry
+            final File doomed = new File(directory, TEMP_PREFIX + UUID.randomUUID());
+            try {
+                Files.move(entryDirectory.toPath(), doomed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e) {
+                //Already deleted by another user of the cache
+                continue;
+            }
+            FileUtils.deleteQuietly(doomed);
+            total -= sizes.get(entryFile);
+        }
+    }
+
+    /**
+     * @return The total size of the entries, in bytes
+     */
+    public long getSize() {
+        long total = 0;
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                try {
+                    total += Entry.read(new File(child, ENTRY_FILE_NAME)).bytes;
+                }
+                catch (IOException e) {
+                    //Not an entry
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Hard-links or copies the files of an extraction into a directory
+     * @return The total size of the files, in bytes
+     */
+    private static long linkExtraction(File outDir, String videoName, OutputLayout layout, long frames, File destination)
+            throws IOException {
+        if (!destination.mkdirs()) {
+            throw new IOException("Could not create directory " + destination);
+        }
+        long bytes = 0;
+        final File[] children = outDir.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list " + outDir);
+        }
+        for (File child : children) {
+            final String name = child.getName();
+            if (child.isFile() && !name.startsWith(videoName + "_") && !name.equals(ENTRY_FILE_NAME)
+                    && !name.startsWith(Checkpoint.FILE_NAME)) {
+                bytes += linkFile(child.toPath(), new File(destination, name).toPath());
+            }
+        }
+        for (long frame = 1; frame <= frames; frame++) {
+            final File file = layout.fileFor(outDir, videoName, frame);
+            //Skipped duplicates and frames that were not selected are missing
+            if (file.isFile()) {
+                final File target = layout.fileFor(destination, videoName, frame);
+                Files.createDirectories(target.getParentFile().toPath());
+                bytes += linkFile(file.toPath(), target.toPath());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Hard-links or copies every file in a directory tree into another
+     * directory, except checkpoints and entry files
+     * @return The total size of the files, in bytes
+     */
+    private static long link(File source, File destination) throws IOException {
+        final Path sourcePath = source.toPath();
+        final Path destinationPath = destination.toPath();
+        final long[] bytes = { 0 };
+        Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(destinationPath.resolve(sourcePath.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                final String name = file.getFileName().toString();
+                if (name.equals(ENTRY_FILE_NAME) || name.startsWith(Checkpoint.FILE_NAME)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                bytes[0] += linkFile(file, destinationPath.resolve(sourcePath.relativize(file).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return bytes[0];
+    }
+
+    /**
+     * Hard-links or copies a file, replacing any file at the target
+     * @return The size of the file, in bytes
+     */
+    private static long linkFile(Path file, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, file);
+        }
+        catch (UnsupportedOperationException | IOException e) {
+            Files.copy(file, target);
+        }
+        return Files.size(target);
+    }
+
+    /**
+     * @return The hexadecimal SHA-1 hash of a file's contents
+     * @throws IOException if the file could not be read
+     */
+    static String hash(File file) throws IOException {
+        final MessageDigest digest = FFMpeg.sha1();
+        try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+            final byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) != -1) {
+            }
+        }
+        return FFMpeg.toHex(digest.digest());
+    }
+
+    /**
+     * A description of a stored extraction
+     */
+    public static class Entry {
+
+        private final long frames;
+
+        private final long count;
+
+        private final long bytes;
+
+        Entry(long frames, long count, long bytes) {
+            this.frames = frames;
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return The number of the last frame
+         */
+        public long getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return The number of frames written, which is less than the last
+         * frame number if only some frames were selected or duplicates were
+         * skipped
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The total size of the entry's files, in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        private void write(File file) throws IOException {
+            final Properties properties = new Properties();
+            properties.setProperty("frames", String.valueOf(frames));
+            properties.setProperty("count", String.valueOf(count));
+            properties.setProperty("bytes", String.valueOf(bytes));
+            try (OutputStream out = new FileOutputStream(file)) {
+                properties.store(out, "Frame Extractor cache entry");
+            }
+        }
+
+        private static Entry read(File file) throws IOException {
+            final Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            }
+            try {
+                return new Entry(Long.parseLong(properties.getProperty("frames")), Long.parseLong(properties.getProperty("count")),
+                        Long.parseLong(properties.getProperty("bytes")));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("Malformed cache entry " + file, e);
+            }
+        }
+    }
+}
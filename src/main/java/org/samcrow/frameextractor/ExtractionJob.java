@@ -0,0 +1,658 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Extracts frames from one video file.
+ * <p/>
+ * This class does not depend on JavaFX, so it can be run headless. Progress
+ * is reported to a {@link ProgressListener}.
+ * <p/>
+ * @author Sam Crow
+ */
+public class ExtractionJob {
+
+    private final String videoPath;
+
+    private final String outputDirectory;
+
+    private final ExtractionSettings settings;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * The ffmpeg processes that are currently running
+     */
+    private final List<FFMpegProcess> processes = new CopyOnWriteArrayList<>();
+
+    private final JobMetrics metrics;
+
+    /**
+     * Constructor
+     * <p/>
+     * @param videoPath Absolute path to the video file to read
+     * @param outputDirectory Directory, without a trailing slash, to put still
+     * frames in
+     * @param settings The extraction settings
+     */
+    public ExtractionJob(String videoPath, String outputDirectory, ExtractionSettings settings) {
+        this.videoPath = videoPath;
+        this.outputDirectory = outputDirectory;
+        this.settings = settings;
+        this.metrics = new JobMetrics(videoPath, settings.getMetricsLog());
+    }
+
+    public String getVideoPath() {
+        return videoPath;
+    }
+
+    public String getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Requests that this job stop. The ffmpeg processes, if any, are destroyed
+     * and {@link #run(ProgressListener)} returns soon after.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (FFMpegProcess process : processes) {
+            process.destroy();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The metrics of the current or most recent run of this job
+     */
+    public JobMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Runs the extraction on the current thread
+     * <p/>
+     * @param listener The listener to report progress to
+     * @return The result of the extraction
+     * @throws Exception if the extraction failed
+     */
+    public ExtractionResult run(ProgressListener listener) throws Exception {
+        metrics.started();
+        final ExtractionResult result;
+        try {
+            result = extract(listener);
+        }
+        catch (Exception e) {
+            metrics.failed(e);
+            throw e;
+        }
+        metrics.finished(result.isCancelled());
+        return result;
+    }
+
+    private ExtractionResult extract(ProgressListener listener) throws Exception {
+        final long startTime = System.currentTimeMillis();
+
+        //Denote indeterminate progress with -1 as the first param
+        listener.updateProgress(-1, 1);
+        listener.updateTitle("Starting process");
+
+        //Check that the input and ouptut locations exist and are read/write-able
+        File videoFile = new File(videoPath);
+        if (!videoFile.exists()) {
+            throw new FileNotFoundException("Input video file " + videoPath + " does not exist");
+        }
+        if (!videoFile.canRead()) {
+            throw new IOException("Input video file " + videoPath + " is not readable");
+        }
+        File outDir = new File(outputDirectory);
+        if (!outDir.isDirectory()) {
+
+            //Try to create the directory
+            if (!outDir.mkdirs()) {
+
+                throw new IOException("Output directory " + outputDirectory + " is not a directory or does not exist, and could not be created");
+            }
+        }
+        if (!outDir.canWrite()) {
+            throw new IOException("Output directory " + outputDirectory + " is not writable");
+        }
+
+        final SamplingMode sampling = settings.getSampling();
+        final boolean sampled = sampling != SamplingMode.ALL;
+        if (sampled && settings.isArchive()) {
+            throw new IllegalArgumentException("Sampled frames cannot be written to an archive");
+        }
+        final FrameSelection selection = settings.getFrameSelection();
+        if (selection != null && (sampled || settings.isArchive())) {
+            throw new IllegalArgumentException("A frame selection cannot be used with sampling or archives");
+        }
+        final boolean deduplicating = settings.isDeduplicating();
+        if (deduplicating && (sampled || selection != null || !settings.getOutputs().isEmpty())) {
+            throw new IllegalArgumentException("Duplicate frames cannot be skipped with sampling, frame selections, or additional outputs");
+        }
+        final List<OutputSpec> outputs = settings.getOutputs();
+        if (!outputs.isEmpty() && (selection != null || settings.isArchive() || settings.getSegments() > 1 || settings.getEncoderThreads() > 0)) {
+            throw new IllegalArgumentException("Additional outputs cannot be used with segments, encoder threads, archives, or frame selections");
+        }
+        final ImageFormat imageFormat = settings.getImageFormat();
+        if (settings.isArchive() && (imageFormat != ImageFormat.JPEG || settings.isGrayscale())) {
+            throw new IllegalArgumentException("Archives can only hold color JPEG images");
+        }
+
+        listener.updateMessage("Getting video information");
+        final long probeStart = System.currentTimeMillis();
+        VideoInfo info = probe();
+        double frameRate = settings.getFrameRate();
+        if (settings.useNativeFrameRate()) {
+            frameRate = info.frameRate;
+        }
+        metrics.probed(System.currentTimeMillis() - probeStart, frameRate, info.duration);
+
+        //Save the frame rate to a file. Sampled frames have a timestamps file instead.
+        if (!sampled) {
+            File frameRateFile = new File(outDir, "frame_rate.txt");
+            //Replace the file instead of overwriting it, because it may be shared with the extraction cache
+            Files.deleteIfExists(frameRateFile.toPath());
+            try (FileWriter writer = new FileWriter(frameRateFile)) {
+                writer.append(String.valueOf(frameRate));
+                writer.append(System.getProperty("line.separator"));
+            }
+        }
+
+        //Crop and scale filters, which are applied after any filter that drops frames
+        final FrameGeometry geometry = FrameGeometry.of(info, settings);
+        final VideoInfo.Resolution newResolution = geometry.getResolution();
+
+        //Options for the input file
+        List<String> inputOptions = Collections.emptyList();
+        //A filter that is applied to every decoded frame before it is split between outputs, or null
+        String videoFilter = geometry.getFilter();
+        //Options for the output file as option and value pairs, which are the same for every ffmpeg process
+        final List<String> outputOptions;
+        final String sceneThreshold = String.format(Locale.US, "%.3f", settings.getSceneThreshold());
+        if (sampled) {
+            String filter = "showinfo";
+            if (sampling == SamplingMode.KEYFRAMES) {
+                //Discard other frames before they are decoded
+                inputOptions = Arrays.asList("-skip_frame", "nokey");
+            }
+            else if (sampling == SamplingMode.SCENE_CHANGES) {
+                filter = "select='gt(scene," + sceneThreshold + ")'," + filter;
+            }
+            videoFilter = geometry.after(filter);
+            //showinfo logs the time of each selected frame, and passthrough writes each one once
+            //instead of duplicating or dropping frames to reach a constant rate
+            outputOptions = new ArrayList<>(Arrays.asList("-vsync", "passthrough"));
+        }
+        else if (selection != null) {
+            //The frame rate is applied by a filter that each cluster process sets up
+            outputOptions = new ArrayList<>(Arrays.asList("-vsync", "passthrough"));
+        }
+        else {
+            outputOptions = new ArrayList<>(Arrays.asList("-r", String.valueOf(frameRate)));
+        }
+        outputOptions.addAll(imageFormat.codecOptions(settings.getImageQuality()));
+        outputOptions.add("-f");
+        outputOptions.add("image2");
+
+        final boolean sparse = selection != null;
+        final int segments = sampled || sparse ? 1 : SegmentedExtraction.segmentCount(info.duration, settings.getSegments());
+        final boolean archive = settings.isArchive();
+        final boolean useEncoders = !sampled && !sparse && (archive || deduplicating || settings.getEncoderThreads() > 0);
+        //Plain extractions run their segments on workers when a coordinator is available. Other modes run here.
+        final Coordinator coordinator = !sampled && !sparse && !useEncoders && outputs.isEmpty() ? settings.getCoordinator() : null;
+        String mode;
+        if (sampling == SamplingMode.KEYFRAMES) {
+            mode = "keyframes";
+        }
+        else if (sampling == SamplingMode.PASSTHROUGH) {
+            mode = "passthrough";
+        }
+        else if (sampling == SamplingMode.SCENE_CHANGES) {
+            mode = "scenes:" + sceneThreshold;
+        }
+        else if (sparse) {
+            mode = "sparse:" + selection.identity(frameRate);
+        }
+        else {
+            mode = archive ? "archive" : useEncoders ? "jvm" : "ffmpeg";
+        }
+        if (deduplicating) {
+            mode += " duplicates=" + settings.getDuplicateDistance();
+        }
+        if (settings.getCrop() != null) {
+            mode += " crop=" + settings.getCrop();
+        }
+        //The format is part of the layout, because it decides the file names
+        if (settings.getImageQuality() != -1) {
+            mode += " quality=" + settings.getImageQuality();
+        }
+        if (settings.isGrayscale()) {
+            mode += " gray";
+        }
+        if (!outputs.isEmpty()) {
+            //A run with different outputs must not resume this one
+            mode += " outputs=" + outputs;
+        }
+        final OutputLayout layout = settings.getLayout();
+        final Checkpoint checkpoint = new Checkpoint(outDir, videoFile, frameRate, newResolution, mode, layout);
+
+        //The number of frames that a previous run already wrote
+        long resumedFrames = 0;
+        if (settings.isResume() && checkpoint.load()) {
+            if (checkpoint.isComplete()) {
+                listener.updateProgress(1, 1);
+                listener.updateMessage("Already finished");
+                return new ExtractionResult(videoPath, checkpoint.getLastFrame(), System.currentTimeMillis() - startTime, false);
+            }
+            //Segments are renumbered at the end, an archive's index is written at the end,
+            //sampled frames are numbered from the start of the video, and selected frames are not
+            //written in order, and skipped duplicates are not recorded until the end, so those cannot be resumed
+            if (!archive && !sampled && !sparse && !deduplicating && (useEncoders || segments == 1 && coordinator == null)) {
+                listener.updateMessage("Checking frames from the previous run");
+                resumedFrames = Checkpoint.verify(outDir, videoFile.getName(), layout, checkpoint.getLastFrame());
+            }
+        }
+        //Restore the frames of an identical extraction instead of running ffmpeg, if the cache has them
+        final ExtractionCache cache = outputs.isEmpty() ? settings.getExtractionCache() : null;
+        String cacheKey = null;
+        if (cache != null) {
+            listener.updateMessage("Checking the extraction cache");
+            cacheKey = cache.key(videoFile, mode + " rate=" + frameRate + " size=" + newResolution + " filter=" + geometry.getFilter()
+                    + " layout=" + layout);
+            final ExtractionCache.Entry cached = cache.restore(cacheKey, outDir);
+            if (cached != null) {
+                //Frames beyond the end of the entry are left from a different extraction
+                layout.deleteFrames(outDir, videoFile.getName(), cached.getFrames() + 1);
+                checkpoint.markComplete(cached.getFrames());
+                listener.updateProgress(1, 1);
+                listener.updateMessage("Restored from the cache");
+                return new ExtractionResult(videoPath, cached.getCount(), System.currentTimeMillis() - startTime, false);
+            }
+        }
+
+        //ffmpeg overwrites existing files in place, and they may be shared with the extraction cache, so delete them first.
+        //This also removes frames from an earlier extraction that went further.
+        layout.deleteFrames(outDir, videoFile.getName(), resumedFrames + 1);
+        checkpoint.start(resumedFrames);
+        checkpoint.save();
+        metrics.extracting(coordinator != null ? mode + "-distributed" : segments > 1 && !useEncoders ? mode + "-segmented" : mode, resumedFrames);
+
+        final long expectedFrames = (long) Math.ceil(info.duration / 1000.0 * frameRate);
+        final FrameTimestamps timestamps = sampled ? new FrameTimestamps(videoFile.getName()) : null;
+        //The numbers of the selected frames that were written, or null if frames 1 to frames were written
+        List<Long> selectedFrames = null;
+        final FrameDuplicates duplicates = deduplicating ? new FrameDuplicates(videoFile.getName()) : null;
+        final long frames;
+        if (sparse) {
+            final long[] selected = selection.toFrameNumbers(frameRate);
+            final int processes = settings.getSegments() > 1 ? settings.getSegments() : Runtime.getRuntime().availableProcessors();
+            listener.updateMessage("Extracting " + selected.length + " selected frames");
+            selectedFrames = new SparseExtraction(this, videoFile, outDir, geometry.getFilter(), outputOptions, frameRate, selected, processes,
+                    layout).run(listener);
+            frames = selectedFrames.isEmpty() ? 0 : selectedFrames.get(selectedFrames.size() - 1);
+        }
+        else if (useEncoders) {
+            frames = extractWithEncoders(videoFile, outDir, layout, resumedFrames + 1, expectedFrames, checkpoint, duplicates, listener);
+        }
+        else if (segments > 1 || coordinator != null) {
+            listener.updateMessage("Extracting frames in " + segments + " segments" + (coordinator != null ? " on workers" : ""));
+            final List<String> segmentOptions = new ArrayList<>(outputOptions);
+            if (videoFilter != null) {
+                segmentOptions.add("-vf");
+                segmentOptions.add(videoFilter);
+            }
+            frames = new SegmentedExtraction(this, videoFile, outDir, segmentOptions, frameRate, info.duration, segments, layout,
+                    coordinator).run(listener);
+        }
+        else {
+            frames = extractSequential(videoFile, outDir, layout, inputOptions, videoFilter, outputOptions, resumedFrames + 1, frameRate,
+                    checkpoint, timestamps, listener);
+        }
+
+        final long frameCount = selectedFrames != null ? selectedFrames.size() : frames;
+        if (cancelled) {
+            checkpoint.save();
+            listener.updateProgress(-1, 1);
+            listener.updateMessage("Cancelled");
+            return new ExtractionResult(videoPath, frameCount, System.currentTimeMillis() - startTime, true);
+        }
+        //Write the index before the checkpoint, so that a complete checkpoint always has an index
+        if (timestamps != null) {
+            timestamps.write(new File(outDir, FrameTimestamps.FILE_NAME));
+        }
+        if (duplicates != null) {
+            duplicates.write(new File(outDir, FrameDuplicates.FILE_NAME));
+        }
+        if (!archive) {
+            final FrameIndex index = new FrameIndex(videoFile.getName(), layout);
+            if (selectedFrames != null) {
+                for (long frame : selectedFrames) {
+                    index.add(frame);
+                }
+            }
+            else if (duplicates != null) {
+                duplicates.addWrittenFrames(index, frames);
+            }
+            else if (frames > 0) {
+                index.addRange(1, frames);
+            }
+            index.write(new File(outDir, FrameIndex.FILE_NAME));
+        }
+        if (!useEncoders && !sparse) {
+            //ffmpeg does not report the size of image files, so add them up
+            long bytes = 0;
+            for (long i = resumedFrames + 1; i <= frames; i++) {
+                bytes += layout.fileFor(outDir, videoFile.getName(), i).length();
+            }
+            metrics.setFramesWritten(frames - resumedFrames);
+            metrics.setBytesWritten(bytes);
+        }
+        checkpoint.markComplete(frames);
+        if (cacheKey != null) {
+            listener.updateMessage("Storing frames in the extraction cache");
+            try {
+                cache.store(cacheKey, outDir, videoFile.getName(), layout, frames, frameCount);
+            }
+            catch (IOException e) {
+                //The frames are already in the output directory
+                System.err.println("Could not store frames in the extraction cache: " + e.getLocalizedMessage());
+            }
+        }
+
+        //Note completion
+        listener.updateProgress(1, 1);
+        listener.updateMessage("Finished");
+
+        return new ExtractionResult(videoPath, frameCount, System.currentTimeMillis() - startTime, false);
+    }
+
+    /**
+     * Extracts frames with one ffmpeg process
+     * <p/>
+     * ffmpeg writes every frame into the output directory. If the layout is
+     * sharded, frames are moved into their subdirectories as soon as they
+     * are complete.
+     * <p/>
+     * If the settings have additional outputs, the video is still decoded
+     * once: the decoded frames are split in the filter graph and each copy is
+     * scaled and encoded for its own output.
+     * @param videoFilter A filter to apply to every frame before it is
+     * split between outputs, or null
+     * @param firstFrame The number of the first frame to extract
+     * @param timestamps The timestamps to add the time of each frame to, as
+     * logged by a showinfo filter in the output options, or null
+     * @return The number of the last frame extracted
+     */
+    private long extractSequential(File videoFile, File outDir, OutputLayout layout, List<String> inputOptions, String videoFilter,
+            List<String> outputOptions, final long firstFrame, double frameRate, final Checkpoint checkpoint, FrameTimestamps timestamps,
+            final ProgressListener listener) throws Exception {
+        //Assemble arguments
+        final List<String> arguments = new ArrayList<>(inputOptions);
+        FFMpegProcess.addSeekingInput(arguments, videoPath, (firstFrame - 1) / frameRate);
+        final List<OutputSpec> outputs = settings.getOutputs();
+        if (outputs.isEmpty()) {
+            if (videoFilter != null) {
+                arguments.add("-vf");
+                arguments.add(videoFilter);
+            }
+            arguments.addAll(outputOptions);
+        }
+        else {
+            addSplitOutputs(arguments, videoFile.getName(), outDir, videoFilter, outputOptions, firstFrame);
+            arguments.add("-map");
+            arguments.add("[out0]");
+            arguments.addAll(outputOptions);
+        }
+        arguments.add("-start_number");
+        arguments.add(String.valueOf(firstFrame));
+        arguments.add(outputDirectory + "/" + DirectoryFrameSink.fileNamePattern(videoFile.getName(), layout.getExtension()));
+
+        final ShardMover mover = new ShardMover(outDir, videoFile.getName(), layout, firstFrame);
+        final FFMpegProcess process = startProcess(arguments);
+        if (process == null) {
+            return firstFrame - 1;
+        }
+        try {
+            listener.updateMessage("Extracting video length");
+            final int exitCode = process.run(new ProgressListener() {
+                @Override
+                public void updateTitle(String title) {
+                    listener.updateTitle(title);
+                }
+
+                @Override
+                public void updateMessage(String message) {
+                    listener.updateMessage(message);
+                }
+
+                @Override
+                public void updateProgress(long workDone, long max) {
+                    listener.updateProgress(workDone, max);
+                    metrics.setFramesWritten(process.getFrame());
+                    metrics.setFFMpegSpeed(process.getSpeed());
+                    //The frame that ffmpeg most recently reported may not be completely written yet
+                    final long complete = firstFrame + process.getFrame() - 2;
+                    try {
+                        mover.moveTo(complete);
+                    }
+                    catch (IOException e) {
+                        //Frames that were not moved are moved again at the end
+                        System.err.println("Could not move frames into subdirectories: " + e.getLocalizedMessage());
+                        return;
+                    }
+                    checkpoint.setLastFrame(complete);
+                    checkpoint.saveIfDue();
+                }
+            });
+            final long lastFrame = firstFrame - 1 + process.getFrame();
+            if (!cancelled) {
+                mover.moveTo(lastFrame);
+                if (exitCode != 0) {
+                    //Frames that were written are kept, and a resumed job continues after them
+                    checkpoint.setLastFrame(lastFrame - 1);
+                    checkpoint.save();
+                    throw process.failure(exitCode, "extracting frames from " + videoPath);
+                }
+            }
+            if (timestamps != null) {
+                final List<Double> times = process.getFrameTimestamps();
+                if (times.size() != lastFrame - firstFrame + 1) {
+                    System.err.println("ffmpeg wrote " + (lastFrame - firstFrame + 1) + " frames but logged the times of " + times.size());
+                }
+                for (int i = 0; i < times.size() && firstFrame + i <= lastFrame; i++) {
+                    timestamps.add(firstFrame + i, times.get(i));
+                }
+            }
+            return lastFrame;
+        }
+        finally {
+            finishProcess(process);
+        }
+    }
+
+    /**
+     * Adds a filter graph that splits the decoded frames between the main
+     * output and the additional outputs, and adds the additional outputs.
+     * The main output must then be mapped from the label
+     * <code>[out0]</code>.
+     */
+    private void addSplitOutputs(List<String> arguments, String videoName, File outDir, String videoFilter, List<String> outputOptions,
+            long firstFrame) throws IOException {
+        final List<OutputSpec> outputs = settings.getOutputs();
+        //Rate options are the main output's options other than its encoder and muxer
+        final List<String> rateOptions = new ArrayList<>();
+        for (int i = 0; i < outputOptions.size(); i += 2) {
+            final String option = outputOptions.get(i);
+            if (option.equals("-r") || option.equals("-vsync")) {
+                rateOptions.add(option);
+                rateOptions.add(outputOptions.get(i + 1));
+            }
+        }
+
+        //The video filter crops and scales to the main output's geometry before splitting,
+        //so the other outputs' sizes are relative to square pixels
+        final StringBuilder graph = new StringBuilder("[0:v]");
+        if (videoFilter != null) {
+            graph.append(videoFilter).append(',');
+        }
+        graph.append("split=").append(outputs.size() + 1).append("[out0]");
+        for (int i = 1; i <= outputs.size(); i++) {
+            graph.append("[split").append(i).append(']');
+        }
+        for (int i = 1; i <= outputs.size(); i++) {
+            final String scale = outputs.get(i - 1).scaleFilter();
+            graph.append(";[split").append(i).append(']').append(scale != null ? scale : "null").append("[out").append(i).append(']');
+        }
+        arguments.add("-filter_complex");
+        arguments.add(graph.toString());
+
+        for (int i = 1; i <= outputs.size(); i++) {
+            final OutputSpec output = outputs.get(i - 1);
+            final File directory = output.resolveDirectory(outDir);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create output directory " + directory);
+            }
+            arguments.add("-map");
+            arguments.add("[out" + i + "]");
+            arguments.addAll(rateOptions);
+            arguments.addAll(output.codecOptions());
+            arguments.add("-f");
+            arguments.add("image2");
+            arguments.add("-start_number");
+            arguments.add(String.valueOf(firstFrame));
+            arguments.add(new File(directory, DirectoryFrameSink.fileNamePattern(videoName, output.getFormat().getExtension())).getPath());
+        }
+    }
+
+    /**
+     * Decodes frames with ffmpeg and encodes them in this JVM on several
+     * threads, writing them to image files or to an archive
+     * @param firstFrame The number of the first frame to extract
+     * @param duplicates The duplicates to record skipped frames in, or null
+     * to write every frame
+     * @return The number of the last frame extracted
+     */
+    private long extractWithEncoders(File videoFile, File outDir, OutputLayout layout, long firstFrame, long expectedFrames,
+            final Checkpoint checkpoint, FrameDuplicates duplicates, ProgressListener listener) throws Exception {
+        int threads = settings.getEncoderThreads();
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        final ArchiveFrameSink archiveSink = settings.isArchive() ? new ArchiveFrameSink(FrameArchive.fileFor(outDir, videoFile.getName()))
+                : null;
+        final FrameSink outputSink = archiveSink != null ? archiveSink : new DirectoryFrameSink(outDir, videoFile.getName(), layout);
+        //Skipped duplicates are never reported, so a deduplicated run only records its frames at the end
+        final boolean deduplicating = duplicates != null;
+        //Record each frame in the checkpoint after it has been written
+        final FrameSink sink = new FrameSink() {
+            @Override
+            public void write(long frameNumber, double timestamp, byte[] data, int length) throws IOException {
+                outputSink.write(frameNumber, timestamp, data, length);
+                metrics.frameWritten(length);
+                if (!deduplicating) {
+                    checkpoint.frameWritten(frameNumber);
+                }
+                checkpoint.saveIfDue();
+            }
+
+            @Override
+            public void close() throws IOException {
+                outputSink.close();
+            }
+        };
+        //True if every frame was written, so that an archive can be given its index
+        boolean complete = false;
+        try (FrameStream stream = new FrameStream(videoFile, settings,
+                ParallelEncoder.pixelFormatFor(settings.getImageFormat(), settings.isGrayscale()),
+                ParallelEncoder.poolSize(threads), firstFrame)) {
+            if (!track(stream.getProcess())) {
+                return firstFrame - 1;
+            }
+            try {
+                listener.updateProgress(0, expectedFrames);
+                listener.updateMessage("Extracting frames");
+                final Deduplicator deduplicator = duplicates != null ? new Deduplicator(settings.getDuplicateDistance(), firstFrame, duplicates) : null;
+                final long encoded = new ParallelEncoder(threads, sink, deduplicator, settings.getImageFormat(), settings.getImageQuality())
+                        .encode(stream, this, listener, expectedFrames);
+                complete = !cancelled;
+                return firstFrame - 1 + encoded;
+            }
+            finally {
+                finishProcess(stream.getProcess());
+            }
+        }
+        finally {
+            //The sink is closed after the stream. A partial archive gets no index, so it cannot be mistaken for a complete one.
+            if (archiveSink != null && !complete) {
+                archiveSink.abort();
+            }
+            else {
+                sink.close();
+            }
+        }
+    }
+
+    /**
+     * Gets information about the video, from the probe cache if possible
+     * @return Information about the video
+     * @throws Exception if the video could not be probed
+     */
+    public VideoInfo probe() throws Exception {
+        return settings.getProbeCache().get(new File(videoPath));
+    }
+
+    /**
+     * Starts an ffmpeg process that will be destroyed if this job is cancelled
+     * @param arguments The ffmpeg arguments
+     * @return The process, or null if this job has been cancelled
+     * @throws IOException if the process could not be started
+     */
+    FFMpegProcess startProcess(List<String> arguments) throws IOException {
+        if (cancelled) {
+            return null;
+        }
+        final FFMpegProcess process = FFMpegProcess.start(arguments, settings.getStallTimeout(), settings.getProcessTimeLimit());
+        track(process);
+        return process;
+    }
+
+    /**
+     * Tracks a process so that it will be destroyed if this job is cancelled
+     * @param process The process to track
+     * @return false if this job has already been cancelled, in which case the
+     * process has been destroyed
+     */
+    boolean track(FFMpegProcess process) {
+        metrics.processStarted(process.getSpawnMillis());
+        processes.add(process);
+        if (cancelled) {
+            //Cancelled while the process was starting
+            process.destroy();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops tracking a process that has finished
+     */
+    void finishProcess(FFMpegProcess process) {
+        processes.remove(process);
+    }
+
+}
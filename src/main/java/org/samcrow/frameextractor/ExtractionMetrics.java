@@ -0,0 +1,174 @@
+package org.samcrow.frameextractor;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and distributions that cover every extraction in this JVM.
+ * <p/>
+ * The global instance is registered with the platform MBean server as
+ * <code>org.samcrow.frameextractor:type=ExtractionMetrics</code>, and each
+ * running job is registered as
+ * <code>org.samcrow.frameextractor:type=ExtractionJob,id=N,video="name"</code>
+ * until it ends. They can be viewed with jconsole or any JMX client.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+public class ExtractionMetrics implements ExtractionMetricsMXBean {
+
+    static final String DOMAIN = "org.samcrow.frameextractor";
+
+    private static ExtractionMetrics global;
+
+    final AtomicLong jobsStarted = new AtomicLong();
+
+    final AtomicLong jobsRunning = new AtomicLong();
+
+    final AtomicLong jobsFinished = new AtomicLong();
+
+    final AtomicLong jobsFailed = new AtomicLong();
+
+    final AtomicLong jobsCancelled = new AtomicLong();
+
+    final AtomicLong jobsBelowRealTime = new AtomicLong();
+
+    final AtomicLong framesWritten = new AtomicLong();
+
+    final AtomicLong bytesWritten = new AtomicLong();
+
+    final AtomicLong processesStarted = new AtomicLong();
+
+    final Histogram probeMillis = new Histogram();
+
+    final Histogram spawnMillis = new Histogram();
+
+    final Histogram jobMillis = new Histogram();
+
+    final Histogram jobFramesPerSecond = new Histogram();
+
+    final Histogram jobRealTimePercent = new Histogram();
+
+    /**
+     * Returns the metrics for all jobs in this JVM, registering them with the
+     * platform MBean server the first time
+     * @return The global metrics
+     */
+    public static synchronized ExtractionMetrics getGlobal() {
+        if (global == null) {
+            global = new ExtractionMetrics();
+            register(global, DOMAIN + ":type=ExtractionMetrics");
+        }
+        return global;
+    }
+
+    /**
+     * Registers an MBean with the platform MBean server. Failures are logged
+     * and otherwise ignored, because metrics must not stop an extraction.
+     * @param bean The bean to register
+     * @param name The object name
+     * @return The registered name, or null if the bean was not registered
+     */
+    static ObjectName register(Object bean, String name) {
+        try {
+            final ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+            return objectName;
+        }
+        catch (JMException | SecurityException e) {
+            System.err.println("Could not register " + name + " for monitoring: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters an MBean, ignoring failures
+     * @param name The name of the bean, or null
+     */
+    static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        }
+        catch (JMException | SecurityException e) {
+            System.err.println("Could not unregister " + name + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public long getJobsStarted() {
+        return jobsStarted.get();
+    }
+
+    @Override
+    public long getJobsRunning() {
+        return jobsRunning.get();
+    }
+
+    @Override
+    public long getJobsFinished() {
+        return jobsFinished.get();
+    }
+
+    @Override
+    public long getJobsFailed() {
+        return jobsFailed.get();
+    }
+
+    @Override
+    public long getJobsCancelled() {
+        return jobsCancelled.get();
+    }
+
+    @Override
+    public long getJobsBelowRealTime() {
+        return jobsBelowRealTime.get();
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public long getProcessesStarted() {
+        return processesStarted.get();
+    }
+
+    @Override
+    public Histogram getProbeMillis() {
+        return probeMillis;
+    }
+
+    @Override
+    public Histogram getSpawnMillis() {
+        return spawnMillis;
+    }
+
+    @Override
+    public Histogram getJobMillis() {
+        return jobMillis;
+    }
+
+    @Override
+    public Histogram getJobFramesPerSecond() {
+        return jobFramesPerSecond;
+    }
+
+    @Override
+    public Histogram getJobRealTimePercent() {
+        return jobRealTimePercent;
+    }
+}
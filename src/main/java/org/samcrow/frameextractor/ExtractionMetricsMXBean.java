@@ -0,0 +1,59 @@
+package org.samcrow.frameextractor;
+
+/**
+ * Management interface for the metrics of all extractions in this JVM
+ * <p/>
+ * @see ExtractionMetrics
+ * @author Sam Crow
+ */
+public interface ExtractionMetricsMXBean {
+
+    long getJobsStarted();
+
+    long getJobsRunning();
+
+    long getJobsFinished();
+
+    long getJobsFailed();
+
+    long getJobsCancelled();
+
+    /**
+     * @return The number of finished jobs that extracted frames more slowly
+     * than the video plays
+     */
+    long getJobsBelowRealTime();
+
+    long getFramesWritten();
+
+    long getBytesWritten();
+
+    long getProcessesStarted();
+
+    /**
+     * @return The time taken to get video information, in milliseconds
+     */
+    Histogram getProbeMillis();
+
+    /**
+     * @return The time taken to start each ffmpeg process, in milliseconds
+     */
+    Histogram getSpawnMillis();
+
+    /**
+     * @return The total time of each finished job, in milliseconds
+     */
+    Histogram getJobMillis();
+
+    /**
+     * @return The rate that each finished job wrote frames at, in frames per
+     * second
+     */
+    Histogram getJobFramesPerSecond();
+
+    /**
+     * @return The real-time factor of each finished job (seconds of video
+     * extracted per second), multiplied by 100
+     */
+    Histogram getJobRealTimePercent();
+}
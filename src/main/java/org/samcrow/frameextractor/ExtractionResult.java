@@ -0,0 +1,56 @@
+package org.samcrow.frameextractor;
+
+/**
+ * The outcome of one {@link ExtractionJob}
+ * <p/>
+ * @author Sam Crow
+ */
+public class ExtractionResult {
+
+    private final String videoPath;
+
+    private final long frames;
+
+    private final long elapsedMillis;
+
+    private final boolean cancelled;
+
+    public ExtractionResult(String videoPath, long frames, long elapsedMillis, boolean cancelled) {
+        this.videoPath = videoPath;
+        this.frames = frames;
+        this.elapsedMillis = elapsedMillis;
+        this.cancelled = cancelled;
+    }
+
+    public String getVideoPath() {
+        return videoPath;
+    }
+
+    /**
+     * @return The number of frames written
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The wall-clock time the job took, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The number of frames written per second of wall-clock time
+     */
+    public double getFramesPerSecond() {
+        if (elapsedMillis == 0) {
+            return 0;
+        }
+        return frames * 1000.0 / elapsedMillis;
+    }
+}
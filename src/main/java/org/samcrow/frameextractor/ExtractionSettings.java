@@ -0,0 +1,576 @@
+package org.samcrow.frameextractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Options that control how frames are extracted from a video.
+ * <p/>
+ * The same settings object can be shared by many {@link ExtractionJob}s,
+ * so jobs must not modify it.
+ * <p/>
+ * @author Sam Crow
+ */
+public class ExtractionSettings {
+
+    /**
+     * The frame rate to extract frames at, or -1 if the file's native frame
+     * rate should be used
+     */
+    private double frameRate = -1;
+
+    /**
+     * The number of time ranges to split each video into. Each range is
+     * extracted by its own ffmpeg process, at the same time as the others.
+     */
+    private int segments = 1;
+
+    /**
+     * The number of threads to encode images on in this JVM, or 0 to have
+     * ffmpeg encode the images
+     */
+    private int encoderThreads = 0;
+
+    /**
+     * If true, an extraction that was interrupted is continued from its
+     * checkpoint instead of being started again
+     */
+    private boolean resume = true;
+
+    /**
+     * The number of frames to put in each subdirectory of the output
+     * directory, or 0 to put all frames directly in the output directory
+     */
+    private int framesPerDirectory = 0;
+
+    /**
+     * If true, all frames of a video are written to one {@link FrameArchive}
+     * file instead of one file per frame
+     */
+    private boolean archive = false;
+
+    /**
+     * Which frames are extracted
+     */
+    private SamplingMode sampling = SamplingMode.ALL;
+
+    /**
+     * The scene change score, from 0 to 1, that a frame must exceed to be
+     * extracted in {@link SamplingMode#SCENE_CHANGES} mode
+     */
+    private double sceneThreshold = 0.4;
+
+    /**
+     * The frames to extract, or null to extract every frame
+     */
+    private FrameSelection frameSelection;
+
+    /**
+     * The largest number of bits that a frame's hash can differ from the last
+     * written frame's hash by for the frame to be skipped, or -1 to write
+     * every frame
+     */
+    private int duplicateDistance = -1;
+
+    /**
+     * The region of the picture to keep, or null to keep the whole picture
+     */
+    private CropRegion crop;
+
+    /**
+     * How frames with non-square pixels are scaled
+     */
+    private ScalingPolicy scalingPolicy = ScalingPolicy.BICUBIC;
+
+    /**
+     * The format of the main output's images
+     */
+    private ImageFormat imageFormat = ImageFormat.JPEG;
+
+    /**
+     * The quality of the main output's images, or -1 to use the encoder's
+     * default
+     */
+    private int imageQuality = -1;
+
+    /**
+     * If true, frames are converted to 8-bit grayscale before they are
+     * encoded
+     */
+    private boolean grayscale = false;
+
+    /**
+     * Outputs that are written in addition to the main output
+     */
+    private final List<OutputSpec> outputs = new ArrayList<>();
+
+    /**
+     * The time that an ffmpeg process may run without making progress, in
+     * milliseconds, or 0 for no limit
+     */
+    private long stallTimeout = DEFAULT_STALL_TIMEOUT;
+
+    /**
+     * The time that an ffmpeg process may run, in milliseconds, or 0 for no
+     * limit
+     */
+    private long processTimeLimit = 0;
+
+    /**
+     * The cache of finished extractions, or null to always extract
+     */
+    private ExtractionCache extractionCache;
+
+    /**
+     * The coordinator that hands segments to workers, or null to extract on
+     * this host
+     */
+    private Coordinator coordinator;
+
+    /**
+     * The cache to get video information from, or null to use the default
+     * cache
+     */
+    private ProbeCache probeCache;
+
+    /**
+     * The log to write job events to, or null
+     */
+    private MetricsLog metricsLog;
+
+    /**
+     * The default stall timeout, in milliseconds
+     */
+    public static final long DEFAULT_STALL_TIMEOUT = 120000;
+
+    public ExtractionSettings() {
+    }
+
+    public ExtractionSettings(double frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    public void setFrameRate(double frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * Sets the number of ffmpeg processes to split each video across
+     * @param segments The number of segments, at least 1
+     */
+    public void setSegments(int segments) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("The number of segments must be at least 1");
+        }
+        this.segments = segments;
+    }
+
+    public int getEncoderThreads() {
+        return encoderThreads;
+    }
+
+    /**
+     * Sets the number of threads that encode images.
+     * <p/>
+     * If this is 0, ffmpeg encodes the images itself, one at a time.
+     * Otherwise, ffmpeg only decodes the video and sends raw frames to this
+     * JVM, where they are encoded on this many threads. Segments are not used
+     * when encoding in the JVM.
+     * @param encoderThreads The number of threads, or 0
+     */
+    public void setEncoderThreads(int encoderThreads) {
+        if (encoderThreads < 0) {
+            throw new IllegalArgumentException("The number of encoder threads must not be negative");
+        }
+        this.encoderThreads = encoderThreads;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Sets whether an interrupted extraction is resumed.
+     * <p/>
+     * Each extraction writes a checkpoint file to its output directory. If
+     * this is true and the checkpoint has the same video and parameters, the
+     * frames that were already written are checked and extraction continues
+     * after the last good frame. A finished extraction is not repeated.
+     * @param resume true to resume, false to always start again
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public int getFramesPerDirectory() {
+        return framesPerDirectory;
+    }
+
+    /**
+     * Sets the output directory layout.
+     * <p/>
+     * If this is more than 0, frames are grouped into numbered
+     * subdirectories of the output directory with this many frames each.
+     * Either way, a {@link FrameIndex} is written to the output directory when
+     * extraction finishes.
+     * @param framesPerDirectory The number of frames per subdirectory, or 0
+     * to put all frames in the output directory
+     */
+    public void setFramesPerDirectory(int framesPerDirectory) {
+        if (framesPerDirectory < 0) {
+            throw new IllegalArgumentException("The number of frames per directory must not be negative");
+        }
+        this.framesPerDirectory = framesPerDirectory;
+    }
+
+    /**
+     * @return The layout of frame files in the output directory
+     */
+    public OutputLayout getLayout() {
+        return new OutputLayout(framesPerDirectory, getImageFormat().getExtension());
+    }
+
+    public boolean isArchive() {
+        return archive;
+    }
+
+    /**
+     * Sets whether frames are written to one archive file per video.
+     * <p/>
+     * Archives are written by encoder threads in this JVM. If the number of
+     * encoder threads is 0, one thread per processor is used. The layout and
+     * segment settings do not apply to archives, and an interrupted archive is
+     * started again instead of being resumed.
+     * @param archive true to write an archive, false to write image files
+     */
+    public void setArchive(boolean archive) {
+        this.archive = archive;
+    }
+
+    public SamplingMode getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Sets which frames are extracted.
+     * <p/>
+     * In modes other than {@link SamplingMode#ALL}, the frame rate is not
+     * used and frames are numbered consecutively from 1. The time of each
+     * frame in the video is written to a {@link FrameTimestamps} file in the
+     * output directory. ffmpeg encodes the images in one process, so the
+     * segment and encoder thread settings do not apply, and an interrupted
+     * extraction is started again instead of being resumed. Sampling cannot
+     * be used with archives.
+     * @param sampling The sampling mode
+     */
+    public void setSampling(SamplingMode sampling) {
+        if (sampling == null) {
+            throw new IllegalArgumentException("The sampling mode must not be null");
+        }
+        this.sampling = sampling;
+    }
+
+    public double getSceneThreshold() {
+        return sceneThreshold;
+    }
+
+    /**
+     * Sets how different a frame must be from the frame before it to be
+     * extracted in {@link SamplingMode#SCENE_CHANGES} mode
+     * @param sceneThreshold The threshold, more than 0 and less than 1.
+     * Values around 0.3 to 0.5 find most cuts.
+     */
+    public void setSceneThreshold(double sceneThreshold) {
+        if (!(sceneThreshold > 0 && sceneThreshold < 1)) {
+            throw new IllegalArgumentException("The scene change threshold must be between 0 and 1");
+        }
+        this.sceneThreshold = sceneThreshold;
+    }
+
+    /**
+     * @return The frames to extract, or null if every frame is extracted
+     */
+    public FrameSelection getFrameSelection() {
+        return frameSelection;
+    }
+
+    /**
+     * Sets the frames to extract from each video.
+     * <p/>
+     * If this is not null, only the selected frames are decoded and written,
+     * with the same names they would have in a full extraction. Nearby frames
+     * are extracted by the same ffmpeg process, and groups of frames that are
+     * far apart are extracted at the same time, by one process per processor
+     * or by the number of segments if that is more than 1. Selections cannot
+     * be used with sampling or archives, and an interrupted extraction is
+     * started again instead of being resumed.
+     * @param frameSelection The frames to extract, or null to extract every
+     * frame
+     */
+    public void setFrameSelection(FrameSelection frameSelection) {
+        this.frameSelection = frameSelection;
+    }
+
+    public int getDuplicateDistance() {
+        return duplicateDistance;
+    }
+
+    /**
+     * Sets how similar a frame must be to the last written frame to be
+     * skipped.
+     * <p/>
+     * If this is not -1, a perceptual hash of each frame is computed on the
+     * encoder threads, and frames whose hashes differ from the last written
+     * frame's hash in at most this many of 64 bits are not written. Skipped
+     * frames keep their numbers, and a {@link FrameDuplicates} file in the
+     * output directory maps each one to the frame that was written in its
+     * place. Deduplication needs the frames in this JVM, so frames are encoded
+     * in this JVM (on one thread per processor if the number of encoder
+     * threads is 0). It cannot be used with sampling, frame selections, or
+     * additional outputs, and an interrupted extraction is started again
+     * instead of being resumed.
+     * @param duplicateDistance The distance, from 0 (identical hashes only)
+     * to 64, or -1 to write every frame. Values around 4 skip frames that
+     * differ only by noise.
+     */
+    public void setDuplicateDistance(int duplicateDistance) {
+        if (duplicateDistance < -1 || duplicateDistance > 64) {
+            throw new IllegalArgumentException("The duplicate distance must be between 0 and 64, or -1");
+        }
+        this.duplicateDistance = duplicateDistance;
+    }
+
+    /**
+     * @return true if frames that duplicate the last written frame are skipped
+     */
+    public boolean isDeduplicating() {
+        return duplicateDistance != -1;
+    }
+
+    /**
+     * @return The region of the picture to keep, or null if the whole
+     * picture is kept
+     */
+    public CropRegion getCrop() {
+        return crop;
+    }
+
+    /**
+     * Sets the region of the picture to keep. Frames are cropped before they
+     * are scaled, so the rest of the picture is never scaled or encoded.
+     * @param crop The region in the video's stored pixels, or null to keep
+     * the whole picture
+     */
+    public void setCrop(CropRegion crop) {
+        this.crop = crop;
+    }
+
+    public ScalingPolicy getScalingPolicy() {
+        return scalingPolicy;
+    }
+
+    /**
+     * Sets how frames with non-square pixels are scaled to square pixels.
+     * Frames with square pixels are never scaled.
+     * @param scalingPolicy The policy
+     */
+    public void setScalingPolicy(ScalingPolicy scalingPolicy) {
+        if (scalingPolicy == null) {
+            throw new IllegalArgumentException("The scaling policy must not be null");
+        }
+        this.scalingPolicy = scalingPolicy;
+    }
+
+    /**
+     * @return The format of the main output's images. If frames are
+     * grayscale, this is the grayscale variant of the format that was set.
+     */
+    public ImageFormat getImageFormat() {
+        return grayscale ? imageFormat.grayscale() : imageFormat;
+    }
+
+    /**
+     * Sets the format of the main output's images
+     * @param imageFormat The format
+     * @throws IllegalArgumentException if the quality that is set is not
+     * valid for the format
+     */
+    public void setImageFormat(ImageFormat imageFormat) {
+        if (imageFormat == null) {
+            throw new IllegalArgumentException("The image format must not be null");
+        }
+        if (imageQuality != -1 && !imageFormat.isValidQuality(imageQuality)) {
+            throw new IllegalArgumentException("Quality " + imageQuality + " is not valid for " + imageFormat);
+        }
+        this.imageFormat = imageFormat;
+    }
+
+    public int getImageQuality() {
+        return imageQuality;
+    }
+
+    /**
+     * Sets the quality of the main output's images, whose meaning depends on
+     * the format
+     * @param imageQuality The quality, or -1 to use the encoder's default
+     * @see ImageFormat
+     */
+    public void setImageQuality(int imageQuality) {
+        if (imageQuality != -1 && !imageFormat.isValidQuality(imageQuality)) {
+            throw new IllegalArgumentException("Quality " + imageQuality + " is not valid for " + imageFormat);
+        }
+        this.imageQuality = imageQuality;
+    }
+
+    /**
+     * @return true if frames are converted to 8-bit grayscale, either
+     * because that was requested or because the image format is always
+     * grayscale
+     */
+    public boolean isGrayscale() {
+        return grayscale || imageFormat.isGrayscale();
+    }
+
+    /**
+     * Sets whether frames are converted to 8-bit grayscale before they are
+     * encoded. This applies to every output. Grayscale PPM images are
+     * written as PGM. ffmpeg writes grayscale JPEG images with three
+     * components, while encoder threads write them with one.
+     * @param grayscale true to convert frames to grayscale
+     */
+    public void setGrayscale(boolean grayscale) {
+        this.grayscale = grayscale;
+    }
+
+    /**
+     * @return The outputs that are written in addition to the main output
+     */
+    public List<OutputSpec> getOutputs() {
+        return Collections.unmodifiableList(outputs);
+    }
+
+    /**
+     * Adds an output that is written from the same decoded frames as the
+     * main output.
+     * <p/>
+     * The video is decoded once, and the decoded frames are split between
+     * the main output and every additional output, each scaled and encoded
+     * separately. Additional outputs are only written by a single ffmpeg
+     * process, so they cannot be used with segments, encoder threads,
+     * archives, or frame selections.
+     * @param output The output to add
+     */
+    public void addOutput(OutputSpec output) {
+        outputs.add(output);
+    }
+
+    public long getStallTimeout() {
+        return stallTimeout;
+    }
+
+    /**
+     * Sets the time that an ffmpeg process may run without making progress
+     * before it is stopped and the job fails. ffmpeg normally reports
+     * progress about twice a second, but may report nothing while it seeks
+     * in a very large file or reads from a slow network drive.
+     * @param stallTimeout The time in milliseconds, or 0 for no limit
+     */
+    public void setStallTimeout(long stallTimeout) {
+        if (stallTimeout < 0) {
+            throw new IllegalArgumentException("The stall timeout must not be negative");
+        }
+        this.stallTimeout = stallTimeout;
+    }
+
+    public long getProcessTimeLimit() {
+        return processTimeLimit;
+    }
+
+    /**
+     * Sets the time that an ffmpeg process may run before it is stopped and
+     * the job fails. With segments or a frame selection, this limits each
+     * process separately.
+     * @param processTimeLimit The time in milliseconds, or 0 for no limit
+     */
+    public void setProcessTimeLimit(long processTimeLimit) {
+        if (processTimeLimit < 0) {
+            throw new IllegalArgumentException("The process time limit must not be negative");
+        }
+        this.processTimeLimit = processTimeLimit;
+    }
+
+    /**
+     * @return The probe cache to use, which is {@link ProbeCache#getDefault()}
+     * unless another cache has been set
+     */
+    public ProbeCache getProbeCache() {
+        return probeCache != null ? probeCache : ProbeCache.getDefault();
+    }
+
+    public void setProbeCache(ProbeCache probeCache) {
+        this.probeCache = probeCache;
+    }
+
+    /**
+     * @return The cache of finished extractions, or null if extractions are
+     * not cached
+     */
+    public ExtractionCache getExtractionCache() {
+        return extractionCache;
+    }
+
+    /**
+     * Sets the cache that finished extractions are stored in and restored
+     * from. Extractions with additional outputs are not cached.
+     * @param extractionCache The cache, or null to always extract
+     */
+    public void setExtractionCache(ExtractionCache extractionCache) {
+        this.extractionCache = extractionCache;
+    }
+
+    /**
+     * @return The coordinator that hands segments to workers, or null if
+     * frames are extracted on this host
+     */
+    public Coordinator getCoordinator() {
+        return coordinator;
+    }
+
+    /**
+     * Sets the coordinator that hands segments to workers. Extractions that
+     * use encoder threads, sampling, frame selections, or additional outputs
+     * still run on this host.
+     * @param coordinator The coordinator, or null to extract on this host
+     */
+    public void setCoordinator(Coordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * @return The log that jobs write events to, or null if events are not
+     * logged
+     */
+    public MetricsLog getMetricsLog() {
+        return metricsLog;
+    }
+
+    public void setMetricsLog(MetricsLog metricsLog) {
+        this.metricsLog = metricsLog;
+    }
+
+    /**
+     * @return true if the video's native frame rate should be used
+     */
+    public boolean useNativeFrameRate() {
+        return frameRate == -1;
+    }
+}
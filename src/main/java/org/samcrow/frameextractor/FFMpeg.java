@@ -1,86 +1,398 @@
 package org.samcrow.frameextractor;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import org.apache.commons.io.FileUtils;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Provides access to a stored FFMpeg binary.
- * 
- * This class is not reentrant.
+ * Finds the ffmpeg executable to run.
+ * <p/>
+ * The executable is chosen in this order:
+ * <ol>
+ * <li>The path in the <code>frameextractor.ffmpeg</code> system property</li>
+ * <li>The binary bundled in the JAR for this operating system. It is copied
+ * once to <code>.frameextractor/bin</code> in the user's home directory, named
+ * by a hash of its contents, and the copy is reused by later runs. The
+ * contents are hashed only when the JAR's path, size, or modification time
+ * has changed since the copy was found.</li>
+ * <li>An executable named <code>ffmpeg</code> on the <code>PATH</code></li>
+ * </ol>
+ * The path is found once per JVM. Its version and build configuration are
+ * read by running it once, and are cached next to the bundled binaries.
+ * <p/>
+ * This class is thread-safe.
  * @author Sam Crow
  */
 public class FFMpeg {
-    
+
     private static final String os = System.getProperty("os.name");
-    
+
     private static final String arch = System.getProperty("sun.arch.data.model");
-    
-    private static File tempExecutable;
-    
+
     private static final String mac32Path = "resources/ffmpeg-mac32";
     private static final String mac64Path = "resources/ffmpeg-mac64";
-    
+
     private static final String win32Path = "resources/ffmpeg-win32.exe";
     private static final String win64Path = "resources/ffmpeg-win64.exe";
-    
-    
+
+
     private static final String linux32Path = "resources/ffmpeg-linux32";
     private static final String linux64Path = "resources/ffmpeg-linux64";
-    
+
+    /**
+     * A system property that, if set, is the path to the ffmpeg executable to
+     * use instead of the bundled one
+     */
+    public static final String PATH_PROPERTY = "frameextractor.ffmpeg";
+
+    /**
+     * The resolved path, or null if it has not been resolved yet
+     */
+    private static String path;
+
+    /**
+     * Information about the executable at path, or null if it has not been
+     * read yet
+     */
+    private static FFMpegInfo info;
+
+    /**
+     * The time that {@link #readOutput(List)} lets a command run, in
+     * milliseconds. Commands that only read file headers finish in well
+     * under a second, but may take much longer on a slow network drive.
+     */
+    static final long OUTPUT_TIME_LIMIT = 60000;
+
     /**
      * @return an input stream that can be used to read the executable from
-     * inside the JAR file and save it to another file
+     * inside the JAR file and save it to another file, or null if there is no
+     * binary for this system in the JAR file
      */
     public static InputStream getInternalStream() {
-        
+        return FFMpeg.class.getResourceAsStream(getInternalPath());
+    }
+
+    /**
+     * @return The path of the binary for this system, relative to this class
+     */
+    private static String getInternalPath() {
+
         if(os.contains("MacOS") || os.contains("Mac OS")) {
             if(arch.contains("64")) {
-                return FFMpeg.class.getResourceAsStream(mac64Path);
+                return mac64Path;
             }
             else {
-                return FFMpeg.class.getResourceAsStream(mac32Path);
+                return mac32Path;
             }
         }
         else if(os.contains("Windows")) {
             if(arch.contains("64")) {
-                return FFMpeg.class.getResourceAsStream(win64Path);
+                return win64Path;
             }
             else {
-                return FFMpeg.class.getResourceAsStream(win32Path);
+                return win32Path;
             }
         }
         else {
             //Linux or other
             if(arch.contains("64")) {
-                return FFMpeg.class.getResourceAsStream(linux64Path);
+                return linux64Path;
             }
             else {
-                return FFMpeg.class.getResourceAsStream(linux32Path);
+                return linux32Path;
             }
         }
     }
-    
-    public static String getPath() throws IOException {
-        
-        if(tempExecutable == null || !tempExecutable.exists()) {
-            //Copy the file from the JAR into a temporary directory
-            InputStream stream = getInternalStream();
-            tempExecutable = File.createTempFile("ffmpeg", null);
-            tempExecutable.deleteOnExit();
-            
-            //Copy the file
-            FileUtils.copyInputStreamToFile(stream, tempExecutable);
-            
-            if( ! tempExecutable.setExecutable(true)) {
-                throw new IOException("Could not make the temporary FFMpeg file executable");
-            }
-            
-            
-        }
-        return tempExecutable.getAbsolutePath();
+
+    /**
+     * @return The path to the ffmpeg executable
+     * @throws IOException if no executable could be found
+     */
+    public static synchronized String getPath() throws IOException {
+        if(path == null) {
+            path = resolve();
+        }
+        return path;
     }
-    
+
+    /**
+     * Returns information about the ffmpeg executable, running it if the
+     * information is not already cached
+     * @return The information
+     * @throws IOException if no executable could be found or it could not be
+     * run
+     */
+    public static synchronized FFMpegInfo getInfo() throws IOException {
+        if(info == null) {
+            info = FFMpegInfo.forExecutable(new File(getPath()), getCacheDirectory());
+        }
+        return info;
+    }
+
+    private static String resolve() throws IOException {
+        final String overridePath = System.getProperty(PATH_PROPERTY);
+        if(overridePath != null && !overridePath.isEmpty()) {
+            return overridePath;
+        }
+
+        try {
+            final File bundled = extractBundled();
+            if(bundled != null) {
+                return bundled.getAbsolutePath();
+            }
+        }
+        catch(IOException e) {
+            System.err.println("Could not cache the bundled ffmpeg, looking for ffmpeg on the PATH: " + e.getLocalizedMessage());
+        }
+
+        final File system = findOnPath();
+        if(system != null) {
+            return system.getAbsolutePath();
+        }
+        throw new IOException("No ffmpeg executable was found. Install ffmpeg on the PATH or set the "
+                + PATH_PROPERTY + " system property to its location.");
+    }
+
+    /**
+     * @return The directory that bundled binaries and executable information
+     * are cached in, which may not exist
+     */
+    static File getCacheDirectory() {
+        return new File(System.getProperty("user.home"), ".frameextractor/bin");
+    }
+
+    /**
+     * Copies the bundled binary to the cache directory, if it is not already
+     * there
+     * @return The cached binary, or null if there is no bundled binary
+     */
+    private static File extractBundled() throws IOException {
+        final URL resource = FFMpeg.class.getResource(getInternalPath());
+        if(resource == null) {
+            return null;
+        }
+        final File directory = getCacheDirectory();
+        //The name of the copy is recorded under the identity of the file that contains the resource, so that
+        //an unchanged JAR does not need to be read
+        final File container = containerOf(resource);
+        File pointer = null;
+        if(container != null) {
+            final String key = resource + "\n" + container.length() + "\n" + container.lastModified();
+            pointer = new File(directory, "bundled-" + toHex(sha1().digest(key.getBytes(StandardCharsets.UTF_8))) + ".txt");
+            final File cached = readPointer(pointer);
+            if(cached != null) {
+                return cached;
+            }
+        }
+
+        //Hash the bundled binary without writing it anywhere, so that a cached copy costs only one read
+        final MessageDigest digest = sha1();
+        try(InputStream stream = getInternalStream()) {
+            if(stream == null) {
+                return null;
+            }
+            try(InputStream in = new DigestInputStream(stream, digest)) {
+                final byte[] buffer = new byte[64 * 1024];
+                while(in.read(buffer) != -1) {
+                }
+            }
+        }
+        final String extension = os.contains("Windows") ? ".exe" : "";
+        final File cached = new File(directory, "ffmpeg-" + toHex(digest.digest()) + extension);
+        if(cached.isFile() && cached.canExecute()) {
+            writePointer(pointer, cached);
+            return cached;
+        }
+
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        final File temp = File.createTempFile("ffmpeg", ".tmp", directory);
+        try {
+            try(InputStream in = getInternalStream()) {
+                Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if( ! temp.setExecutable(true)) {
+                throw new IOException("Could not make the cached FFMpeg file executable");
+            }
+            //Another JVM may be doing the same thing, and its copy is identical
+            Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        writePointer(pointer, cached);
+        return cached;
+    }
+
+    /**
+     * @return The JAR file or plain file that a resource is read from, or
+     * null if it is not a local file
+     */
+    private static File containerOf(URL resource) {
+        try {
+            if(resource.getProtocol().equals("jar")) {
+                //Getting the JAR's URL does not open the JAR
+                final URL jar = ((JarURLConnection) resource.openConnection()).getJarFileURL();
+                return jar.getProtocol().equals("file") ? new File(jar.toURI()) : null;
+            }
+            else if(resource.getProtocol().equals("file")) {
+                return new File(resource.toURI());
+            }
+        }
+        catch(IOException | URISyntaxException | IllegalArgumentException e) {
+            //Not a file that can be identified cheaply
+        }
+        return null;
+    }
+
+    /**
+     * @return The cached binary that a pointer file names, or null if the
+     * pointer or the binary does not exist
+     */
+    private static File readPointer(File pointer) {
+        if(!pointer.isFile()) {
+            return null;
+        }
+        try {
+            final String name = new String(Files.readAllBytes(pointer.toPath()), StandardCharsets.UTF_8).trim();
+            final File cached = new File(pointer.getParentFile(), name);
+            //The name must be a file in the cache directory
+            if(!name.isEmpty() && cached.getName().equals(name) && cached.isFile() && cached.canExecute()) {
+                return cached;
+            }
+        }
+        catch(IOException e) {
+            //Find the binary by its hash instead
+        }
+        return null;
+    }
+
+    /**
+     * Records the name of the cached binary for the resource's current JAR
+     * @param pointer The pointer file, or null if the resource has no
+     * identity to record it under
+     */
+    private static void writePointer(File pointer, File cached) {
+        if(pointer == null) {
+            return;
+        }
+        try {
+            final File temp = File.createTempFile("bundled", ".tmp", pointer.getParentFile());
+            try {
+                Files.write(temp.toPath(), cached.getName().getBytes(StandardCharsets.UTF_8));
+                Files.move(temp.toPath(), pointer.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+        catch(IOException e) {
+            //The binary will be hashed again next time
+            System.err.println("Could not record the cached ffmpeg in " + pointer + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @return An ffmpeg executable on the PATH, or null if there is none
+     */
+    static File findOnPath() {
+        final String pathVariable = System.getenv("PATH");
+        if(pathVariable == null) {
+            return null;
+        }
+        final String name = os.contains("Windows") ? "ffmpeg.exe" : "ffmpeg";
+        for(String directory : pathVariable.split(File.pathSeparator)) {
+            if(directory.isEmpty()) {
+                continue;
+            }
+            final File candidate = new File(directory, name);
+            if(candidate.isFile() && candidate.canExecute()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch(NoSuchAlgorithmException e) {
+            //Every Java implementation is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Runs an executable and returns what it prints. The executable is
+     * stopped if it runs for more than {@link #OUTPUT_TIME_LIMIT}
+     * milliseconds.
+     * @param command The command to run
+     * @return The lines of standard output and standard error
+     * @throws FFMpegException if the executable ran for too long
+     * @throws IOException if the command could not be run
+     */
+    static List<String> readOutput(List<String> command) throws IOException {
+        final ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        final Process process = builder.start();
+        final ProcessSupervisor.Supervised supervised = ProcessSupervisor.shared().supervise(process, 0, OUTPUT_TIME_LIMIT);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        supervised.drain(process.getInputStream(), new ProcessSupervisor.OutputHandler() {
+            @Override
+            public void output(byte[] data, int length) {
+                output.write(data, 0, length);
+            }
+
+            @Override
+            public void end() {
+            }
+        });
+        int exitCode = -1;
+        try {
+            exitCode = supervised.awaitExit();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            supervised.kill(null);
+        }
+        final List<String> lines = new ArrayList<>();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(output.toByteArray()), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        if(supervised.getKillReason() != null) {
+            final List<String> tail = lines.subList(Math.max(0, lines.size() - ProgressParser.TAIL_LINES), lines.size());
+            throw new FFMpegException("running " + new File(command.get(0)).getName(), exitCode, tail, supervised.getKillReason());
+        }
+        return lines;
+    }
+
     private FFMpeg() {}
 }
@@ -0,0 +1,76 @@
+package org.samcrow.frameextractor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when an ffmpeg process fails, either by exiting with an error code
+ * or by being stopped because it ran for too long or stopped making progress.
+ * <p/>
+ * The message is one line. The last lines that ffmpeg logged, which usually
+ * explain the failure, are available separately from {@link #getLogTail()}.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FFMpegException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int exitCode;
+
+    private final List<String> logTail;
+
+    private final String stopReason;
+
+    /**
+     * Constructor
+     * @param action What ffmpeg was doing, such as "extracting frames 1 to
+     * 10"
+     * @param exitCode The exit code of the process
+     * @param logTail The last lines that ffmpeg logged, oldest first
+     * @param stopReason Why the process was stopped, such as "wrote no output
+     * for 60 seconds", or null if it exited by itself
+     */
+    public FFMpegException(String action, int exitCode, List<String> logTail, String stopReason) {
+        super(stopReason != null ? "ffmpeg was stopped while " + action + " because it " + stopReason
+                : "ffmpeg exited with code " + exitCode + " while " + action + lastLine(logTail));
+        this.exitCode = exitCode;
+        this.logTail = Collections.unmodifiableList(new ArrayList<>(logTail));
+        this.stopReason = stopReason;
+    }
+
+    private static String lastLine(List<String> logTail) {
+        return logTail.isEmpty() ? "" : ": " + logTail.get(logTail.size() - 1);
+    }
+
+    /**
+     * @return The exit code of the process
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * @return The last lines that ffmpeg logged before it failed, oldest
+     * first, not including progress information
+     */
+    public List<String> getLogTail() {
+        return logTail;
+    }
+
+    /**
+     * @return true if the process was stopped because it exceeded a timeout
+     */
+    public boolean isTimedOut() {
+        return stopReason != null;
+    }
+
+    /**
+     * @return Why the process was stopped, or null if it exited by itself
+     */
+    public String getStopReason() {
+        return stopReason;
+    }
+}
@@ -0,0 +1,196 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The version and build configuration of an ffmpeg executable, as printed by
+ * <code>ffmpeg -version</code>.
+ * <p/>
+ * Information is cached in a properties file named by a hash of the
+ * executable's path. The cached information is used while the executable's
+ * size and modification time are unchanged.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FFMpegInfo {
+
+    /**
+     * The version of the cache format. Cached information with a different
+     * version is ignored.
+     */
+    private static final String FORMAT_VERSION = "1";
+
+    private static final Pattern versionPattern = Pattern.compile("^ffmpeg version (\\S+)");
+
+    private static final Pattern libraryPattern = Pattern.compile("^\\s*(lib\\w+)\\s+(\\d+)\\.\\s*(\\d+)\\.\\s*(\\d+)");
+
+    private final String version;
+
+    private final String configuration;
+
+    /**
+     * Library names, such as "libavformat", to versions, such as "56.4.101"
+     */
+    private final Map<String, String> libraries;
+
+    FFMpegInfo(String version, String configuration, Map<String, String> libraries) {
+        this.version = version;
+        this.configuration = configuration;
+        this.libraries = Collections.unmodifiableMap(new TreeMap<>(libraries));
+    }
+
+    /**
+     * @return The version, such as "2.4.2", or "unknown"
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The options that ffmpeg was configured with when it was built
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return Library names, such as "libavformat", mapped to their versions
+     */
+    public Map<String, String> getLibraries() {
+        return libraries;
+    }
+
+    /**
+     * Checks whether a feature was enabled when ffmpeg was built
+     * @param feature The feature, such as "libx264" or "gpl"
+     * @return true if the configuration includes --enable-feature
+     */
+    public boolean isEnabled(String feature) {
+        return Arrays.asList(configuration.split("\\s+")).contains("--enable-" + feature);
+    }
+
+    @Override
+    public String toString() {
+        return "ffmpeg " + version;
+    }
+
+    /**
+     * Parses the output of <code>ffmpeg -version</code>
+     * @param lines The lines of output
+     * @return The information
+     */
+    static FFMpegInfo parse(List<String> lines) {
+        String version = "unknown";
+        String configuration = "";
+        final Map<String, String> libraries = new TreeMap<>();
+        for (String line : lines) {
+            final Matcher versionMatcher = versionPattern.matcher(line);
+            if (versionMatcher.find()) {
+                version = versionMatcher.group(1);
+                continue;
+            }
+            final String trimmed = line.trim();
+            if (trimmed.startsWith("configuration:")) {
+                configuration = trimmed.substring("configuration:".length()).trim();
+                continue;
+            }
+            final Matcher libraryMatcher = libraryPattern.matcher(line);
+            if (libraryMatcher.find()) {
+                libraries.put(libraryMatcher.group(1),
+                        libraryMatcher.group(2) + "." + libraryMatcher.group(3) + "." + libraryMatcher.group(4));
+            }
+        }
+        return new FFMpegInfo(version, configuration, libraries);
+    }
+
+    /**
+     * Returns information about an executable, from the cache if possible
+     * @param executable The ffmpeg executable
+     * @param cacheDirectory The directory to cache information in
+     * @return The information
+     * @throws IOException if the executable could not be run
+     */
+    static FFMpegInfo forExecutable(File executable, File cacheDirectory) throws IOException {
+        final String key = executable.getAbsolutePath() + "\n" + executable.length() + "\n" + executable.lastModified();
+        final File cacheFile = new File(cacheDirectory,
+                "info-" + FFMpeg.toHex(FFMpeg.sha1().digest(key.getBytes(StandardCharsets.UTF_8))) + ".properties");
+
+        final FFMpegInfo cached = load(cacheFile, key);
+        if (cached != null) {
+            return cached;
+        }
+        final FFMpegInfo info = parse(FFMpeg.readOutput(Arrays.asList(executable.getAbsolutePath(), "-version")));
+        try {
+            store(cacheFile, key, info);
+        }
+        catch (IOException e) {
+            System.err.println("Could not cache ffmpeg information in " + cacheFile + ": " + e.getLocalizedMessage());
+        }
+        return info;
+    }
+
+    private static FFMpegInfo load(File file, String key) {
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        catch (IOException e) {
+            return null;
+        }
+        if (!FORMAT_VERSION.equals(properties.getProperty("format")) || !key.equals(properties.getProperty("key"))) {
+            return null;
+        }
+        final Map<String, String> libraries = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("library.")) {
+                libraries.put(name.substring("library.".length()), properties.getProperty(name));
+            }
+        }
+        return new FFMpegInfo(properties.getProperty("version", "unknown"), properties.getProperty("configuration", ""), libraries);
+    }
+
+    private static void store(File file, String key, FFMpegInfo info) throws IOException {
+        final File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        final Properties properties = new Properties();
+        properties.setProperty("format", FORMAT_VERSION);
+        properties.setProperty("key", key);
+        properties.setProperty("version", info.version);
+        properties.setProperty("configuration", info.configuration);
+        for (Map.Entry<String, String> library : info.libraries.entrySet()) {
+            properties.setProperty("library." + library.getKey(), library.getValue());
+        }
+        //Write to a temporary file and then rename it, so that readers never see a partial file
+        final File temp = File.createTempFile("info", ".tmp", directory);
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                properties.store(out, "ffmpeg information");
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package org.samcrow.frameextractor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A running ffmpeg process whose output is parsed for progress information
+ * <p/>
+ * Processes are supervised by the shared {@link ProcessSupervisor}, which
+ * reads their output and destroys processes that exceed their timeouts.
+ * <p/>
+ * @author Sam Crow
+ */
+class FFMpegProcess implements ProcessProgress {
+
+    /**
+     * A pattern for finding the total duration of the input file, with the
+     * time in capture group 1
+     */
+    static final Pattern totalTimePattern = Pattern.compile("Duration:\\s*(\\d{2}:\\d{2}:\\d{2}.\\d{2})");
+
+    /**
+     * A pattern for a time interval in HH:mm:ss.SS format
+     */
+    private static final Pattern intervalPattern = Pattern.compile("(?<hours>\\d{2}):(?<minutes>\\d{2}):(?<seconds>\\d{2}).(?<centiseconds>\\d{2})");
+
+    /**
+     * The number of seconds before a seek target that ffmpeg seeks to quickly
+     * and then decodes accurately from
+     */
+    static final double SEEK_PREROLL = 5;
+
+    /**
+     * The time between deliveries of progress to the listener of
+     * {@link #run(ProgressListener)}, in milliseconds
+     */
+    private static final long REPORT_INTERVAL = 100;
+
+    private final Process process;
+
+    /**
+     * True if standard output is separate from standard error, so that the
+     * caller can read data from it
+     */
+    private final boolean piped;
+
+    private volatile boolean destroyed = false;
+
+    private final ProgressParser parser = new ProgressParser();
+
+    private final ProcessSupervisor.Supervised supervised;
+
+    /**
+     * The time taken to start the process, in milliseconds
+     */
+    private final long spawnMillis;
+
+    private FFMpegProcess(Process process, boolean piped, long spawnMillis, long stallTimeout, long timeLimit) {
+        this.process = process;
+        this.piped = piped;
+        this.spawnMillis = spawnMillis;
+        supervised = ProcessSupervisor.shared().supervise(process, stallTimeout, timeLimit);
+    }
+
+    /**
+     * Starts ffmpeg
+     * @param arguments The arguments to pass to ffmpeg, not including the
+     * executable path
+     * @param stallTimeout The time that ffmpeg may run without writing
+     * output, in milliseconds, or 0 for no limit
+     * @param timeLimit The time that ffmpeg may run, in milliseconds, or 0
+     * for no limit
+     * @return The started process
+     * @throws IOException if the process could not be started
+     */
+    public static FFMpegProcess start(List<String> arguments, long stallTimeout, long timeLimit) throws IOException {
+        return start(FFMpeg.getPath(), arguments, false, stallTimeout, timeLimit);
+    }
+
+    /**
+     * Starts an ffmpeg executable at a given path
+     * @param executable The path to the executable
+     * @param arguments The arguments to pass to ffmpeg, not including the
+     * executable path
+     * @param stallTimeout The time that ffmpeg may run without writing
+     * output, in milliseconds, or 0 for no limit
+     * @param timeLimit The time that ffmpeg may run, in milliseconds, or 0
+     * for no limit
+     * @return The started process
+     * @throws IOException if the process could not be started
+     */
+    static FFMpegProcess start(String executable, List<String> arguments, long stallTimeout, long timeLimit) throws IOException {
+        return start(executable, arguments, false, stallTimeout, timeLimit);
+    }
+
+    /**
+     * Starts ffmpeg with its standard output separate from its standard
+     * error, so that ffmpeg can write data to standard output for the caller to
+     * read with {@link #getOutput()}. The caller must also call
+     * {@link #drainErrorsInBackground(ProgressListener)} so that ffmpeg does
+     * not block writing to standard error.
+     * @param arguments The arguments to pass to ffmpeg, not including the
+     * executable path
+     * @param stallTimeout The time that ffmpeg may run without writing
+     * output, in milliseconds, or 0 for no limit
+     * @param timeLimit The time that ffmpeg may run, in milliseconds, or 0
+     * for no limit
+     * @return The started process
+     * @throws IOException if the process could not be started
+     */
+    public static FFMpegProcess startPiped(List<String> arguments, long stallTimeout, long timeLimit) throws IOException {
+        return start(FFMpeg.getPath(), arguments, true, stallTimeout, timeLimit);
+    }
+
+    private static FFMpegProcess start(String executable, List<String> arguments, boolean piped, long stallTimeout, long timeLimit)
+            throws IOException {
+        final List<String> command = new ArrayList<>(arguments.size() + 1);
+        command.add(executable);
+        //Write progress as key=value lines to standard error, instead of statistics lines
+        command.add("-nostats");
+        command.add("-progress");
+        command.add("pipe:2");
+        command.addAll(arguments);
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(!piped);
+        final long startTime = System.nanoTime();
+        final Process process = builder.start();
+        return new FFMpegProcess(process, piped, (System.nanoTime() - startTime) / 1000000, stallTimeout, timeLimit);
+    }
+
+    /**
+     * @return The standard output of a process started with
+     * {@link #startPiped(List, long, long)}. Reading it counts as progress
+     * for the stall timeout.
+     */
+    public InputStream getOutput() {
+        return new FilterInputStream(process.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                supervised.touch();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                supervised.touch();
+                return super.read(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * @return The standard input of the process, for arguments that read
+     * the input file from <code>pipe:0</code>
+     */
+    public OutputStream getInput() {
+        return process.getOutputStream();
+    }
+
+    /**
+     * Records that the process is waiting for its input, so that the time
+     * without output does not count toward the stall timeout
+     */
+    public void touch() {
+        supervised.touch();
+    }
+
+    /**
+     * Starts reading the standard error of a process started with
+     * {@link #startPiped(List, long, long)} on the supervisor's threads,
+     * reporting progress to a listener
+     * @param listener The listener to report to, which is called on the
+     * supervisor's threads and must not block
+     */
+    public void drainErrorsInBackground(ProgressListener listener) {
+        drainProgress(listener);
+    }
+
+    /**
+     * Waits for the process to exit and its progress output to be read
+     * @return The exit code of the process, or -1 if it was destroyed
+     * @throws FFMpegException if the process was stopped because it exceeded
+     * a timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int waitFor() throws FFMpegException, InterruptedException {
+        final int exitCode = supervised.awaitExit();
+        if (supervised.getKillReason() != null) {
+            throw failure(exitCode, "running");
+        }
+        return destroyed ? -1 : exitCode;
+    }
+
+    /**
+     * Reads the output of the process until it exits or is destroyed,
+     * reporting progress to a listener. The output is read on the
+     * supervisor's threads while this thread waits. The listener is called on
+     * this thread, with the latest progress, so it may block.
+     * <p/>
+     * @param listener The listener to report to
+     * @return The exit code of the process, or -1 if it was destroyed
+     * @throws IOException if an error occurred while reading the output
+     * @throws FFMpegException if the process was stopped because it exceeded
+     * a timeout
+     * @throws ParseException if ffmpeg reported a time in an unexpected format
+     * @throws InterruptedException if interrupted while waiting for the
+     * process to exit
+     */
+    public int run(ProgressListener listener) throws IOException, ParseException, InterruptedException {
+        final LatestProgress latest = new LatestProgress();
+        drainProgress(latest);
+        while (!supervised.awaitExit(REPORT_INTERVAL)) {
+            latest.deliver(listener);
+        }
+        latest.deliver(listener);
+        final int exitCode = waitFor();
+        final Exception failure = supervised.getHandlerFailure();
+        if (failure instanceof ParseException) {
+            throw (ParseException) failure;
+        }
+        else if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        else if (failure != null) {
+            throw new IOException("Could not read ffmpeg output", failure);
+        }
+        return exitCode;
+    }
+
+    /**
+     * Starts reading ffmpeg's progress output on the supervisor's threads
+     */
+    private void drainProgress(final ProgressListener listener) {
+        final InputStream stream = piped ? process.getErrorStream() : process.getInputStream();
+        supervised.drain(stream, new ProcessSupervisor.OutputHandler() {
+            @Override
+            public void output(byte[] data, int length) throws Exception {
+                parser.feed(data, length, listener);
+            }
+
+            @Override
+            public void end() throws Exception {
+                parser.finish(listener);
+            }
+        });
+    }
+
+    /**
+     * Creates an exception that describes a failure of this process
+     * @param exitCode The exit code of the process
+     * @param action What the process was doing, such as "extracting frames"
+     * @return The exception
+     */
+    FFMpegException failure(int exitCode, String action) {
+        return new FFMpegException(action, exitCode, parser.getLogTail(), supervised.getKillReason());
+    }
+
+    /**
+     * Kills the process
+     */
+    public void destroy() {
+        destroyed = true;
+        parser.stop();
+        supervised.kill(null);
+    }
+
+    /**
+     * @return true if {@link #destroy()} has been called
+     */
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    @Override
+    public long getFrame() {
+        return parser.getFrame();
+    }
+
+    @Override
+    public long getTime() {
+        return parser.getTime();
+    }
+
+    /**
+     * @return The most recent processing speed that ffmpeg reported, as a
+     * multiple of real time, or 0 if unknown
+     */
+    @Override
+    public double getSpeed() {
+        return parser.getSpeed();
+    }
+
+    /**
+     * @return The last lines that ffmpeg logged, oldest first, not including
+     * progress information
+     */
+    public List<String> getLogTail() {
+        return parser.getLogTail();
+    }
+
+    /**
+     * @return The presentation times, in seconds, of the frames that ffmpeg's
+     * showinfo filter has logged so far, in order
+     */
+    public List<Double> getFrameTimestamps() {
+        return parser.getFrameTimestamps();
+    }
+
+    /**
+     * @return The first line of ffmpeg's log that describes a video stream,
+     * or null if ffmpeg has not logged one yet
+     */
+    public String getVideoStreamLine() {
+        return parser.getVideoStreamLine();
+    }
+
+    /**
+     * @return The time taken to start the process, in milliseconds
+     */
+    public long getSpawnMillis() {
+        return spawnMillis;
+    }
+
+    /**
+     * Adds arguments for an input file that is read starting at a given time.
+     * <p/>
+     * ffmpeg seeks quickly, to the nearest keyframe, to a few seconds before
+     * the start time, and then decodes and discards frames up to the start
+     * time. This is accurate even with ffmpeg versions that seek inaccurately
+     * on input files.
+     * @param arguments The argument list to add to
+     * @param inputPath The path to the input file
+     * @param start The time to start reading at, in seconds
+     */
+    static void addSeekingInput(List<String> arguments, String inputPath, double start) {
+        final double preroll = Math.min(start, SEEK_PREROLL);
+        if (start - preroll > 0) {
+            arguments.add("-ss");
+            arguments.add(formatSeconds(start - preroll));
+        }
+        arguments.add("-i");
+        arguments.add(inputPath);
+        if (preroll > 0) {
+            arguments.add("-ss");
+            arguments.add(formatSeconds(preroll));
+        }
+    }
+
+    /**
+     * Formats a time in seconds for ffmpeg
+     */
+    static String formatSeconds(double seconds) {
+        return String.format(Locale.US, "%.3f", seconds);
+    }
+
+    /**
+     * Parses a time interval of up to 99 hours, 59 minutes, 59 seconds, and 990
+     * milliseconds
+     * <p/>
+     * @param interval an interval in HH:mm:ss:SS format
+     * @return The length of the interval in milliseconds
+     * @throws ParseException
+     */
+    static long parseInterval(String interval) throws ParseException {
+        long time = 0;
+        final Matcher matcher = intervalPattern.matcher(interval);
+        if (!matcher.find()) {
+            throw new ParseException("Interval " + interval + "is not in the required format", 0);
+        }
+        int hours = Integer.parseInt(matcher.group("hours"));
+        int minutes = Integer.parseInt(matcher.group("minutes"));
+        int seconds = Integer.parseInt(matcher.group("seconds"));
+        int centiseconds = Integer.parseInt(matcher.group("centiseconds"));
+
+        time += 60 * 60 * 1000 * hours;
+        time += 60 * 1000 * minutes;
+        time += 1000 * seconds;
+        time += 10 * centiseconds;
+
+        return time;
+    }
+
+    /**
+     * Records the progress that the parser reports on the supervisor's
+     * threads, so that it can be given to a listener on another thread
+     */
+    private static class LatestProgress implements ProgressListener {
+
+        private String title;
+
+        private String message;
+
+        private long workDone;
+
+        private long max;
+
+        private boolean progressChanged = false;
+
+        @Override
+        public synchronized void updateTitle(String title) {
+            this.title = title;
+        }
+
+        @Override
+        public synchronized void updateMessage(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public synchronized void updateProgress(long workDone, long max) {
+            this.workDone = workDone;
+            this.max = max;
+            progressChanged = true;
+        }
+
+        /**
+         * Gives the updates since the last delivery to a listener
+         */
+        void deliver(ProgressListener listener) {
+            final String newTitle;
+            final String newMessage;
+            final boolean newProgress;
+            final long newWorkDone;
+            final long newMax;
+            synchronized (this) {
+                newTitle = title;
+                newMessage = message;
+                newProgress = progressChanged;
+                newWorkDone = workDone;
+                newMax = max;
+                title = null;
+                message = null;
+                progressChanged = false;
+            }
+            if (newTitle != null) {
+                listener.updateTitle(newTitle);
+            }
+            if (newMessage != null) {
+                listener.updateMessage(newMessage);
+            }
+            if (newProgress) {
+                listener.updateProgress(newWorkDone, newMax);
+            }
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directories for new videos and extracts frames from each one once.
+ * <p/>
+ * Directories and their subdirectories are watched with a
+ * {@link WatchService}, so new files are found without searching the
+ * directories again. The directories are searched once when watching
+ * starts, to find videos that arrived while nothing was watching.
+ * <p/>
+ * A video is extracted when its size and modification time have not changed
+ * for the settle time, so that files that are still being copied are not
+ * read. Videos are identified by a hash of their contents, so a video that
+ * is copied to two places, or renamed, is extracted only once. Frames go in
+ * a subdirectory of the output directory named after the video file, or
+ * after the file and the start of its hash if another video with the same
+ * name has been extracted. Videos are hashed on a separate thread, so that
+ * reading a large video does not delay noticing other files; the result is
+ * used on the watching thread, which keeps all of the watcher's state.
+ * <p/>
+ * Videos whose frames have been extracted are recorded in a ledger file in
+ * the output directory, with their sizes and modification times so that
+ * they do not need to be hashed again when watching restarts. A video whose
+ * extraction failed or was interrupted is not recorded, so it is extracted
+ * again (resuming where it stopped) after a restart.
+ * <p/>
+ * Jobs run in a {@link JobQueue}, which limits how many run at the same
+ * time.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FolderWatcher {
+
+    /**
+     * The extensions, in lower case, of the files that are treated as videos
+     */
+    public static final Set<String> VIDEO_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "mp4", "m4v", "mov", "avi", "mkv", "webm", "mts", "m2ts", "ts", "mpg", "mpeg", "wmv", "dv", "flv", "3gp")));
+
+    /**
+     * The name of the ledger file in the output directory
+     */
+    static final String LEDGER_NAME = ".ingested";
+
+    /**
+     * The default time that a file must be unchanged before it is extracted,
+     * in milliseconds
+     */
+    public static final long DEFAULT_SETTLE_MILLIS = 10000;
+
+    /**
+     * The maximum time between checks of files that are settling, in
+     * milliseconds
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    private final List<Path> directories = new ArrayList<>();
+
+    private final File outputRoot;
+
+    private final ExtractionSettings settings;
+
+    private final JobQueue queue;
+
+    private final long settleMillis;
+
+    private final PrintStream log;
+
+    private WatchService watchService;
+
+    /**
+     * Watched directories by their keys
+     */
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+
+    /**
+     * Files that have appeared or changed, and are waiting to stop changing
+     */
+    private final Map<Path, Pending> pending = new HashMap<>();
+
+    /**
+     * Recorded videos by absolute path
+     */
+    private final Map<String, Recorded> recordedByPath = new HashMap<>();
+
+    /**
+     * Output directory names of recorded videos, by content hash
+     */
+    private final Map<String, String> recordedNames = new HashMap<>();
+
+    /**
+     * Content hashes by the output directory names that they use
+     */
+    private final Map<String, String> nameOwners = new HashMap<>();
+
+    /**
+     * Videos in the queue, by content hash
+     */
+    private final Map<String, Submitted> submitted = new HashMap<>();
+
+    /**
+     * Settled files that are being hashed
+     */
+    private final Map<Path, Hashing> hashing = new HashMap<>();
+
+    /**
+     * Hashes videos, one at a time so that they do not compete for the disk
+     */
+    private final ExecutorService hasher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "folder-watcher-hash");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor
+     * @param directories The directories to watch
+     * @param outputRoot The directory to put each video's frames in
+     * @param settings The settings to extract with
+     * @param queue The queue to run jobs in
+     * @param settleMillis The time that a file must be unchanged before it
+     * is extracted, in milliseconds
+     * @param log The stream to write events to
+     */
+    public FolderWatcher(List<File> directories, File outputRoot, ExtractionSettings settings, JobQueue queue, long settleMillis,
+            PrintStream log) {
+        if (directories.isEmpty()) {
+            throw new IllegalArgumentException("At least one directory must be watched");
+        }
+        if (settleMillis < 0) {
+            throw new IllegalArgumentException("The settle time must not be negative");
+        }
+        for (File directory : directories) {
+            this.directories.add(directory.getAbsoluteFile().toPath().normalize());
+        }
+        this.outputRoot = outputRoot.getAbsoluteFile();
+        this.settings = settings;
+        this.queue = queue;
+        this.settleMillis = settleMillis;
+        this.log = log;
+    }
+
+    /**
+     * Watches the directories until {@link #stop()} is called
+     * @throws IOException if a directory could not be watched
+     * @throws InterruptedException if interrupted while waiting for changes
+     */
+    public void run() throws IOException, InterruptedException {
+        start();
+        try {
+            while (!stopped) {
+                poll(CHECK_INTERVAL);
+            }
+        }
+        catch (ClosedWatchServiceException e) {
+            //Stopped
+        }
+        finally {
+            stop();
+        }
+    }
+
+    /**
+     * Reads the ledger, starts watching the directories, and finds the
+     * videos that are already in them
+     * @throws IOException if the ledger could not be read or a directory
+     * could not be watched
+     */
+    void start() throws IOException {
+        readLedger();
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path directory : directories) {
+            if (!Files.isDirectory(directory)) {
+                throw new IOException(directory + " is not a directory");
+            }
+            register(directory);
+        }
+        log.println("Watching " + keys.size() + " directories, with " + pending.size() + " videos to check");
+    }
+
+    /**
+     * Stops watching. Jobs that are in the queue are not cancelled.
+     */
+    public void stop() {
+        stopped = true;
+        hasher.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch (IOException e) {
+                System.err.println("Could not stop watching: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits for changes, then queues videos that have settled and records
+     * videos whose jobs have finished
+     * @param timeoutMillis The maximum time to wait for a change
+     * @throws IOException if a new directory could not be watched or the
+     * ledger could not be written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void poll(long timeoutMillis) throws IOException, InterruptedException {
+        WatchKey key = watchService.poll(pending.isEmpty() && hashing.isEmpty() ? timeoutMillis : Math.min(timeoutMillis, settleMillis),
+                TimeUnit.MILLISECONDS);
+        while (key != null) {
+            handleEvents(key);
+            key = watchService.poll();
+        }
+        checkPending();
+        checkHashed();
+        checkSubmitted();
+    }
+
+    private void handleEvents(WatchKey key) throws IOException {
+        final Path directory = keys.get(key);
+        if (directory == null) {
+            key.cancel();
+            return;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                //Events were lost, so search this directory for anything that was missed
+                register(directory);
+                continue;
+            }
+            final Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(path);
+                }
+            }
+            else if (isVideo(path) && !pending.containsKey(path)) {
+                pending.put(path, new Pending());
+            }
+        }
+        if (!key.reset()) {
+            //The directory was deleted
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * Watches a directory and its subdirectories, and adds the videos in
+     * them to the files that are settling
+     */
+    private void register(final Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
+                //Do not watch the frames being written, if they are inside a watched directory.
+                //Do not watch hidden directories, such as the temporary directories of segments
+                if (directory.toFile().equals(outputRoot) || (!directory.equals(start)
+                        && directory.getFileName().toString().startsWith("."))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (!keys.containsValue(directory)) {
+                    keys.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), directory);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isVideo(file) && !pending.containsKey(file)) {
+                    pending.put(file, new Pending());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.err.println("Could not read " + file + ": " + e.getLocalizedMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Starts hashing the files that have not changed for the settle time
+     */
+    private void checkPending() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Path, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, Pending> entry = iterator.next();
+            if (hashing.containsKey(entry.getKey())) {
+                //Checked again when the hash is ready
+                continue;
+            }
+            final File file = entry.getKey().toFile();
+            final Pending state = entry.getValue();
+            if (!file.isFile()) {
+                //Deleted or renamed before it settled
+                iterator.remove();
+                continue;
+            }
+            final long size = file.length();
+            final long modified = file.lastModified();
+            if (size != state.size || modified != state.modified) {
+                state.size = size;
+                state.modified = modified;
+                state.unchangedSince = now;
+                continue;
+            }
+            if (now - state.unchangedSince < settleMillis) {
+                continue;
+            }
+            final Recorded known = recordedByPath.get(file.getAbsolutePath());
+            if (known != null && known.size == size && known.modified == modified) {
+                iterator.remove();
+                continue;
+            }
+            hashing.put(entry.getKey(), new Hashing(hasher.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return ExtractionCache.hash(file);
+                }
+            }), size, modified));
+        }
+    }
+
+    /**
+     * Queues the videos whose hashes are ready, or returns them to the files
+     * that are settling if they could not be read or changed while they were
+     * being hashed
+     */
+    private void checkHashed() throws IOException, InterruptedException {
+        final Iterator<Map.Entry<Path, Hashing>> iterator = hashing.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, Hashing> entry = iterator.next();
+            final Hashing state = entry.getValue();
+            if (!state.hash.isDone()) {
+                continue;
+            }
+            iterator.remove();
+            final File file = entry.getKey().toFile();
+            String hash;
+            try {
+                hash = state.hash.get();
+            }
+            catch (ExecutionException e) {
+                //The file may still be open for writing on some systems
+                System.err.println("Could not read " + file + ": " + e.getCause().getLocalizedMessage());
+                hash = null;
+            }
+            if (hash == null || file.length() != state.size || file.lastModified() != state.modified) {
+                //Try again after another settle time
+                final Pending again = new Pending();
+                again.size = state.size;
+                again.modified = state.modified;
+                again.unchangedSince = System.currentTimeMillis();
+                pending.put(entry.getKey(), again);
+                continue;
+            }
+            pending.remove(entry.getKey());
+            ingest(file, state.size, state.modified, hash);
+        }
+    }
+
+    /**
+     * Queues a video unless its contents have already been extracted or
+     * queued
+     */
+    private void ingest(File video, long size, long modified, String hash) throws IOException {
+        final String path = video.getAbsolutePath();
+        final String recordedName = recordedNames.get(hash);
+        if (recordedName != null) {
+            log.println("Skipping " + path + ": its frames are already in " + recordedName);
+            record(new Recorded(hash, size, modified, recordedName, path));
+            return;
+        }
+        final Submitted queued = submitted.get(hash);
+        if (queued != null) {
+            log.println("Skipping " + path + ": it has the same contents as " + queued.video.path);
+            return;
+        }
+        final String name = outputName(video.getName(), hash);
+        nameOwners.put(name, hash);
+        final ExtractionJob job = new ExtractionJob(path, new File(outputRoot, name).getAbsolutePath(), settings);
+        submitted.put(hash, new Submitted(queue.submit(job), new Recorded(hash, size, modified, name, path)));
+        log.println("Queued " + path);
+    }
+
+    /**
+     * Records videos whose jobs have finished, and reports jobs that failed
+     */
+    private void checkSubmitted() throws IOException {
+        boolean removed = false;
+        final Iterator<Submitted> iterator = submitted.values().iterator();
+        while (iterator.hasNext()) {
+            final Submitted job = iterator.next();
+            final JobQueue.Status status = job.entry.getStatus();
+            if (status == JobQueue.Status.FINISHED) {
+                record(job.video);
+                log.println("Finished " + job.video.path);
+            }
+            else if (status == JobQueue.Status.FAILED) {
+                log.println("Failed " + job.video.path + ": " + job.entry.getFailure().getLocalizedMessage());
+                //The name stays reserved, so that a retry after a restart resumes in the same directory
+            }
+            else if (status != JobQueue.Status.CANCELLED) {
+                continue;
+            }
+            iterator.remove();
+            removed = true;
+        }
+        if (removed) {
+            queue.removeCompleted();
+        }
+    }
+
+    /**
+     * @return The name of the directory for a video's frames
+     */
+    private String outputName(String fileName, String hash) {
+        final String owner = nameOwners.get(fileName);
+        if (owner == null || owner.equals(hash)) {
+            return fileName;
+        }
+        return fileName + "-" + hash.substring(0, 8);
+    }
+
+    /**
+     * @return true if a file's extension is a video extension
+     */
+    static boolean isVideo(Path path) {
+        final String name = path.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 && VIDEO_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    private void readLedger() throws IOException {
+        final File ledger = new File(outputRoot, LEDGER_NAME);
+        if (!ledger.isFile()) {
+            return;
+        }
+        for (String line : Files.readAllLines(ledger.toPath(), StandardCharsets.UTF_8)) {
+            //hash, size, modification time, output name, path
+            final String[] parts = line.split("\t", 5);
+            if (parts.length != 5) {
+                System.err.println("Ignoring malformed ledger line: " + line);
+                continue;
+            }
+            try {
+                remember(new Recorded(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3], parts[4]));
+            }
+            catch (NumberFormatException e) {
+                System.err.println("Ignoring malformed ledger line: " + line);
+            }
+        }
+    }
+
+    /**
+     * Adds a video to the ledger
+     */
+    private void record(Recorded video) throws IOException {
+        remember(video);
+        if (!outputRoot.isDirectory() && !outputRoot.mkdirs()) {
+            throw new IOException("Could not create directory " + outputRoot);
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(outputRoot, LEDGER_NAME), true), StandardCharsets.UTF_8)) {
+            out.write(video.hash + "\t" + video.size + "\t" + video.modified + "\t" + video.name + "\t" + video.path + "\n");
+        }
+    }
+
+    private void remember(Recorded video) {
+        recordedByPath.put(video.path, video);
+        recordedNames.put(video.hash, video.name);
+        nameOwners.put(video.name, video.hash);
+    }
+
+    /**
+     * The state of a file that is settling
+     */
+    private static class Pending {
+
+        private long size = -1;
+
+        private long modified = -1;
+
+        private long unchangedSince;
+    }
+
+    /**
+     * A settled file that is being hashed
+     */
+    private static class Hashing {
+
+        private final Future<String> hash;
+
+        /**
+         * The size of the file when hashing started
+         */
+        private final long size;
+
+        /**
+         * The modification time of the file when hashing started
+         */
+        private final long modified;
+
+        Hashing(Future<String> hash, long size, long modified) {
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * A video in the ledger, or one that will be once its job finishes
+     */
+    private static class Recorded {
+
+        private final String hash;
+
+        private final long size;
+
+        private final long modified;
+
+        /**
+         * The name of the directory that has the video's frames
+         */
+        private final String name;
+
+        private final String path;
+
+        Recorded(String hash, long size, long modified, String name, String path) {
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+            this.name = name;
+            this.path = path;
+        }
+    }
+
+    /**
+     * A video whose job is in the queue
+     */
+    private static class Submitted {
+
+        private final JobQueue.Entry entry;
+
+        private final Recorded video;
+
+        Submitted(JobQueue.Entry entry, Recorded video) {
+            this.entry = entry;
+            this.video = video;
+        }
+    }
+}
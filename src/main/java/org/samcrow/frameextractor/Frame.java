@@ -0,0 +1,98 @@
+package org.samcrow.frameextractor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One decoded video frame, with its pixels in a pooled buffer
+ * <p/>
+ * The buffer is reused for a later frame after this frame is released, so
+ * the frame must be released (or closed) when it is no longer needed, and
+ * its data must not be used after that.
+ * <p/>
+ * @author Sam Crow
+ */
+public class Frame implements AutoCloseable {
+
+    private final BufferPool pool;
+
+    private ByteBuffer data;
+
+    private final int width;
+
+    private final int height;
+
+    private final PixelFormat pixelFormat;
+
+    private final long frameNumber;
+
+    private final double timestamp;
+
+    Frame(BufferPool pool, ByteBuffer data, int width, int height, PixelFormat pixelFormat, long frameNumber, double timestamp) {
+        this.pool = pool;
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.pixelFormat = pixelFormat;
+        this.frameNumber = frameNumber;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return The pixel data, with rows stored top to bottom and no padding
+     * between rows. The position is 0 and the limit is the frame size.
+     * @throws IllegalStateException if this frame has been released
+     */
+    public ByteBuffer getData() {
+        if (data == null) {
+            throw new IllegalStateException("Frame " + frameNumber + " has been released");
+        }
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return The number of this frame, starting at 1. This is the same
+     * number that would be used in the file name of this frame if it were
+     * extracted to a file.
+     */
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return The time of this frame in the video, in seconds
+     */
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the buffer to its pool. Calling this more than once has no
+     * effect.
+     */
+    public synchronized void release() {
+        if (data != null) {
+            pool.release(data);
+            data = null;
+        }
+    }
+
+    /**
+     * Same as {@link #release()}
+     */
+    @Override
+    public void close() {
+        release();
+    }
+}
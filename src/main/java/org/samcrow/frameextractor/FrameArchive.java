@@ -0,0 +1,290 @@
+package org.samcrow.frameextractor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads frames from an archive file that holds every encoded frame of a
+ * video.
+ * <p/>
+ * An archive starts with an 8-byte header, followed by the encoded frames
+ * one after another, in the order they were written. After the frames is an
+ * index with one entry per frame, sorted by frame number:
+ * <pre>
+ * long   frame number
+ * double timestamp, in seconds
+ * long   offset of the frame data from the start of the file
+ * int    length of the frame data
+ * </pre>
+ * The file ends with the number of index entries (long), the offset of the
+ * index (long), and an 8-byte footer marker. All numbers are big-endian. An
+ * archive without the footer marker was not finished.
+ * <p/>
+ * The archive is memory-mapped, and frames are returned as read-only slices
+ * of the mapping, without copying. Archives larger than 2 GiB are mapped as
+ * several overlapping chunks so that each frame is inside one chunk.
+ * <p/>
+ * This class is thread-safe once it has been opened. Mapped memory is
+ * released when the archive and all slices from it have been garbage
+ * collected.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FrameArchive implements Closeable {
+
+    /**
+     * The extension that is added to the video file name to name its archive
+     */
+    public static final String EXTENSION = ".frames";
+
+    static final byte[] HEADER = "FXFRAME1".getBytes(StandardCharsets.US_ASCII);
+
+    static final byte[] FOOTER = "FXINDEX1".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The size of one index entry in bytes
+     */
+    static final int ENTRY_SIZE = 8 + 8 + 8 + 4;
+
+    /**
+     * The size of the entry count, index offset, and footer marker
+     */
+    static final int TRAILER_SIZE = 8 + 8 + 8;
+
+    /**
+     * The distance between the starts of consecutive chunks
+     */
+    private static final long DEFAULT_CHUNK_STRIDE = 1L << 30;
+
+    private final FileChannel channel;
+
+    private final long[] frameNumbers;
+
+    private final double[] timestamps;
+
+    private final long[] offsets;
+
+    private final int[] lengths;
+
+    /**
+     * The distance between the starts of consecutive chunks
+     */
+    private final long chunkStride;
+
+    /**
+     * Chunk i maps the file from i * chunkStride, and is long enough to
+     * contain every frame that starts before (i + 1) * chunkStride
+     */
+    private final MappedByteBuffer[] chunks;
+
+    /**
+     * Returns the archive file for a video
+     * @param outDir The output directory
+     * @param videoName The name of the video file
+     * @return The archive file
+     */
+    public static File fileFor(File outDir, String videoName) {
+        return new File(outDir, videoName + EXTENSION);
+    }
+
+    /**
+     * Opens an archive
+     * @param file The archive file
+     * @throws IOException if the file could not be read or is not a complete
+     * archive
+     */
+    public FrameArchive(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_STRIDE);
+    }
+
+    /**
+     * Opens an archive with a given chunk size
+     * @param file The archive file
+     * @param chunkStride The distance between the starts of consecutive
+     * chunks
+     * @throws IOException if the file could not be read or is not a complete
+     * archive
+     */
+    FrameArchive(File file, long chunkStride) throws IOException {
+        this.chunkStride = chunkStride;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (size < HEADER.length + TRAILER_SIZE) {
+                throw new IOException(file + " is too small to be a frame archive");
+            }
+            final ByteBuffer header = read(0, HEADER.length);
+            if (!Arrays.equals(toArray(header), HEADER)) {
+                throw new IOException(file + " is not a frame archive");
+            }
+            final ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+            final long count = trailer.getLong();
+            final long indexOffset = trailer.getLong();
+            final byte[] footer = new byte[FOOTER.length];
+            trailer.get(footer);
+            if (!Arrays.equals(footer, FOOTER)) {
+                throw new IOException(file + " is not a complete frame archive");
+            }
+            if (count < 0 || count > Integer.MAX_VALUE || indexOffset + count * ENTRY_SIZE != size - TRAILER_SIZE) {
+                throw new IOException("The index of " + file + " is corrupt");
+            }
+
+            final int entries = (int) count;
+            frameNumbers = new long[entries];
+            timestamps = new double[entries];
+            offsets = new long[entries];
+            lengths = new int[entries];
+            final MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, count * ENTRY_SIZE);
+            index.order(ByteOrder.BIG_ENDIAN);
+            int maxLength = 0;
+            for (int i = 0; i < entries; i++) {
+                frameNumbers[i] = index.getLong();
+                timestamps[i] = index.getDouble();
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+                if (offsets[i] < HEADER.length || offsets[i] + lengths[i] > indexOffset) {
+                    throw new IOException("The index of " + file + " is corrupt");
+                }
+                maxLength = Math.max(maxLength, lengths[i]);
+            }
+
+            //Overlap consecutive chunks by the longest frame, so that every frame is inside the chunk it starts in
+            final int chunkCount = (int) ((indexOffset + chunkStride - 1) / chunkStride);
+            chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                final long start = i * chunkStride;
+                final long length = Math.min(chunkStride + maxLength, indexOffset - start);
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Frames in " + file + " are too large to map");
+                }
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of frames in the archive
+     */
+    public int size() {
+        return frameNumbers.length;
+    }
+
+    /**
+     * @return The highest frame number in the archive, or 0 if it is empty
+     */
+    public long getLastFrame() {
+        return frameNumbers.length == 0 ? 0 : frameNumbers[frameNumbers.length - 1];
+    }
+
+    /**
+     * Returns the encoded data of a frame
+     * @param frameNumber The frame number, starting at 1
+     * @return A read-only buffer that shares the archive's memory, or null
+     * if the frame is not in the archive
+     */
+    public ByteBuffer getFrame(long frameNumber) {
+        final int entry = Arrays.binarySearch(frameNumbers, frameNumber);
+        return entry >= 0 ? slice(entry) : null;
+    }
+
+    /**
+     * Returns the encoded data of the frame that is shown at a time: the last
+     * frame with a timestamp at or before the time
+     * @param seconds The time in the video, in seconds
+     * @return A read-only buffer that shares the archive's memory, or null
+     * if the time is before the first frame
+     */
+    public ByteBuffer getFrameAt(double seconds) {
+        final int entry = entryAt(seconds);
+        return entry >= 0 ? slice(entry) : null;
+    }
+
+    /**
+     * Returns the number of the frame that is shown at a time
+     * @param seconds The time in the video, in seconds
+     * @return The frame number, or 0 if the time is before the first frame
+     */
+    public long getFrameNumberAt(double seconds) {
+        final int entry = entryAt(seconds);
+        return entry >= 0 ? frameNumbers[entry] : 0;
+    }
+
+    /**
+     * Returns the timestamp of a frame
+     * @param frameNumber The frame number
+     * @return The time of the frame in the video in seconds, or NaN if the
+     * frame is not in the archive
+     */
+    public double getTimestamp(long frameNumber) {
+        final int entry = Arrays.binarySearch(frameNumbers, frameNumber);
+        return entry >= 0 ? timestamps[entry] : Double.NaN;
+    }
+
+    /**
+     * @return The index of the last entry with a timestamp at or before a
+     * time, or -1
+     */
+    private int entryAt(double seconds) {
+        //Timestamps increase with frame numbers
+        int low = 0;
+        int high = timestamps.length - 1;
+        int found = -1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (timestamps[middle] <= seconds) {
+                found = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private ByteBuffer slice(int entry) {
+        final int chunk = (int) (offsets[entry] / chunkStride);
+        final int start = (int) (offsets[entry] - chunk * chunkStride);
+        final ByteBuffer view = chunks[chunk].asReadOnlyBuffer();
+        view.position(start);
+        view.limit(start + lengths[entry]);
+        return view.slice();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("Unexpected end of frame archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        final byte[] array = new byte[buffer.remaining()];
+        buffer.get(array);
+        return array;
+    }
+
+    /**
+     * Closes the file. Slices that have already been returned stay valid.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
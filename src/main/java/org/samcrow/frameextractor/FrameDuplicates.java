@@ -0,0 +1,230 @@
+package org.samcrow.frameextractor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The frames that were not written because they were nearly identical to an
+ * earlier frame, and the written frame that each one duplicates.
+ * <p/>
+ * Skipped frames keep their numbers, so the time of any frame, written or
+ * not, is still its number divided by the frame rate, and the image for a
+ * skipped frame is the image of the frame it duplicates.
+ * <p/>
+ * The file is UTF-8 text:
+ * <pre>
+ * # Frame Extractor duplicate frames
+ * version=1
+ * video=clip.mp4
+ * 2 40 1
+ * 42 97 41
+ * </pre>
+ * Each run line has the first and last skipped frame numbers and the number
+ * of the written frame that they duplicate.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FrameDuplicates {
+
+    public static final String FILE_NAME = "duplicates.txt";
+
+    private static final String FORMAT_VERSION = "1";
+
+    private final String videoName;
+
+    /**
+     * Runs in increasing frame number order
+     */
+    private final List<Run> runs = new ArrayList<>();
+
+    /**
+     * Creates an empty set of duplicates
+     * @param videoName The name of the video file
+     */
+    public FrameDuplicates(String videoName) {
+        this.videoName = videoName;
+    }
+
+    /**
+     * Records that a frame was skipped. Frames must be added in increasing
+     * order.
+     * @param frameNumber The number of the skipped frame
+     * @param keptFrame The number of the written frame that it duplicates
+     */
+    public void add(long frameNumber, long keptFrame) {
+        final Run previous = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        if (previous != null && frameNumber <= previous.last) {
+            throw new IllegalArgumentException("Frames must be added in increasing order");
+        }
+        if (previous != null && previous.last == frameNumber - 1 && previous.kept == keptFrame) {
+            previous.last = frameNumber;
+        }
+        else {
+            runs.add(new Run(frameNumber, frameNumber, keptFrame));
+        }
+    }
+
+    /**
+     * Returns the frame whose image is used for a frame
+     * @param frameNumber A frame number
+     * @return The number of the written frame that the frame duplicates, or
+     * frameNumber if it was not skipped
+     */
+    public long keptFrameOf(long frameNumber) {
+        int low = 0;
+        int high = runs.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final Run run = runs.get(middle);
+            if (frameNumber < run.first) {
+                high = middle - 1;
+            }
+            else if (frameNumber > run.last) {
+                low = middle + 1;
+            }
+            else {
+                return run.kept;
+            }
+        }
+        return frameNumber;
+    }
+
+    /**
+     * @param frameNumber A frame number
+     * @return true if the frame was skipped
+     */
+    public boolean isSkipped(long frameNumber) {
+        return keptFrameOf(frameNumber) != frameNumber;
+    }
+
+    /**
+     * @return The number of skipped frames
+     */
+    public long size() {
+        long size = 0;
+        for (Run run : runs) {
+            size += run.last - run.first + 1;
+        }
+        return size;
+    }
+
+    public String getVideoName() {
+        return videoName;
+    }
+
+    /**
+     * Adds the frames from 1 to lastFrame that were written to a frame
+     * index
+     * @param index The index to add to
+     * @param lastFrame The last frame number
+     */
+    void addWrittenFrames(FrameIndex index, long lastFrame) {
+        long next = 1;
+        for (Run run : runs) {
+            if (run.first > next && next <= lastFrame) {
+                index.addRange(next, Math.min(run.first - 1, lastFrame));
+            }
+            next = run.last + 1;
+        }
+        if (next <= lastFrame) {
+            index.addRange(next, lastFrame);
+        }
+    }
+
+    /**
+     * Writes these duplicates to a file, replacing it atomically
+     * @param file The file to write
+     * @throws IOException if the file could not be written
+     */
+    public void write(File file) throws IOException {
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), Charset.forName("UTF-8")))) {
+            out.write("# Frame Extractor duplicate frames\n");
+            out.write("version=" + FORMAT_VERSION + "\n");
+            out.write("video=" + videoName + "\n");
+            for (Run run : runs) {
+                out.write(run.first + " " + run.last + " " + run.kept + "\n");
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads duplicates from a file
+     * @param file The file to read
+     * @return The duplicates
+     * @throws IOException if the file could not be read or is not valid
+     */
+    public static FrameDuplicates read(File file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")))) {
+            String version = null;
+            String video = null;
+            FrameDuplicates result = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (result == null) {
+                    if (line.startsWith("version=")) {
+                        version = line.substring("version=".length());
+                        continue;
+                    }
+                    else if (line.startsWith("video=")) {
+                        video = line.substring("video=".length());
+                        continue;
+                    }
+                    result = create(file, version, video);
+                }
+                final String[] parts = line.split(" ");
+                if (parts.length != 3) {
+                    throw new IOException("Malformed line in duplicate frames " + file + ": " + line);
+                }
+                try {
+                    result.runs.add(new Run(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                }
+                catch (NumberFormatException e) {
+                    throw new IOException("Malformed line in duplicate frames " + file + ": " + line, e);
+                }
+            }
+            return result != null ? result : create(file, version, video);
+        }
+    }
+
+    private static FrameDuplicates create(File file, String version, String video) throws IOException {
+        if (!FORMAT_VERSION.equals(version) || video == null) {
+            throw new IOException("Duplicate frames " + file + " have a missing or unsupported header");
+        }
+        return new FrameDuplicates(video);
+    }
+
+    /**
+     * Consecutive skipped frames that duplicate the same written frame
+     */
+    private static class Run {
+
+        final long first;
+
+        long last;
+
+        final long kept;
+
+        Run(long first, long last, long kept) {
+            this.first = first;
+            this.last = last;
+            this.kept = kept;
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package org.samcrow.frameextractor;
 
 import java.io.File;
+import java.util.List;
 import javafx.application.Application;
-import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -14,18 +14,26 @@ import javafx.scene.control.Label;
 import javafx.scene.layout.GridPane;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
-import javafx.stage.Modality;
 import javafx.stage.Stage;
 
 /**
  * Frame extractor
+ * <p/>
+ * Each click on Start adds one job per selected video to a queue, which runs
+ * them on a shared pool of worker threads and shows them in a
+ * {@link DashboardStage}. Each video's frames go in a subdirectory of the
+ * output directory named after the video.
  * @author Sam Crow
  */
 public class FrameExtractorApp extends Application {
     
-    private File inputFile;
+    private List<File> inputFiles;
     
     private File outputDir;
+
+    private final JobQueue queue = new JobQueue(BatchExtractor.defaultWorkerCount());
+
+    private DashboardStage dashboard;
     
     @Override
     public void start(final Stage primaryStage) {
@@ -34,7 +42,7 @@ public class FrameExtractorApp extends Application {
         final GridPane grid = new GridPane();
         
         {
-            final Label inputLabel = new Label("Input file:");
+            final Label inputLabel = new Label("Input files:");
             grid.add(inputLabel, 0, 0);
             GridPane.setMargin(inputLabel, PADDING);
 
@@ -47,10 +55,13 @@ public class FrameExtractorApp extends Application {
                 @Override
                 public void handle(ActionEvent t) {
                     FileChooser chooser = new FileChooser();
-                    chooser.setTitle("Choose a video file to open");
-                    inputFile = chooser.showOpenDialog(primaryStage);
-                    if(inputFile != null) {
-                        inputPathLabel.setText(inputFile.getAbsolutePath());
+                    chooser.setTitle("Choose video files to open");
+                    inputFiles = chooser.showOpenMultipleDialog(primaryStage);
+                    if(inputFiles != null && inputFiles.size() == 1) {
+                        inputPathLabel.setText(inputFiles.get(0).getAbsolutePath());
+                    }
+                    else if(inputFiles != null) {
+                        inputPathLabel.setText(inputFiles.size() + " files in " + inputFiles.get(0).getParent());
                     }
                     else {
                         inputPathLabel.setText("No file selected");
@@ -96,19 +107,22 @@ public class FrameExtractorApp extends Application {
         startButton.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent t) {
-                Task<Void> task;
+                if(inputFiles == null || outputDir == null) {
+                    return;
+                }
                 boolean force29 = force29Box.isSelected();
-                if(force29) {
-                    task = new FrameExtractor(inputFile.getAbsolutePath(), outputDir.getAbsolutePath(), 29.97);
+                final ExtractionSettings settings = force29 ? new ExtractionSettings(29.97) : new ExtractionSettings();
+                
+                if(dashboard == null) {
+                    dashboard = new DashboardStage(queue);
+                    dashboard.initOwner(primaryStage);
                 }
-                else {
-                    task = new FrameExtractor(inputFile.getAbsolutePath(), outputDir.getAbsolutePath());
+                for(File inputFile : inputFiles) {
+                    final File videoOutputDir = new File(outputDir, inputFile.getName());
+                    dashboard.submit(new ExtractionJob(inputFile.getAbsolutePath(), videoOutputDir.getAbsolutePath(), settings));
                 }
-                
-                final TaskStatusStage stage = new TaskStatusStage(task);
-                stage.initOwner(primaryStage);
-                stage.initModality(Modality.WINDOW_MODAL);
-                stage.show();
+                dashboard.show();
+                dashboard.toFront();
             }
         });
         startButton.setAlignment(Pos.CENTER_RIGHT);
@@ -125,6 +139,12 @@ public class FrameExtractorApp extends Application {
         
     }
 
+    @Override
+    public void stop() {
+        //Stop ffmpeg processes when the application exits
+        queue.shutdown();
+    }
+
     /**
      * The main() method is ignored in correctly deployed JavaFX
      * application. main() serves only as fallback in case the
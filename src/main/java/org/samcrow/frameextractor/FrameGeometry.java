@@ -0,0 +1,112 @@
+package org.samcrow.frameextractor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The size of extracted frames, and the ffmpeg filters that crop and scale
+ * decoded frames to that size and convert them to grayscale if needed.
+ * <p/>
+ * Cropping is done first, so pixels outside the region are never scaled or
+ * encoded. The cropped frames are then scaled to square pixels according to
+ * the scaling policy. If the region is the whole picture and the pixels are
+ * already square, no filter is needed. Grayscale frames are converted last,
+ * so that scaling works on full color.
+ * <p/>
+ * @author Sam Crow
+ */
+class FrameGeometry {
+
+    /**
+     * Pixel aspect ratios closer to 1 than this are treated as square
+     */
+    private static final double SQUARE_TOLERANCE = 0.001;
+
+    private final VideoInfo.Resolution resolution;
+
+    /**
+     * The filter chain, or null if frames are used as decoded
+     */
+    private final String filter;
+
+    private FrameGeometry(VideoInfo.Resolution resolution, String filter) {
+        this.resolution = resolution;
+        this.filter = filter;
+    }
+
+    /**
+     * Works out the frame geometry for a video
+     * @param info Information about the video
+     * @param settings The settings, whose crop region, scaling policy, and
+     * grayscale setting are used
+     * @return The geometry
+     * @throws IllegalArgumentException if the crop region does not fit in
+     * the video's picture
+     */
+    static FrameGeometry of(VideoInfo info, ExtractionSettings settings) {
+        final List<String> filters = new ArrayList<>();
+        int width = info.resolution.horizontal;
+        int height = info.resolution.vertical;
+
+        final CropRegion crop = settings.getCrop();
+        if (crop != null) {
+            if (!crop.fits(info.resolution)) {
+                throw new IllegalArgumentException("Crop region " + crop + " does not fit in the video's resolution of " + info.resolution);
+            }
+            width = crop.getWidth();
+            height = crop.getHeight();
+            filters.add(crop.toFilter());
+        }
+
+        final ScalingPolicy policy = settings.getScalingPolicy();
+        final double pixelAspectRatio = info.getPixelAspectRatio();
+        if (policy.getFlags() != null && Math.abs(pixelAspectRatio - 1) > SQUARE_TOLERANCE) {
+            //Keep the height and stretch or shrink the width
+            width = (int) Math.round(width * pixelAspectRatio);
+            filters.add("scale=" + width + ":" + height + ":flags=" + policy.getFlags());
+        }
+        if (settings.isGrayscale()) {
+            filters.add("format=gray");
+        }
+
+        String filter = null;
+        if (!filters.isEmpty()) {
+            final StringBuilder chain = new StringBuilder();
+            for (String part : filters) {
+                if (chain.length() != 0) {
+                    chain.append(',');
+                }
+                chain.append(part);
+            }
+            filter = chain.toString();
+        }
+        return new FrameGeometry(new VideoInfo.Resolution(width, height), filter);
+    }
+
+    /**
+     * @return The size of extracted frames
+     */
+    public VideoInfo.Resolution getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return The crop and scale filter chain, or null if frames are used as
+     * they are decoded
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * Appends this geometry's filters to another filter chain
+     * @param chain A filter chain, or null
+     * @return The combined chain, or null if both are empty
+     */
+    public String after(String chain) {
+        if (chain == null) {
+            return filter;
+        }
+        return filter == null ? chain : chain + "," + filter;
+    }
+}
@@ -0,0 +1,264 @@
+package org.samcrow.frameextractor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact map from frame number to frame file path, stored in the output
+ * directory so that readers never need to list it.
+ * <p/>
+ * The index stores runs of consecutive frame numbers that are in the same
+ * directory, rather than one entry per frame. The file is UTF-8 text:
+ * <pre>
+ * # Frame Extractor frame index
+ * version=1
+ * video=clip.mp4
+ * layout=sharded:1000
+ * 1 1000 000000
+ * 1001 2000 000001
+ * 2001 2417 000002
+ * </pre>
+ * Each run line has the first frame number, the last frame number, and the
+ * directory relative to the output directory ("." for the output directory
+ * itself). The file name of frame n is
+ * {@link OutputLayout#fileName(String, long)} of the video name and n. Layouts
+ * of files other than JPEG have the extension after the layout, for example
+ * <code>layout=flat:png</code>.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FrameIndex {
+
+    public static final String FILE_NAME = "frame_index.txt";
+
+    private static final String FORMAT_VERSION = "1";
+
+    private final String videoName;
+
+    private final OutputLayout layout;
+
+    /**
+     * Runs in increasing frame number order
+     */
+    private final List<Run> runs = new ArrayList<>();
+
+    /**
+     * Creates an empty index
+     * @param videoName The name of the video file
+     * @param layout The layout that the frames are in
+     */
+    public FrameIndex(String videoName, OutputLayout layout) {
+        this.videoName = videoName;
+        this.layout = layout;
+    }
+
+    /**
+     * Adds one frame. Frames must be added in increasing order.
+     * @param frameNumber The frame number
+     */
+    public void add(long frameNumber) {
+        addRange(frameNumber, frameNumber);
+    }
+
+    /**
+     * Adds a range of consecutive frames. Ranges must be added in increasing
+     * order.
+     * @param first The first frame number
+     * @param last The last frame number, inclusive
+     */
+    public void addRange(long first, long last) {
+        if (!runs.isEmpty() && first <= runs.get(runs.size() - 1).last) {
+            throw new IllegalArgumentException("Frames must be added in increasing order");
+        }
+        long start = first;
+        while (start <= last) {
+            final String directory = layout.directoryOf(start);
+            //Split the range where it crosses into another directory
+            long end = last;
+            if (layout.isSharded()) {
+                final long directoryEnd = ((start - 1) / layout.getFramesPerDirectory() + 1) * layout.getFramesPerDirectory();
+                end = Math.min(last, directoryEnd);
+            }
+            final Run previous = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (previous != null && previous.last == start - 1 && previous.directory.equals(directory)) {
+                previous.last = end;
+            }
+            else {
+                runs.add(new Run(start, end, directory));
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Returns the path of a frame relative to the output directory
+     * @param frameNumber The frame number
+     * @return The path, using '/' as the separator, or null if the frame is
+     * not in the index
+     */
+    public String pathOf(long frameNumber) {
+        int low = 0;
+        int high = runs.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final Run run = runs.get(middle);
+            if (frameNumber < run.first) {
+                high = middle - 1;
+            }
+            else if (frameNumber > run.last) {
+                low = middle + 1;
+            }
+            else {
+                final String name = layout.fileName(videoName, frameNumber);
+                return run.directory.isEmpty() ? name : run.directory + "/" + name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of frames in the index
+     */
+    public long size() {
+        long size = 0;
+        for (Run run : runs) {
+            size += run.last - run.first + 1;
+        }
+        return size;
+    }
+
+    /**
+     * @return The highest frame number in the index, or 0 if it is empty
+     */
+    public long getLastFrame() {
+        return runs.isEmpty() ? 0 : runs.get(runs.size() - 1).last;
+    }
+
+    public String getVideoName() {
+        return videoName;
+    }
+
+    public OutputLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Writes this index to a file, replacing it atomically
+     * @param file The file to write
+     * @throws IOException if the file could not be written
+     */
+    public void write(File file) throws IOException {
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), Charset.forName("UTF-8")))) {
+            out.write("# Frame Extractor frame index\n");
+            out.write("version=" + FORMAT_VERSION + "\n");
+            out.write("video=" + videoName + "\n");
+            out.write("layout=" + layout + "\n");
+            for (Run run : runs) {
+                out.write(run.first + " " + run.last + " " + (run.directory.isEmpty() ? "." : run.directory) + "\n");
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads an index from a file
+     * @param file The file to read
+     * @return The index
+     * @throws IOException if the file could not be read or is not a valid
+     * index
+     */
+    public static FrameIndex read(File file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")))) {
+            String version = null;
+            String video = null;
+            OutputLayout layout = null;
+            FrameIndex index = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (index == null) {
+                    if (line.startsWith("version=")) {
+                        version = line.substring("version=".length());
+                    }
+                    else if (line.startsWith("video=")) {
+                        video = line.substring("video=".length());
+                    }
+                    else if (line.startsWith("layout=")) {
+                        layout = parseLayout(line.substring("layout=".length()));
+                    }
+                    else {
+                        if (!FORMAT_VERSION.equals(version) || video == null || layout == null) {
+                            throw new IOException("Frame index " + file + " has a missing or unsupported header");
+                        }
+                        index = new FrameIndex(video, layout);
+                    }
+                }
+                if (index != null) {
+                    final String[] parts = line.split(" ");
+                    if (parts.length != 3) {
+                        throw new IOException("Malformed line in frame index " + file + ": " + line);
+                    }
+                    try {
+                        final String directory = parts[2].equals(".") ? "" : parts[2];
+                        index.runs.add(new Run(Long.parseLong(parts[0]), Long.parseLong(parts[1]), directory));
+                    }
+                    catch (NumberFormatException e) {
+                        throw new IOException("Malformed line in frame index " + file + ": " + line, e);
+                    }
+                }
+            }
+            if (index == null) {
+                if (!FORMAT_VERSION.equals(version) || video == null || layout == null) {
+                    throw new IOException("Frame index " + file + " has a missing or unsupported header");
+                }
+                index = new FrameIndex(video, layout);
+            }
+            return index;
+        }
+    }
+
+    private static OutputLayout parseLayout(String value) throws IOException {
+        try {
+            return OutputLayout.parse(value);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Consecutive frames in one directory
+     */
+    private static class Run {
+
+        final long first;
+
+        long last;
+
+        /**
+         * The directory relative to the output directory, or an empty string
+         */
+        final String directory;
+
+        Run(long first, long last, String directory) {
+            this.first = first;
+            this.last = last;
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.samcrow.frameextractor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A set of frames to extract from a video, given as frame numbers or as
+ * times in the video.
+ * <p/>
+ * Frame numbers count from 1 at the extraction frame rate, the same numbers
+ * that a full extraction would give the frames. A time is converted to the
+ * number of the nearest frame, so extracting a selection writes a subset of
+ * the files that a full extraction would write.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FrameSelection {
+
+    /**
+     * The selected frame numbers, or null if the selection is of times
+     */
+    private final long[] frameNumbers;
+
+    /**
+     * The selected times in seconds, or null if the selection is of frame
+     * numbers
+     */
+    private final double[] timestamps;
+
+    private FrameSelection(long[] frameNumbers, double[] timestamps) {
+        this.frameNumbers = frameNumbers;
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Selects frames by number
+     * @param frameNumbers The frame numbers, each at least 1, in any order
+     * @return A selection
+     */
+    public static FrameSelection ofFrameNumbers(long... frameNumbers) {
+        for (long frame : frameNumbers) {
+            if (frame < 1) {
+                throw new IllegalArgumentException("Frame numbers must be at least 1");
+            }
+        }
+        return new FrameSelection(frameNumbers.clone(), null);
+    }
+
+    /**
+     * Selects frames by time
+     * @param seconds The times in the video, in seconds, each not negative,
+     * in any order
+     * @return A selection
+     */
+    public static FrameSelection ofTimestamps(double... seconds) {
+        for (double time : seconds) {
+            if (!(time >= 0)) {
+                throw new IllegalArgumentException("Frame times must not be negative");
+            }
+        }
+        return new FrameSelection(null, seconds.clone());
+    }
+
+    /**
+     * @return The number of frames or times in this selection, including any
+     * duplicates
+     */
+    public int size() {
+        return frameNumbers != null ? frameNumbers.length : timestamps.length;
+    }
+
+    /**
+     * Returns the selected frame numbers at a frame rate
+     * @param frameRate The extraction frame rate, in frames per second
+     * @return The frame numbers in increasing order, without duplicates
+     */
+    public long[] toFrameNumbers(double frameRate) {
+        long[] frames;
+        if (frameNumbers != null) {
+            frames = frameNumbers.clone();
+        }
+        else {
+            frames = new long[timestamps.length];
+            for (int i = 0; i < timestamps.length; i++) {
+                //Frame n is shown from time (n - 1) / frameRate
+                frames[i] = Math.round(timestamps[i] * frameRate) + 1;
+            }
+        }
+        Arrays.sort(frames);
+        //Remove duplicates
+        int count = 0;
+        for (int i = 0; i < frames.length; i++) {
+            if (count == 0 || frames[i] != frames[count - 1]) {
+                frames[count++] = frames[i];
+            }
+        }
+        return Arrays.copyOf(frames, count);
+    }
+
+    /**
+     * Returns a string that identifies the frames that this selection
+     * extracts at a frame rate, for checkpoints and extraction cache keys.
+     * Selections that extract the same frames have the same identity,
+     * whatever order or form their frames were given in.
+     * @param frameRate The extraction frame rate, in frames per second
+     * @return The number of frames and a SHA-1 hash of their numbers
+     */
+    public String identity(double frameRate) {
+        final long[] frames = toFrameNumbers(frameRate);
+        final ByteBuffer buffer = ByteBuffer.allocate(frames.length * 8);
+        for (long frame : frames) {
+            buffer.putLong(frame);
+        }
+        return "frames:" + frames.length + ":" + FFMpeg.toHex(FFMpeg.sha1().digest(buffer.array()));
+    }
+
+    @Override
+    public String toString() {
+        return (frameNumbers != null ? "frames:" : "times:") + size();
+    }
+}
@@ -0,0 +1,25 @@
+package org.samcrow.frameextractor;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for encoded frames
+ * <p/>
+ * Implementations must be thread-safe, because frames are written by several
+ * encoder threads at the same time and may arrive out of order.
+ * <p/>
+ * @author Sam Crow
+ */
+interface FrameSink extends Closeable {
+
+    /**
+     * Writes one encoded frame
+     * @param frameNumber The frame number, starting at 1
+     * @param timestamp The time of the frame in the video, in seconds
+     * @param data A buffer containing the encoded image
+     * @param length The number of bytes of data to write
+     * @throws IOException if the frame could not be written
+     */
+    void write(long frameNumber, double timestamp, byte[] data, int length) throws IOException;
+}
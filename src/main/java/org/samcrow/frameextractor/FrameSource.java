@@ -0,0 +1,19 @@
+package org.samcrow.frameextractor;
+
+import java.io.IOException;
+
+/**
+ * Delivers decoded frames one at a time, such as a {@link FrameStream}
+ * <p/>
+ * @author Sam Crow
+ */
+interface FrameSource {
+
+    /**
+     * Reads the next frame. The caller must release it.
+     * @return The next frame, or null if there are no more frames
+     * @throws IOException if the frame could not be read
+     * @throws InterruptedException if interrupted while waiting for the frame
+     */
+    Frame nextFrame() throws IOException, InterruptedException;
+}
@@ -0,0 +1,226 @@
+package org.samcrow.frameextractor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the frames of a video into memory, without writing any files.
+ * <p/>
+ * ffmpeg writes raw frames to a pipe, and {@link #nextFrame()} reads them
+ * one at a time into buffers from a fixed-size pool. When all buffers are held
+ * by frames that have not been released, nextFrame() blocks, and ffmpeg
+ * blocks writing to the pipe, so a slow consumer slows decoding down instead
+ * of using more memory.
+ * <p/>
+ * Example:
+ * <pre>
+ * try (FrameStream stream = new FrameStream(video, settings, PixelFormat.GRAY)) {
+ *     Frame frame;
+ *     while ((frame = stream.nextFrame()) != null) {
+ *         try {
+ *             process(frame.getData());
+ *         }
+ *         finally {
+ *             frame.release();
+ *         }
+ *     }
+ * }
+ * </pre>
+ * This class is not thread-safe, but frames may be released from any thread.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FrameStream implements FrameSource, Closeable {
+
+    /**
+     * The default number of frames that can be held at once
+     */
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    private final FFMpegProcess process;
+
+    private final InputStream input;
+
+    private final BufferPool pool;
+
+    private final int width;
+
+    private final int height;
+
+    private final PixelFormat pixelFormat;
+
+    private final double frameRate;
+
+    /**
+     * The number of the last frame read
+     */
+    private long frameNumber = 0;
+
+    private boolean finished = false;
+
+    /**
+     * Starts decoding a video with the default pool size
+     * @param video The video to decode
+     * @param settings The extraction settings. The frame rate, crop and
+     * scaling policy are used.
+     * @param pixelFormat The format to deliver frames in
+     * @throws Exception if the video could not be probed or ffmpeg could not
+     * be started
+     */
+    public FrameStream(File video, ExtractionSettings settings, PixelFormat pixelFormat) throws Exception {
+        this(video, settings, pixelFormat, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Starts decoding a video
+     * @param video The video to decode
+     * @param settings The extraction settings. The frame rate, crop and
+     * scaling policy are used.
+     * @param pixelFormat The format to deliver frames in
+     * @param poolSize The maximum number of frames that can be held
+     * (not released) at once
+     * @throws Exception if the video could not be probed or ffmpeg could not
+     * be started
+     */
+    public FrameStream(File video, ExtractionSettings settings, PixelFormat pixelFormat, int poolSize) throws Exception {
+        this(video, settings, pixelFormat, poolSize, 1);
+    }
+
+    /**
+     * Starts decoding a video at a given frame
+     * @param video The video to decode
+     * @param settings The extraction settings. The frame rate, crop and
+     * scaling policy are used.
+     * @param pixelFormat The format to deliver frames in
+     * @param poolSize The maximum number of frames that can be held
+     * (not released) at once
+     * @param firstFrame The number of the first frame to deliver, starting at 1
+     * @throws Exception if the video could not be probed or ffmpeg could not
+     * be started
+     */
+    FrameStream(File video, ExtractionSettings settings, PixelFormat pixelFormat, int poolSize, long firstFrame) throws Exception {
+        final VideoInfo info = settings.getProbeCache().get(video);
+        final FrameGeometry geometry = FrameGeometry.of(info, settings);
+        final VideoInfo.Resolution resolution = geometry.getResolution();
+        this.width = resolution.horizontal;
+        this.height = resolution.vertical;
+        this.pixelFormat = pixelFormat;
+        this.frameRate = settings.useNativeFrameRate() ? info.frameRate : settings.getFrameRate();
+        this.pool = new BufferPool(pixelFormat.frameSize(width, height), poolSize);
+
+        this.frameNumber = firstFrame - 1;
+
+        final List<String> arguments = new ArrayList<>();
+        FFMpegProcess.addSeekingInput(arguments, video.getAbsolutePath(), (firstFrame - 1) / frameRate);
+        arguments.add("-r");
+        arguments.add(String.valueOf(frameRate));
+        if (geometry.getFilter() != null) {
+            arguments.add("-vf");
+            arguments.add(geometry.getFilter());
+        }
+        arguments.add("-f");
+        arguments.add("rawvideo");
+        arguments.add("-pix_fmt");
+        arguments.add(pixelFormat.getFFMpegName());
+        arguments.add("pipe:1");
+
+        process = FFMpegProcess.startPiped(arguments, settings.getStallTimeout(), settings.getProcessTimeLimit());
+        process.drainErrorsInBackground(ProgressListener.NONE);
+        input = process.getOutput();
+    }
+
+    /**
+     * Reads the next frame, waiting until a buffer is available for it
+     * @return The next frame, or null if there are no more frames
+     * @throws IOException if the frame could not be read or ffmpeg failed
+     * @throws InterruptedException if interrupted while waiting for a buffer
+     * or for ffmpeg to exit
+     */
+    @Override
+    public Frame nextFrame() throws IOException, InterruptedException {
+        if (finished) {
+            return null;
+        }
+        final ByteBuffer buffer = pool.acquire();
+        final int size = pool.getBufferSize();
+        final int read = readFully(input, buffer.array(), size);
+        if (read < size) {
+            pool.release(buffer);
+            finished = true;
+            final int exitCode = process.waitFor();
+            if (process.isDestroyed()) {
+                //Closed or cancelled
+                return null;
+            }
+            if (read != 0) {
+                throw new IOException("ffmpeg output ended in the middle of frame " + (frameNumber + 1));
+            }
+            if (exitCode != 0) {
+                throw process.failure(exitCode, "decoding frames");
+            }
+            return null;
+        }
+        buffer.limit(size);
+        frameNumber++;
+        return new Frame(pool, buffer, width, height, pixelFormat, frameNumber, (frameNumber - 1) / frameRate);
+    }
+
+    /**
+     * Reads from a stream until a buffer is full or the stream ends
+     * @return The number of bytes read, which is less than length only if
+     * the stream ended
+     */
+    static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int read = in.read(buffer, total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * @return The ffmpeg process that decodes the frames
+     */
+    FFMpegProcess getProcess() {
+        return process;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return The rate, in frames per second, that frames are delivered at
+     */
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Stops decoding. Frames that have already been read remain valid until
+     * they are released.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        process.destroy();
+        input.close();
+    }
+}
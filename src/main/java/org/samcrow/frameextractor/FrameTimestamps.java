@@ -0,0 +1,173 @@
+package org.samcrow.frameextractor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The time in the source video of each extracted frame, for extractions
+ * where frames are not evenly spaced, such as {@link SamplingMode#KEYFRAMES},
+ * {@link SamplingMode#SCENE_CHANGES}, and {@link SamplingMode#PASSTHROUGH}.
+ * <p/>
+ * The file is UTF-8 text:
+ * <pre>
+ * # Frame Extractor frame timestamps
+ * version=1
+ * video=clip.mp4
+ * 1 0.000000
+ * 2 4.170833
+ * 3 9.843167
+ * </pre>
+ * Each frame line has the frame number and the frame's presentation time in
+ * the video, in seconds.
+ * <p/>
+ * @author Sam Crow
+ */
+public class FrameTimestamps {
+
+    public static final String FILE_NAME = "frame_times.txt";
+
+    private static final String FORMAT_VERSION = "1";
+
+    private final String videoName;
+
+    /**
+     * Frame numbers in increasing order. Only the first size elements are
+     * used.
+     */
+    private long[] frames = new long[64];
+
+    /**
+     * The timestamp of each frame in frames, in seconds
+     */
+    private double[] timestamps = new double[64];
+
+    private int size = 0;
+
+    /**
+     * Creates an empty set of timestamps
+     * @param videoName The name of the video file
+     */
+    public FrameTimestamps(String videoName) {
+        this.videoName = videoName;
+    }
+
+    /**
+     * Adds one frame. Frames must be added in increasing order.
+     * @param frameNumber The frame number
+     * @param seconds The time of the frame in the video, in seconds
+     */
+    public void add(long frameNumber, double seconds) {
+        if (size != 0 && frameNumber <= frames[size - 1]) {
+            throw new IllegalArgumentException("Frames must be added in increasing order");
+        }
+        if (size == frames.length) {
+            frames = Arrays.copyOf(frames, size * 2);
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        }
+        frames[size] = frameNumber;
+        timestamps[size] = seconds;
+        size++;
+    }
+
+    /**
+     * Returns the time of a frame
+     * @param frameNumber The frame number
+     * @return The time of the frame in the video, in seconds, or NaN if the
+     * frame is not known
+     */
+    public double getTimestamp(long frameNumber) {
+        final int index = Arrays.binarySearch(frames, 0, size, frameNumber);
+        return index >= 0 ? timestamps[index] : Double.NaN;
+    }
+
+    /**
+     * @return The number of frames
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getVideoName() {
+        return videoName;
+    }
+
+    /**
+     * Writes these timestamps to a file, replacing it atomically
+     * @param file The file to write
+     * @throws IOException if the file could not be written
+     */
+    public void write(File file) throws IOException {
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), Charset.forName("UTF-8")))) {
+            out.write("# Frame Extractor frame timestamps\n");
+            out.write("version=" + FORMAT_VERSION + "\n");
+            out.write("video=" + videoName + "\n");
+            for (int i = 0; i < size; i++) {
+                out.write(frames[i] + " " + String.format(Locale.US, "%.6f", timestamps[i]) + "\n");
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads timestamps from a file
+     * @param file The file to read
+     * @return The timestamps
+     * @throws IOException if the file could not be read or is not valid
+     */
+    public static FrameTimestamps read(File file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")))) {
+            String version = null;
+            String video = null;
+            FrameTimestamps result = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (result == null) {
+                    if (line.startsWith("version=")) {
+                        version = line.substring("version=".length());
+                        continue;
+                    }
+                    else if (line.startsWith("video=")) {
+                        video = line.substring("video=".length());
+                        continue;
+                    }
+                    result = create(file, version, video);
+                }
+                final String[] parts = line.split(" ");
+                if (parts.length != 2) {
+                    throw new IOException("Malformed line in frame timestamps " + file + ": " + line);
+                }
+                try {
+                    result.add(Long.parseLong(parts[0]), Double.parseDouble(parts[1]));
+                }
+                catch (IllegalArgumentException e) {
+                    //NumberFormatException, or frames out of order
+                    throw new IOException("Malformed line in frame timestamps " + file + ": " + line, e);
+                }
+            }
+            return result != null ? result : create(file, version, video);
+        }
+    }
+
+    private static FrameTimestamps create(File file, String version, String video) throws IOException {
+        if (!FORMAT_VERSION.equals(version) || video == null) {
+            throw new IOException("Frame timestamps " + file + " have a missing or unsupported header");
+        }
+        return new FrameTimestamps(video);
+    }
+}
@@ -0,0 +1,116 @@
+package org.samcrow.frameextractor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the distribution of non-negative values, such as times in
+ * milliseconds.
+ * <p/>
+ * Values are counted in buckets whose bounds are powers of two, so recording
+ * takes constant time and space, and percentiles are accurate to within a
+ * factor of two. The count, total, minimum, and maximum are exact.
+ * <p/>
+ * This class is thread-safe. Its getters make it appear as a composite value
+ * in JMX.
+ * <p/>
+ * @author Sam Crow
+ */
+public class Histogram {
+
+    /**
+     * Bucket 0 counts the value 0. Bucket i, for i &gt;= 1, counts values from
+     * 2^(i-1) to 2^i - 1.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Records a value
+     * @param value The value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * @return The smallest value, or 0 if no values have been recorded
+     */
+    public long getMin() {
+        return count.get() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * @return The largest value, or 0 if no values have been recorded
+     */
+    public long getMax() {
+        return count.get() == 0 ? 0 : max.get();
+    }
+
+    /**
+     * @return The mean value, or 0 if no values have been recorded
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    public long getMedian() {
+        return percentile(0.5);
+    }
+
+    public long getPercentile90() {
+        return percentile(0.9);
+    }
+
+    public long getPercentile99() {
+        return percentile(0.99);
+    }
+
+    /**
+     * Estimates a percentile
+     * @param fraction The fraction of values that are at or below the
+     * result, from 0 to 1
+     * @return The upper bound of the bucket that contains the percentile,
+     * limited to the maximum value, or 0 if no values have been recorded
+     */
+    public long percentile(double fraction) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                final long upper = i == 0 ? 0 : (i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                return Math.min(upper, getMax());
+            }
+        }
+        return getMax();
+    }
+}
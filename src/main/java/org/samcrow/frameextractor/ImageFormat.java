@@ -0,0 +1,133 @@
+package org.samcrow.frameextractor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Image file formats that frames can be written in
+ * <p/>
+ * JPEG is the smallest and is lossy. PNG is lossless and slower to encode.
+ * PPM and PGM are uncompressed: they cost almost nothing to encode or
+ * decode, but are several times larger. Every format except PPM can hold
+ * grayscale images.
+ * <p/>
+ * @author Sam Crow
+ */
+public enum ImageFormat {
+
+    /**
+     * JPEG. The quality is ffmpeg's quantizer scale, from 2 (best) to 31
+     * (smallest).
+     */
+    JPEG("jpg", "mjpeg", "-q:v", 2, 31),
+    /**
+     * PNG. The quality is the zlib compression level, from 0 (fastest) to 9
+     * (smallest).
+     */
+    PNG("png", "png", "-compression_level", 0, 9),
+    /**
+     * Uncompressed 8-bit RGB (binary portable pixmap). There is no quality
+     * setting.
+     */
+    PPM("ppm", "ppm", null, 0, -1),
+    /**
+     * Uncompressed 8-bit grayscale (binary portable graymap). There is no
+     * quality setting.
+     */
+    PGM("pgm", "pgm", null, 0, -1);
+
+    private final String extension;
+
+    private final String codec;
+
+    private final String qualityOption;
+
+    private final int minQuality;
+
+    private final int maxQuality;
+
+    private ImageFormat(String extension, String codec, String qualityOption, int minQuality, int maxQuality) {
+        this.extension = extension;
+        this.codec = codec;
+        this.qualityOption = qualityOption;
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+    }
+
+    /**
+     * @return The file name extension, without a dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return The name of the ffmpeg encoder, as passed to
+     * <code>-c:v</code>
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return The ffmpeg option that sets the quality, or null if this format
+     * has no quality setting
+     */
+    String getQualityOption() {
+        return qualityOption;
+    }
+
+    /**
+     * @param quality A quality value
+     * @return true if the quality is valid for this format
+     */
+    public boolean isValidQuality(int quality) {
+        return quality >= minQuality && quality <= maxQuality;
+    }
+
+    /**
+     * @return true if images in this format are always grayscale
+     */
+    public boolean isGrayscale() {
+        return this == PGM;
+    }
+
+    /**
+     * @return The format to use for grayscale images instead of this one,
+     * which is PGM for PPM and this format for the others
+     */
+    public ImageFormat grayscale() {
+        return this == PPM ? PGM : this;
+    }
+
+    /**
+     * Returns the ffmpeg options that select this format's encoder
+     * @param quality The quality, or -1 to use the encoder's default
+     * @return The options
+     */
+    List<String> codecOptions(int quality) {
+        final List<String> options = new ArrayList<>();
+        options.add("-c:v");
+        options.add(codec);
+        if (quality != -1) {
+            options.add(qualityOption);
+            options.add(String.valueOf(quality));
+        }
+        return options;
+    }
+
+    /**
+     * Finds a format by name or extension
+     * @param name The name, such as "png" or "jpeg", in any case
+     * @return The format
+     * @throws IllegalArgumentException if no format has the name
+     */
+    public static ImageFormat forName(String name) {
+        for (ImageFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name) || format.extension.equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown image format " + name);
+    }
+}
@@ -0,0 +1,289 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
+
+/**
+ * Metrics for one run of an {@link ExtractionJob}.
+ * <p/>
+ * While the job runs, these metrics are registered as an MBean, and every
+ * change is added to the {@link ExtractionMetrics#getGlobal() global
+ * metrics}. Job events are written to a {@link MetricsLog} if the job's
+ * settings have one.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+public class JobMetrics implements JobMetricsMXBean {
+
+    private static final AtomicLong nextId = new AtomicLong(1);
+
+    private final String videoPath;
+
+    /**
+     * The log to write events to, or null
+     */
+    private final MetricsLog log;
+
+    private final ExtractionMetrics global;
+
+    private volatile String state = "created";
+
+    private volatile long startTime;
+
+    private volatile long endTime;
+
+    private volatile long probeMillis;
+
+    /**
+     * The rate that frames are extracted at, or 0 if not known yet
+     */
+    private volatile double frameRate;
+
+    private final AtomicLong processesStarted = new AtomicLong();
+
+    private volatile long maxSpawnMillis;
+
+    private final AtomicLong framesWritten = new AtomicLong();
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private volatile double ffmpegSpeed;
+
+    private ObjectName objectName;
+
+    /**
+     * Constructor
+     * @param videoPath The path to the video file
+     * @param log The log to write events to, or null
+     */
+    JobMetrics(String videoPath, MetricsLog log) {
+        this.videoPath = videoPath;
+        this.log = log;
+        this.global = ExtractionMetrics.getGlobal();
+    }
+
+    /**
+     * Records that the job has started, and registers these metrics
+     */
+    synchronized void started() {
+        state = "probing";
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        probeMillis = 0;
+        frameRate = 0;
+        processesStarted.set(0);
+        maxSpawnMillis = 0;
+        framesWritten.set(0);
+        bytesWritten.set(0);
+        ffmpegSpeed = 0;
+        global.jobsStarted.incrementAndGet();
+        global.jobsRunning.incrementAndGet();
+        if (objectName == null) {
+            objectName = ExtractionMetrics.register(this, ExtractionMetrics.DOMAIN + ":type=ExtractionJob,id=" + nextId.getAndIncrement()
+                    + ",video=" + ObjectName.quote(new File(videoPath).getName()));
+        }
+        if (log != null) {
+            log.event("job_started").add("video", videoPath).write();
+        }
+    }
+
+    /**
+     * Records that the video has been probed
+     * @param millis The time taken to probe, in milliseconds
+     * @param frameRate The rate that frames will be extracted at
+     * @param duration The duration of the video, in milliseconds
+     */
+    void probed(long millis, double frameRate, long duration) {
+        probeMillis = millis;
+        this.frameRate = frameRate;
+        global.probeMillis.record(millis);
+        if (log != null) {
+            log.event("probe").add("video", videoPath).add("millis", millis).add("frameRate", frameRate)
+                    .add("durationMillis", duration).write();
+        }
+    }
+
+    /**
+     * Records that frame extraction has started
+     * @param mode How frames are being extracted
+     * @param resumedFrames The number of frames that a previous run wrote
+     */
+    void extracting(String mode, long resumedFrames) {
+        state = "extracting";
+        if (log != null) {
+            log.event("extraction_started").add("video", videoPath).add("mode", mode).add("resumedFrames", resumedFrames).write();
+        }
+    }
+
+    /**
+     * Records that an ffmpeg process has started
+     * @param spawnMillis The time taken to start it, in milliseconds
+     */
+    void processStarted(long spawnMillis) {
+        processesStarted.incrementAndGet();
+        synchronized (this) {
+            maxSpawnMillis = Math.max(maxSpawnMillis, spawnMillis);
+        }
+        global.processesStarted.incrementAndGet();
+        global.spawnMillis.record(spawnMillis);
+        if (log != null) {
+            log.event("process_started").add("video", videoPath).add("spawnMillis", spawnMillis).write();
+        }
+    }
+
+    /**
+     * Records that one frame has been written
+     * @param bytes The size of the frame
+     */
+    void frameWritten(long bytes) {
+        framesWritten.incrementAndGet();
+        bytesWritten.addAndGet(bytes);
+        global.framesWritten.incrementAndGet();
+        global.bytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * Sets the number of frames written so far, for extractions where ffmpeg
+     * writes the frames
+     * @param frames The number of frames written by this run
+     */
+    synchronized void setFramesWritten(long frames) {
+        global.framesWritten.addAndGet(frames - framesWritten.getAndSet(frames));
+    }
+
+    /**
+     * Sets the number of bytes written so far
+     * @param bytes The number of bytes written by this run
+     */
+    synchronized void setBytesWritten(long bytes) {
+        global.bytesWritten.addAndGet(bytes - bytesWritten.getAndSet(bytes));
+    }
+
+    /**
+     * Records the processing speed that ffmpeg reported
+     * @param speed The speed as a multiple of real time
+     */
+    void setFFMpegSpeed(double speed) {
+        ffmpegSpeed = speed;
+    }
+
+    /**
+     * Records that the job has ended without an error, and unregisters these
+     * metrics
+     * @param cancelled true if the job was cancelled
+     */
+    synchronized void finished(boolean cancelled) {
+        endTime = System.currentTimeMillis();
+        state = cancelled ? "cancelled" : "finished";
+        global.jobsRunning.decrementAndGet();
+        if (cancelled) {
+            global.jobsCancelled.incrementAndGet();
+        }
+        else {
+            global.jobsFinished.incrementAndGet();
+            global.jobMillis.record(getElapsedMillis());
+            global.jobFramesPerSecond.record(Math.round(getFramesPerSecond()));
+            final double realTime = getRealTimeFactor();
+            if (frameRate > 0 && framesWritten.get() > 0) {
+                global.jobRealTimePercent.record(Math.round(realTime * 100));
+                if (realTime < 1) {
+                    global.jobsBelowRealTime.incrementAndGet();
+                }
+            }
+        }
+        if (log != null) {
+            log.event("job_finished").add("video", videoPath).add("cancelled", cancelled).add("millis", getElapsedMillis())
+                    .add("processes", processesStarted.get()).add("frames", framesWritten.get()).add("bytes", bytesWritten.get())
+                    .add("framesPerSecond", getFramesPerSecond()).add("realTimeFactor", getRealTimeFactor()).write();
+        }
+        unregister();
+    }
+
+    /**
+     * Records that the job has failed, and unregisters these metrics
+     * @param error The exception that the job failed with
+     */
+    synchronized void failed(Exception error) {
+        endTime = System.currentTimeMillis();
+        state = "failed";
+        global.jobsRunning.decrementAndGet();
+        global.jobsFailed.incrementAndGet();
+        if (log != null) {
+            log.event("job_failed").add("video", videoPath).add("millis", getElapsedMillis())
+                    .add("error", String.valueOf(error.getLocalizedMessage())).write();
+        }
+        unregister();
+    }
+
+    private void unregister() {
+        ExtractionMetrics.unregister(objectName);
+        objectName = null;
+    }
+
+    @Override
+    public String getVideoPath() {
+        return videoPath;
+    }
+
+    @Override
+    public String getState() {
+        return state;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        if (startTime == 0) {
+            return 0;
+        }
+        final long end = endTime != 0 ? endTime : System.currentTimeMillis();
+        return end - startTime;
+    }
+
+    @Override
+    public long getProbeMillis() {
+        return probeMillis;
+    }
+
+    @Override
+    public long getProcessesStarted() {
+        return processesStarted.get();
+    }
+
+    @Override
+    public long getMaxSpawnMillis() {
+        return maxSpawnMillis;
+    }
+
+    @Override
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        final long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : framesWritten.get() * 1000.0 / elapsed;
+    }
+
+    @Override
+    public double getRealTimeFactor() {
+        final long elapsed = getElapsedMillis();
+        if (elapsed == 0 || frameRate <= 0) {
+            return 0;
+        }
+        return framesWritten.get() / frameRate / (elapsed / 1000.0);
+    }
+
+    @Override
+    public double getFFMpegSpeed() {
+        return ffmpegSpeed;
+    }
+}
@@ -0,0 +1,61 @@
+package org.samcrow.frameextractor;
+
+/**
+ * Management interface for the metrics of one running extraction
+ * <p/>
+ * @see JobMetrics
+ * @author Sam Crow
+ */
+public interface JobMetricsMXBean {
+
+    String getVideoPath();
+
+    /**
+     * @return "created", "probing", "extracting", "finished", "cancelled", or
+     * "failed"
+     */
+    String getState();
+
+    long getElapsedMillis();
+
+    /**
+     * @return The time taken to get video information, in milliseconds
+     */
+    long getProbeMillis();
+
+    long getProcessesStarted();
+
+    /**
+     * @return The longest time taken to start an ffmpeg process, in
+     * milliseconds
+     */
+    long getMaxSpawnMillis();
+
+    /**
+     * @return The number of frames written by this run of the job
+     */
+    long getFramesWritten();
+
+    /**
+     * @return The number of bytes of frames written by this run of the job.
+     * When ffmpeg writes image files, this is only known when the job ends.
+     */
+    long getBytesWritten();
+
+    /**
+     * @return The rate that frames have been written at, in frames per second
+     */
+    double getFramesPerSecond();
+
+    /**
+     * @return The seconds of video extracted per second, which is less than 1
+     * when extraction is slower than real time
+     */
+    double getRealTimeFactor();
+
+    /**
+     * @return The most recent processing speed that ffmpeg reported, as a
+     * multiple of real time, or 0 if unknown
+     */
+    double getFFMpegSpeed();
+}
@@ -0,0 +1,320 @@
+package org.samcrow.frameextractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A queue of {@link ExtractionJob}s that share one pool of worker threads,
+ * for interfaces that add jobs one at a time and show them all.
+ * <p/>
+ * Each job's progress is stored in its {@link Entry} as it is reported,
+ * without notifying anyone. A user interface reads the entries on its own
+ * schedule, so the cost of updating it does not grow with the rate of
+ * progress updates.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+public class JobQueue {
+
+    /**
+     * The state of a job in the queue
+     */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        FINISHED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Entries in the order that they were added
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param concurrency The number of jobs to run at the same time
+     */
+    public JobQueue(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one job must be able to run");
+        }
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+    }
+
+    /**
+     * @return The number of jobs that run at the same time
+     */
+    public int getConcurrency() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the number of jobs that run at the same time. Running jobs are not
+     * stopped if the number is reduced.
+     * @param concurrency The number of jobs
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("At least one job must be able to run");
+        }
+        //The core size must never be more than the maximum size
+        if (concurrency > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(concurrency);
+            executor.setCorePoolSize(concurrency);
+        }
+        else {
+            executor.setCorePoolSize(concurrency);
+            executor.setMaximumPoolSize(concurrency);
+        }
+    }
+
+    /**
+     * Adds a job to the end of the queue
+     * @param job The job
+     * @return The job's entry, which reports its progress
+     */
+    public synchronized Entry submit(ExtractionJob job) {
+        final Entry entry = new Entry(job);
+        entries.add(entry);
+        entry.future = executor.submit(entry);
+        return entry;
+    }
+
+    /**
+     * @return A copy of the entries, in the order that they were added
+     */
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Removes the entries of jobs that have finished, failed, or been
+     * cancelled
+     */
+    public synchronized void removeCompleted() {
+        final Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isDone()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels every job that has not ended
+     */
+    public synchronized void cancelAll() {
+        for (Entry entry : entries) {
+            entry.cancel();
+        }
+    }
+
+    /**
+     * Cancels every job and stops the worker threads
+     */
+    public void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+    }
+
+    /**
+     * One job in the queue, and its most recently reported progress
+     */
+    public static class Entry implements ProgressListener, Runnable {
+
+        private final ExtractionJob job;
+
+        private volatile Future<?> future;
+
+        private volatile Status status = Status.QUEUED;
+
+        private volatile String message = "Waiting";
+
+        private volatile long workDone = -1;
+
+        private volatile long max = 1;
+
+        /**
+         * The time that the job started running, or 0
+         */
+        private volatile long startTime;
+
+        /**
+         * The time that the job ended, or 0
+         */
+        private volatile long endTime;
+
+        /**
+         * The number of frames extracted, once the job has finished
+         */
+        private volatile long frames;
+
+        private volatile Throwable failure;
+
+        Entry(ExtractionJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                //The job may have been cancelled while it was queued
+                if (status != Status.QUEUED) {
+                    return;
+                }
+                startTime = System.currentTimeMillis();
+                status = Status.RUNNING;
+            }
+            try {
+                final ExtractionResult result = job.run(this);
+                frames = result.getFrames();
+                status = result.isCancelled() ? Status.CANCELLED : Status.FINISHED;
+            }
+            catch (Exception e) {
+                failure = e;
+                message = String.valueOf(e.getLocalizedMessage());
+                status = Status.FAILED;
+            }
+            finally {
+                endTime = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Cancels the job. A job that has not started will never be run.
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (status == Status.QUEUED) {
+                    status = Status.CANCELLED;
+                    message = "Cancelled";
+                    if (future != null) {
+                        future.cancel(false);
+                    }
+                }
+            }
+            job.cancel();
+        }
+
+        @Override
+        public void updateTitle(String title) {
+        }
+
+        @Override
+        public void updateMessage(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public void updateProgress(long workDone, long max) {
+            //Store the maximum first, so that a reader never sees work done beyond the old maximum
+            this.max = max;
+            this.workDone = workDone;
+        }
+
+        public ExtractionJob getJob() {
+            return job;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return true if the job has finished, failed, or been cancelled
+         */
+        public boolean isDone() {
+            final Status current = status;
+            return current == Status.FINISHED || current == Status.FAILED || current == Status.CANCELLED;
+        }
+
+        /**
+         * @return The job's latest status message
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return The fraction of the job that is done, from 0 to 1, or -1 if
+         * it is not known
+         */
+        public double getProgress() {
+            final Status current = status;
+            if (current == Status.FINISHED) {
+                return 1;
+            }
+            if (current != Status.RUNNING) {
+                return 0;
+            }
+            final long done = workDone;
+            final long total = max;
+            if (done < 0 || total <= 0) {
+                return -1;
+            }
+            return Math.min(1, done / (double) total);
+        }
+
+        /**
+         * @return The rate that frames are being written, or were written
+         * once the job has ended
+         */
+        public double getFramesPerSecond() {
+            if (status == Status.FINISHED) {
+                final long elapsed = endTime - startTime;
+                return elapsed <= 0 ? 0 : frames * 1000.0 / elapsed;
+            }
+            return job.getMetrics().getFramesPerSecond();
+        }
+
+        /**
+         * @return The estimated time until the job finishes, in
+         * milliseconds, or -1 if it cannot be estimated yet
+         */
+        public long getRemainingMillis() {
+            final double progress = getProgress();
+            if (status != Status.RUNNING || progress < 0.01) {
+                return -1;
+            }
+            final long elapsed = System.currentTimeMillis() - startTime;
+            return Math.round(elapsed * (1 - progress) / progress);
+        }
+
+        /**
+         * @return The exception that the job failed with, or null
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    /**
+     * Creates named daemon worker threads
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "queue-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extracts frames from a video that is still being recorded: a file that is
+ * still growing, a named pipe, or standard input.
+ * <p/>
+ * A thread copies the input to ffmpeg's standard input, so ffmpeg never
+ * needs the whole file or its duration. ffmpeg writes each frame as soon as
+ * it is decoded, and {@link FrameIndex#FILE_NAME} is rewritten on every
+ * progress update to list the frames that are completely written, so readers
+ * can use frames while the recording continues. Progress is reported as the
+ * number of frames written and bytes read, because the duration is unknown.
+ * <p/>
+ * A growing file is read until it has not grown for the idle timeout. A
+ * named pipe or standard input is read until the writer closes it. The
+ * input must be in a container that can be read as a stream, such as MPEG-TS,
+ * Matroska, or fragmented MP4. An ordinary MP4 file cannot be read until its
+ * index is written at the end of the recording.
+ * <p/>
+ * Live extractions cannot be resumed, split into segments, sampled, cropped,
+ * or scaled to square pixels, because all of those need to probe the whole
+ * file first.
+ * <p/>
+ * @author Sam Crow
+ */
+public class LiveExtraction {
+
+    /**
+     * The input path that means standard input
+     */
+    public static final String STDIN = "-";
+
+    /**
+     * The default time that a growing file may stop growing before it is
+     * assumed to be finished, in milliseconds
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    /**
+     * The maximum number of bytes that ffmpeg reads to find the input format
+     * before it starts decoding. ffmpeg's default of 5 MB delays the first
+     * frame of a low bit rate recording.
+     */
+    private static final String PROBE_SIZE = "1000000";
+
+    /**
+     * The maximum duration of input, in microseconds, that ffmpeg reads to
+     * find the streams' parameters before it starts decoding
+     */
+    private static final String ANALYZE_DURATION = "1000000";
+
+    /**
+     * The time between checks of whether the input is waiting for data, in
+     * milliseconds
+     */
+    private static final long KEEPALIVE_INTERVAL = 1000;
+
+    private final String inputPath;
+
+    private final String outputDirectory;
+
+    private final String videoName;
+
+    private final ExtractionSettings settings;
+
+    private final long idleTimeout;
+
+    private final JobMetrics metrics;
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private volatile boolean cancelled = false;
+
+    private volatile FFMpegProcess process;
+
+    /**
+     * Constructor
+     * @param inputPath The path to a growing file or named pipe, or
+     * {@link #STDIN}
+     * @param outputDirectory The directory to put frames in
+     * @param videoName The name that frame files are named after
+     * @param settings The extraction settings
+     * @param idleTimeout The time that a growing file may stop growing
+     * before it is assumed to be finished, in milliseconds
+     */
+    public LiveExtraction(String inputPath, String outputDirectory, String videoName, ExtractionSettings settings, long idleTimeout) {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("The idle timeout must be positive");
+        }
+        this.inputPath = inputPath;
+        this.outputDirectory = outputDirectory;
+        this.videoName = videoName;
+        this.settings = settings;
+        this.idleTimeout = idleTimeout;
+        this.metrics = new JobMetrics(inputPath, settings.getMetricsLog());
+    }
+
+    /**
+     * Requests that this extraction stop. The frames that have been written
+     * are kept, and {@link #run(ProgressListener)} returns soon after.
+     */
+    public void cancel() {
+        cancelled = true;
+        final FFMpegProcess current = process;
+        if (current != null) {
+            current.destroy();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The number of bytes of input that have been given to ffmpeg
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return The metrics of the current or most recent run
+     */
+    public JobMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Runs the extraction on the current thread until the input ends
+     * @param listener The listener to report progress to
+     * @return The result of the extraction
+     * @throws Exception if the extraction failed
+     */
+    public ExtractionResult run(ProgressListener listener) throws Exception {
+        metrics.started();
+        final ExtractionResult result;
+        try {
+            result = extract(listener);
+        }
+        catch (Exception e) {
+            metrics.failed(e);
+            throw e;
+        }
+        metrics.finished(result.isCancelled());
+        return result;
+    }
+
+    /**
+     * Checks that settings can be used for a live extraction
+     * @param settings The settings
+     * @throws IllegalArgumentException if the settings need the whole video
+     */
+    public static void checkSettings(ExtractionSettings settings) {
+        if (settings.getSampling() != SamplingMode.ALL || settings.getFrameSelection() != null || settings.isArchive()
+                || settings.isDeduplicating() || settings.getEncoderThreads() > 0 || settings.getSegments() > 1
+                || !settings.getOutputs().isEmpty() || settings.getCrop() != null) {
+            throw new IllegalArgumentException("Live input cannot be sampled, selected, archived, deduplicated, cropped, split into segments,"
+                    + " encoded in Java, or written to additional outputs");
+        }
+    }
+
+    private ExtractionResult extract(final ProgressListener listener) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        listener.updateProgress(-1, 1);
+        listener.updateTitle("Starting process");
+        checkSettings(settings);
+
+        final File outDir = new File(outputDirectory);
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            throw new IOException("Output directory " + outputDirectory + " is not a directory or does not exist, and could not be created");
+        }
+        if (!outDir.canWrite()) {
+            throw new IOException("Output directory " + outputDirectory + " is not writable");
+        }
+        final boolean stdin = inputPath.equals(STDIN);
+        if (!stdin && !new File(inputPath).exists()) {
+            throw new FileNotFoundException("Input " + inputPath + " does not exist");
+        }
+
+        final OutputLayout layout = settings.getLayout();
+        //ffmpeg must not overwrite frames that may be shared with an extraction cache
+        layout.deleteFrames(outDir, videoName, 1);
+        final List<String> arguments = new ArrayList<>(Arrays.asList("-fflags", "+nobuffer", "-probesize", PROBE_SIZE,
+                "-analyzeduration", ANALYZE_DURATION, "-i", "pipe:0"));
+        if (settings.isGrayscale()) {
+            arguments.add("-vf");
+            arguments.add("format=gray");
+        }
+        if (!settings.useNativeFrameRate()) {
+            arguments.add("-r");
+            arguments.add(String.valueOf(settings.getFrameRate()));
+        }
+        arguments.addAll(settings.getImageFormat().codecOptions(settings.getImageQuality()));
+        arguments.add("-f");
+        arguments.add("image2");
+        arguments.add("-start_number");
+        arguments.add("1");
+        arguments.add(outputDirectory + "/" + DirectoryFrameSink.fileNamePattern(videoName, layout.getExtension()));
+
+        final ShardMover mover = new ShardMover(outDir, videoName, layout, 1);
+        final File indexFile = new File(outDir, FrameIndex.FILE_NAME);
+        final File frameRateFile = new File(outDir, "frame_rate.txt");
+        metrics.extracting("live", 0);
+
+        if (cancelled) {
+            return new ExtractionResult(inputPath, 0, System.currentTimeMillis() - startTime, true);
+        }
+        final FFMpegProcess started = FFMpegProcess.start(arguments, settings.getStallTimeout(), settings.getProcessTimeLimit());
+        process = started;
+        metrics.processStarted(started.getSpawnMillis());
+        if (cancelled) {
+            started.destroy();
+        }
+        final Feeder feeder = new Feeder(started, stdin);
+        final Thread feederThread = new Thread(feeder, "live-input");
+        feederThread.setDaemon(true);
+        feederThread.start();
+
+        final long[] indexed = { 0 };
+        final boolean[] frameRateWritten = { false };
+        listener.updateMessage("Waiting for video");
+        final int exitCode;
+        try {
+            exitCode = started.run(new ProgressListener() {
+                @Override
+                public void updateTitle(String title) {
+                    listener.updateTitle(title);
+                }
+
+                @Override
+                public void updateMessage(String message) {
+                    //Messages about the duration do not apply
+                }
+
+                @Override
+                public void updateProgress(long workDone, long max) {
+                    if (!frameRateWritten[0]) {
+                        frameRateWritten[0] = writeFrameRate(frameRateFile, started);
+                    }
+                    //The frame that ffmpeg most recently reported may not be completely written yet
+                    final long complete = started.getFrame() - 1;
+                    if (complete > indexed[0]) {
+                        try {
+                            mover.moveTo(complete);
+                            writeIndex(indexFile, layout, complete);
+                            indexed[0] = complete;
+                        }
+                        catch (IOException e) {
+                            //The index is written again at the next update and at the end
+                            System.err.println("Could not update the frame index: " + e.getLocalizedMessage());
+                        }
+                    }
+                    metrics.setFramesWritten(Math.max(complete, 0));
+                    metrics.setFFMpegSpeed(started.getSpeed());
+                    listener.updateMessage(String.format(Locale.US, "%d frames from %.1f MB of input", Math.max(complete, 0),
+                            bytesRead.get() / 1e6));
+                    listener.updateProgress(-1, 1);
+                }
+            });
+        }
+        finally {
+            feeder.stop();
+        }
+        //The feeder ends soon after ffmpeg, unless it is waiting for a writer that will never come
+        feederThread.join(KEEPALIVE_INTERVAL);
+
+        final long frames = started.getFrame();
+        mover.moveTo(frames);
+        writeIndex(indexFile, layout, frames);
+        if (!frameRateWritten[0]) {
+            writeFrameRate(frameRateFile, started);
+        }
+        metrics.setFramesWritten(frames);
+        if (cancelled) {
+            listener.updateProgress(-1, 1);
+            listener.updateMessage("Cancelled");
+            return new ExtractionResult(inputPath, frames, System.currentTimeMillis() - startTime, true);
+        }
+        if (exitCode != 0) {
+            throw started.failure(exitCode, "extracting frames from " + (stdin ? "standard input" : inputPath));
+        }
+        if (feeder.failure != null) {
+            throw new IOException("Could not read " + (stdin ? "standard input" : inputPath), feeder.failure);
+        }
+        long bytes = 0;
+        for (long i = 1; i <= frames; i++) {
+            bytes += layout.fileFor(outDir, videoName, i).length();
+        }
+        metrics.setBytesWritten(bytes);
+        listener.updateProgress(1, 1);
+        listener.updateMessage(String.format(Locale.US, "Finished: %d frames from %.1f MB of input", frames, bytesRead.get() / 1e6));
+        return new ExtractionResult(inputPath, frames, System.currentTimeMillis() - startTime, false);
+    }
+
+    private void writeIndex(File indexFile, OutputLayout layout, long lastFrame) throws IOException {
+        final FrameIndex index = new FrameIndex(videoName, layout);
+        if (lastFrame > 0) {
+            index.addRange(1, lastFrame);
+        }
+        index.write(indexFile);
+    }
+
+    /**
+     * Writes the frame rate file, if the frame rate is known
+     * @return true if the file was written
+     */
+    private boolean writeFrameRate(File frameRateFile, FFMpegProcess process) {
+        double frameRate = settings.getFrameRate();
+        if (settings.useNativeFrameRate()) {
+            final String streamLine = process.getVideoStreamLine();
+            frameRate = streamLine != null ? VideoProber.parseFrameRate(streamLine) : 0;
+            if (frameRate <= 0) {
+                return false;
+            }
+        }
+        try {
+            //Replace the file instead of overwriting it, because it may be shared with an extraction cache
+            Files.deleteIfExists(frameRateFile.toPath());
+            try (FileWriter writer = new FileWriter(frameRateFile)) {
+                writer.append(String.valueOf(frameRate));
+                writer.append(System.getProperty("line.separator"));
+            }
+            return true;
+        }
+        catch (IOException e) {
+            System.err.println("Could not write the frame rate: " + e.getLocalizedMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Copies the input to ffmpeg's standard input. While it waits for the
+     * input, it keeps ffmpeg from being stopped for making no progress.
+     */
+    private class Feeder implements Runnable {
+
+        private final FFMpegProcess target;
+
+        private final boolean stdin;
+
+        /**
+         * True while waiting for the input to provide data
+         */
+        private volatile boolean waiting = false;
+
+        private volatile boolean stopped = false;
+
+        private volatile InputStream input;
+
+        /**
+         * The exception that stopped reading the input, or null
+         */
+        volatile IOException failure;
+
+        Feeder(FFMpegProcess target, boolean stdin) {
+            this.target = target;
+            this.stdin = stdin;
+        }
+
+        @Override
+        public void run() {
+            final Thread keepalive = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!stopped) {
+                        if (waiting) {
+                            target.touch();
+                        }
+                        try {
+                            Thread.sleep(KEEPALIVE_INTERVAL);
+                        }
+                        catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }, "live-keepalive");
+            keepalive.setDaemon(true);
+            keepalive.start();
+
+            final byte[] buffer = new byte[64 * 1024];
+            try (OutputStream output = target.getInput()) {
+                //Opening a named pipe waits for a writer
+                waiting = true;
+                input = open();
+                while (!stopped) {
+                    waiting = true;
+                    final int read = input.read(buffer);
+                    waiting = false;
+                    if (read == -1) {
+                        break;
+                    }
+                    output.write(buffer, 0, read);
+                    bytesRead.addAndGet(read);
+                }
+            }
+            catch (IOException e) {
+                //ffmpeg closes its input when it exits, which is reported by ffmpeg's exit code
+                if (!stopped && !target.isDestroyed()) {
+                    failure = e;
+                }
+            }
+            finally {
+                waiting = false;
+                stopped = true;
+                keepalive.interrupt();
+                if (!stdin && input != null) {
+                    try {
+                        input.close();
+                    }
+                    catch (IOException e) {
+                        //Nothing more will be read
+                    }
+                }
+            }
+        }
+
+        private InputStream open() throws IOException {
+            if (stdin) {
+                return System.in;
+            }
+            final File file = new File(inputPath);
+            //A named pipe or device ends when its writer closes it, and a regular file when it stops growing
+            if (Files.isRegularFile(file.toPath())) {
+                return new TailingInputStream(file, idleTimeout);
+            }
+            return new FileInputStream(file);
+        }
+
+        /**
+         * Stops reading after ffmpeg has exited
+         */
+        void stop() {
+            stopped = true;
+            final InputStream current = input;
+            if (current instanceof TailingInputStream) {
+                try {
+                    current.close();
+                }
+                catch (IOException e) {
+                    //Nothing more will be read
+                }
+            }
+        }
+    }
+}
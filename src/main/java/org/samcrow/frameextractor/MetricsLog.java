@@ -0,0 +1,173 @@
+package org.samcrow.frameextractor;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes extraction events to a file as JSON lines: one JSON object per
+ * line, each with a "time" in milliseconds since the epoch and an "event"
+ * name, followed by fields that depend on the event.
+ * <p/>
+ * Example:
+ * <pre>
+ * {"time":1413590400000,"event":"job_finished","video":"/videos/a.mp4","frames":2400,...}
+ * </pre>
+ * Events are appended to the file, so one log can cover many runs. Each line
+ * is flushed when it is written.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+public class MetricsLog implements Closeable {
+
+    private final Writer out;
+
+    private boolean failed = false;
+
+    /**
+     * Opens a log file, appending to it if it exists
+     * @param file The file to write to
+     * @throws IOException if the file could not be opened
+     */
+    public MetricsLog(File file) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Starts an event
+     * @param event The event name
+     * @return An event that fields can be added to. Call
+     * {@link Event#write()} to write it to this log.
+     */
+    public Event event(String event) {
+        return new Event(event);
+    }
+
+    /**
+     * Writes one line. Failures are reported once and otherwise ignored,
+     * because the log must not stop an extraction.
+     */
+    private synchronized void writeLine(String line) {
+        try {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+        catch (IOException e) {
+            if (!failed) {
+                failed = true;
+                System.err.println("Could not write metrics log: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Appends a string to a JSON document as a quoted JSON string
+     */
+    static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        json.append(c);
+                    }
+                    break;
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * One event that is being built
+     */
+    public class Event {
+
+        private final StringBuilder json = new StringBuilder(256);
+
+        Event(String event) {
+            json.append("{\"time\":").append(System.currentTimeMillis());
+            add("event", event);
+        }
+
+        public Event add(String name, String value) {
+            appendName(name);
+            if (value == null) {
+                json.append("null");
+            }
+            else {
+                appendJsonString(json, value);
+            }
+            return this;
+        }
+
+        public Event add(String name, long value) {
+            appendName(name);
+            json.append(value);
+            return this;
+        }
+
+        public Event add(String name, double value) {
+            appendName(name);
+            //JSON has no representation for infinity or NaN
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                json.append("null");
+            }
+            else {
+                json.append(String.format(Locale.US, "%.3f", value));
+            }
+            return this;
+        }
+
+        public Event add(String name, boolean value) {
+            appendName(name);
+            json.append(value);
+            return this;
+        }
+
+        private void appendName(String name) {
+            json.append(',');
+            appendJsonString(json, name);
+            json.append(':');
+        }
+
+        /**
+         * Writes this event to the log
+         */
+        public void write() {
+            writeLine(json.toString() + "}");
+        }
+    }
+}
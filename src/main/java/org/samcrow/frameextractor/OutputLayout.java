@@ -0,0 +1,203 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides where in the output directory each frame file goes, and what it is
+ * named
+ * <p/>
+ * In the flat layout, every frame is directly in the output directory. In the
+ * sharded layout, frames are grouped into numbered subdirectories with a fixed
+ * number of frames each, so that no directory grows too large to list
+ * quickly. Subdirectory numbers and frame numbers get more digits as needed,
+ * so there is no limit on the number of frames.
+ * <p/>
+ * @author Sam Crow
+ */
+public class OutputLayout {
+
+    /**
+     * The extension of frame files that is used if none is given
+     */
+    private static final String DEFAULT_EXTENSION = ImageFormat.JPEG.getExtension();
+
+    /**
+     * The layout that puts every frame directly in the output directory as a
+     * JPEG file
+     */
+    public static final OutputLayout FLAT = new OutputLayout(0);
+
+    /**
+     * The names of subdirectories
+     */
+    private static final Pattern DIRECTORY_NAME = Pattern.compile("\\d{6,}");
+
+    /**
+     * The number of frames in each subdirectory, or 0 for the flat layout
+     */
+    private final int framesPerDirectory;
+
+    /**
+     * The frame file name extension, without a dot
+     */
+    private final String extension;
+
+    /**
+     * Constructor for a layout of JPEG files
+     * @param framesPerDirectory The number of frames to put in each
+     * subdirectory, or 0 to put all frames in the output directory
+     */
+    public OutputLayout(int framesPerDirectory) {
+        this(framesPerDirectory, DEFAULT_EXTENSION);
+    }
+
+    /**
+     * Constructor
+     * @param framesPerDirectory The number of frames to put in each
+     * subdirectory, or 0 to put all frames in the output directory
+     * @param extension The frame file name extension, without a dot
+     */
+    public OutputLayout(int framesPerDirectory, String extension) {
+        if (framesPerDirectory < 0) {
+            throw new IllegalArgumentException("The number of frames per directory must not be negative");
+        }
+        this.framesPerDirectory = framesPerDirectory;
+        this.extension = extension;
+    }
+
+    public boolean isSharded() {
+        return framesPerDirectory != 0;
+    }
+
+    public int getFramesPerDirectory() {
+        return framesPerDirectory;
+    }
+
+    /**
+     * @return The frame file name extension, without a dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Returns the name of the file for a frame, without its directory
+     * @param videoName The name of the video file
+     * @param frameNumber The frame number, starting at 1
+     * @return The file name
+     */
+    public String fileName(String videoName, long frameNumber) {
+        return DirectoryFrameSink.fileName(videoName, frameNumber, extension);
+    }
+
+    /**
+     * Returns the subdirectory that a frame goes in
+     * @param frameNumber The frame number, starting at 1
+     * @return The subdirectory path relative to the output directory, or an
+     * empty string for the output directory itself
+     */
+    public String directoryOf(long frameNumber) {
+        if (!isSharded()) {
+            return "";
+        }
+        return String.format("%06d", (frameNumber - 1) / framesPerDirectory);
+    }
+
+    /**
+     * Returns the path of a frame file relative to the output directory, using
+     * '/' as the separator
+     * @param videoName The name of the video file
+     * @param frameNumber The frame number, starting at 1
+     * @return The relative path
+     */
+    public String relativePath(String videoName, long frameNumber) {
+        final String name = fileName(videoName, frameNumber);
+        if (!isSharded()) {
+            return name;
+        }
+        return directoryOf(frameNumber) + "/" + name;
+    }
+
+    /**
+     * Returns the file for a frame
+     * @param outDir The output directory
+     * @param videoName The name of the video file
+     * @param frameNumber The frame number, starting at 1
+     * @return The frame file
+     */
+    public File fileFor(File outDir, String videoName, long frameNumber) {
+        return new File(outDir, relativePath(videoName, frameNumber));
+    }
+
+    /**
+     * Deletes the frame files of a video that have this layout's extension
+     * and a frame number of at least firstFrame. Files are deleted before
+     * ffmpeg writes frames with the same names, so that it does not
+     * overwrite files that are shared with an {@link ExtractionCache}, and
+     * so that no frames remain from an earlier, longer extraction.
+     * @param outDir The output directory
+     * @param videoName The name of the video file
+     * @param firstFrame The number of the first frame to delete
+     * @throws IOException if a file could not be deleted
+     */
+    public void deleteFrames(File outDir, String videoName, long firstFrame) throws IOException {
+        final Pattern frameName = Pattern.compile(Pattern.quote(videoName + "_") + "(\\d{7,})" + Pattern.quote("." + extension));
+        deleteFrames(outDir, frameName, firstFrame, isSharded());
+    }
+
+    private static void deleteFrames(File directory, Pattern frameName, long firstFrame, boolean sharded) throws IOException {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                //Other directories, such as those of additional outputs, are left alone
+                if (sharded && DIRECTORY_NAME.matcher(child.getName()).matches()) {
+                    deleteFrames(child, frameName, firstFrame, false);
+                }
+                continue;
+            }
+            final Matcher matcher = frameName.matcher(child.getName());
+            if (matcher.matches() && Long.parseLong(matcher.group(1)) >= firstFrame) {
+                Files.deleteIfExists(child.toPath());
+            }
+        }
+    }
+
+    /**
+     * @return "flat", or "sharded:" followed by the number of frames per
+     * directory, followed by ":" and the extension if it is not "jpg"
+     */
+    @Override
+    public String toString() {
+        final String layout = isSharded() ? "sharded:" + framesPerDirectory : "flat";
+        return extension.equals(DEFAULT_EXTENSION) ? layout : layout + ":" + extension;
+    }
+
+    /**
+     * Parses a layout in the form that {@link #toString()} returns
+     * @param layout The layout string
+     * @return The layout
+     * @throws IllegalArgumentException if the string is not a valid layout
+     */
+    public static OutputLayout parse(String layout) {
+        final String[] parts = layout.split(":");
+        try {
+            if (parts[0].equals("flat") && parts.length <= 2) {
+                return new OutputLayout(0, parts.length == 2 ? parts[1] : DEFAULT_EXTENSION);
+            }
+            else if (parts[0].equals("sharded") && parts.length >= 2 && parts.length <= 3) {
+                return new OutputLayout(Integer.parseInt(parts[1]), parts.length == 3 ? parts[2] : DEFAULT_EXTENSION);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid layout " + layout, e);
+        }
+        throw new IllegalArgumentException("Unknown layout " + layout);
+    }
+}
@@ -0,0 +1,189 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * An additional set of image files that is written from the same decoded
+ * frames as the main output, such as thumbnails or PNG copies.
+ * <p/>
+ * Each output has its own directory, size, format, and quality. Its files
+ * have the same numbers as the main output's files, with the format's
+ * extension: <code>videoName_%07d.ext</code>. Additional outputs are always
+ * flat, even if the main output is sharded.
+ * <p/>
+ * @author Sam Crow
+ */
+public class OutputSpec {
+
+    /**
+     * The directory to write to. A relative directory is relative to the
+     * extraction's output directory.
+     */
+    private final File directory;
+
+    /**
+     * The width, or -1 to follow the height
+     */
+    private int width = -1;
+
+    /**
+     * The height, or -1 to follow the width
+     */
+    private int height = -1;
+
+    private ImageFormat format = ImageFormat.JPEG;
+
+    /**
+     * The quality, or -1 to use the encoder's default
+     */
+    private int quality = -1;
+
+    /**
+     * Constructor
+     * @param directory The directory to write to. A relative directory is
+     * relative to the extraction's output directory.
+     */
+    public OutputSpec(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param outputDirectory The extraction's output directory
+     * @return The directory that this output writes to
+     */
+    public File resolveDirectory(File outputDirectory) {
+        return directory.isAbsolute() ? directory : new File(outputDirectory, directory.getPath());
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the size of the images. If one dimension is -1, it is calculated
+     * from the other to keep the main output's aspect ratio. If both are -1,
+     * the images are the same size as the main output's images.
+     * @param width The width, or -1
+     * @param height The height, or -1
+     */
+    public void setSize(int width, int height) {
+        if (width < -1 || width == 0 || height < -1 || height == 0) {
+            throw new IllegalArgumentException("Invalid output size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    public ImageFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(ImageFormat format) {
+        if (quality != -1 && !format.isValidQuality(quality)) {
+            throw new IllegalArgumentException("Quality " + quality + " is not valid for " + format);
+        }
+        this.format = format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Sets the quality, whose meaning depends on the format
+     * @param quality The quality, or -1 to use the encoder's default
+     * @see ImageFormat
+     */
+    public void setQuality(int quality) {
+        if (quality != -1 && !format.isValidQuality(quality)) {
+            throw new IllegalArgumentException("Quality " + quality + " is not valid for " + format);
+        }
+        this.quality = quality;
+    }
+
+    /**
+     * @return A scale filter for this output's size, or null if it is the
+     * same size as the main output
+     */
+    String scaleFilter() {
+        if (width == -1 && height == -1) {
+            return null;
+        }
+        //-2 keeps the calculated dimension even, which some encoders require
+        return "scale=" + (width == -1 ? -2 : width) + ":" + (height == -1 ? -2 : height);
+    }
+
+    /**
+     * @return The ffmpeg options that select this output's encoder and
+     * quality
+     */
+    List<String> codecOptions() {
+        return format.codecOptions(quality);
+    }
+
+    /**
+     * Parses an output from a command-line argument of the form
+     * <code>DIR[,size=WxH][,format=F][,quality=Q]</code>. Either dimension of
+     * the size may be -1.
+     * @param spec The argument
+     * @return The output
+     * @throws IllegalArgumentException if the argument is not valid
+     */
+    public static OutputSpec parse(String spec) {
+        final String[] parts = spec.split(",");
+        if (parts[0].isEmpty()) {
+            throw new IllegalArgumentException("No directory in output " + spec);
+        }
+        final OutputSpec output = new OutputSpec(new File(parts[0]));
+        int quality = -1;
+        for (int i = 1; i < parts.length; i++) {
+            final String part = parts[i];
+            try {
+                if (part.startsWith("size=")) {
+                    final String[] size = part.substring("size=".length()).split("x");
+                    if (size.length != 2) {
+                        throw new IllegalArgumentException("Invalid size in output " + spec);
+                    }
+                    output.setSize(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+                }
+                else if (part.startsWith("format=")) {
+                    output.setFormat(ImageFormat.forName(part.substring("format=".length())));
+                }
+                else if (part.startsWith("quality=")) {
+                    quality = Integer.parseInt(part.substring("quality=".length()));
+                }
+                else {
+                    throw new IllegalArgumentException("Unknown option " + part + " in output " + spec);
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number in output " + spec, e);
+            }
+        }
+        //Set the quality last, because its range depends on the format
+        output.setQuality(quality);
+        return output;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder string = new StringBuilder(directory.getPath());
+        if (width != -1 || height != -1) {
+            string.append(",size=").append(width).append('x').append(height);
+        }
+        string.append(",format=").append(format.getExtension());
+        if (quality != -1) {
+            string.append(",quality=").append(quality);
+        }
+        return string.toString();
+    }
+}
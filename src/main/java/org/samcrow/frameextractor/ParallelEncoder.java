@@ -0,0 +1,398 @@
+package org.samcrow.frameextractor;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes raw frames from a {@link FrameSource}, such as a
+ * {@link FrameStream}, as images on several threads, and writes them to a
+ * {@link FrameSink}.
+ * <p/>
+ * JPEG and PNG images are encoded with Image I/O. PPM and PGM images are
+ * written as a header followed by the frame's pixels, so the stream must
+ * deliver {@link PixelFormat#RGB24} frames for PPM and
+ * {@link PixelFormat#GRAY} frames for PGM.
+ * <p/>
+ * The thread that calls {@link #encode} reads frames and queues them for the
+ * encoder threads. The number of frames that are queued or being encoded is
+ * limited by the size of the source's buffer pool, so memory use stays flat
+ * however far decoding gets ahead of encoding.
+ * <p/>
+ * If a {@link Deduplicator} is given, each encoder thread hashes its frame
+ * first, and frames that duplicate the last kept frame are released without
+ * being encoded.
+ * <p/>
+ * @author Sam Crow
+ */
+class ParallelEncoder {
+
+    /**
+     * Time between progress updates, in milliseconds
+     */
+    private static final long PROGRESS_INTERVAL = 250;
+
+    private final int threads;
+
+    private final FrameSink sink;
+
+    /**
+     * The deduplicator that decides which frames to encode, or null to encode
+     * every frame
+     */
+    private final Deduplicator deduplicator;
+
+    private final ImageFormat format;
+
+    /**
+     * The quality, or -1 to use the encoder's default
+     */
+    private final int quality;
+
+    /**
+     * The first exception that an encoder thread threw, or null
+     */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * The number of frames that have been encoded and written, or skipped as
+     * duplicates
+     */
+    private final AtomicLong encoded = new AtomicLong();
+
+    /**
+     * Per-thread image writer and output buffer
+     */
+    private final ThreadLocal<EncoderState> encoderState = new ThreadLocal<EncoderState>() {
+        @Override
+        protected EncoderState initialValue() {
+            return new EncoderState(format, quality);
+        }
+    };
+
+    /**
+     * Constructor
+     * @param threads The number of encoder threads
+     * @param sink The sink to write encoded frames to
+     */
+    public ParallelEncoder(int threads, FrameSink sink) {
+        this(threads, sink, null);
+    }
+
+    /**
+     * Constructor
+     * @param threads The number of encoder threads
+     * @param sink The sink to write encoded frames to
+     * @param deduplicator The deduplicator that decides which frames to
+     * encode, or null to encode every frame. Its first frame must be the
+     * first frame of the stream.
+     */
+    public ParallelEncoder(int threads, FrameSink sink, Deduplicator deduplicator) {
+        this(threads, sink, deduplicator, ImageFormat.JPEG, -1);
+    }
+
+    /**
+     * Constructor
+     * @param threads The number of encoder threads
+     * @param sink The sink to write encoded frames to
+     * @param deduplicator The deduplicator that decides which frames to
+     * encode, or null to encode every frame. Its first frame must be the
+     * first frame of the stream.
+     * @param format The format to encode frames in
+     * @param quality The quality, on the same scale that ffmpeg uses for the
+     * format, or -1 to use the encoder's default
+     */
+    public ParallelEncoder(int threads, FrameSink sink, Deduplicator deduplicator, ImageFormat format, int quality) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one encoder thread is required");
+        }
+        this.threads = threads;
+        this.sink = sink;
+        this.deduplicator = deduplicator;
+        this.format = format;
+        this.quality = quality;
+    }
+
+    /**
+     * Returns the pixel format that frames must be decoded in to be encoded
+     * in an image format
+     * @param format The image format
+     * @param grayscale true if the images are grayscale
+     * @return The pixel format
+     */
+    public static PixelFormat pixelFormatFor(ImageFormat format, boolean grayscale) {
+        if (grayscale || format.isGrayscale()) {
+            return PixelFormat.GRAY;
+        }
+        //PPM stores pixels in RGB order, and Image I/O accepts either order
+        return format == ImageFormat.PPM ? PixelFormat.RGB24 : PixelFormat.BGR24;
+    }
+
+    /**
+     * Returns the number of frame buffers that a stream feeding an encoder
+     * should have. This allows each thread to encode one frame while another
+     * frame is waiting for it.
+     * @param threads The number of encoder threads
+     * @return The buffer pool size
+     */
+    public static int poolSize(int threads) {
+        return threads * 2;
+    }
+
+    /**
+     * Reads and encodes all frames from a source
+     * <p/>
+     * @param stream The source to read frames from. It must hold no more
+     * than {@link #poolSize} frames at once.
+     * @param job The job that this encoding is part of, which is checked for
+     * cancellation
+     * @param listener The listener to report progress to
+     * @param expectedFrames The expected number of frames, or 0 if unknown
+     * @return The number of frames read, whether they were written or
+     * skipped as duplicates
+     * @throws Exception if a frame could not be read, encoded, or written
+     */
+    public long encode(FrameSource stream, ExtractionJob job, ProgressListener listener, long expectedFrames) throws Exception {
+        final int poolSize = poolSize(threads);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(poolSize), new EncoderThreadFactory());
+        try {
+            final long startTime = System.currentTimeMillis();
+            long lastUpdate = 0;
+            while (!job.isCancelled() && failure.get() == null) {
+                final Frame frame = stream.nextFrame();
+                if (frame == null) {
+                    break;
+                }
+                //The queue cannot fill, because there are never more frames than buffers
+                executor.execute(new EncodeTask(frame));
+
+                final long now = System.currentTimeMillis();
+                if (now - lastUpdate >= PROGRESS_INTERVAL && now > startTime) {
+                    lastUpdate = now;
+                    final long done = encoded.get();
+                    final long fps = Math.round(done * 1000.0 / (now - startTime));
+                    listener.updateMessage("Encoding frames at " + fps + " frames/second on " + threads + " threads");
+                    if (expectedFrames > 0) {
+                        listener.updateProgress(Math.min(done, expectedFrames), expectedFrames);
+                    }
+                }
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+            final Throwable cause = failure.get();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            else if (cause != null) {
+                throw new IOException("Frame encoding failed", cause);
+            }
+            return encoded.get();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Wraps the pixels of a frame in an image without copying them
+     * @param frame A frame in {@link PixelFormat#BGR24},
+     * {@link PixelFormat#RGB24}, or {@link PixelFormat#GRAY} format
+     * @return An image that uses the frame's buffer, which is valid only until
+     * the frame is released
+     */
+    static BufferedImage wrap(Frame frame) {
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final PixelFormat format = frame.getPixelFormat();
+        final int[] bandOffsets;
+        final ColorSpace colorSpace;
+        switch (format) {
+            case BGR24:
+                bandOffsets = new int[] { 2, 1, 0 };
+                colorSpace = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+                break;
+            case RGB24:
+                bandOffsets = new int[] { 0, 1, 2 };
+                colorSpace = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+                break;
+            case GRAY:
+                bandOffsets = new int[] { 0 };
+                colorSpace = ColorSpace.getInstance(ColorSpace.CS_GRAY);
+                break;
+            default:
+                throw new IllegalArgumentException("Pixel format " + format + " cannot be encoded");
+        }
+        final int pixelStride = format.getBytesPerPixel();
+        final DataBuffer buffer = new DataBufferByte(frame.getData().array(), format.frameSize(width, height));
+        final WritableRaster raster = Raster.createInterleavedRaster(buffer, width, height, width * pixelStride,
+                pixelStride, bandOffsets, null);
+        final ComponentColorModel colorModel = new ComponentColorModel(colorSpace, false, false, Transparency.OPAQUE,
+                DataBuffer.TYPE_BYTE);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Encodes one frame and releases it
+     */
+    private class EncodeTask implements Runnable {
+
+        private final Frame frame;
+
+        EncodeTask(Frame frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (failure.get() != null) {
+                    return;
+                }
+                if (deduplicator != null && !deduplicator.keep(frame)) {
+                    encoded.incrementAndGet();
+                    return;
+                }
+                final EncoderState state = encoderState.get();
+                state.encode(frame);
+                sink.write(frame.getFrameNumber(), frame.getTimestamp(), state.output.buffer(), state.output.size());
+                encoded.incrementAndGet();
+            }
+            catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                if (deduplicator != null) {
+                    //Later frames can no longer be decided in order
+                    deduplicator.abort();
+                }
+            }
+            finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * An image writer and a reusable buffer for one encoder thread
+     */
+    private static class EncoderState {
+
+        /**
+         * The writer, or null for uncompressed formats
+         */
+        final ImageWriter writer;
+
+        final ImageWriteParam writeParam;
+
+        final ExposedByteArrayOutputStream output = new ExposedByteArrayOutputStream();
+
+        EncoderState(ImageFormat format, int quality) {
+            if (format == ImageFormat.PPM || format == ImageFormat.PGM) {
+                writer = null;
+                writeParam = null;
+                return;
+            }
+            final String formatName = format == ImageFormat.PNG ? "png" : "jpeg";
+            final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+            if (!writers.hasNext()) {
+                throw new IllegalStateException("No " + formatName + " image writer is available");
+            }
+            writer = writers.next();
+            writeParam = writer.getDefaultWriteParam();
+            //Some PNG writers always use the same compression level
+            if (quality != -1 && writeParam.canWriteCompressed()) {
+                writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeParam.setCompressionQuality(compressionQuality(format, quality));
+            }
+        }
+
+        /**
+         * Encodes a frame into the output buffer, replacing its contents
+         */
+        void encode(Frame frame) throws IOException {
+            output.reset();
+            if (writer == null) {
+                //A binary PPM (P6) or PGM (P5) header, followed by the pixels
+                final String magic = frame.getPixelFormat() == PixelFormat.GRAY ? "P5" : "P6";
+                final String header = magic + "\n" + frame.getWidth() + " " + frame.getHeight() + "\n255\n";
+                output.write(header.getBytes(StandardCharsets.US_ASCII));
+                output.write(frame.getData().array(), 0, frame.getPixelFormat().frameSize(frame.getWidth(), frame.getHeight()));
+                return;
+            }
+            try (ImageOutputStream imageOut = new MemoryCacheImageOutputStream(output)) {
+                writer.setOutput(imageOut);
+                writer.write(null, new IIOImage(wrap(frame), null, null), writeParam);
+            }
+        }
+    }
+
+    /**
+     * Converts a quality on ffmpeg's scale to Image I/O's compression
+     * quality, from 0 (smallest) to 1 (best)
+     * @param format JPEG or PNG
+     * @param quality The quality on ffmpeg's scale
+     * @return The compression quality
+     */
+    static float compressionQuality(ImageFormat format, int quality) {
+        if (format == ImageFormat.PNG) {
+            //Compression level 0 to 9
+            return 1 - quality / 9f;
+        }
+        //Quantizer scale 2 (best) to 31 (smallest). This is an approximation, because
+        //the two encoders use different quantization tables.
+        return 0.95f - (quality - 2) * (0.9f / 29);
+    }
+
+    /**
+     * A byte array output stream that allows its buffer to be read without
+     * copying it
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        ExposedByteArrayOutputStream() {
+            super(256 * 1024);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Creates named daemon encoder threads
+     */
+    private static class EncoderThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "frame-encoder-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
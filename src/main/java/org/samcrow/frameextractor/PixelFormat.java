@@ -0,0 +1,58 @@
+package org.samcrow.frameextractor;
+
+/**
+ * Pixel formats that raw frames can be delivered in
+ * <p/>
+ * @author Sam Crow
+ */
+public enum PixelFormat {
+
+    /**
+     * 8 bits each of red, green, and blue
+     */
+    RGB24("rgb24", 3),
+    /**
+     * 8 bits each of blue, green, and red, the byte order that
+     * {@link java.awt.image.BufferedImage#TYPE_3BYTE_BGR} uses
+     */
+    BGR24("bgr24", 3),
+    /**
+     * 8 bits each of red, green, blue, and alpha
+     */
+    RGBA("rgba", 4),
+    /**
+     * 8 bits of luminance
+     */
+    GRAY("gray", 1);
+
+    private final String ffMpegName;
+
+    private final int bytesPerPixel;
+
+    private PixelFormat(String ffMpegName, int bytesPerPixel) {
+        this.ffMpegName = ffMpegName;
+        this.bytesPerPixel = bytesPerPixel;
+    }
+
+    /**
+     * @return The name that ffmpeg uses for this format, as passed to
+     * <code>-pix_fmt</code>
+     */
+    public String getFFMpegName() {
+        return ffMpegName;
+    }
+
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * Returns the size of one frame in this format
+     * @param width The frame width in pixels
+     * @param height The frame height in pixels
+     * @return The number of bytes in the frame
+     */
+    public int frameSize(int width, int height) {
+        return width * height * bytesPerPixel;
+    }
+}
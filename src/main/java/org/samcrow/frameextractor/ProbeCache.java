@@ -0,0 +1,228 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Caches {@link VideoInfo} for video files, so that ffmpeg does not need to
+ * be run to probe a file that has already been probed.
+ * <p/>
+ * Entries are keyed by the absolute path, size, and modification time of the
+ * video, so a file that changes is probed again. A bounded number of entries
+ * are kept in memory, with the least recently used entries discarded first.
+ * All entries are also stored on disk, one properties file per video, so
+ * that they survive between runs.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+public class ProbeCache {
+
+    /**
+     * The version of the stored entry format. Entries with a different version
+     * are ignored. This must be changed when the way VideoInfo is parsed
+     * changes.
+     */
+    private static final String FORMAT_VERSION = "3";
+
+    /**
+     * The default number of entries to keep in memory
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private static ProbeCache defaultCache;
+
+    /**
+     * The directory to store entries in, or null if entries are only kept in
+     * memory
+     */
+    private final File directory;
+
+    /**
+     * Entries in access order, least recently used first
+     */
+    private final Map<String, VideoInfo> memory;
+
+    /**
+     * Constructor
+     * @param directory The directory to store entries in, or null to keep
+     * entries only in memory
+     * @param capacity The maximum number of entries to keep in memory
+     */
+    public ProbeCache(File directory, final int capacity) {
+        this.directory = directory;
+        this.memory = new LinkedHashMap<String, VideoInfo>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VideoInfo> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the shared cache, which stores entries in
+     * <code>.frameextractor/probe-cache</code> in the user's home directory.
+     * If that directory cannot be created, the shared cache only keeps entries
+     * in memory.
+     */
+    public static synchronized ProbeCache getDefault() {
+        if (defaultCache == null) {
+            File directory = new File(System.getProperty("user.home"), ".frameextractor/probe-cache");
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                System.err.println("Could not create probe cache directory " + directory + ", not saving probe results");
+                directory = null;
+            }
+            defaultCache = new ProbeCache(directory, DEFAULT_CAPACITY);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Returns information about a video, probing it if it is not in the cache
+     * <p/>
+     * The returned object may be shared with other callers, so it must not be
+     * modified.
+     * @param video The video file
+     * @return Information about the video
+     * @throws Exception if the video could not be probed
+     */
+    public VideoInfo get(File video) throws Exception {
+        final String key = key(video);
+        synchronized (memory) {
+            final VideoInfo cached = memory.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        VideoInfo info = load(key);
+        if (info == null) {
+            info = probe(video);
+            store(key, info);
+        }
+        synchronized (memory) {
+            memory.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * Runs ffmpeg to get information about a video
+     */
+    protected VideoInfo probe(File video) throws Exception {
+        return VideoProber.probe(video);
+    }
+
+    private static String key(File video) throws IOException {
+        final File absolute = video.getAbsoluteFile();
+        if (!absolute.isFile()) {
+            throw new IOException("Video file " + absolute + " does not exist");
+        }
+        return absolute.getPath() + '\n' + absolute.length() + '\n' + absolute.lastModified();
+    }
+
+    private File entryFile(String key) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(key.getBytes(Charset.forName("UTF-8")));
+            final StringBuilder name = new StringBuilder(hash.length * 2 + 11);
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            name.append(".properties");
+            return new File(directory, name.toString());
+        }
+        catch (NoSuchAlgorithmException e) {
+            //Every Java implementation is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads an entry from disk
+     * @return The stored information, or null if there is no valid entry
+     */
+    private VideoInfo load(String key) {
+        if (directory == null) {
+            return null;
+        }
+        final File file = entryFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        catch (IOException e) {
+            System.err.println("Could not read probe cache entry " + file + ": " + e.getLocalizedMessage());
+            return null;
+        }
+        //Check for a hash collision or an old format
+        if (!key.equals(properties.getProperty("key")) || !FORMAT_VERSION.equals(properties.getProperty("version"))) {
+            return null;
+        }
+        try {
+            final VideoInfo info = new VideoInfo();
+            info.frameRate = Double.parseDouble(properties.getProperty("frameRate"));
+            info.duration = Long.parseLong(properties.getProperty("duration"));
+            info.aspectRatio.numerator = Integer.parseInt(properties.getProperty("aspectRatio.numerator"));
+            info.aspectRatio.denominator = Integer.parseInt(properties.getProperty("aspectRatio.denominator"));
+            info.sampleAspectRatio.numerator = Integer.parseInt(properties.getProperty("sampleAspectRatio.numerator"));
+            info.sampleAspectRatio.denominator = Integer.parseInt(properties.getProperty("sampleAspectRatio.denominator"));
+            info.resolution.horizontal = Integer.parseInt(properties.getProperty("resolution.horizontal"));
+            info.resolution.vertical = Integer.parseInt(properties.getProperty("resolution.vertical"));
+            return info;
+        }
+        catch (NullPointerException | NumberFormatException e) {
+            System.err.println("Ignoring malformed probe cache entry " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores an entry on disk. Failures are logged and otherwise ignored.
+     */
+    private void store(String key, VideoInfo info) {
+        if (directory == null) {
+            return;
+        }
+        final Properties properties = new Properties();
+        properties.setProperty("version", FORMAT_VERSION);
+        properties.setProperty("key", key);
+        properties.setProperty("frameRate", String.valueOf(info.frameRate));
+        properties.setProperty("duration", String.valueOf(info.duration));
+        properties.setProperty("aspectRatio.numerator", String.valueOf(info.aspectRatio.numerator));
+        properties.setProperty("aspectRatio.denominator", String.valueOf(info.aspectRatio.denominator));
+        properties.setProperty("sampleAspectRatio.numerator", String.valueOf(info.sampleAspectRatio.numerator));
+        properties.setProperty("sampleAspectRatio.denominator", String.valueOf(info.sampleAspectRatio.denominator));
+        properties.setProperty("resolution.horizontal", String.valueOf(info.resolution.horizontal));
+        properties.setProperty("resolution.vertical", String.valueOf(info.resolution.vertical));
+
+        final File file = entryFile(key);
+        try {
+            //Write to a temporary file and then rename it, so that other processes never see a partial entry
+            final File temp = File.createTempFile("entry", ".tmp", directory);
+            try (OutputStream out = new FileOutputStream(temp)) {
+                properties.store(out, null);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            System.err.println("Could not write probe cache entry " + file + ": " + e.getLocalizedMessage());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.samcrow.frameextractor;
+
+/**
+ * The progress of an ffmpeg process, which may be running in this JVM or on
+ * a worker
+ * <p/>
+ * @author Sam Crow
+ */
+interface ProcessProgress {
+
+    /**
+     * @return The number of frames that the process has written
+     */
+    long getFrame();
+
+    /**
+     * @return The position in the input that the process has reached, in
+     * milliseconds
+     */
+    long getTime();
+
+    /**
+     * @return The most recent processing speed, as a multiple of real time,
+     * or 0 if unknown
+     */
+    double getSpeed();
+}
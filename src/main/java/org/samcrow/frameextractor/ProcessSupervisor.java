@@ -0,0 +1,456 @@
+package org.samcrow.frameextractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the output of child processes and stops processes that run for too
+ * long or stop writing output.
+ * <p/>
+ * The output of every supervised process is read by a small shared pool of
+ * threads instead of a thread per process. A thread reads only the bytes
+ * that a stream has available, so it never waits for a process to write.
+ * Streams that have nothing to read are checked again every
+ * {@link #POLL_INTERVAL} milliseconds.
+ * <p/>
+ * Output handlers run on the shared threads, so they must not block: a
+ * handler that waits delays the reading of every other process's output.
+ * <p/>
+ * Every {@link #WATCHDOG_INTERVAL} milliseconds, a watchdog on its own thread
+ * checks each
+ * process's time limit and the time since it last wrote output, and
+ * destroys processes that have exceeded either. ffmpeg writes progress about
+ * twice a second while it is working, so a process that writes nothing for
+ * much longer than that has stalled. A destroyed process that has not
+ * exited is destroyed again at every check, because ffmpeg exits
+ * immediately after receiving several termination signals. Processes are
+ * reaped when their output has ended and they have exited.
+ * <p/>
+ * This class is thread-safe.
+ * <p/>
+ * @author Sam Crow
+ */
+class ProcessSupervisor {
+
+    /**
+     * The time between reads of a stream that had nothing to read, in
+     * milliseconds
+     */
+    static final long POLL_INTERVAL = 20;
+
+    /**
+     * The time between watchdog checks, in milliseconds
+     */
+    static final long WATCHDOG_INTERVAL = 500;
+
+    /**
+     * The maximum number of bytes read from one stream before other streams
+     * are read
+     */
+    private static final int READ_LIMIT = 64 * 1024;
+
+    private static ProcessSupervisor shared;
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Runs the watchdog, separately from the threads that read output so
+     * that a slow output handler cannot delay it
+     */
+    private final ScheduledExecutorService watchdog;
+
+    /**
+     * Processes that have not been reaped
+     */
+    private final Set<Supervised> processes = Collections.newSetFromMap(new ConcurrentHashMap<Supervised, Boolean>());
+
+    /**
+     * Constructor
+     * @param threads The number of threads that read output
+     */
+    ProcessSupervisor(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        executor = new ScheduledThreadPoolExecutor(threads, new SupervisorThreadFactory("process-supervisor-"));
+        watchdog = Executors.newSingleThreadScheduledExecutor(new SupervisorThreadFactory("process-watchdog-"));
+        watchdog.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, WATCHDOG_INTERVAL, WATCHDOG_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The supervisor that all ffmpeg processes in this JVM share
+     */
+    static synchronized ProcessSupervisor shared() {
+        if (shared == null) {
+            shared = new ProcessSupervisor(Math.max(2, Runtime.getRuntime().availableProcessors() / 4));
+        }
+        return shared;
+    }
+
+    /**
+     * Starts supervising a process. Its output is not read until
+     * {@link Supervised#drain(InputStream, OutputHandler)} is called.
+     * @param process The process
+     * @param stallTimeout The time that the process may run without writing
+     * output, in milliseconds, or 0 for no limit
+     * @param timeLimit The time that the process may run, in milliseconds,
+     * or 0 for no limit
+     * @return The supervised process
+     */
+    Supervised supervise(Process process, long stallTimeout, long timeLimit) {
+        if (stallTimeout < 0 || timeLimit < 0) {
+            throw new IllegalArgumentException("Timeouts must not be negative");
+        }
+        final Supervised supervised = new Supervised(process, stallTimeout, timeLimit);
+        processes.add(supervised);
+        return supervised;
+    }
+
+    /**
+     * @return The number of processes that have not been reaped
+     */
+    int getProcessCount() {
+        return processes.size();
+    }
+
+    /**
+     * Stops supervising processes. Processes that are still running are not
+     * destroyed.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Reaps processes that have ended and destroys processes that have
+     * exceeded a timeout
+     */
+    private void check() {
+        final long now = System.currentTimeMillis();
+        for (Supervised supervised : processes) {
+            if (supervised.reap()) {
+                continue;
+            }
+            if (supervised.destroyed) {
+                supervised.process.destroy();
+            }
+            else if (supervised.timeLimit != 0 && now - supervised.startTime > supervised.timeLimit) {
+                supervised.kill("ran for more than " + supervised.timeLimit / 1000.0 + " seconds");
+            }
+            else if (supervised.stallTimeout != 0 && now - supervised.lastActivity > supervised.stallTimeout) {
+                supervised.kill("wrote no output for " + supervised.stallTimeout / 1000.0 + " seconds");
+            }
+        }
+    }
+
+    /**
+     * Receives the output of a process. The methods are called on the
+     * supervisor's shared threads, so they must return quickly and must not
+     * block.
+     */
+    interface OutputHandler {
+
+        /**
+         * Called with output as it is read
+         * @param data The output
+         * @param length The number of bytes of output at the start of data
+         * @throws Exception if the output could not be handled. Later output
+         * is read and discarded.
+         */
+        void output(byte[] data, int length) throws Exception;
+
+        /**
+         * Called once when the output ends
+         * @throws Exception if the end of the output could not be handled
+         */
+        void end() throws Exception;
+    }
+
+    /**
+     * A process that is being supervised
+     */
+    class Supervised {
+
+        private final Process process;
+
+        private final long stallTimeout;
+
+        private final long timeLimit;
+
+        private final long startTime;
+
+        /**
+         * The time that the process last wrote output
+         */
+        private volatile long lastActivity;
+
+        /**
+         * True if the process has been destroyed, by the watchdog or by
+         * {@link #kill(String)}
+         */
+        private volatile boolean destroyed = false;
+
+        /**
+         * Why the watchdog destroyed the process, or null
+         */
+        private volatile String killReason;
+
+        /**
+         * True if output is being read
+         */
+        private volatile boolean draining = false;
+
+        /**
+         * True once the output that is being read has ended
+         */
+        private volatile boolean outputEnded = false;
+
+        /**
+         * The first exception that the output handler threw, or null
+         */
+        private volatile Exception handlerFailure;
+
+        private volatile int exitCode;
+
+        private final CountDownLatch reaped = new CountDownLatch(1);
+
+        private Supervised(Process process, long stallTimeout, long timeLimit) {
+            this.process = process;
+            this.stallTimeout = stallTimeout;
+            this.timeLimit = timeLimit;
+            startTime = System.currentTimeMillis();
+            lastActivity = startTime;
+        }
+
+        /**
+         * Starts reading a stream of the process on the shared threads. The
+         * process is reaped when this stream has ended and the process has
+         * exited, so this stream must stay open until the process exits.
+         * @param stream The stream to read, which will be closed when it ends
+         * @param handler The handler to give the output to
+         */
+        synchronized void drain(InputStream stream, OutputHandler handler) {
+            if (draining) {
+                throw new IllegalStateException("Output is already being read");
+            }
+            draining = true;
+            executor.execute(new Drain(stream, handler));
+        }
+
+        /**
+         * Records that the process has made progress without writing output
+         * that this supervisor reads, such as by writing to a stream that
+         * another thread reads
+         */
+        void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        /**
+         * Destroys the process
+         * @param reason Why the process was destroyed, or null if it was
+         * cancelled
+         */
+        void kill(String reason) {
+            if (reason != null && killReason == null) {
+                killReason = reason;
+                System.err.println("Stopping a process because it " + reason);
+            }
+            destroyed = true;
+            process.destroy();
+        }
+
+        /**
+         * Waits until the process has exited and the output that is being
+         * read has ended
+         * @return The exit code of the process
+         * @throws InterruptedException if interrupted while waiting
+         */
+        int awaitExit() throws InterruptedException {
+            reaped.await();
+            return exitCode;
+        }
+
+        /**
+         * Waits until the process has exited and the output that is being
+         * read has ended, or until a timeout
+         * @param timeout The maximum time to wait, in milliseconds
+         * @return true if the process has exited and its output has ended
+         * @throws InterruptedException if interrupted while waiting
+         */
+        boolean awaitExit(long timeout) throws InterruptedException {
+            return reaped.await(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @return Why the watchdog destroyed the process, or null if it did
+         * not
+         */
+        String getKillReason() {
+            return killReason;
+        }
+
+        /**
+         * @return The first exception that the output handler threw, or null
+         */
+        Exception getHandlerFailure() {
+            return handlerFailure;
+        }
+
+        /**
+         * @return true if the process has exited
+         */
+        private boolean hasExited() {
+            try {
+                exitCode = process.exitValue();
+                return true;
+            }
+            catch (IllegalThreadStateException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Reaps the process if it has exited and the output that is being
+         * read has ended
+         * @return true if the process has been reaped
+         */
+        private boolean reap() {
+            if (reaped.getCount() == 0) {
+                return true;
+            }
+            if ((outputEnded || !draining) && hasExited()) {
+                processes.remove(this);
+                reaped.countDown();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Reads what a stream has available and then schedules itself to run
+         * again
+         */
+        private class Drain implements Runnable {
+
+            private final InputStream stream;
+
+            private final OutputHandler handler;
+
+            private final byte[] buffer = new byte[8192];
+
+            Drain(InputStream stream, OutputHandler handler) {
+                this.stream = stream;
+                this.handler = handler;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    int total = 0;
+                    while (total < READ_LIMIT) {
+                        final int available = stream.available();
+                        if (available == 0) {
+                            if (!hasExited()) {
+                                executor.schedule(this, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                                return;
+                            }
+                            //The process has exited, so reading the rest of its output will not block
+                            int read;
+                            while ((read = stream.read(buffer)) != -1) {
+                                handle(read);
+                            }
+                            end();
+                            return;
+                        }
+                        final int read = stream.read(buffer, 0, Math.min(available, buffer.length));
+                        if (read == -1) {
+                            end();
+                            return;
+                        }
+                        handle(read);
+                        total += read;
+                    }
+                    //Let other streams be read
+                    executor.execute(this);
+                }
+                catch (IOException e) {
+                    //The stream is closed when the process is destroyed
+                    if (!destroyed) {
+                        System.err.println("Could not read process output: " + e.getLocalizedMessage());
+                    }
+                    end();
+                }
+            }
+
+            private void handle(int length) {
+                lastActivity = System.currentTimeMillis();
+                if (handlerFailure != null) {
+                    return;
+                }
+                try {
+                    handler.output(buffer, length);
+                }
+                catch (Exception e) {
+                    handlerFailure = e;
+                }
+            }
+
+            private void end() {
+                try {
+                    stream.close();
+                }
+                catch (IOException e) {
+                    //Nothing more will be read
+                }
+                if (handlerFailure == null) {
+                    try {
+                        handler.end();
+                    }
+                    catch (Exception e) {
+                        handlerFailure = e;
+                    }
+                }
+                outputEnded = true;
+                reap();
+            }
+        }
+    }
+
+    /**
+     * Creates named daemon threads
+     */
+    private static class SupervisorThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        SupervisorThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
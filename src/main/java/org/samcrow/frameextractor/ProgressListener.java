@@ -0,0 +1,38 @@
+package org.samcrow.frameextractor;
+
+/**
+ * Receives progress updates from an {@link ExtractionJob}.
+ * <p/>
+ * The methods mirror the update methods of a JavaFX Task, so that a Task
+ * can forward them directly. They are called on the thread that runs the job.
+ * <p/>
+ * @author Sam Crow
+ */
+public interface ProgressListener {
+
+    /**
+     * A listener that ignores all updates
+     */
+    ProgressListener NONE = new ProgressListener() {
+        @Override
+        public void updateTitle(String title) {}
+
+        @Override
+        public void updateMessage(String message) {}
+
+        @Override
+        public void updateProgress(long workDone, long max) {}
+    };
+
+    void updateTitle(String title);
+
+    void updateMessage(String message);
+
+    /**
+     * Reports progress
+     * @param workDone The amount of work done, or -1 if progress is
+     * indeterminate
+     * @param max The total amount of work
+     */
+    void updateProgress(long workDone, long max);
+}
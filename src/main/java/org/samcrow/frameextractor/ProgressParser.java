@@ -0,0 +1,484 @@
+package org.samcrow.frameextractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the output of an ffmpeg process that was started with
+ * <code>-progress pipe:2 -nostats</code>.
+ * <p/>
+ * ffmpeg writes blocks of <code>key=value</code> lines, each ending with a
+ * <code>progress</code> line, about twice a second. These lines are parsed
+ * directly from a reusable byte buffer, without regular expressions and
+ * without creating objects. Other lines are ffmpeg's log. They are checked
+ * for the input duration and, if ffmpeg has not written any progress
+ * blocks, parsed with the statistics line pattern as a fallback. They are
+ * not printed, but the last {@link #TAIL_LINES} of them are kept to explain
+ * failures.
+ * <p/>
+ * Output can be read from a stream, or fed in pieces as it arrives.
+ * <p/>
+ * The listener is updated at most once every {@link #UPDATE_INTERVAL}
+ * milliseconds, and when ffmpeg reports that it has finished.
+ * <p/>
+ * @author Sam Crow
+ */
+class ProgressParser {
+
+    /**
+     * The minimum time between listener updates, in milliseconds
+     */
+    static final long UPDATE_INTERVAL = 250;
+
+    /**
+     * A pattern that stores the frame number, frame rate, and time in named
+     * capture groups 'frame', 'fps', and 'time'
+     */
+    private static final Pattern frameLinePattern = Pattern.compile("frame=\\s*(?<frame>\\d+)\\s*fps=\\s*(?<fps>[.\\d]+)\\s*q=\\s*[.\\d]+\\s*size=\\s*[a-zA-Z/]+\\s*time=\\s*(?<time>[:|.|\\d]+)");
+
+    private static final byte[] FRAME_KEY = ascii("frame=");
+
+    private static final byte[] FPS_KEY = ascii("fps=");
+
+    /**
+     * The output time in microseconds
+     */
+    private static final byte[] OUT_TIME_US_KEY = ascii("out_time_us=");
+
+    /**
+     * Also the output time in microseconds, despite the name. Older ffmpeg
+     * versions write only this key.
+     */
+    private static final byte[] OUT_TIME_MS_KEY = ascii("out_time_ms=");
+
+    /**
+     * The processing speed as a multiple of real time, such as "1.5x"
+     */
+    private static final byte[] SPEED_KEY = ascii("speed=");
+
+    private static final byte[] PROGRESS_KEY = ascii("progress=");
+
+    private static final byte[] PROGRESS_END = ascii("progress=end");
+
+    /**
+     * The start of lines that the showinfo filter logs
+     */
+    private static final String SHOWINFO_PREFIX = "[Parsed_showinfo_";
+
+    private static final String PTS_TIME_KEY = "pts_time:";
+
+    /**
+     * The number of log lines kept for error reports
+     */
+    static final int TAIL_LINES = 20;
+
+    /**
+     * The current line, without its line terminator
+     */
+    private byte[] line = new byte[256];
+
+    private int lineLength = 0;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * Duration of the video file, in milliseconds
+     */
+    private volatile long duration;
+
+    /**
+     * The most recent output frame number that ffmpeg reported
+     */
+    private volatile long frame;
+
+    /**
+     * The most recent output time that ffmpeg reported, in milliseconds
+     */
+    private volatile long time;
+
+    /**
+     * The most recent processing speed that ffmpeg reported, as a multiple of
+     * real time
+     */
+    private volatile double speed;
+
+    /**
+     * The most recent processing rate that ffmpeg reported, in frames per
+     * second
+     */
+    private double fps;
+
+    /**
+     * True if ffmpeg has written at least one progress block
+     */
+    private boolean structured = false;
+
+    /**
+     * The time of the last listener update
+     */
+    private long lastUpdate = 0;
+
+    /**
+     * The presentation times, in seconds, of the frames that passed through a
+     * showinfo filter, in order
+     */
+    private final List<Double> frameTimestamps = new ArrayList<>();
+
+    /**
+     * The most recent lines of ffmpeg's log, other than progress and showinfo
+     * lines, oldest first
+     */
+    private final Deque<String> logTail = new ArrayDeque<>(TAIL_LINES);
+
+    /**
+     * The first line of ffmpeg's log that describes a video stream, or null
+     */
+    private volatile String videoStreamLine;
+
+    /**
+     * Reads ffmpeg's output until it ends or {@link #stop()} is called
+     * @param stream The stream to read
+     * @param listener The listener to report progress to
+     * @throws IOException if the stream could not be read
+     * @throws ParseException if ffmpeg logged a time in an unexpected format
+     */
+    public void read(InputStream stream, ProgressListener listener) throws IOException, ParseException {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while (!stopped && (read = stream.read(buffer)) != -1) {
+            feed(buffer, read, listener);
+        }
+        finish(listener);
+    }
+
+    /**
+     * Parses some of ffmpeg's output. Complete lines are handled
+     * immediately, and a line without its terminator is kept until the rest
+     * of it is fed.
+     * @param data The output
+     * @param length The number of bytes of output at the start of data
+     * @param listener The listener to report progress to
+     * @throws ParseException if ffmpeg logged a time in an unexpected format
+     */
+    public void feed(byte[] data, int length, ProgressListener listener) throws ParseException {
+        for (int i = 0; i < length && !stopped; i++) {
+            final byte b = data[i];
+            //ffmpeg ends statistics lines with '\r'
+            if (b == '\n' || b == '\r') {
+                //Skip the second byte of "\r\n" and blank lines
+                if (lineLength != 0) {
+                    handleLine(listener);
+                    lineLength = 0;
+                }
+                continue;
+            }
+            if (lineLength == line.length) {
+                final byte[] larger = new byte[line.length * 2];
+                System.arraycopy(line, 0, larger, 0, lineLength);
+                line = larger;
+            }
+            line[lineLength++] = b;
+        }
+    }
+
+    /**
+     * Handles the last line of output if it had no terminator. Called when
+     * the output ends.
+     * @param listener The listener to report progress to
+     * @throws ParseException if ffmpeg logged a time in an unexpected format
+     */
+    public void finish(ProgressListener listener) throws ParseException {
+        if (lineLength != 0 && !stopped) {
+            handleLine(listener);
+        }
+        lineLength = 0;
+    }
+
+    /**
+     * Handles the line in the line buffer
+     */
+    private void handleLine(ProgressListener listener) throws ParseException {
+        if (isStatisticsLine()) {
+            readLogLine(new String(line, 0, lineLength, StandardCharsets.UTF_8), listener);
+        }
+        else if (startsWith(FRAME_KEY)) {
+            frame = parseLong(FRAME_KEY.length);
+        }
+        else if (startsWith(FPS_KEY)) {
+            fps = parseDecimal(FPS_KEY.length);
+        }
+        else if (startsWith(OUT_TIME_US_KEY)) {
+            time = parseLong(OUT_TIME_US_KEY.length) / 1000;
+        }
+        else if (startsWith(OUT_TIME_MS_KEY)) {
+            time = parseLong(OUT_TIME_MS_KEY.length) / 1000;
+        }
+        else if (startsWith(SPEED_KEY)) {
+            //Keep the last known speed when ffmpeg writes N/A
+            final double value = parseDecimal(SPEED_KEY.length);
+            if (value > 0) {
+                speed = value;
+            }
+        }
+        else if (startsWith(PROGRESS_KEY)) {
+            structured = true;
+            final boolean end = startsWith(PROGRESS_END);
+            final long now = System.currentTimeMillis();
+            if (end || now - lastUpdate >= UPDATE_INTERVAL) {
+                lastUpdate = now;
+                report(listener);
+            }
+        }
+        else if (!isKeyValue()) {
+            final String logLine = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+            if (!logLine.startsWith(SHOWINFO_PREFIX)) {
+                addToTail(logLine);
+            }
+            readLogLine(logLine, listener);
+        }
+    }
+
+    /**
+     * Handles a line of ffmpeg's log
+     */
+    private void readLogLine(String logLine, ProgressListener listener) throws ParseException {
+        if (logLine.startsWith(SHOWINFO_PREFIX)) {
+            //showinfo logs one or more lines for every frame, so they are not printed
+            readShowInfoLine(logLine);
+            return;
+        }
+        if (videoStreamLine == null && logLine.contains("Stream #") && logLine.contains("Video:")) {
+            videoStreamLine = logLine;
+        }
+        if (duration == 0 && logLine.contains("Duration:")) {
+            final Matcher matcher = FFMpegProcess.totalTimePattern.matcher(logLine);
+            if (matcher.find()) {
+                duration = FFMpegProcess.parseInterval(matcher.group(1));
+                //Mark duration as the maximum
+                listener.updateProgress(0, duration);
+                listener.updateMessage("Extracting frames");
+            }
+        }
+        if (!structured) {
+            //This ffmpeg may not support -progress, so read its statistics lines instead
+            final Matcher lineMatcher = frameLinePattern.matcher(logLine);
+            if (lineMatcher.find()) {
+                frame = Long.parseLong(lineMatcher.group("frame"));
+                fps = Double.parseDouble(lineMatcher.group("fps"));
+                time = FFMpegProcess.parseInterval(lineMatcher.group("time"));
+                final long now = System.currentTimeMillis();
+                if (now - lastUpdate >= UPDATE_INTERVAL) {
+                    lastUpdate = now;
+                    report(listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the time of a frame from a line that showinfo logged. Only the
+     * first line for each frame has its number and time.
+     */
+    private void readShowInfoLine(String logLine) {
+        final int frameStart = logLine.indexOf("] n:");
+        final int timeStart = logLine.indexOf(PTS_TIME_KEY);
+        if (frameStart == -1 || timeStart == -1) {
+            return;
+        }
+        int timeEnd = timeStart + PTS_TIME_KEY.length();
+        while (timeEnd < logLine.length() && !Character.isWhitespace(logLine.charAt(timeEnd))) {
+            timeEnd++;
+        }
+        try {
+            final double seconds = Double.parseDouble(logLine.substring(timeStart + PTS_TIME_KEY.length(), timeEnd));
+            synchronized (frameTimestamps) {
+                frameTimestamps.add(seconds);
+            }
+        }
+        catch (NumberFormatException e) {
+            System.err.println("Could not read frame time: " + logLine);
+        }
+    }
+
+    private void report(ProgressListener listener) {
+        listener.updateMessage("Extracting frames at " + Math.round(fps) + " frames/second");
+        listener.updateProgress(time, duration);
+    }
+
+    /**
+     * Makes {@link #read(InputStream, ProgressListener)} return after the
+     * current line, and makes later output be ignored
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private void addToTail(String logLine) {
+        synchronized (logTail) {
+            if (logTail.size() == TAIL_LINES) {
+                logTail.removeFirst();
+            }
+            logTail.addLast(logLine);
+        }
+    }
+
+    /**
+     * @return The last {@link #TAIL_LINES} lines of ffmpeg's log, not
+     * including progress and showinfo lines, oldest first
+     */
+    public List<String> getLogTail() {
+        synchronized (logTail) {
+            return new ArrayList<>(logTail);
+        }
+    }
+
+    /**
+     * @return The first line of ffmpeg's log that describes a video stream,
+     * which is the input stream, or null if ffmpeg has not logged one yet
+     */
+    public String getVideoStreamLine() {
+        return videoStreamLine;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return The presentation times, in seconds, of the frames that have
+     * passed through a showinfo filter so far, in order
+     */
+    public List<Double> getFrameTimestamps() {
+        synchronized (frameTimestamps) {
+            return new ArrayList<>(frameTimestamps);
+        }
+    }
+
+    /**
+     * @return The most recent processing speed that ffmpeg reported, as a
+     * multiple of real time, or 0 if unknown
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (lineLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the line is an old-style statistics line, which starts
+     * with "frame=" and has several fields separated by spaces. The progress
+     * frame line has no spaces.
+     */
+    private boolean isStatisticsLine() {
+        if (!startsWith(FRAME_KEY)) {
+            return false;
+        }
+        for (int i = FRAME_KEY.length; i < lineLength; i++) {
+            if (line[i] == ' ') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the line is a key=value progress line, with a key of
+     * lowercase letters, digits, and underscores
+     */
+    private boolean isKeyValue() {
+        for (int i = 0; i < lineLength; i++) {
+            final byte b = line[i];
+            if (b == '=') {
+                return i > 0;
+            }
+            if (!((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_')) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a non-negative integer starting at an offset in the line
+     * @return The integer, or 0 if the value is not a number (ffmpeg writes
+     * "N/A" for unknown values)
+     */
+    private long parseLong(int offset) {
+        long value = 0;
+        for (int i = offset; i < lineLength; i++) {
+            final byte b = line[i];
+            if (b < '0' || b > '9') {
+                break;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses a non-negative decimal number starting at an offset in the line
+     * @return The number, or 0 if the value is not a number
+     */
+    private double parseDecimal(int offset) {
+        long whole = 0;
+        long fraction = 0;
+        long scale = 1;
+        boolean afterPoint = false;
+        //Some values are padded with spaces
+        while (offset < lineLength && line[offset] == ' ') {
+            offset++;
+        }
+        for (int i = offset; i < lineLength; i++) {
+            final byte b = line[i];
+            if (b == '.' && !afterPoint) {
+                afterPoint = true;
+            }
+            else if (b >= '0' && b <= '9') {
+                if (afterPoint) {
+                    //Further digits are below double precision for any realistic rate
+                    if (scale < 1000000000L) {
+                        fraction = fraction * 10 + (b - '0');
+                        scale *= 10;
+                    }
+                }
+                else {
+                    whole = whole * 10 + (b - '0');
+                }
+            }
+            else {
+                break;
+            }
+        }
+        return whole + (double) fraction / scale;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
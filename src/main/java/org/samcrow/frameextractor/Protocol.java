@@ -0,0 +1,107 @@
+package org.samcrow.frameextractor;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The messages that a {@link Coordinator} and its {@link Worker}s exchange.
+ * <p/>
+ * Each message is one line of space-separated fields. The first field is
+ * the message type, and every field is URL-encoded so that paths and ffmpeg
+ * arguments can contain spaces. Messages from a worker:
+ * <ul>
+ * <li><code>HELLO name slots</code>: the first message, with the number of
+ * units that the worker runs at the same time</li>
+ * <li><code>HEARTBEAT</code>: sent every {@link #HEARTBEAT_INTERVAL}
+ * milliseconds</li>
+ * <li><code>PROGRESS id frame time speed</code>: the progress of a running
+ * unit</li>
+ * <li><code>DONE id exitCode logLine...</code>: ffmpeg exited, with the last
+ * lines that it logged</li>
+ * <li><code>FAILED id message</code>: the unit could not be run</li>
+ * </ul>
+ * Messages from the coordinator:
+ * <ul>
+ * <li><code>UNIT id directory argument...</code>: run ffmpeg with these
+ * arguments, after emptying the directory that it writes to</li>
+ * <li><code>CANCEL id</code>: stop a unit, without reporting it</li>
+ * <li><code>PING</code>: sent every {@link #HEARTBEAT_INTERVAL}
+ * milliseconds</li>
+ * <li><code>STOP</code>: there is no more work, so the worker exits</li>
+ * </ul>
+ * <p/>
+ * @author Sam Crow
+ */
+final class Protocol {
+
+    static final String HELLO = "HELLO";
+    static final String HEARTBEAT = "HEARTBEAT";
+    static final String PROGRESS = "PROGRESS";
+    static final String DONE = "DONE";
+    static final String FAILED = "FAILED";
+    static final String UNIT = "UNIT";
+    static final String CANCEL = "CANCEL";
+    static final String PING = "PING";
+    static final String STOP = "STOP";
+
+    /**
+     * The time between heartbeats and pings, in milliseconds
+     */
+    static final long HEARTBEAT_INTERVAL = 1000;
+
+    /**
+     * The default time after which a peer that has sent nothing is assumed
+     * to be lost, in milliseconds
+     */
+    static final long DEFAULT_TIMEOUT = 15000;
+
+    /**
+     * Encodes a message
+     * @param fields The message type followed by its fields
+     * @return The line, without a line terminator
+     */
+    static String encode(List<String> fields) {
+        final StringBuilder line = new StringBuilder();
+        try {
+            for (String field : fields) {
+                if (line.length() != 0) {
+                    line.append(' ');
+                }
+                line.append(URLEncoder.encode(field, "UTF-8"));
+            }
+        }
+        catch (UnsupportedEncodingException e) {
+            //Every Java implementation is required to support UTF-8
+            throw new IllegalStateException(e);
+        }
+        return line.toString();
+    }
+
+    static String encode(String... fields) {
+        return encode(Arrays.asList(fields));
+    }
+
+    /**
+     * Decodes a message
+     * @param line The line, without a line terminator
+     * @return The message type followed by its fields
+     */
+    static List<String> decode(String line) {
+        final List<String> fields = new ArrayList<>();
+        try {
+            for (String field : line.split(" ", -1)) {
+                fields.add(URLDecoder.decode(field, "UTF-8"));
+            }
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return fields;
+    }
+
+    private Protocol() {}
+}
@@ -0,0 +1,32 @@
+package org.samcrow.frameextractor;
+
+/**
+ * Which frames of a video are extracted
+ * <p/>
+ * @author Sam Crow
+ */
+public enum SamplingMode {
+
+    /**
+     * Every frame, resampled to the extraction frame rate
+     */
+    ALL,
+    /**
+     * Every decoded frame exactly once, at its own presentation time, without
+     * resampling to a constant frame rate. This suits variable frame rate
+     * video, and constant frame rate video whose rate is not a whole number,
+     * where resampling would duplicate or drop frames.
+     */
+    PASSTHROUGH,
+    /**
+     * Only keyframes. Other frames are skipped by the decoder without being
+     * decoded, so this is much faster than decoding every frame.
+     */
+    KEYFRAMES,
+    /**
+     * Only frames that differ from the frame before them by more than the
+     * scene change threshold. Every frame is decoded to measure the
+     * difference, but only the selected frames are scaled and encoded.
+     */
+    SCENE_CHANGES
+}
@@ -0,0 +1,62 @@
+package org.samcrow.frameextractor;
+
+/**
+ * How frames with non-square pixels are scaled to square pixels. With every
+ * policy, frames whose pixels are already square are not scaled at all.
+ * <p/>
+ * @author Sam Crow
+ */
+public enum ScalingPolicy {
+
+    /**
+     * Never scale. Frames keep the video's stored resolution, so they look
+     * stretched if the video's pixels are not square.
+     */
+    NONE(null),
+    /**
+     * Fast bilinear scaling, which is the cheapest but softest
+     */
+    FAST("fast_bilinear"),
+    /**
+     * Bicubic scaling, ffmpeg's default
+     */
+    BICUBIC("bicubic"),
+    /**
+     * Lanczos scaling with accurate rounding and full chroma interpolation,
+     * which is the sharpest but slowest
+     */
+    QUALITY("lanczos+accurate_rnd+full_chroma_int");
+
+    /**
+     * The flags for ffmpeg's scale filter, or null if this policy does not
+     * scale
+     */
+    private final String flags;
+
+    private ScalingPolicy(String flags) {
+        this.flags = flags;
+    }
+
+    /**
+     * @return The flags for ffmpeg's scale filter, or null if this policy
+     * does not scale
+     */
+    String getFlags() {
+        return flags;
+    }
+
+    /**
+     * Finds a policy by name
+     * @param name The name, such as "fast", in any case
+     * @return The policy
+     * @throws IllegalArgumentException if no policy has the name
+     */
+    public static ScalingPolicy forName(String name) {
+        for (ScalingPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown scaling policy " + name);
+    }
+}
@@ -0,0 +1,362 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Extracts frames from one video by splitting it into time ranges and
+ * extracting each range with its own ffmpeg process, all at the same time.
+ * <p/>
+ * Each segment writes its frames into a temporary subdirectory of the output
+ * directory. When all segments have finished, the frames are moved to their
+ * places in the output layout and renumbered so that the sequence is continuous, as if
+ * one process had written it.
+ * <p/>
+ * With a {@link Coordinator}, each segment is a unit of work that a worker
+ * runs, instead of a process on this host. A unit that is given to another
+ * worker writes into a new directory, and the frames are taken from the
+ * attempt that finished.
+ * <p/>
+ * @author Sam Crow
+ */
+class SegmentedExtraction {
+
+    /**
+     * Segments shorter than this are not worth starting a process for
+     */
+    private static final long MIN_SEGMENT_MILLIS = 10000;
+
+    /**
+     * Time between progress updates, in milliseconds
+     */
+    private static final long PROGRESS_INTERVAL = 250;
+
+    private final ExtractionJob job;
+
+    private final File videoFile;
+
+    private final File outDir;
+
+    private final List<String> outputOptions;
+
+    private final double frameRate;
+
+    private final long duration;
+
+    private final int segments;
+
+    private final OutputLayout layout;
+
+    private final Coordinator coordinator;
+
+    /**
+     * Constructor
+     * @param job The job that this extraction is part of
+     * @param videoFile The video file to read
+     * @param outDir The directory to put frames in
+     * @param outputOptions ffmpeg options for the output file
+     * @param frameRate The rate that frames are being extracted at
+     * @param duration The duration of the video, in milliseconds
+     * @param segments The number of segments to split the video into
+     * @param layout The layout of frame files in the output directory
+     * @param coordinator The coordinator to give segments to, or null to
+     * run them on this host
+     */
+    public SegmentedExtraction(ExtractionJob job, File videoFile, File outDir, List<String> outputOptions, double frameRate, long duration,
+            int segments, OutputLayout layout, Coordinator coordinator) {
+        this.job = job;
+        this.videoFile = videoFile;
+        this.outDir = outDir;
+        this.outputOptions = outputOptions;
+        this.frameRate = frameRate;
+        this.duration = duration;
+        this.segments = segments;
+        this.layout = layout;
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Returns the number of segments that a video should actually be split
+     * into
+     * @param duration The duration of the video in milliseconds, or 0 if
+     * unknown
+     * @param requested The requested number of segments
+     * @return The number of segments, which is 1 if the video should not be
+     * split
+     */
+    public static int segmentCount(long duration, int requested) {
+        if (duration <= 0) {
+            return 1;
+        }
+        final long maxSegments = Math.max(1, duration / MIN_SEGMENT_MILLIS);
+        return (int) Math.min(requested, maxSegments);
+    }
+
+    /**
+     * Runs all segments and waits for them to finish
+     * @param listener The listener to report progress to
+     * @return The number of frames extracted
+     * @throws Exception if a segment failed
+     */
+    public long run(ProgressListener listener) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        //Split on frame boundaries so that each output frame belongs to exactly one segment
+        final long totalFrames = (long) Math.ceil(duration / 1000.0 * frameRate);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(segments, new SegmentThreadFactory());
+        final List<Segment> segmentList = new ArrayList<>(segments);
+        final List<Future<Void>> futures = new ArrayList<>(segments);
+        try {
+            for (int i = 0; i < segments; i++) {
+                final long firstFrame = totalFrames * i / segments;
+                final long endFrame = totalFrames * (i + 1) / segments;
+                //The last segment continues to the end of the file
+                final long frameCount = (i == segments - 1) ? -1 : endFrame - firstFrame;
+                final Segment segment = new Segment(i, firstFrame / frameRate, frameCount);
+                segmentList.add(segment);
+                futures.add(executor.submit(segment));
+            }
+
+            //Report combined progress until all segments have finished
+            for (Future<Void> future : futures) {
+                while (true) {
+                    try {
+                        future.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                        break;
+                    }
+                    catch (TimeoutException e) {
+                        reportProgress(segmentList, startTime, listener);
+                    }
+                    catch (ExecutionException e) {
+                        //Stop the other segments
+                        job.cancel();
+                        final Throwable cause = e.getCause();
+                        if (cause instanceof Exception) {
+                            throw (Exception) cause;
+                        }
+                        throw e;
+                    }
+                }
+            }
+
+            if (job.isCancelled()) {
+                return 0;
+            }
+            listener.updateMessage("Renumbering frames");
+            return renumber(segmentList);
+        }
+        finally {
+            executor.shutdownNow();
+            for (Segment segment : segmentList) {
+                segment.deleteDirectories();
+            }
+        }
+    }
+
+    private void reportProgress(List<Segment> segmentList, long startTime, ProgressListener listener) {
+        long time = 0;
+        long frames = 0;
+        double speed = 0;
+        for (Segment segment : segmentList) {
+            final ProcessProgress process = segment.process;
+            if (process != null) {
+                time += process.getTime();
+                frames += process.getFrame();
+                speed += process.getSpeed();
+            }
+        }
+        job.getMetrics().setFramesWritten(frames);
+        job.getMetrics().setFFMpegSpeed(speed);
+        final long elapsed = System.currentTimeMillis() - startTime;
+        if (elapsed > 0) {
+            final long fps = Math.round(frames * 1000.0 / elapsed);
+            listener.updateMessage("Extracting frames in " + segments + " segments at " + fps + " frames/second");
+        }
+        listener.updateProgress(Math.min(time, duration), duration);
+    }
+
+    /**
+     * Moves the frames from all segment directories into the output layout,
+     * numbering them continuously
+     * @return The total number of frames
+     */
+    private long renumber(List<Segment> segmentList) throws IOException {
+        final List<File> directories = new ArrayList<>(segmentList.size());
+        for (Segment segment : segmentList) {
+            directories.add(segment.frameDirectory);
+        }
+        return renumber(directories, outDir, videoFile.getName(), layout);
+    }
+
+    /**
+     * Moves frames from several directories into an output layout, numbering
+     * them continuously
+     * @param directories The directories, in order, each with frames
+     * numbered from 1 and named as in a flat layout
+     * @param outDir The output directory
+     * @param videoName The name of the video file
+     * @param layout The layout of frame files in the output directory
+     * @return The total number of frames
+     * @throws IOException if a frame could not be moved
+     */
+    static long renumber(List<File> directories, File outDir, String videoName, OutputLayout layout) throws IOException {
+        long nextNumber = 1;
+        for (File directory : directories) {
+            for (long i = 1;; i++) {
+                final File source = new File(directory, layout.fileName(videoName, i));
+                if (!source.isFile()) {
+                    break;
+                }
+                final File destination = layout.fileFor(outDir, videoName, nextNumber);
+                if (layout.isSharded()) {
+                    DirectoryFrameSink.createParent(destination);
+                }
+                if (destination.exists() && !destination.delete()) {
+                    throw new IOException("Could not replace " + destination);
+                }
+                if (!source.renameTo(destination)) {
+                    throw new IOException("Could not move " + source + " to " + destination);
+                }
+                nextNumber++;
+            }
+        }
+        return nextNumber - 1;
+    }
+
+    private static String formatSeconds(double seconds) {
+        return FFMpegProcess.formatSeconds(seconds);
+    }
+
+    /**
+     * One time range of the video, extracted by one ffmpeg process
+     */
+    private class Segment implements Callable<Void> {
+
+        /**
+         * The temporary directory that this segment writes frames to. With a
+         * coordinator, each attempt writes to a directory whose name starts
+         * with this one.
+         */
+        final File directory;
+
+        /**
+         * The directory that the finished segment's frames are in
+         */
+        volatile File frameDirectory;
+
+        /**
+         * The time of the first frame, in seconds
+         */
+        final double start;
+
+        /**
+         * The number of frames to extract, or -1 to extract to the end
+         */
+        final long frameCount;
+
+        volatile ProcessProgress process;
+
+        Segment(int index, double start, long frameCount) {
+            this.directory = new File(outDir, ".segment-" + index);
+            this.frameDirectory = directory;
+            this.start = start;
+            this.frameCount = frameCount;
+        }
+
+        /**
+         * Deletes the directory of this segment and of all of its attempts
+         */
+        void deleteDirectories() {
+            FileUtils.deleteQuietly(directory);
+            final String attemptPrefix = directory.getName() + ".attempt-";
+            final File[] files = outDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().startsWith(attemptPrefix)) {
+                        FileUtils.deleteQuietly(file);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Void call() throws Exception {
+            final List<String> arguments = new ArrayList<>();
+            FFMpegProcess.addSeekingInput(arguments, videoFile.getAbsolutePath(), start);
+            if (frameCount != -1) {
+                arguments.add("-frames:v");
+                arguments.add(String.valueOf(frameCount));
+            }
+            arguments.addAll(outputOptions);
+            final String pattern = DirectoryFrameSink.fileNamePattern(videoFile.getName(), layout.getExtension());
+
+            final String action = "extracting the segment starting at " + formatSeconds(start) + " seconds";
+            if (coordinator != null) {
+                //Each attempt writes to its own directory, which the worker creates
+                arguments.add(Coordinator.DIRECTORY + "/" + pattern);
+                final Coordinator.Unit unit = coordinator.submit(directory.getAbsolutePath(), arguments);
+                process = unit;
+                try {
+                    while (!unit.await(PROGRESS_INTERVAL)) {
+                        if (job.isCancelled()) {
+                            unit.cancel();
+                            return null;
+                        }
+                    }
+                }
+                catch (InterruptedException e) {
+                    unit.cancel();
+                    throw e;
+                }
+                unit.check(action);
+                frameDirectory = new File(unit.getDirectory());
+                return null;
+            }
+
+            arguments.add(directory.getAbsolutePath() + "/" + pattern);
+            FileUtils.deleteQuietly(directory);
+            if (!directory.mkdirs()) {
+                throw new IOException("Could not create segment directory " + directory);
+            }
+            final FFMpegProcess localProcess = job.startProcess(arguments);
+            if (localProcess == null) {
+                return null;
+            }
+            process = localProcess;
+            try {
+                final int exitCode = localProcess.run(ProgressListener.NONE);
+                if (exitCode != 0 && !job.isCancelled()) {
+                    throw localProcess.failure(exitCode, action);
+                }
+            }
+            finally {
+                job.finishProcess(localProcess);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Creates named daemon threads for segment processes
+     */
+    private static class SegmentThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "extraction-segment");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
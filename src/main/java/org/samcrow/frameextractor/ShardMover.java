@@ -0,0 +1,66 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Moves frames that ffmpeg has written directly into the output directory to
+ * their places in a sharded {@link OutputLayout}.
+ * <p/>
+ * ffmpeg's image2 muxer can only write files into one directory, so frames
+ * are moved once they are completely written. Moving them while extraction
+ * runs keeps the output directory small.
+ * <p/>
+ * @author Sam Crow
+ */
+class ShardMover {
+
+    private final File outDir;
+
+    private final String videoName;
+
+    private final OutputLayout layout;
+
+    /**
+     * The number of the next frame to move
+     */
+    private long nextFrame;
+
+    /**
+     * Constructor
+     * @param outDir The output directory
+     * @param videoName The name of the video file
+     * @param layout The layout to move frames into
+     * @param firstFrame The number of the first frame to move
+     */
+    public ShardMover(File outDir, String videoName, OutputLayout layout, long firstFrame) {
+        this.outDir = outDir;
+        this.videoName = videoName;
+        this.layout = layout;
+        this.nextFrame = firstFrame;
+    }
+
+    /**
+     * Moves all frames up to and including a frame that have not already
+     * been moved
+     * @param lastFrame The number of the last frame to move
+     * @throws IOException if a frame is missing or could not be moved
+     */
+    public synchronized void moveTo(long lastFrame) throws IOException {
+        if (!layout.isSharded()) {
+            nextFrame = Math.max(nextFrame, lastFrame + 1);
+            return;
+        }
+        for (; nextFrame <= lastFrame; nextFrame++) {
+            final File source = new File(outDir, layout.fileName(videoName, nextFrame));
+            final File destination = layout.fileFor(outDir, videoName, nextFrame);
+            DirectoryFrameSink.createParent(destination);
+            if (destination.exists() && !destination.delete()) {
+                throw new IOException("Could not replace " + destination);
+            }
+            if (!source.renameTo(destination)) {
+                throw new IOException("Could not move " + source + " to " + destination);
+            }
+        }
+    }
+}
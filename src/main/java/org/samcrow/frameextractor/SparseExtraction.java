@@ -0,0 +1,305 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Extracts a selection of frames from one video without decoding the rest
+ * of it.
+ * <p/>
+ * The selected frames are grouped into clusters of nearby frames. Each
+ * cluster is extracted by one ffmpeg process that seeks quickly to shortly
+ * before the cluster, decodes only up to its last frame, and keeps only the
+ * selected frames. Clusters are extracted at the same time on a fixed number
+ * of processes.
+ * <p/>
+ * Each cluster writes its frames into a temporary subdirectory of the output
+ * directory, and they are moved to their places in the output layout when
+ * the cluster finishes.
+ * <p/>
+ * @author Sam Crow
+ */
+class SparseExtraction {
+
+    /**
+     * Frames closer together than this, in seconds, are in the same cluster.
+     * Decoding the frames between them costs about as much as seeking again.
+     */
+    private static final double MAX_GAP = FFMpegProcess.SEEK_PREROLL;
+
+    /**
+     * The largest number of frames in one cluster, which keeps the select
+     * expression short and gives long runs of frames to several processes
+     */
+    private static final int MAX_CLUSTER_FRAMES = 100;
+
+    private final ExtractionJob job;
+
+    private final File videoFile;
+
+    private final File outDir;
+
+    /**
+     * Crop and scale filters to apply to the selected frames, or null
+     */
+    private final String geometryFilter;
+
+    private final List<String> outputOptions;
+
+    private final double frameRate;
+
+    /**
+     * The frames to extract, in increasing order
+     */
+    private final long[] frames;
+
+    private final int processes;
+
+    private final OutputLayout layout;
+
+    /**
+     * Constructor
+     * @param job The job that this extraction is part of
+     * @param videoFile The video file to read
+     * @param outDir The directory to put frames in
+     * @param geometryFilter Crop and scale filters to apply to the selected
+     * frames, or null
+     * @param outputOptions ffmpeg options for the output file, which must
+     * not resample the frame rate or set filters
+     * @param frameRate The rate that frames are numbered at
+     * @param frames The numbers of the frames to extract, in increasing order
+     * @param processes The maximum number of ffmpeg processes to run at the
+     * same time
+     * @param layout The layout of frame files in the output directory
+     */
+    public SparseExtraction(ExtractionJob job, File videoFile, File outDir, String geometryFilter, List<String> outputOptions,
+            double frameRate, long[] frames, int processes, OutputLayout layout) {
+        this.job = job;
+        this.videoFile = videoFile;
+        this.outDir = outDir;
+        this.geometryFilter = geometryFilter;
+        this.outputOptions = outputOptions;
+        this.frameRate = frameRate;
+        this.frames = frames;
+        this.processes = processes;
+        this.layout = layout;
+    }
+
+    /**
+     * Groups frames into clusters
+     * @param frames Frame numbers in increasing order
+     * @param frameRate The rate that frames are numbered at
+     * @return The clusters, each a range of indices in frames as
+     * {start, end} with end exclusive
+     */
+    static List<int[]> cluster(long[] frames, double frameRate) {
+        final List<int[]> clusters = new ArrayList<>();
+        int start = 0;
+        for (int i = 1; i <= frames.length; i++) {
+            if (i == frames.length || i - start == MAX_CLUSTER_FRAMES
+                    || (frames[i] - frames[i - 1]) / frameRate > MAX_GAP) {
+                clusters.add(new int[]{start, i});
+                start = i;
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Extracts all clusters and waits for them to finish
+     * @param listener The listener to report progress to
+     * @return The numbers of the frames that were written, in increasing
+     * order. Frames past the end of the video are not written.
+     * @throws Exception if a cluster failed
+     */
+    public List<Long> run(ProgressListener listener) throws Exception {
+        final List<int[]> clusters = cluster(frames, frameRate);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(processes, clusters.size())),
+                new ClusterThreadFactory());
+        final List<Cluster> clusterList = new ArrayList<>(clusters.size());
+        final List<Future<List<Long>>> futures = new ArrayList<>(clusters.size());
+        listener.updateProgress(0, frames.length);
+        try {
+            for (int[] range : clusters) {
+                final Cluster cluster = new Cluster(clusterList.size(), Arrays.copyOfRange(frames, range[0], range[1]));
+                clusterList.add(cluster);
+                futures.add(executor.submit(cluster));
+            }
+
+            final List<Long> written = new ArrayList<>(frames.length);
+            for (Future<List<Long>> future : futures) {
+                try {
+                    written.addAll(future.get());
+                    listener.updateProgress(written.size(), frames.length);
+                }
+                catch (ExecutionException e) {
+                    //Stop the other clusters
+                    job.cancel();
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+            }
+            return written;
+        }
+        finally {
+            executor.shutdownNow();
+            for (Cluster cluster : clusterList) {
+                FileUtils.deleteQuietly(cluster.directory);
+            }
+        }
+    }
+
+    /**
+     * Builds a select filter expression that is true for the frames at
+     * times relative to the time that decoding starts
+     * @param frames The frame numbers
+     * @param baseFrame The number of frames before the time that decoding
+     * starts
+     */
+    private String selectExpression(long[] frames, long baseFrame) {
+        //After the fps filter, frame times are exact multiples of the frame interval,
+        //so matching within half an interval finds exactly one frame
+        final String tolerance = String.format(Locale.US, "%.6f", 0.5 / frameRate);
+        final StringBuilder expression = new StringBuilder();
+        for (long frame : frames) {
+            if (expression.length() != 0) {
+                expression.append('+');
+            }
+            final double time = (frame - 1 - baseFrame) / frameRate;
+            expression.append("lt(abs(t-").append(String.format(Locale.US, "%.6f", time)).append("),").append(tolerance).append(')');
+        }
+        return expression.toString();
+    }
+
+    /**
+     * A group of nearby frames, extracted by one ffmpeg process
+     */
+    private class Cluster implements Callable<List<Long>> {
+
+        /**
+         * The temporary directory that this cluster writes frames to
+         */
+        final File directory;
+
+        /**
+         * The frames to extract, in increasing order
+         */
+        final long[] clusterFrames;
+
+        Cluster(int index, long[] clusterFrames) {
+            this.directory = new File(outDir, ".sparse-" + index);
+            this.clusterFrames = clusterFrames;
+        }
+
+        @Override
+        public List<Long> call() throws Exception {
+            if (job.isCancelled()) {
+                return new ArrayList<>();
+            }
+            FileUtils.deleteQuietly(directory);
+            if (!directory.mkdirs()) {
+                throw new IOException("Could not create cluster directory " + directory);
+            }
+
+            //Seek quickly to a frame boundary a few seconds before the first frame, and decode from there.
+            //The select filter discards the frames in between, so ffmpeg is not asked to seek accurately.
+            final long prerollFrames = (long) Math.ceil(FFMpegProcess.SEEK_PREROLL * frameRate);
+            final long baseFrame = Math.max(0, clusterFrames[0] - 1 - prerollFrames);
+            final List<String> arguments = new ArrayList<>();
+            if (baseFrame > 0) {
+                arguments.add("-ss");
+                arguments.add(FFMpegProcess.formatSeconds(baseFrame / frameRate));
+            }
+            arguments.add("-i");
+            arguments.add(videoFile.getAbsolutePath());
+            arguments.add("-vf");
+            //Crop and scale only the selected frames
+            arguments.add("fps=" + frameRate + ",select='" + selectExpression(clusterFrames, baseFrame) + "'"
+                    + (geometryFilter != null ? "," + geometryFilter : ""));
+            //Stop after the last selected frame instead of decoding to the end
+            arguments.add("-frames:v");
+            arguments.add(String.valueOf(clusterFrames.length));
+            arguments.addAll(outputOptions);
+            arguments.add("-start_number");
+            arguments.add("1");
+            arguments.add(directory.getAbsolutePath() + "/" + DirectoryFrameSink.fileNamePattern(videoFile.getName(), layout.getExtension()));
+
+            final FFMpegProcess process = job.startProcess(arguments);
+            if (process == null) {
+                return new ArrayList<>();
+            }
+            try {
+                final int exitCode = process.run(ProgressListener.NONE);
+                if (exitCode != 0 && !job.isCancelled()) {
+                    throw process.failure(exitCode, "extracting frames " + clusterFrames[0] + " to "
+                            + clusterFrames[clusterFrames.length - 1]);
+                }
+            }
+            finally {
+                job.finishProcess(process);
+            }
+            if (job.isCancelled()) {
+                return new ArrayList<>();
+            }
+            return moveFrames();
+        }
+
+        /**
+         * Moves the frames that ffmpeg wrote into the output layout. ffmpeg
+         * numbers them from 1 in the order of clusterFrames.
+         */
+        private List<Long> moveFrames() throws IOException {
+            final String videoName = videoFile.getName();
+            final List<Long> written = new ArrayList<>(clusterFrames.length);
+            for (int i = 0; i < clusterFrames.length; i++) {
+                final File source = new File(directory, layout.fileName(videoName, i + 1));
+                if (!source.isFile()) {
+                    //The remaining frames are past the end of the video
+                    System.err.println("Frames " + clusterFrames[i] + " to " + clusterFrames[clusterFrames.length - 1]
+                            + " of " + videoName + " are past the end of the video");
+                    break;
+                }
+                final File destination = layout.fileFor(outDir, videoName, clusterFrames[i]);
+                if (layout.isSharded()) {
+                    DirectoryFrameSink.createParent(destination);
+                }
+                if (destination.exists() && !destination.delete()) {
+                    throw new IOException("Could not replace " + destination);
+                }
+                if (!source.renameTo(destination)) {
+                    throw new IOException("Could not move " + source + " to " + destination);
+                }
+                written.add(clusterFrames[i]);
+                job.getMetrics().frameWritten(destination.length());
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Creates named daemon threads for cluster processes
+     */
+    private static class ClusterThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "extraction-cluster");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
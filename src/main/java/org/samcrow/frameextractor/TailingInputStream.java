@@ -0,0 +1,98 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reads a file that another program may still be writing.
+ * <p/>
+ * At the current end of the file, reads wait for the file to grow, checking
+ * every {@link #POLL_INTERVAL} milliseconds. The stream ends when the file
+ * has not grown for the idle timeout, or when it is closed.
+ * <p/>
+ * @author Sam Crow
+ */
+class TailingInputStream extends InputStream {
+
+    /**
+     * The time between checks for new data, in milliseconds
+     */
+    static final long POLL_INTERVAL = 100;
+
+    private final FileInputStream in;
+
+    private final long idleTimeout;
+
+    /**
+     * The time that data was last read
+     */
+    private long lastData;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor
+     * @param file The file to read
+     * @param idleTimeout The time that the file may stop growing before the
+     * stream ends, in milliseconds
+     * @throws FileNotFoundException if the file could not be opened
+     */
+    TailingInputStream(File file, long idleTimeout) throws FileNotFoundException {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("The idle timeout must be positive");
+        }
+        in = new FileInputStream(file);
+        this.idleTimeout = idleTimeout;
+        lastData = System.currentTimeMillis();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (!closed) {
+            final int read;
+            try {
+                read = in.read(b, off, len);
+            }
+            catch (IOException e) {
+                //Closed by another thread during the read
+                if (closed) {
+                    return -1;
+                }
+                throw e;
+            }
+            if (read > 0) {
+                lastData = System.currentTimeMillis();
+                return read;
+            }
+            if (System.currentTimeMillis() - lastData >= idleTimeout) {
+                return -1;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for the file to grow");
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        in.close();
+    }
+}
@@ -0,0 +1,111 @@
+package org.samcrow.frameextractor;
+
+/**
+ * Holds information on a video file
+ * <p/>
+ * @author Sam Crow
+ */
+public class VideoInfo {
+
+    public double frameRate;
+
+    /**
+     * The duration of the video in milliseconds, or 0 if ffmpeg did not
+     * report it
+     */
+    public long duration;
+
+    /**
+     * The display aspect ratio of the video, for example "16:9"
+     */
+    public AspectRatio aspectRatio = new AspectRatio();
+
+    /**
+     * The shape of each stored pixel, for example "4:3" for 1440x1080 video
+     * that is displayed at 16:9, or "1:1" for square pixels
+     */
+    public AspectRatio sampleAspectRatio = new AspectRatio(1, 1);
+
+    public static class AspectRatio {
+        public int numerator;
+        public int denominator;
+
+        public AspectRatio() {
+        }
+
+        public AspectRatio(int numerator, int denominator) {
+            this.numerator = numerator;
+            this.denominator = denominator;
+        }
+
+        /**
+         * @return true if both parts of this ratio are positive. ffmpeg
+         * reports 0:1 when a ratio is unknown.
+         */
+        public boolean isValid() {
+            return numerator > 0 && denominator > 0;
+        }
+
+        @Override
+        public String toString() {
+            return numerator + ":" + denominator;
+        }
+
+        /**
+         * Returns a decimal form of this aspect ratio
+         * @return
+         */
+        public double toDecimal() {
+            return numerator / (double) denominator;
+        }
+    }
+    /**
+     * The resolution
+     */
+    public Resolution resolution = new Resolution();
+
+    /**
+     * Returns the width of a stored pixel relative to its height
+     * @return The pixel aspect ratio, which is 1 for square pixels
+     */
+    public double getPixelAspectRatio() {
+        if (sampleAspectRatio.isValid()) {
+            return sampleAspectRatio.toDecimal();
+        }
+        if (aspectRatio.isValid() && resolution.horizontal > 0 && resolution.vertical > 0) {
+            //Derive the pixel shape from the displayed aspect ratio
+            return aspectRatio.toDecimal() / (resolution.horizontal / (double) resolution.vertical);
+        }
+        return 1;
+    }
+
+    /**
+     * Returns a resolution that shows the video at its displayed aspect ratio
+     * with square pixels. The vertical resolution is unchanged.
+     */
+    public Resolution getSquarePixelResolution() {
+        final Resolution newResolution = new Resolution();
+        newResolution.vertical = resolution.vertical;
+        newResolution.horizontal = (int) Math.round(resolution.horizontal * getPixelAspectRatio());
+        return newResolution;
+    }
+
+    public static class Resolution {
+        public int horizontal;
+        public int vertical;
+
+        public Resolution() {
+        }
+
+        public Resolution(int horizontal, int vertical) {
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+        }
+
+        @Override
+        public String toString() {
+            return horizontal + "x" + vertical;
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Gets information about a video file by running <code>ffmpeg -i</code> and
+ * parsing what it prints
+ * <p/>
+ * @author Sam Crow
+ */
+public class VideoProber {
+
+    /**
+     * Search for a number with an optional fraction and an optional "k"
+     * (thousands) suffix, followed by a space and then "fps" or "tbr"
+     * The number is in capture group "rate" and the suffix is in "k"
+     */
+    private static final Pattern frameRatePattern = Pattern.compile("(?<rate>\\d+(?:\\.\\d+)?)(?<k>k?) (?<unit>fps|tbr)\\b");
+
+    /**
+     * The NTSC-family frame rates, which ffmpeg prints rounded to two
+     * decimal places. Each is this number times 1000/1001.
+     */
+    private static final int[] ntscBaseRates = { 24, 30, 48, 60, 120, 240 };
+    /**
+     * Search a video stream line for the resolution and the optional aspect
+     * ratios, which ffmpeg leaves out when the pixels are square.
+     * The resolution is in capture groups "resx" and "resy"
+     * The sample (pixel) aspect ratio is in capture groups "sarn" and "sard"
+     * The displayed aspect ratio is in capture groups "aspectn" and "aspectd"
+     */
+    private static final Pattern aspectRatioPattern
+            = Pattern.compile(", (?<resx>\\d+)x(?<resy>\\d+)(?: \\[[SP]AR (?<sarn>\\d+):(?<sard>\\d+) DAR (?<aspectn>\\d+):(?<aspectd>\\d+)\\])?");
+
+    /**
+     * Probes a video file
+     * @param video The file to probe
+     * @return Information about the video
+     * @throws Exception if ffmpeg could not be run, ran for more than
+     * {@link FFMpeg#OUTPUT_TIME_LIMIT} milliseconds, or did not provide the
+     * required information
+     */
+    public static VideoInfo probe(File video) throws Exception {
+        String ffMpegPath = FFMpeg.getPath();
+
+        final List<String> lines = FFMpeg.readOutput(Arrays.asList(ffMpegPath, "-i", video.getAbsolutePath()));
+
+        VideoInfo info = new VideoInfo();
+        for (String line : lines) {
+            parseLine(line, info);
+        }
+
+        if(info.frameRate == 0 || info.resolution.horizontal == 0) {
+            //ffmpeg's last line usually explains why, such as an unreadable file
+            throw new Exception("FFMpeg did not provide the video frame rate and aspect ratio"
+                    + (lines.isEmpty() ? "" : ": " + lines.get(lines.size() - 1)));
+        }
+
+        return info;
+    }
+
+    /**
+     * Parses one line of ffmpeg output, storing any information found
+     * @param line The line to parse
+     * @param info The information object to update
+     * @throws ParseException if the line contains a malformed duration
+     */
+    static void parseLine(String line, VideoInfo info) throws ParseException {
+        {
+            Matcher durationMatcher = FFMpegProcess.totalTimePattern.matcher(line);
+            if (durationMatcher.find()) {
+                info.duration = FFMpegProcess.parseInterval(durationMatcher.group(1));
+            }
+        }
+        //Use the first video stream. Later ones may be cover images.
+        if (line.contains("Video:") && info.resolution.horizontal == 0) {
+            info.frameRate = parseFrameRate(line);
+            Matcher aspectMatcher = aspectRatioPattern.matcher(line);
+            boolean aspectFound = aspectMatcher.find();
+            if (aspectFound) {
+                final int width = Integer.parseInt(aspectMatcher.group("resx"));
+                final int height = Integer.parseInt(aspectMatcher.group("resy"));
+                info.resolution.horizontal = width;
+                info.resolution.vertical = height;
+
+                if (aspectMatcher.group("aspectn") != null) {
+                    info.sampleAspectRatio.numerator = Integer.parseInt(aspectMatcher.group("sarn"));
+                    info.sampleAspectRatio.denominator = Integer.parseInt(aspectMatcher.group("sard"));
+                    info.aspectRatio.numerator = Integer.parseInt(aspectMatcher.group("aspectn"));
+                    info.aspectRatio.denominator = Integer.parseInt(aspectMatcher.group("aspectd"));
+                }
+                else {
+                    //Square pixels, so the displayed aspect ratio is the resolution's
+                    final int divisor = BigInteger.valueOf(width).gcd(BigInteger.valueOf(height)).intValue();
+                    info.sampleAspectRatio.numerator = 1;
+                    info.sampleAspectRatio.denominator = 1;
+                    info.aspectRatio.numerator = width / Math.max(divisor, 1);
+                    info.aspectRatio.denominator = height / Math.max(divisor, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the frame rate in a video stream line. The average frame rate
+     * ("fps") is used if ffmpeg printed it, and otherwise the base rate
+     * ("tbr").
+     * @param line The line
+     * @return The frame rate, or 0 if the line has none
+     */
+    static double parseFrameRate(String line) {
+        double tbr = 0;
+        final Matcher matcher = frameRatePattern.matcher(line);
+        while (matcher.find()) {
+            double rate = Double.parseDouble(matcher.group("rate"));
+            if (!matcher.group("k").isEmpty()) {
+                rate *= 1000;
+            }
+            if (matcher.group("unit").equals("fps")) {
+                return exactFrameRate(rate);
+            }
+            else if (tbr == 0) {
+                tbr = rate;
+            }
+        }
+        return exactFrameRate(tbr);
+    }
+
+    /**
+     * Replaces an NTSC-family frame rate that ffmpeg rounded, such as 29.97,
+     * with its exact value, such as 30000/1001, so that frame times do not
+     * drift over long videos
+     * @param rate The rounded rate
+     * @return The exact rate, or the rate unchanged if it is not an
+     * NTSC-family rate
+     */
+    static double exactFrameRate(double rate) {
+        for (int base : ntscBaseRates) {
+            final double exact = base * 1000.0 / 1001.0;
+            if (Math.abs(rate - exact) < 0.006) {
+                return exact;
+            }
+        }
+        return rate;
+    }
+
+    private VideoProber() {}
+}
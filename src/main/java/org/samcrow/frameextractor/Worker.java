@@ -0,0 +1,318 @@
+package org.samcrow.frameextractor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Connects to a {@link Coordinator} and runs the units of work that it sends,
+ * several at a time.
+ * <p/>
+ * The worker sends a heartbeat and the progress of its running units every
+ * {@link Protocol#HEARTBEAT_INTERVAL} milliseconds. If the connection closes
+ * or the coordinator sends nothing for longer than the heartbeat timeout,
+ * the worker destroys its ffmpeg processes, because the coordinator will
+ * give their units to other workers.
+ * <p/>
+ * @author Sam Crow
+ */
+public class Worker {
+
+    /**
+     * The time that a worker keeps trying to connect to a coordinator that is
+     * not listening yet, in milliseconds
+     */
+    private static final long CONNECT_TIMEOUT = 60000;
+
+    private final String host;
+
+    private final int port;
+
+    private final int slots;
+
+    /**
+     * The path to ffmpeg, or null to find it when the first unit runs
+     */
+    private final String executable;
+
+    private final long heartbeatTimeout;
+
+    private final long stallTimeout;
+
+    /**
+     * Running processes, by unit ID
+     */
+    private final Map<Long, FFMpegProcess> running = new ConcurrentHashMap<>();
+
+    /**
+     * IDs of units that were cancelled before they finished. A cancel can
+     * arrive before its unit has started, so this is checked before and
+     * after a process is started.
+     */
+    private final Set<Long> cancelled = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private volatile Socket socket;
+
+    private Writer writer;
+
+    private volatile long lastHeard;
+
+    /**
+     * Constructor
+     * @param host The host that the coordinator is running on
+     * @param port The port that the coordinator is listening on
+     * @param slots The number of units to run at the same time
+     * @param stallTimeout The time that an ffmpeg process may run without
+     * writing output, in milliseconds, or 0 for no limit
+     */
+    public Worker(String host, int port, int slots, long stallTimeout) {
+        this(host, port, slots, stallTimeout, null, Protocol.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor
+     * @param host The host that the coordinator is running on
+     * @param port The port that the coordinator is listening on
+     * @param slots The number of units to run at the same time
+     * @param stallTimeout The time that an ffmpeg process may run without
+     * writing output, in milliseconds, or 0 for no limit
+     * @param executable The program to run instead of ffmpeg, or null
+     * @param heartbeatTimeout The time after which a coordinator that has
+     * sent nothing is assumed to be lost, in milliseconds
+     */
+    Worker(String host, int port, int slots, long stallTimeout, String executable, long heartbeatTimeout) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("A worker must have at least one slot");
+        }
+        if (stallTimeout < 0) {
+            throw new IllegalArgumentException("The stall timeout must not be negative");
+        }
+        this.host = host;
+        this.port = port;
+        this.slots = slots;
+        this.stallTimeout = stallTimeout;
+        this.executable = executable;
+        this.heartbeatTimeout = heartbeatTimeout;
+    }
+
+    /**
+     * Connects to the coordinator and runs units until it says to stop or
+     * the connection is lost
+     * @return true if the coordinator said to stop, false if the connection
+     * was lost
+     * @throws IOException if the coordinator could not be reached
+     * @throws InterruptedException if interrupted while connecting
+     */
+    public boolean run() throws IOException, InterruptedException {
+        socket = connect();
+        socket.setTcpNoDelay(true);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        lastHeard = System.currentTimeMillis();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(slots, new WorkerThreadFactory("worker-unit"));
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new WorkerThreadFactory("worker-heartbeat"));
+        try {
+            send(Protocol.encode(Protocol.HELLO, ManagementFactory.getRuntimeMXBean().getName(), String.valueOf(slots)));
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    heartbeat();
+                }
+            }, Protocol.HEARTBEAT_INTERVAL, Protocol.HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lastHeard = System.currentTimeMillis();
+                final List<String> message = Protocol.decode(line);
+                switch (message.get(0)) {
+                    case Protocol.PING:
+                        break;
+                    case Protocol.UNIT: {
+                        final long id = Long.parseLong(message.get(1));
+                        final File directory = new File(message.get(2));
+                        final List<String> arguments = new ArrayList<>(message.subList(3, message.size()));
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                runUnit(id, directory, arguments);
+                            }
+                        });
+                        break;
+                    }
+                    case Protocol.CANCEL: {
+                        final Long id = Long.valueOf(message.get(1));
+                        cancelled.add(id);
+                        final FFMpegProcess process = running.remove(id);
+                        if (process != null) {
+                            process.destroy();
+                        }
+                        break;
+                    }
+                    case Protocol.STOP:
+                        return true;
+                    default:
+                        System.err.println("Ignoring unknown message " + message.get(0));
+                }
+            }
+            return false;
+        }
+        catch (IOException e) {
+            if (socket.isClosed()) {
+                return false;
+            }
+            throw e;
+        }
+        finally {
+            timer.shutdownNow();
+            executor.shutdownNow();
+            close();
+        }
+    }
+
+    /**
+     * Disconnects from the coordinator and destroys the running processes
+     */
+    public void close() {
+        final Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            }
+            catch (IOException e) {
+                //Nothing more can be done
+            }
+        }
+        for (FFMpegProcess process : running.values()) {
+            process.destroy();
+        }
+        running.clear();
+    }
+
+    private Socket connect() throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            try {
+                return new Socket(host, port);
+            }
+            catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(Protocol.HEARTBEAT_INTERVAL);
+            }
+        }
+    }
+
+    private void runUnit(long id, File directory, List<String> arguments) {
+        FFMpegProcess process = null;
+        try {
+            if (cancelled.contains(id)) {
+                //Cancelled while queued, so the coordinator may already have deleted the directory
+                return;
+            }
+            FileUtils.deleteQuietly(directory);
+            if (!directory.mkdirs()) {
+                throw new IOException("Could not create directory " + directory);
+            }
+            process = FFMpegProcess.start(executable != null ? executable : FFMpeg.getPath(), arguments, stallTimeout, 0);
+            running.put(id, process);
+            //A cancel that arrived before the process was in running did not destroy it
+            if (cancelled.contains(id) && running.remove(id) != null) {
+                process.destroy();
+            }
+            final int exitCode = process.run(ProgressListener.NONE);
+            if (running.remove(id) == null) {
+                //Cancelled or disconnected, so the coordinator does not expect a result. No other
+                //attempt writes to this directory.
+                FileUtils.deleteQuietly(directory);
+                return;
+            }
+            final List<String> message = new ArrayList<>();
+            message.add(Protocol.DONE);
+            message.add(String.valueOf(id));
+            message.add(String.valueOf(exitCode));
+            message.addAll(process.getLogTail());
+            send(Protocol.encode(message));
+        }
+        catch (Exception e) {
+            if (process != null && running.remove(id) == null) {
+                FileUtils.deleteQuietly(directory);
+                return;
+            }
+            System.err.println("Unit " + id + " failed: " + e.getLocalizedMessage());
+            try {
+                send(Protocol.encode(Protocol.FAILED, String.valueOf(id), String.valueOf(e.getLocalizedMessage())));
+            }
+            catch (IOException e1) {
+                //The connection is lost, so the coordinator will give the unit to another worker
+            }
+        }
+        finally {
+            cancelled.remove(id);
+        }
+    }
+
+    private void heartbeat() {
+        if (System.currentTimeMillis() - lastHeard > heartbeatTimeout) {
+            System.err.println("The coordinator sent nothing for " + heartbeatTimeout / 1000.0 + " seconds");
+            close();
+            return;
+        }
+        try {
+            send(Protocol.encode(Protocol.HEARTBEAT));
+            for (Map.Entry<Long, FFMpegProcess> entry : running.entrySet()) {
+                final FFMpegProcess process = entry.getValue();
+                send(Protocol.encode(Protocol.PROGRESS, String.valueOf(entry.getKey()), String.valueOf(process.getFrame()),
+                        String.valueOf(process.getTime()), String.valueOf(process.getSpeed())));
+            }
+        }
+        catch (IOException e) {
+            close();
+        }
+    }
+
+    private synchronized void send(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+        writer.flush();
+    }
+
+    /**
+     * Creates named daemon threads
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final String name;
+
+        WorkerThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
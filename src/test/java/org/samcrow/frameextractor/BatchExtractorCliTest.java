@@ -0,0 +1,105 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests input expansion and output directory names in {@link BatchExtractorCli}
+ */
+public class BatchExtractorCliTest extends TestCase {
+
+    private Path root;
+
+    @Override
+    protected void setUp() throws IOException {
+        root = Files.createTempDirectory("batch-cli-test");
+        Files.createDirectories(root.resolve("a/b"));
+        Files.createFile(root.resolve("one.mp4"));
+        Files.createFile(root.resolve("two.avi"));
+        Files.createFile(root.resolve("a/three.mp4"));
+        Files.createFile(root.resolve("a/b/four.mp4"));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    public void testPlainPathIsNotExpanded() throws IOException {
+        final String path = root.resolve("missing.mp4").toString();
+        final List<File> files = BatchExtractorCli.expandInput(path);
+        assertEquals(1, files.size());
+        assertEquals(new File(path), files.get(0));
+    }
+
+    public void testGlobInOneDirectory() throws IOException {
+        final List<File> files = BatchExtractorCli.expandInput(root + "/*.mp4");
+        assertEquals(1, files.size());
+        assertEquals("one.mp4", files.get(0).getName());
+    }
+
+    public void testRecursiveGlob() throws IOException {
+        final List<File> files = BatchExtractorCli.expandInput(root + "/**/*.mp4");
+        assertEquals(2, files.size());
+        assertEquals("four.mp4", files.get(0).getName());
+        assertEquals("three.mp4", files.get(1).getName());
+    }
+
+    public void testSameNamedVideosGetDifferentDirectories() {
+        final File output = root.resolve("out").toFile();
+        final File first = root.resolve("a/clip.mp4").toFile();
+        final File second = root.resolve("a/b/clip.mp4").toFile();
+        final Map<File, File> directories = BatchExtractorCli.outputDirectories(Arrays.asList(first, second, first), output);
+        assertEquals(Arrays.asList(first.getAbsoluteFile(), second.getAbsoluteFile()), new ArrayList<>(directories.keySet()));
+        final File firstDirectory = directories.get(first.getAbsoluteFile());
+        final File secondDirectory = directories.get(second.getAbsoluteFile());
+        assertTrue(firstDirectory.getName().matches("clip\\.mp4-[0-9a-f]{8}"));
+        assertTrue(secondDirectory.getName().matches("clip\\.mp4-[0-9a-f]{8}"));
+        assertFalse(firstDirectory.equals(secondDirectory));
+        //The names do not depend on the order of the videos
+        final Map<File, File> reversed = BatchExtractorCli.outputDirectories(Arrays.asList(second, first), output);
+        assertEquals(firstDirectory, reversed.get(first.getAbsoluteFile()));
+        assertEquals(secondDirectory, reversed.get(second.getAbsoluteFile()));
+    }
+
+    public void testDirectoryOfAnotherVideoIsNotReused() throws IOException {
+        final File output = root.resolve("out").toFile();
+        final File first = root.resolve("a/clip.mp4").toFile();
+        final File second = root.resolve("a/b/clip.mp4").toFile();
+        final File plain = new File(output, "clip.mp4");
+        assertEquals(plain, BatchExtractorCli.outputDirectories(Arrays.asList(first), output).get(first.getAbsoluteFile()));
+        writeCheckpoint(plain, first);
+
+        //A later run with only the other video does not write into the first video's directory
+        assertEquals(plain, BatchExtractorCli.outputDirectories(Arrays.asList(first), output).get(first.getAbsoluteFile()));
+        final File secondDirectory = BatchExtractorCli.outputDirectories(Arrays.asList(second), output).get(second.getAbsoluteFile());
+        assertTrue(secondDirectory.getName().matches("clip\\.mp4-[0-9a-f]{8}"));
+        //Listing both videos keeps the first one where it is
+        final Map<File, File> both = BatchExtractorCli.outputDirectories(Arrays.asList(second, first), output);
+        assertEquals(plain, both.get(first.getAbsoluteFile()));
+        assertEquals(secondDirectory, both.get(second.getAbsoluteFile()));
+    }
+
+    public void testEarlierHashedDirectoryIsReused() throws IOException {
+        final File output = root.resolve("out").toFile();
+        final File first = root.resolve("a/clip.mp4").toFile();
+        final File second = root.resolve("a/b/clip.mp4").toFile();
+        final File firstDirectory = BatchExtractorCli.outputDirectories(Arrays.asList(first, second), output).get(first.getAbsoluteFile());
+        writeCheckpoint(firstDirectory, first);
+        //A run with only one of the videos resumes in the directory that it used before
+        assertEquals(firstDirectory, BatchExtractorCli.outputDirectories(Arrays.asList(first), output).get(first.getAbsoluteFile()));
+    }
+
+    private static void writeCheckpoint(File outDir, File video) throws IOException {
+        Files.createDirectories(outDir.toPath());
+        new Checkpoint(outDir, video.getAbsoluteFile(), 30, new VideoInfo.Resolution(640, 480), "all", OutputLayout.FLAT).save();
+    }
+}
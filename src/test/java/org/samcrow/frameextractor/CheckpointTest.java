@@ -0,0 +1,74 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link Checkpoint}
+ */
+public class CheckpointTest extends TestCase {
+
+    private File directory;
+
+    private File video;
+
+    private VideoInfo.Resolution resolution;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("checkpoint-test").toFile();
+        video = new File(directory, "video.mp4");
+        FileUtils.writeStringToFile(video, "video");
+        resolution = new VideoInfo.Resolution();
+        resolution.horizontal = 640;
+        resolution.vertical = 480;
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testOutOfOrderFrames() {
+        final Checkpoint checkpoint = new Checkpoint(directory, video, 30, resolution, "jvm", OutputLayout.FLAT);
+        checkpoint.frameWritten(2);
+        checkpoint.frameWritten(3);
+        assertEquals(0, checkpoint.getLastFrame());
+        checkpoint.frameWritten(1);
+        assertEquals(3, checkpoint.getLastFrame());
+        checkpoint.frameWritten(5);
+        assertEquals(3, checkpoint.getLastFrame());
+    }
+
+    public void testLoadRequiresMatchingParameters() throws IOException {
+        final Checkpoint saved = new Checkpoint(directory, video, 30, resolution, "ffmpeg", OutputLayout.FLAT);
+        saved.setLastFrame(42);
+        saved.save();
+
+        final Checkpoint same = new Checkpoint(directory, video, 30, resolution, "ffmpeg", OutputLayout.FLAT);
+        assertTrue(same.load());
+        assertEquals(42, same.getLastFrame());
+        assertFalse(same.isComplete());
+
+        assertFalse(new Checkpoint(directory, video, 25, resolution, "ffmpeg", OutputLayout.FLAT).load());
+        assertFalse(new Checkpoint(directory, video, 30, resolution, "jvm", OutputLayout.FLAT).load());
+        assertFalse(new Checkpoint(directory, video, 30, resolution, "ffmpeg", new OutputLayout(1000)).load());
+    }
+
+    public void testVerifyStopsAtMissingOrTruncatedFrame() throws IOException {
+        final byte[] jpeg = { (byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9 };
+        for (int i = 1; i <= 5; i++) {
+            FileUtils.writeByteArrayToFile(new File(directory, DirectoryFrameSink.fileName("video.mp4", i)), jpeg);
+        }
+        assertEquals(5, Checkpoint.verify(directory, "video.mp4", OutputLayout.FLAT, 5));
+
+        FileUtils.writeByteArrayToFile(new File(directory, DirectoryFrameSink.fileName("video.mp4", 5)), new byte[] { (byte) 0xFF, (byte) 0xD8, 1 });
+        assertEquals(4, Checkpoint.verify(directory, "video.mp4", OutputLayout.FLAT, 5));
+
+        assertTrue(new File(directory, DirectoryFrameSink.fileName("video.mp4", 3)).delete());
+        assertEquals(2, Checkpoint.verify(directory, "video.mp4", OutputLayout.FLAT, 5));
+    }
+}
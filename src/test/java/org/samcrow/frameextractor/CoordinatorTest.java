@@ -0,0 +1,227 @@
+package org.samcrow.frameextractor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link Coordinator} with workers in this JVM that run a shell script
+ * instead of ffmpeg. The script sleeps for its first argument in seconds,
+ * logs a line, and exits with its second argument. The tests do nothing on
+ * systems without /bin/sh.
+ */
+public class CoordinatorTest extends TestCase {
+
+    private File directory;
+
+    private File script;
+
+    private Coordinator coordinator;
+
+    private final List<Worker> workers = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("coordinator").toFile();
+        script = new File(directory, "fake-ffmpeg");
+        //The first three arguments are the progress options that every process gets. The sleep is stopped
+        //with the script, so that it does not hold the output open.
+        FileUtils.writeStringToFile(script, "#!/bin/sh\nsleep \"$4\" &\npid=$!\ntrap 'kill $pid; exit 1' TERM\nwait $pid\n"
+                + "echo \"unit log line\"\nexit \"$5\"\n", "UTF-8");
+        script.setExecutable(true);
+        coordinator = new Coordinator(0, 2500);
+    }
+
+    @Override
+    protected void tearDown() {
+        coordinator.close();
+        for (Worker worker : workers) {
+            worker.close();
+        }
+        FileUtils.deleteQuietly(directory);
+    }
+
+    private static boolean hasShell() {
+        return new File("/bin/sh").canExecute();
+    }
+
+    private Worker startWorker(int slots) {
+        final Worker worker = new Worker("localhost", coordinator.getPort(), slots, 0, script.getAbsolutePath(), 5000);
+        workers.add(worker);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    worker.run();
+                }
+                catch (IOException | InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return worker;
+    }
+
+    private Coordinator.Unit submit(String name, String seconds, String exitCode) {
+        return coordinator.submit(new File(directory, name).getAbsolutePath(), Arrays.asList(seconds, exitCode));
+    }
+
+    private static void awaitWorkerName(Coordinator.Unit unit) throws InterruptedException {
+        for (int i = 0; i < 100 && unit.getWorkerName() == null; i++) {
+            Thread.sleep(50);
+        }
+        assertNotNull(unit.getWorkerName());
+    }
+
+    public void testUnitsRunOnWorkers() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        startWorker(1);
+        startWorker(2);
+        final List<Coordinator.Unit> units = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            units.add(submit("unit-" + i, "0.2", "0"));
+        }
+        for (int i = 0; i < units.size(); i++) {
+            assertTrue(units.get(i).await(10000));
+            units.get(i).check("running unit " + i);
+            //The worker creates the directory that the unit's attempt writes to
+            assertEquals(new File(directory, "unit-" + i + ".attempt-1").getAbsolutePath(), units.get(i).getDirectory());
+            assertTrue(new File(units.get(i).getDirectory()).isDirectory());
+        }
+        assertEquals(2, coordinator.getWorkerCount());
+    }
+
+    public void testFailedUnitReportsLogTail() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        startWorker(1);
+        final Coordinator.Unit unit = submit("failing", "0", "3");
+        assertTrue(unit.await(10000));
+        try {
+            unit.check("running a failing unit");
+            fail("Expected an exception");
+        }
+        catch (FFMpegException e) {
+            assertEquals(3, e.getExitCode());
+            assertEquals(Arrays.asList("unit log line"), e.getLogTail());
+        }
+    }
+
+    public void testUnitOfDisconnectedWorkerIsRetried() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        final Worker first = startWorker(1);
+        final Coordinator.Unit unit = submit("retried", "1", "0");
+        awaitWorkerName(unit);
+        startWorker(1);
+        first.close();
+        assertTrue(unit.await(10000));
+        unit.check("running a retried unit");
+        //The second attempt does not share a directory with the lost one
+        assertEquals(new File(directory, "retried.attempt-2").getAbsolutePath(), unit.getDirectory());
+    }
+
+    public void testUnitOfSilentWorkerIsRetried() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        //A worker that accepts a unit and then sends nothing
+        try (Socket silent = new Socket("localhost", coordinator.getPort())) {
+            final Writer writer = new OutputStreamWriter(silent.getOutputStream(), StandardCharsets.UTF_8);
+            writer.write(Protocol.encode(Protocol.HELLO, "silent", "1") + "\n");
+            writer.flush();
+            final Coordinator.Unit unit = submit("silent", "0", "0");
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(silent.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals(Protocol.UNIT, Protocol.decode(reader.readLine()).get(0));
+
+            startWorker(1);
+            assertTrue(unit.await(10000));
+            unit.check("running a unit after its worker went silent");
+        }
+    }
+
+    public void testCancelledUnitFinishesWithoutFailure() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        startWorker(1);
+        final Coordinator.Unit unit = submit("cancelled", "30", "0");
+        awaitWorkerName(unit);
+        unit.cancel();
+        assertTrue(unit.await(0));
+        unit.check("running a cancelled unit");
+        //The worker's slot is free again
+        final Coordinator.Unit next = submit("next", "0", "0");
+        assertTrue(next.await(10000));
+        next.check("running a unit after a cancelled one");
+    }
+
+    public void testUnitCancelledBeforeStartDoesNotRun() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        //A coordinator that cancels a unit before sending it
+        try (ServerSocket server = new ServerSocket(0)) {
+            final Worker worker = new Worker("localhost", server.getLocalPort(), 1, 0, script.getAbsolutePath(), 5000);
+            workers.add(worker);
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        worker.run();
+                    }
+                    catch (IOException | InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            try (Socket socket = server.accept()) {
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals(Protocol.HELLO, Protocol.decode(reader.readLine()).get(0));
+                final Writer writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                final File cancelled = new File(directory, "cancelled");
+                final File next = new File(directory, "next");
+                writer.write(Protocol.encode(Protocol.CANCEL, "7") + "\n");
+                writer.write(Protocol.encode(Protocol.UNIT, "7", cancelled.getAbsolutePath(), "0", "0") + "\n");
+                writer.write(Protocol.encode(Protocol.UNIT, "8", next.getAbsolutePath(), "0", "0") + "\n");
+                writer.flush();
+                //Units run in order on the worker's one slot, so unit 7 has been handled once unit 8 is done
+                while (true) {
+                    final List<String> message = Protocol.decode(reader.readLine());
+                    if (message.get(0).equals(Protocol.DONE) || message.get(0).equals(Protocol.FAILED)) {
+                        assertEquals(Arrays.asList(Protocol.DONE, "8"), message.subList(0, 2));
+                        break;
+                    }
+                }
+                assertFalse(cancelled.exists());
+                assertTrue(next.isDirectory());
+            }
+        }
+    }
+
+    public void testMessagesRoundTrip() {
+        final List<String> fields = Arrays.asList(Protocol.UNIT, "7", "/videos/a b%c.mp4", "", "-vf", "crop=10:10:0:0");
+        assertEquals(fields, Protocol.decode(Protocol.encode(fields)));
+        assertFalse(Protocol.encode(fields).contains("\n"));
+    }
+}
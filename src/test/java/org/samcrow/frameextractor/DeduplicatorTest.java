@@ -0,0 +1,65 @@
+package org.samcrow.frameextractor;
+
+import java.nio.ByteBuffer;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link Deduplicator} and {@link FrameDuplicates}
+ */
+public class DeduplicatorTest extends TestCase {
+
+    private static final int WIDTH = 64;
+
+    private static final int HEIGHT = 48;
+
+    private final BufferPool pool = new BufferPool(WIDTH * HEIGHT, 8);
+
+    /**
+     * Creates a grayscale frame with a horizontal gradient, a bright square at
+     * a position, and some noise
+     */
+    private Frame frame(long number, int squareX, int noise) throws InterruptedException {
+        final ByteBuffer buffer = pool.acquire();
+        final byte[] data = buffer.array();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value = x * 2 + ((x * 31 + y * 17 + noise) % 5);
+                if (x >= squareX && x < squareX + 16 && y >= 16 && y < 32) {
+                    value = 250;
+                }
+                data[y * WIDTH + x] = (byte) value;
+            }
+        }
+        return new Frame(pool, buffer, WIDTH, HEIGHT, PixelFormat.GRAY, number, 0);
+    }
+
+    public void testHashDistance() throws Exception {
+        try (Frame a = frame(1, 8, 0); Frame same = frame(2, 8, 0); Frame noisy = frame(3, 8, 3); Frame moved = frame(4, 40, 0)) {
+            assertEquals(Deduplicator.hash(a), Deduplicator.hash(same));
+            assertTrue(Long.bitCount(Deduplicator.hash(a) ^ Deduplicator.hash(noisy)) <= 4);
+            assertTrue(Long.bitCount(Deduplicator.hash(a) ^ Deduplicator.hash(moved)) > 4);
+        }
+    }
+
+    public void testSkipsRunsOfDuplicates() throws Exception {
+        final FrameDuplicates duplicates = new FrameDuplicates("clip.mp4");
+        final Deduplicator deduplicator = new Deduplicator(4, 1, duplicates);
+        final int[] positions = { 8, 8, 8, 40, 40, 8 };
+        for (int i = 0; i < positions.length; i++) {
+            try (Frame frame = frame(i + 1, positions[i], i)) {
+                final boolean kept = deduplicator.keep(frame);
+                assertEquals("Frame " + (i + 1), i == 0 || i == 3 || i == 5, kept);
+            }
+        }
+        assertEquals(3, duplicates.size());
+        assertEquals(1, duplicates.keptFrameOf(3));
+        assertEquals(4, duplicates.keptFrameOf(5));
+        assertEquals(6, duplicates.keptFrameOf(6));
+
+        final FrameIndex index = new FrameIndex("clip.mp4", OutputLayout.FLAT);
+        duplicates.addWrittenFrames(index, 6);
+        assertEquals(3, index.size());
+        assertNull(index.pathOf(2));
+        assertEquals("clip.mp4_0000006.jpg", index.pathOf(6));
+    }
+}
@@ -0,0 +1,132 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link ExtractionCache}
+ */
+public class ExtractionCacheTest extends TestCase {
+
+    private static final OutputLayout SHARDED = new OutputLayout(1000);
+
+    private File directory;
+
+    private File cacheDirectory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("extraction-cache-test").toFile();
+        cacheDirectory = new File(directory, "cache");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testKeyDependsOnContentNameAndParameters() throws Exception {
+        final File video = new File(directory, "a/video.mp4");
+        final File copy = new File(directory, "b/video.mp4");
+        final File renamed = new File(directory, "b/other.mp4");
+        FileUtils.writeStringToFile(video, "video contents");
+        FileUtils.writeStringToFile(copy, "video contents");
+        FileUtils.writeStringToFile(renamed, "video contents");
+        final ExtractionCache cache = new ExtractionCache(cacheDirectory, 1000);
+        assertEquals(cache.key(video, "ffmpeg rate=30.0"), cache.key(copy, "ffmpeg rate=30.0"));
+        assertFalse(cache.key(video, "ffmpeg rate=30.0").equals(cache.key(video, "ffmpeg rate=15.0")));
+        //File names are part of the frame file names
+        assertFalse(cache.key(video, "ffmpeg rate=30.0").equals(cache.key(renamed, "ffmpeg rate=30.0")));
+    }
+
+    public void testRestoreLinksStoredFiles() throws Exception {
+        final File outDir = new File(directory, "out");
+        FileUtils.writeStringToFile(new File(outDir, "000000/video.mp4_0000001.jpg"), "frame 1");
+        FileUtils.writeStringToFile(new File(outDir, "frame_index.txt"), "index");
+        FileUtils.writeStringToFile(new File(outDir, Checkpoint.FILE_NAME), "checkpoint");
+        final ExtractionCache cache = new ExtractionCache(cacheDirectory, 1000);
+        assertNull(cache.restore("key", new File(directory, "missing")));
+
+        cache.store("key", outDir, "video.mp4", SHARDED, 1, 1);
+        //A second store of the same key keeps the first entry
+        cache.store("key", outDir, "video.mp4", SHARDED, 1, 1);
+        assertEquals(12, cache.getSize());
+
+        final File restored = new File(directory, "restored");
+        final ExtractionCache.Entry entry = cache.restore("key", restored);
+        assertNotNull(entry);
+        assertEquals(1, entry.getFrames());
+        final File frame = new File(restored, "000000/video.mp4_0000001.jpg");
+        assertEquals("frame 1", FileUtils.readFileToString(frame));
+        assertTrue(Files.isSameFile(frame.toPath(), new File(outDir, "000000/video.mp4_0000001.jpg").toPath()));
+        assertTrue(new File(restored, "frame_index.txt").isFile());
+        assertFalse(new File(restored, Checkpoint.FILE_NAME).exists());
+        assertFalse(new File(restored, ExtractionCache.ENTRY_FILE_NAME).exists());
+    }
+
+    public void testStoresOnlyFramesOfTheExtraction() throws Exception {
+        final File outDir = new File(directory, "out");
+        FileUtils.writeStringToFile(new File(outDir, "000000/video.mp4_0000001.jpg"), "frame 1");
+        //Left from an earlier extraction that went further
+        FileUtils.writeStringToFile(new File(outDir, "000000/video.mp4_0000002.jpg"), "stale");
+        FileUtils.writeStringToFile(new File(outDir, "frame_rate.txt"), "10.0");
+        final ExtractionCache cache = new ExtractionCache(cacheDirectory, 1000);
+        cache.store("key", outDir, "video.mp4", SHARDED, 1, 1);
+        assertEquals(11, cache.getSize());
+
+        final File restored = new File(directory, "restored");
+        assertNotNull(cache.restore("key", restored));
+        assertTrue(new File(restored, "000000/video.mp4_0000001.jpg").isFile());
+        assertFalse(new File(restored, "000000/video.mp4_0000002.jpg").exists());
+        assertEquals("10.0", FileUtils.readFileToString(new File(restored, "frame_rate.txt")));
+    }
+
+    public void testRewritingOutputDoesNotChangeEntry() throws Exception {
+        final File outDir = new File(directory, "out");
+        final File frame = new File(outDir, "000000/video.mp4_0000001.jpg");
+        FileUtils.writeStringToFile(frame, "rate 10");
+        final ExtractionCache cache = new ExtractionCache(cacheDirectory, 1000);
+        cache.store("key", outDir, "video.mp4", SHARDED, 1, 1);
+
+        //Another extraction into the same directory replaces the frames
+        SHARDED.deleteFrames(outDir, "video.mp4", 1);
+        assertFalse(frame.exists());
+        try (DirectoryFrameSink sink = new DirectoryFrameSink(outDir, "video.mp4", SHARDED)) {
+            final byte[] data = "rate 5".getBytes("UTF-8");
+            sink.write(1, 0, data, data.length);
+        }
+        assertEquals("rate 5", FileUtils.readFileToString(frame));
+
+        final File restored = new File(directory, "restored");
+        assertNotNull(cache.restore("key", restored));
+        assertEquals("rate 10", FileUtils.readFileToString(new File(restored, "000000/video.mp4_0000001.jpg")));
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final File first = new File(directory, "first");
+        final File second = new File(directory, "second");
+        final File third = new File(directory, "third");
+        FileUtils.writeStringToFile(new File(first, "frame.jpg"), "aaaa");
+        FileUtils.writeStringToFile(new File(second, "frame.jpg"), "bbbb");
+        FileUtils.writeStringToFile(new File(third, "frame.jpg"), "cccc");
+        final ExtractionCache cache = new ExtractionCache(cacheDirectory, 8);
+        cache.store("first", first, "video.mp4", OutputLayout.FLAT, 1, 1);
+        cache.store("second", second, "video.mp4", OutputLayout.FLAT, 1, 1);
+        //Make the first entry older, and then use it, so that the second is the least recently used
+        final long past = System.currentTimeMillis() - 60000;
+        new File(cacheDirectory, "first/" + ExtractionCache.ENTRY_FILE_NAME).setLastModified(past);
+        new File(cacheDirectory, "second/" + ExtractionCache.ENTRY_FILE_NAME).setLastModified(past + 1000);
+        assertNotNull(cache.restore("first", new File(directory, "restored")));
+
+        cache.store("third", third, "video.mp4", OutputLayout.FLAT, 1, 1);
+        assertEquals(8, cache.getSize());
+        assertNull(cache.restore("second", new File(directory, "restored2")));
+        assertNotNull(cache.restore("first", new File(directory, "restored3")));
+        assertNotNull(cache.restore("third", new File(directory, "restored4")));
+        //Evicting an entry does not delete the frames of the extraction that stored it
+        assertEquals("bbbb", FileUtils.readFileToString(new File(second, "frame.jpg")));
+    }
+}
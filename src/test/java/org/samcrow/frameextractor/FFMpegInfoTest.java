@@ -0,0 +1,59 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link FFMpegInfo}
+ */
+public class FFMpegInfoTest extends TestCase {
+
+    private static final String[] VERSION_OUTPUT = {
+        "ffmpeg version 2.4.2 Copyright (c) 2000-2014 the FFmpeg developers",
+        "built on Oct 14 2014 12:21:40 with gcc 4.8 (Ubuntu 4.8.2-19ubuntu1)",
+        "configuration: --prefix=/usr/local --enable-gpl --enable-libx264",
+        "libavutil      54.  7.100 / 54.  7.100",
+        "libavformat    56.  4.101 / 56.  4.101",
+    };
+
+    public void testParse() {
+        final FFMpegInfo info = FFMpegInfo.parse(Arrays.asList(VERSION_OUTPUT));
+        assertEquals("2.4.2", info.getVersion());
+        assertTrue(info.isEnabled("libx264"));
+        assertFalse(info.isEnabled("nonfree"));
+        assertEquals("56.4.101", info.getLibraries().get("libavformat"));
+    }
+
+    public void testCachedAfterFirstRun() throws IOException {
+        if (File.separatorChar != '/') {
+            //The stand-in executable is a shell script
+            return;
+        }
+        final File directory = Files.createTempDirectory("ffmpeg-info-test").toFile();
+        try {
+            //A stand-in ffmpeg that records each time it is run
+            final File runs = new File(directory, "runs");
+            final File executable = new File(directory, "ffmpeg");
+            final StringBuilder script = new StringBuilder("#!/bin/sh\necho run >> '" + runs.getAbsolutePath() + "'\n");
+            for (String line : VERSION_OUTPUT) {
+                script.append("echo '").append(line).append("'\n");
+            }
+            FileUtils.writeStringToFile(executable, script.toString());
+            assertTrue(executable.setExecutable(true));
+
+            final File cache = new File(directory, "cache");
+            assertEquals("2.4.2", FFMpegInfo.forExecutable(executable, cache).getVersion());
+            final FFMpegInfo cached = FFMpegInfo.forExecutable(executable, cache);
+            assertEquals("2.4.2", cached.getVersion());
+            assertEquals("56.4.101", cached.getLibraries().get("libavformat"));
+            assertEquals(1, FileUtils.readLines(runs).size());
+        }
+        finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Tests {@link FolderWatcher} with jobs that wait in a probe cache that does
+ * not run ffmpeg
+ */
+public class FolderWatcherTest extends TestCase {
+
+    private File directory;
+
+    private File input;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private JobQueue queue;
+
+    private FolderWatcher watcher;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("folder-watcher-test").toFile();
+        input = new File(directory, "input");
+        final ExtractionSettings settings = new ExtractionSettings();
+        //Hold every job in its probe, so that the queue keeps its entries
+        settings.setProbeCache(new ProbeCache(null, 1) {
+            @Override
+            protected VideoInfo probe(File video) throws Exception {
+                release.await();
+                throw new IOException("Not a video");
+            }
+        });
+        queue = new JobQueue(1);
+        watcher = new FolderWatcher(Collections.singletonList(input), new File(directory, "output"), settings, queue, 0,
+                new PrintStream(new NullOutputStream()));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        release.countDown();
+        watcher.stop();
+        queue.shutdown();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testQueuesEachContentOnce() throws Exception {
+        FileUtils.writeStringToFile(new File(input, "a.mp4"), "first video");
+        FileUtils.writeStringToFile(new File(input, "camera/copy-of-a.MP4"), "first video");
+        FileUtils.writeStringToFile(new File(input, "notes.txt"), "not a video");
+        watcher.start();
+        pollUntil(1);
+
+        //Found by watching, in a directory created after watching started
+        FileUtils.writeStringToFile(new File(input, "later/b.mov"), "second video");
+        pollUntil(2);
+        for (int i = 0; i < 5; i++) {
+            watcher.poll(10);
+        }
+
+        final List<String> names = new ArrayList<>();
+        for (JobQueue.Entry entry : queue.getEntries()) {
+            names.add(new File(entry.getJob().getVideoPath()).getName());
+        }
+        assertEquals(2, names.size());
+        assertTrue(names.contains("a.mp4") || names.contains("copy-of-a.MP4"));
+        assertTrue(names.contains("b.mov"));
+    }
+
+    public void testIsVideo() {
+        assertTrue(FolderWatcher.isVideo(new File("clip.MTS").toPath()));
+        assertFalse(FolderWatcher.isVideo(new File("clip.mp4.part").toPath()));
+        assertFalse(FolderWatcher.isVideo(new File(".mp4").toPath()));
+    }
+
+    private void pollUntil(int entries) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (queue.getEntries().size() < entries && System.currentTimeMillis() < deadline) {
+            watcher.poll(50);
+        }
+        assertEquals(entries, queue.getEntries().size());
+    }
+}
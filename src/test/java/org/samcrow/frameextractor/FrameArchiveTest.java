@@ -0,0 +1,84 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link ArchiveFrameSink} and {@link FrameArchive}
+ */
+public class FrameArchiveTest extends TestCase {
+
+    private File directory;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("frame-archive-test").toFile();
+        file = FrameArchive.fileFor(directory, "video.mp4");
+        //Write frames out of order, with frame n holding n bytes of value n
+        try (ArchiveFrameSink sink = new ArchiveFrameSink(file)) {
+            for (int n : new int[] { 3, 1, 2, 5, 4 }) {
+                final byte[] data = new byte[n + 10];
+                Arrays.fill(data, (byte) n);
+                sink.write(n, (n - 1) / 10.0, data, n);
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testLookup() throws IOException {
+        //A small stride maps the archive as several chunks
+        try (FrameArchive archive = new FrameArchive(file, 4)) {
+            assertEquals(5, archive.size());
+            assertEquals(5, archive.getLastFrame());
+            for (int n = 1; n <= 5; n++) {
+                final ByteBuffer frame = archive.getFrame(n);
+                assertEquals(n, frame.remaining());
+                while (frame.hasRemaining()) {
+                    assertEquals(n, frame.get());
+                }
+            }
+            assertNull(archive.getFrame(6));
+            assertEquals(3, archive.getFrameNumberAt(0.25));
+            assertEquals(4, archive.getFrameAt(0.3).remaining());
+            assertNull(archive.getFrameAt(-1));
+        }
+    }
+
+    public void testUnfinishedArchive() throws IOException {
+        final byte[] contents = FileUtils.readFileToByteArray(file);
+        FileUtils.writeByteArrayToFile(file, Arrays.copyOf(contents, contents.length - 1));
+        try {
+            new FrameArchive(file).close();
+            fail("An archive without a footer was opened");
+        }
+        catch (IOException e) {
+            //Expected
+        }
+    }
+
+    public void testAbortedArchiveCannotBeOpened() throws IOException {
+        final ArchiveFrameSink sink = new ArchiveFrameSink(file);
+        sink.write(1, 0, new byte[] { 1 }, 1);
+        sink.abort();
+        //Closing after aborting does not write the index
+        sink.close();
+        try {
+            new FrameArchive(file).close();
+            fail("An aborted archive was opened");
+        }
+        catch (IOException e) {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.samcrow.frameextractor;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link CropRegion} and the filters that {@link FrameGeometry}
+ * builds, which need no ffmpeg
+ */
+public class FrameGeometryTest extends TestCase {
+
+    private static VideoInfo video(int width, int height, int sampleNumerator, int sampleDenominator) {
+        final VideoInfo info = new VideoInfo();
+        info.resolution = new VideoInfo.Resolution(width, height);
+        info.sampleAspectRatio = new VideoInfo.AspectRatio(sampleNumerator, sampleDenominator);
+        return info;
+    }
+
+    public void testParseCropRegion() {
+        final CropRegion region = CropRegion.parse("640x360+100+50");
+        assertEquals(640, region.getWidth());
+        assertEquals(360, region.getHeight());
+        assertEquals(100, region.getX());
+        assertEquals(50, region.getY());
+        assertEquals("640x360+100+50", region.toString());
+        assertEquals("crop=640:360:100:50", region.toFilter());
+    }
+
+    public void testInvalidCropRegions() {
+        final String[] invalid = { "", "640x360", "640x360+100", "640x360+100+50+1", "640+100+50", "640x+100+50",
+            "640x360+a+50", "640x360+-1+50", "640x360+100+-1", "0x360+0+0", "640x-360+0+0" };
+        for (String region : invalid) {
+            try {
+                CropRegion.parse(region);
+                fail("Crop region " + region + " accepted");
+            }
+            catch (IllegalArgumentException e) {
+                //Expected
+            }
+        }
+    }
+
+    public void testCropRegionFits() {
+        final VideoInfo.Resolution resolution = new VideoInfo.Resolution(1920, 1080);
+        assertTrue(new CropRegion(0, 0, 1920, 1080).fits(resolution));
+        assertTrue(new CropRegion(1820, 980, 100, 100).fits(resolution));
+        assertFalse(new CropRegion(1821, 0, 100, 100).fits(resolution));
+        assertFalse(new CropRegion(0, 981, 100, 100).fits(resolution));
+    }
+
+    public void testSquarePixelsNeedNoFilter() {
+        final FrameGeometry geometry = FrameGeometry.of(video(1920, 1080, 1, 1), new ExtractionSettings());
+        assertNull(geometry.getFilter());
+        assertEquals("1920x1080", geometry.getResolution().toString());
+        assertEquals("fps=30", geometry.after("fps=30"));
+    }
+
+    public void testNonSquarePixelsAreScaled() {
+        //1440x1080 stored at 4:3 pixels is displayed at 1920x1080
+        final FrameGeometry geometry = FrameGeometry.of(video(1440, 1080, 4, 3), new ExtractionSettings());
+        assertEquals("scale=1920:1080:flags=bicubic", geometry.getFilter());
+        assertEquals("1920x1080", geometry.getResolution().toString());
+    }
+
+    public void testCropBeforeScale() {
+        final ExtractionSettings settings = new ExtractionSettings();
+        settings.setCrop(CropRegion.parse("101x50+10+20"));
+        settings.setScalingPolicy(ScalingPolicy.FAST);
+        final FrameGeometry geometry = FrameGeometry.of(video(720, 576, 16, 15), settings);
+        //The width is the cropped width times the pixel aspect ratio, rounded: 101 * 16 / 15 = 107.73
+        assertEquals("crop=101:50:10:20,scale=108:50:flags=fast_bilinear", geometry.getFilter());
+        assertEquals("108x50", geometry.getResolution().toString());
+    }
+
+    public void testGrayscaleIsLast() {
+        final ExtractionSettings settings = new ExtractionSettings();
+        settings.setCrop(CropRegion.parse("100x100+0+0"));
+        settings.setGrayscale(true);
+        final FrameGeometry geometry = FrameGeometry.of(video(1440, 1080, 4, 3), settings);
+        assertEquals("crop=100:100:0:0,scale=133:100:flags=bicubic,format=gray", geometry.getFilter());
+        assertEquals("fps=30,crop=100:100:0:0,scale=133:100:flags=bicubic,format=gray", geometry.after("fps=30"));
+    }
+
+    public void testNoScalingPolicy() {
+        final ExtractionSettings settings = new ExtractionSettings();
+        settings.setScalingPolicy(ScalingPolicy.NONE);
+        final FrameGeometry geometry = FrameGeometry.of(video(1440, 1080, 4, 3), settings);
+        assertNull(geometry.getFilter());
+        assertEquals("1440x1080", geometry.getResolution().toString());
+    }
+
+    public void testCropOutsidePicture() {
+        final ExtractionSettings settings = new ExtractionSettings();
+        settings.setCrop(CropRegion.parse("640x360+1300+0"));
+        try {
+            FrameGeometry.of(video(1920, 1080, 1, 1), settings);
+            fail("Crop region outside the picture accepted");
+        }
+        catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link FrameIndex}
+ */
+public class FrameIndexTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("frame-index-test").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testShardedRoundTrip() throws IOException {
+        final FrameIndex index = new FrameIndex("clip.mp4", new OutputLayout(1000));
+        index.addRange(1, 2417);
+        final File file = new File(directory, FrameIndex.FILE_NAME);
+        index.write(file);
+
+        final FrameIndex read = FrameIndex.read(file);
+        assertEquals(2417, read.size());
+        assertEquals("sharded:1000", read.getLayout().toString());
+        assertEquals("000000/clip.mp4_0000001.jpg", read.pathOf(1));
+        assertEquals("000000/clip.mp4_0001000.jpg", read.pathOf(1000));
+        assertEquals("000001/clip.mp4_0001001.jpg", read.pathOf(1001));
+        assertEquals("000002/clip.mp4_0002417.jpg", read.pathOf(2417));
+        assertNull(read.pathOf(0));
+        assertNull(read.pathOf(2418));
+    }
+
+    public void testFlatBeyondSevenDigits() {
+        final FrameIndex index = new FrameIndex("clip.mp4", OutputLayout.FLAT);
+        index.addRange(1, 12000000);
+        assertEquals("clip.mp4_12000000.jpg", index.pathOf(12000000));
+        assertEquals(OutputLayout.FLAT.relativePath("clip.mp4", 12000000), index.pathOf(12000000));
+    }
+
+    public void testOtherImageFormatRoundTrip() throws IOException {
+        final FrameIndex index = new FrameIndex("clip.mp4", new OutputLayout(0, ImageFormat.PGM.getExtension()));
+        index.addRange(1, 10);
+        final File file = new File(directory, FrameIndex.FILE_NAME);
+        index.write(file);
+
+        final FrameIndex read = FrameIndex.read(file);
+        assertEquals("flat:pgm", read.getLayout().toString());
+        assertEquals("clip.mp4_0000010.pgm", read.pathOf(10));
+        assertEquals("sharded:500:png", OutputLayout.parse("sharded:500:png").toString());
+    }
+}
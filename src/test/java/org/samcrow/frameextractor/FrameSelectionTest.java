@@ -0,0 +1,44 @@
+package org.samcrow.frameextractor;
+
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link FrameSelection} and the grouping of selected frames by
+ * {@link SparseExtraction}
+ */
+public class FrameSelectionTest extends TestCase {
+
+    public void testTimestampsToFrameNumbers() {
+        final FrameSelection selection = FrameSelection.ofTimestamps(10.0, 0.0, 10.01, 2.5);
+        //10.0 and 10.01 are the same frame at 30 frames/second
+        assertTrue(Arrays.equals(new long[]{1, 76, 301}, selection.toFrameNumbers(30)));
+    }
+
+    public void testFrameNumbersSortedAndUnique() {
+        final FrameSelection selection = FrameSelection.ofFrameNumbers(9000, 5, 5, 120);
+        assertTrue(Arrays.equals(new long[]{5, 120, 9000}, selection.toFrameNumbers(25)));
+    }
+
+    public void testIdentityDependsOnFrames() {
+        //These inputs have the same size and the same Arrays.hashCode
+        assertFalse(FrameSelection.ofFrameNumbers(1, 32).identity(30).equals(FrameSelection.ofFrameNumbers(2, 1).identity(30)));
+    }
+
+    public void testIdentityIgnoresOrderAndForm() {
+        final String identity = FrameSelection.ofFrameNumbers(1, 2).identity(10);
+        assertEquals(identity, FrameSelection.ofFrameNumbers(2, 1).identity(10));
+        assertEquals(identity, FrameSelection.ofFrameNumbers(2, 1, 2).identity(10));
+        assertEquals(identity, FrameSelection.ofTimestamps(0.1, 0.0).identity(10));
+    }
+
+    public void testClusters() {
+        //At 10 frames/second, frames more than 5 seconds apart start a new cluster
+        final List<int[]> clusters = SparseExtraction.cluster(new long[]{1, 20, 51, 200, 230, 5000}, 10);
+        assertEquals(3, clusters.size());
+        assertTrue(Arrays.equals(new int[]{0, 3}, clusters.get(0)));
+        assertTrue(Arrays.equals(new int[]{3, 5}, clusters.get(1)));
+        assertTrue(Arrays.equals(new int[]{5, 6}, clusters.get(2)));
+    }
+}
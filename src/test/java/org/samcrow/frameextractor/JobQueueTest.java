@@ -0,0 +1,81 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link JobQueue} with jobs whose videos are "probed" by a cache that
+ * does not run ffmpeg
+ */
+public class JobQueueTest extends TestCase {
+
+    private File directory;
+
+    private File video;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("job-queue-test").toFile();
+        video = new File(directory, "video.mp4");
+        FileUtils.writeStringToFile(video, "not really a video");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testQueuedJobCanBeCancelledAndFailureIsRecorded() throws Exception {
+        final CountDownLatch probing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExtractionSettings settings = new ExtractionSettings();
+        //Hold the first job in its probe until the second has been cancelled
+        settings.setProbeCache(new ProbeCache(null, 1) {
+            @Override
+            protected VideoInfo probe(File video) throws Exception {
+                probing.countDown();
+                release.await();
+                throw new IOException("Probe failed");
+            }
+        });
+
+        final JobQueue queue = new JobQueue(1);
+        try {
+            final JobQueue.Entry first = queue.submit(new ExtractionJob(video.getPath(), new File(directory, "a").getPath(), settings));
+            final JobQueue.Entry second = queue.submit(new ExtractionJob(video.getPath(), new File(directory, "b").getPath(), settings));
+            assertTrue(probing.await(10, TimeUnit.SECONDS));
+            assertEquals(JobQueue.Status.RUNNING, first.getStatus());
+            assertEquals(JobQueue.Status.QUEUED, second.getStatus());
+
+            second.cancel();
+            assertEquals(JobQueue.Status.CANCELLED, second.getStatus());
+            release.countDown();
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (!first.isDone() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(JobQueue.Status.FAILED, first.getStatus());
+            assertEquals("Probe failed", first.getFailure().getMessage());
+            //The cancelled job never ran, so it did not create its output directory
+            assertFalse(new File(directory, "b").exists());
+
+            queue.removeCompleted();
+            assertTrue(queue.getEntries().isEmpty());
+        }
+        finally {
+            queue.shutdown();
+        }
+    }
+
+    public void testFormatRemaining() {
+        assertEquals("", DashboardStage.formatRemaining(-1));
+        assertEquals("0:05", DashboardStage.formatRemaining(4500));
+        assertEquals("1:01:01", DashboardStage.formatRemaining(3661000));
+    }
+}
@@ -0,0 +1,56 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link Histogram}, {@link MetricsLog}, and JMX registration of
+ * {@link ExtractionMetrics}
+ */
+public class MetricsTest extends TestCase {
+
+    public void testHistogram() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getMedian());
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        //Percentiles are bucket upper bounds, within a factor of two
+        assertEquals(63, histogram.getMedian());
+        assertEquals(100, histogram.getPercentile99());
+    }
+
+    public void testJsonLines() throws IOException {
+        final File file = Files.createTempFile("metrics-test", ".jsonl").toFile();
+        try {
+            try (MetricsLog log = new MetricsLog(file)) {
+                log.event("probe").add("video", "a \"quoted\"\\name\n").add("millis", 12).add("rate", Double.NaN).write();
+            }
+            final String line = FileUtils.readFileToString(file, "UTF-8");
+            assertTrue(line.startsWith("{\"time\":"));
+            assertTrue(line.endsWith(",\"event\":\"probe\",\"video\":\"a \\\"quoted\\\"\\\\name\\n\",\"millis\":12,\"rate\":null}\n"));
+        }
+        finally {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    public void testRegisteredWithJmx() throws Exception {
+        ExtractionMetrics.getGlobal().probeMillis.record(5);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(ExtractionMetrics.DOMAIN + ":type=ExtractionMetrics");
+        final CompositeData probe = (CompositeData) server.getAttribute(name, "ProbeMillis");
+        assertTrue((Long) probe.get("count") >= 1);
+    }
+}
@@ -0,0 +1,39 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link OutputSpec}
+ */
+public class OutputSpecTest extends TestCase {
+
+    public void testParse() {
+        final OutputSpec output = OutputSpec.parse("thumbs,size=320x-1,format=png,quality=9");
+        assertEquals(new File("thumbs"), output.getDirectory());
+        assertEquals(ImageFormat.PNG, output.getFormat());
+        assertEquals("scale=320:-2", output.scaleFilter());
+        assertEquals(Arrays.asList("-c:v", "png", "-compression_level", "9"), output.codecOptions());
+        assertEquals(new File("/out/clip.mp4/thumbs"), output.resolveDirectory(new File("/out/clip.mp4")));
+        assertEquals("thumbs,size=320x-1,format=png,quality=9", output.toString());
+    }
+
+    public void testDefaults() {
+        final OutputSpec output = OutputSpec.parse("copy");
+        assertEquals(ImageFormat.JPEG, output.getFormat());
+        assertNull(output.scaleFilter());
+        assertEquals(Arrays.asList("-c:v", "mjpeg"), output.codecOptions());
+    }
+
+    public void testInvalidQuality() {
+        try {
+            //JPEG quality is 2 to 31
+            OutputSpec.parse("thumbs,quality=40");
+            fail("Invalid quality accepted");
+        }
+        catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link ParallelEncoder} with uncompressed frames that are made in
+ * the test, and the renumbering of segments in {@link SegmentedExtraction}.
+ * None of the tests run ffmpeg.
+ */
+public class ParallelEncoderTest extends TestCase {
+
+    private static final int WIDTH = 4;
+
+    private static final int HEIGHT = 3;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("parallel-encoder").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    /**
+     * Delivers frames with the given numbers from a buffer pool, each filled
+     * with its frame number
+     */
+    private static FrameSource frames(final PixelFormat format, final int threads, List<Long> numbers) {
+        final BufferPool pool = new BufferPool(format.frameSize(WIDTH, HEIGHT), ParallelEncoder.poolSize(threads));
+        final Iterator<Long> iterator = numbers.iterator();
+        return new FrameSource() {
+            @Override
+            public Frame nextFrame() throws InterruptedException {
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+                final long number = iterator.next();
+                final ByteBuffer buffer = pool.acquire();
+                Arrays.fill(buffer.array(), 0, pool.getBufferSize(), (byte) number);
+                buffer.limit(pool.getBufferSize());
+                return new Frame(pool, buffer, WIDTH, HEIGHT, format, number, (number - 1) / 30.0);
+            }
+        };
+    }
+
+    private long encode(ImageFormat format, PixelFormat pixelFormat, List<Long> numbers) throws Exception {
+        final int threads = 3;
+        final FrameSink sink = new DirectoryFrameSink(directory, "clip.mp4", new OutputLayout(0, format.getExtension()));
+        final ExtractionJob job = new ExtractionJob(new File(directory, "clip.mp4").getPath(), directory.getPath(), new ExtractionSettings());
+        return new ParallelEncoder(threads, sink, null, format, -1).encode(frames(pixelFormat, threads, numbers), job,
+                ProgressListener.NONE, numbers.size());
+    }
+
+    private void assertFrame(String name, String header, int pixelSize, long number) throws IOException {
+        final byte[] data = FileUtils.readFileToByteArray(new File(directory, name));
+        final byte[] headerBytes = header.getBytes(StandardCharsets.US_ASCII);
+        assertEquals(headerBytes.length + WIDTH * HEIGHT * pixelSize, data.length);
+        assertEquals(header, new String(data, 0, headerBytes.length, StandardCharsets.US_ASCII));
+        for (int i = headerBytes.length; i < data.length; i++) {
+            assertEquals((byte) number, data[i]);
+        }
+    }
+
+    public void testOutOfOrderFramesAreNamedByNumber() throws Exception {
+        final List<Long> numbers = Arrays.asList(3L, 1L, 7L, 2L, 5L, 4L, 6L);
+        assertEquals(numbers.size(), encode(ImageFormat.PGM, PixelFormat.GRAY, numbers));
+        assertEquals(numbers.size(), directory.list().length);
+        for (long number : numbers) {
+            assertFrame(String.format("clip.mp4_%07d.pgm", number), "P5\n4 3\n255\n", 1, number);
+        }
+    }
+
+    public void testColorFramesAreWrittenAsPpm() throws Exception {
+        final List<Long> numbers = Arrays.asList(2L, 1L);
+        assertEquals(2, encode(ImageFormat.PPM, PixelFormat.RGB24, numbers));
+        assertFrame("clip.mp4_0000001.ppm", "P6\n4 3\n255\n", 3, 1);
+        assertFrame("clip.mp4_0000002.ppm", "P6\n4 3\n255\n", 3, 2);
+    }
+
+    public void testSegmentCount() {
+        //Unknown duration
+        assertEquals(1, SegmentedExtraction.segmentCount(0, 8));
+        //Too short to split
+        assertEquals(1, SegmentedExtraction.segmentCount(15000, 8));
+        //At most one segment per 10 seconds
+        assertEquals(3, SegmentedExtraction.segmentCount(35000, 8));
+        assertEquals(4, SegmentedExtraction.segmentCount(600000, 4));
+    }
+
+    public void testRenumberSegments() throws IOException {
+        final OutputLayout layout = new OutputLayout(2);
+        final File first = new File(directory, ".segment-0.attempt-1");
+        final File second = new File(directory, ".segment-1.attempt-2");
+        final File empty = new File(directory, ".segment-2.attempt-1");
+        assertTrue(first.mkdir() && second.mkdir() && empty.mkdir());
+        for (int i = 1; i <= 3; i++) {
+            FileUtils.writeStringToFile(new File(first, layout.fileName("clip.mp4", i)), "a" + i, "UTF-8");
+        }
+        for (int i = 1; i <= 2; i++) {
+            FileUtils.writeStringToFile(new File(second, layout.fileName("clip.mp4", i)), "b" + i, "UTF-8");
+        }
+        //A frame from an earlier extraction that went further is replaced
+        FileUtils.writeStringToFile(layout.fileFor(directory, "clip.mp4", 4), "old", "UTF-8");
+
+        assertEquals(5, SegmentedExtraction.renumber(Arrays.asList(first, empty, second), directory, "clip.mp4", layout));
+        final String[] expected = { "a1", "a2", "a3", "b1", "b2" };
+        for (int i = 0; i < expected.length; i++) {
+            final File frame = layout.fileFor(directory, "clip.mp4", i + 1);
+            assertEquals(expected[i], FileUtils.readFileToString(frame, "UTF-8"));
+        }
+        assertEquals("000002", layout.fileFor(directory, "clip.mp4", 5).getParentFile().getName());
+        assertEquals(0, first.list().length);
+        assertEquals(0, second.list().length);
+    }
+}
@@ -0,0 +1,89 @@
+package org.samcrow.frameextractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests {@link ProbeCache} with a prober that does not run ffmpeg
+ */
+public class ProbeCacheTest extends TestCase {
+
+    private File directory;
+
+    private File video;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("probe-cache-test").toFile();
+        video = new File(directory, "video.mp4");
+        FileUtils.writeStringToFile(video, "not really a video");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    public void testMemoryHit() throws Exception {
+        final CountingCache cache = new CountingCache(null, 10);
+        final VideoInfo first = cache.get(video);
+        final VideoInfo second = cache.get(video);
+        assertSame(first, second);
+        assertEquals(1, cache.probes);
+    }
+
+    public void testDiskHitAcrossInstances() throws Exception {
+        final File cacheDir = new File(directory, "cache");
+        assertTrue(cacheDir.mkdir());
+        new CountingCache(cacheDir, 10).get(video);
+
+        final CountingCache second = new CountingCache(cacheDir, 10);
+        final VideoInfo info = second.get(video);
+        assertEquals(0, second.probes);
+        assertEquals(25.0, info.frameRate, 0);
+        assertEquals(62500, info.duration);
+        assertEquals(16, info.aspectRatio.numerator);
+        assertEquals(9, info.aspectRatio.denominator);
+        assertEquals(1440, info.resolution.horizontal);
+        assertEquals(1080, info.resolution.vertical);
+    }
+
+    public void testModifiedFileIsProbedAgain() throws Exception {
+        final CountingCache cache = new CountingCache(null, 10);
+        cache.get(video);
+        FileUtils.writeStringToFile(video, "a longer replacement that is still not a video");
+        cache.get(video);
+        assertEquals(2, cache.probes);
+    }
+
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        final File other = new File(directory, "other.mp4");
+        FileUtils.writeStringToFile(other, "other");
+        final CountingCache cache = new CountingCache(null, 1);
+        cache.get(video);
+        cache.get(other);
+        cache.get(video);
+        assertEquals(3, cache.probes);
+    }
+
+    private static class CountingCache extends ProbeCache {
+
+        int probes;
+
+        CountingCache(File directory, int capacity) {
+            super(directory, capacity);
+        }
+
+        @Override
+        protected VideoInfo probe(File video) throws Exception {
+            probes++;
+            final VideoInfo info = new VideoInfo();
+            VideoProber.parseLine("  Duration: 00:01:02.50, start: 0.000000, bitrate: 1000 kb/s", info);
+            VideoProber.parseLine("    Stream #0:0: Video: h264, yuv420p, 1440x1080 [SAR 4:3 DAR 16:9], 25 fps, 25 tbr", info);
+            return info;
+        }
+    }
+}
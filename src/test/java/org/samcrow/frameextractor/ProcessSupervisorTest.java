@@ -0,0 +1,117 @@
+package org.samcrow.frameextractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ProcessSupervisor} with shell commands. The tests do nothing
+ * on systems without /bin/sh.
+ */
+public class ProcessSupervisorTest extends TestCase {
+
+    private ProcessSupervisor supervisor;
+
+    @Override
+    protected void setUp() {
+        supervisor = new ProcessSupervisor(1);
+    }
+
+    @Override
+    protected void tearDown() {
+        supervisor.shutdown();
+    }
+
+    private static boolean hasShell() {
+        return new File("/bin/sh").canExecute();
+    }
+
+    private static Process shell(String command) throws Exception {
+        final ProcessBuilder builder = new ProcessBuilder("/bin/sh", "-c", command);
+        builder.redirectErrorStream(true);
+        return builder.start();
+    }
+
+    public void testDrainsOutputAndReapsExitCode() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        final Process process = shell("i=0; while [ $i -lt 2000 ]; do echo line $i; i=$((i+1)); done; exit 3");
+        final ProcessSupervisor.Supervised supervised = supervisor.supervise(process, 0, 0);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        supervised.drain(process.getInputStream(), new ProcessSupervisor.OutputHandler() {
+            @Override
+            public void output(byte[] data, int length) {
+                output.write(data, 0, length);
+            }
+
+            @Override
+            public void end() {
+            }
+        });
+        assertEquals(3, supervised.awaitExit());
+        assertNull(supervised.getKillReason());
+        final String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text.startsWith("line 0\n"));
+        assertTrue(text.endsWith("line 1999\n"));
+        assertEquals(0, supervisor.getProcessCount());
+    }
+
+    public void testStopsStalledProcess() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        //exec, so that destroying the process also closes its output
+        final Process process = shell("echo started; exec sleep 30");
+        final ProcessSupervisor.Supervised supervised = supervisor.supervise(process, 200, 0);
+        supervised.drain(process.getInputStream(), new ProcessSupervisor.OutputHandler() {
+            @Override
+            public void output(byte[] data, int length) {
+            }
+
+            @Override
+            public void end() {
+            }
+        });
+        final long start = System.currentTimeMillis();
+        supervised.awaitExit();
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertNotNull(supervised.getKillReason());
+        assertTrue(supervised.getKillReason().contains("no output"));
+        assertEquals(0, supervisor.getProcessCount());
+    }
+
+    public void testWatchdogRunsWhileHandlerBlocks() throws Exception {
+        if (!hasShell()) {
+            return;
+        }
+        //The supervisor's only reading thread blocks in this handler
+        final CountDownLatch release = new CountDownLatch(1);
+        final Process blocking = shell("echo started; exec sleep 30");
+        final ProcessSupervisor.Supervised blockingSupervised = supervisor.supervise(blocking, 0, 0);
+        blockingSupervised.drain(blocking.getInputStream(), new ProcessSupervisor.OutputHandler() {
+            @Override
+            public void output(byte[] data, int length) throws InterruptedException {
+                release.await();
+            }
+
+            @Override
+            public void end() {
+            }
+        });
+        try {
+            final Process limited = shell("exec sleep 30");
+            final ProcessSupervisor.Supervised limitedSupervised = supervisor.supervise(limited, 0, 300);
+            final long start = System.currentTimeMillis();
+            limitedSupervised.awaitExit();
+            assertTrue(System.currentTimeMillis() - start < 10000);
+            assertNotNull(limitedSupervised.getKillReason());
+        }
+        finally {
+            release.countDown();
+            blockingSupervised.kill(null);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.samcrow.frameextractor;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ProgressParser}
+ */
+public class ProgressParserTest extends TestCase {
+
+    private long progress;
+
+    private long max;
+
+    private final ProgressListener listener = new ProgressListener() {
+        @Override
+        public void updateTitle(String title) {
+        }
+
+        @Override
+        public void updateMessage(String message) {
+        }
+
+        @Override
+        public void updateProgress(long workDone, long max) {
+            progress = workDone;
+            ProgressParserTest.this.max = max;
+        }
+    };
+
+    public void testProgressBlocks() throws Exception {
+        final String output = "Input #0, mov,mp4,m4a,3gp,3g2,mj2, from 'video.mp4':\n"
+                + "  Duration: 00:01:40.00, start: 0.000000, bitrate: 1000 kb/s\n"
+                + "frame=12\nfps=24.50\nstream_0_0_q=2.0\nout_time_us=500000\nout_time=00:00:00.500000\nspeed=1.5x\nprogress=continue\n"
+                + "frame=2400\r\nfps=30.1\r\nout_time_ms=99960000\r\nspeed=N/A\r\nprogress=end\r\n";
+        final ProgressParser parser = new ProgressParser();
+        parser.read(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), listener);
+        assertEquals(100000, parser.getDuration());
+        assertEquals(2400, parser.getFrame());
+        assertEquals(99960, parser.getTime());
+        assertEquals(1.5, parser.getSpeed(), 0.001);
+        //The end block is always reported
+        assertEquals(99960, progress);
+        assertEquals(100000, max);
+    }
+
+    public void testStatisticsFallback() throws Exception {
+        final String output = "  Duration: 00:00:10.00, start: 0.000000, bitrate: 1000 kb/s\n"
+                + "frame=  120 fps= 60 q=2.0 size=N/A time=00:00:04.00 bitrate=N/A\r";
+        final ProgressParser parser = new ProgressParser();
+        parser.read(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), listener);
+        assertEquals(120, parser.getFrame());
+        assertEquals(4000, parser.getTime());
+    }
+
+    public void testShowInfoTimestamps() throws Exception {
+        final String output = "[Parsed_showinfo_1 @ 0x7f8c4a] config in time_base: 1/12800, frame_rate: 25/1\n"
+                + "[Parsed_showinfo_1 @ 0x7f8c4a] n:   0 pts:      0 pts_time:0       pos:       48 fmt:yuv420p iskey:1\n"
+                + "[Parsed_showinfo_1 @ 0x7f8c4a] n:   1 pts: 128000 pts_time:10      pos:   412345 fmt:yuv420p iskey:1\n"
+                + "[Parsed_showinfo_1 @ 0x7f8c4a]   side data - stereo 3D\n"
+                + "[Parsed_showinfo_1 @ 0x7f8c4a] n:   2 pts: 166400 pts_time:13.0    pos:   502112 fmt:yuv420p iskey:1\n"
+                + "frame=3\nprogress=end\n";
+        final ProgressParser parser = new ProgressParser();
+        parser.read(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)), listener);
+        assertEquals(Arrays.asList(0.0, 10.0, 13.0), parser.getFrameTimestamps());
+        assertEquals(3, parser.getFrame());
+    }
+
+    public void testFeedInPiecesKeepsLogTail() throws Exception {
+        final StringBuilder output = new StringBuilder();
+        for (int i = 0; i < ProgressParser.TAIL_LINES + 5; i++) {
+            output.append("log line ").append(i).append('\n');
+            output.append("frame=").append(i).append("\nprogress=continue\n");
+        }
+        output.append("[Parsed_showinfo_0 @ 0x1] n:   0 pts:      0 pts_time:0\n");
+        output.append("video.mp4: Invalid data found when processing input");
+        final byte[] bytes = output.toString().getBytes(StandardCharsets.UTF_8);
+        final ProgressParser parser = new ProgressParser();
+        //Split lines across pieces, as a pipe may
+        for (int start = 0; start < bytes.length; start += 7) {
+            final int length = Math.min(7, bytes.length - start);
+            parser.feed(Arrays.copyOfRange(bytes, start, start + length), length, listener);
+        }
+        parser.finish(listener);
+        assertEquals(ProgressParser.TAIL_LINES + 4, parser.getFrame());
+        final List<String> tail = parser.getLogTail();
+        assertEquals(ProgressParser.TAIL_LINES, tail.size());
+        assertEquals("log line 6", tail.get(0));
+        assertEquals("video.mp4: Invalid data found when processing input", tail.get(tail.size() - 1));
+    }
+}
@@ -0,0 +1,90 @@
+package org.samcrow.frameextractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link TailingInputStream}
+ */
+public class TailingInputStreamTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("tailing", ".ts");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public void testReadsDataAppendedWhileReading() throws Exception {
+        final byte[] expected = new byte[3000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        //Append the data in three parts, with pauses shorter than the idle timeout
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (FileOutputStream out = new FileOutputStream(file, true)) {
+                    for (int part = 0; part < 3; part++) {
+                        out.write(expected, part * 1000, 1000);
+                        out.flush();
+                        Thread.sleep(300);
+                    }
+                }
+                catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        try (TailingInputStream in = new TailingInputStream(file, 1000)) {
+            writer.start();
+            final long start = System.currentTimeMillis();
+            final byte[] actual = readAll(in);
+            assertTrue(Arrays.equals(expected, actual));
+            //The stream ends once the file has stopped growing for the idle timeout
+            assertTrue(System.currentTimeMillis() - start >= 1000);
+        }
+        writer.join();
+    }
+
+    public void testCloseEndsWaitingRead() throws Exception {
+        final TailingInputStream in = new TailingInputStream(file, 60000);
+        final Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                    in.close();
+                }
+                catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        closer.start();
+        final long start = System.currentTimeMillis();
+        assertEquals(-1, in.read());
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        closer.join();
+    }
+}
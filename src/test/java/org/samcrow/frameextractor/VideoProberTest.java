@@ -0,0 +1,84 @@
+package org.samcrow.frameextractor;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests parsing of ffmpeg stream information and the frame geometry that is
+ * derived from it
+ */
+public class VideoProberTest extends TestCase {
+
+    public void testMultiDigitSampleAspectRatio() throws Exception {
+        final VideoInfo info = new VideoInfo();
+        VideoProber.parseLine("    Stream #0:0: Video: dvvideo, yuv411p, 720x480 [SAR 640:531 DAR 1600:1593], 29.97 fps", info);
+        assertEquals(720, info.resolution.horizontal);
+        assertEquals(640, info.sampleAspectRatio.numerator);
+        assertEquals(531, info.sampleAspectRatio.denominator);
+        assertEquals(640.0 / 531, info.getPixelAspectRatio(), 1e-9);
+        assertEquals(868, info.getSquarePixelResolution().horizontal);
+    }
+
+    public void testFractionalFrameRates() throws Exception {
+        final VideoInfo info = new VideoInfo();
+        VideoProber.parseLine("    Stream #0:0(und): Video: h264 (High), yuv420p, 1920x1080, 15000 kb/s, 29.97 fps, 29.97 tbr, 30k tbn", info);
+        assertEquals(30000.0 / 1001, info.frameRate, 1e-9);
+        assertEquals(24000.0 / 1001, VideoProber.parseFrameRate("Video: h264, 1920x1080, 23.98 fps, 23.98 tbr"), 1e-9);
+        assertEquals(12.5, VideoProber.parseFrameRate("Video: h264, 640x480, 12.50 fps, 25 tbr"), 0);
+        //Variable frame rate streams may have no average rate
+        assertEquals(30.0, VideoProber.parseFrameRate("Video: h264, 1280x720, 30 tbr, 90k tbn, 180k tbc"), 0);
+        assertEquals(1000.0, VideoProber.parseFrameRate("Video: rawvideo, 64x64, 1k fps, 1k tbr"), 0);
+    }
+
+    public void testStreamWithoutAspectRatioHasSquarePixels() throws Exception {
+        final VideoInfo info = new VideoInfo();
+        VideoProber.parseLine("    Stream #0:0: Video: mjpeg, yuvj420p(pc), 1280x720, 30 fps", info);
+        assertEquals(1280, info.resolution.horizontal);
+        assertEquals(720, info.resolution.vertical);
+        assertEquals(16, info.aspectRatio.numerator);
+        assertEquals(9, info.aspectRatio.denominator);
+        assertEquals(1.0, info.getPixelAspectRatio(), 0);
+    }
+
+    public void testOnlyFirstVideoStreamIsUsed() throws Exception {
+        final VideoInfo info = new VideoInfo();
+        VideoProber.parseLine("    Stream #0:0: Video: h264, yuv420p, 1920x1080 [SAR 1:1 DAR 16:9], 25 fps", info);
+        VideoProber.parseLine("    Stream #0:1: Video: mjpeg, yuvj420p, 320x240 [SAR 1:1 DAR 4:3], 90k tbr", info);
+        assertEquals(1920, info.resolution.horizontal);
+    }
+
+    public void testSquarePixelsNeedNoFilter() throws Exception {
+        final VideoInfo info = new VideoInfo();
+        VideoProber.parseLine("    Stream #0:0: Video: h264, yuv420p, 1920x1080 [SAR 1:1 DAR 16:9], 25 fps", info);
+        final FrameGeometry geometry = FrameGeometry.of(info, new ExtractionSettings());
+        assertNull(geometry.getFilter());
+        assertEquals("1920x1080", geometry.getResolution().toString());
+    }
+
+    public void testCropIsAppliedBeforeScaling() throws Exception {
+        final VideoInfo info = new VideoInfo();
+        VideoProber.parseLine("    Stream #0:0: Video: h264, yuv420p, 1440x1080 [SAR 4:3 DAR 16:9], 25 fps", info);
+        final ExtractionSettings settings = new ExtractionSettings();
+        settings.setCrop(CropRegion.parse("300x200+10+20"));
+        settings.setScalingPolicy(ScalingPolicy.FAST);
+        final FrameGeometry geometry = FrameGeometry.of(info, settings);
+        assertEquals("crop=300:200:10:20,scale=400:200:flags=fast_bilinear", geometry.getFilter());
+        assertEquals(400, geometry.getResolution().horizontal);
+
+        settings.setScalingPolicy(ScalingPolicy.NONE);
+        assertEquals("crop=300:200:10:20", FrameGeometry.of(info, settings).getFilter());
+    }
+
+    public void testCropOutsidePictureIsRejected() throws Exception {
+        final VideoInfo info = new VideoInfo();
+        VideoProber.parseLine("    Stream #0:0: Video: h264, yuv420p, 640x480, 25 fps", info);
+        final ExtractionSettings settings = new ExtractionSettings();
+        settings.setCrop(CropRegion.parse("640x480+1+0"));
+        try {
+            FrameGeometry.of(info, settings);
+            fail("Expected the crop region to be rejected");
+        }
+        catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+}